@@ -0,0 +1,88 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Moves per second of the {@link BitBoard} against the original {@code String[]} board. Every invocation fills the
+ * board of the same set of random games, validating each move and checking for the end of the game after it like the
+ * server does. The games are not cut short at a win, so every invocation makes exactly {@link #MOVES} moves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+
+  private static final int GAMES = 1024; // games played per invocation
+  private static final int MOVES = GAMES * BitBoard.SQUARES; // moves per invocation
+
+  private final int[][] games = new int[GAMES][]; // random move orders, each a permutation of the squares
+  private final BitBoard bitBoard = new BitBoard();
+  private final StringBoard stringBoard = new StringBoard();
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    for (int g = 0; g < GAMES; g++) {
+      int[] order = {0, 1, 2, 3, 4, 5, 6, 7, 8};
+      for (int i = order.length - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        int t = order[i];
+        order[i] = order[j];
+        order[j] = t;
+      }
+      games[g] = order;
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MOVES)
+  public int bitBoard() {
+    int over = 0;
+    for (int[] game : games) {
+      bitBoard.reset();
+      for (int location : game) {
+        if (bitBoard.isValidMove(location)) {
+          bitBoard.move(location);
+          if (bitBoard.isGameOver()) {
+            over++;
+          }
+        }
+      }
+    }
+    return over;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MOVES)
+  public int stringBoard() {
+    int over = 0;
+    for (int[] game : games) {
+      stringBoard.reset();
+      for (int location : game) {
+        if (stringBoard.isValidMove(location)) {
+          stringBoard.move(location);
+          if (stringBoard.isGameOver()) {
+            over++;
+          }
+        }
+      }
+    }
+    return over;
+  }
+}
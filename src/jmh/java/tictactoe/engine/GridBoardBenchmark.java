@@ -0,0 +1,65 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a move with win detection on large {@link GridBoard}s. Each invocation makes one move of a random game and
+ * starts over once the game is over, so the time per operation is the time per move.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GridBoardBenchmark {
+
+  @Param({"15", "100"})
+  public int size;
+
+  @Param({"5"})
+  public int winLength;
+
+  private GridBoard board;
+  private int[] order; // random move order, a permutation of the squares
+  private int next; // index of the next move in order
+
+  @Setup
+  public void setUp() {
+    board = new GridBoard(size, winLength);
+    order = new int[size * size];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Random random = new Random(42);
+    for (int i = order.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int t = order[i];
+      order[i] = order[j];
+      order[j] = t;
+    }
+  }
+
+  @Benchmark
+  public boolean move() {
+    if (next == order.length || board.isGameOver()) {
+      board.reset();
+      next = 0;
+    }
+    board.move(order[next++]);
+    return board.hasWinner();
+  }
+}
@@ -0,0 +1,61 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+/**
+ * The original {@code String[]} board of the server, kept as the baseline for {@link EngineBenchmark}.
+ */
+public final class StringBoard {
+
+  private final static String[] MARKS = {"X", "O"}; // array of marks
+
+  private final String[] board = new String[9]; // tic-tac-toe board
+  private int currentPlayer; // keeps track of player with current move
+
+  public StringBoard() {
+    reset();
+  }
+
+  public boolean isValidMove(int location) {
+    return location >= 0 && location < board.length && !isOccupied(location);
+  }
+
+  public void move(int location) {
+    board[location] = MARKS[currentPlayer]; // set move on board
+    currentPlayer = (currentPlayer + 1) % 2; // change player
+  }
+
+  public boolean isOccupied(int location) {
+    return board[location].equals(MARKS[0]) || board[location].equals(MARKS[1]);
+  }
+
+  public boolean hasWinner() {
+    return (!board[0].isEmpty() && board[0].equals(board[1]) && board[0].equals(board[2]))
+      || (!board[3].isEmpty() && board[3].equals(board[4]) && board[3].equals(board[5]))
+      || (!board[6].isEmpty() && board[6].equals(board[7]) && board[6].equals(board[8]))
+      || (!board[0].isEmpty() && board[0].equals(board[3]) && board[0].equals(board[6]))
+      || (!board[1].isEmpty() && board[1].equals(board[4]) && board[1].equals(board[7]))
+      || (!board[2].isEmpty() && board[2].equals(board[5]) && board[2].equals(board[8]))
+      || (!board[0].isEmpty() && board[0].equals(board[4]) && board[0].equals(board[8]))
+      || (!board[2].isEmpty() && board[2].equals(board[4]) && board[2].equals(board[6]));
+  }
+
+  public boolean boardFilledUp() {
+    for (int i = 0; i < board.length; ++i) {
+      if (board[i].isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public boolean isGameOver() {
+    return hasWinner() || boardFilledUp();
+  }
+
+  public void reset() {
+    for (int i = 0; i < board.length; i++) {
+      board[i] = "";
+    }
+    currentPlayer = 0;
+  }
+}
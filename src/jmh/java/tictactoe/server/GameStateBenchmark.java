@@ -0,0 +1,80 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The checks the server makes for every move: {@link GameState#isValidMove(int)}, {@link GameState#hasWinner()} and
+ * {@link GameState#boardFilledUp()}. Each invocation looks at the next of a set of positions taken from random games
+ * at every stage, so the branches see the mix of a real game and the time per operation is the time per check.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameStateBenchmark {
+
+  private static final int POSITIONS = 1024; // positions cycled through, a power of two
+
+  @Param({"3", "15", "100"})
+  public int size;
+
+  private final GameState[] states = new GameState[POSITIONS]; // positions of random games
+  private final int[] locations = new int[POSITIONS]; // a random square for each position, taken or not
+  private int next; // index of the next position
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    int winLength = size == 3 ? 3 : 5;
+    int squares = size * size;
+    for (int i = 0; i < POSITIONS; i++) {
+      GameState state = new GameState(size, winLength);
+      int moves = random.nextInt(squares);
+      for (int m = 0; m < moves && !state.isGameOver(); m++) {
+        int location;
+        do {
+          location = random.nextInt(squares);
+        } while (!state.isValidMove(location));
+        state.move(location);
+      }
+      states[i] = state;
+      locations[i] = random.nextInt(squares);
+    }
+  }
+
+  private GameState nextState() {
+    next = (next + 1) & (POSITIONS - 1);
+    return states[next];
+  }
+
+  @Benchmark
+  public boolean hasWinner() {
+    return nextState().hasWinner();
+  }
+
+  @Benchmark
+  public boolean boardFilledUp() {
+    return nextState().boardFilledUp();
+  }
+
+  @Benchmark
+  public boolean isValidMove() {
+    GameState state = nextState();
+    return state.isValidMove(locations[next]);
+  }
+}
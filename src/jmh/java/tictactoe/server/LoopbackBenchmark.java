@@ -0,0 +1,125 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Moves per second of a whole server over loopback sockets. Every benchmark thread is one simulated pair of clients:
+ * it connects players X and O to an in-process lobby and plays a short scripted game through the text protocol,
+ * reading every message the server sends. The number of pairs playing at the same time is the number of threads,
+ * 8 by default, change it with {@code -t}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class LoopbackBenchmark {
+
+  private static final int[] X_MOVES = {0, 1, 2}; // player X wins on the top row
+  private static final int[] O_MOVES = {3, 4};
+  private static final int MOVES = 5; // moves of one game, X_MOVES and O_MOVES together
+
+  @Param({"BLOCKING", "NIO"})
+  public ServerConfig.Transport transport;
+
+  private GameServer server;
+  private final Object connecting = new Object(); // keeps the two connections of a pair next to each other
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    server = ServerConfig.lobby().setPort(0).setTransport(transport).open(message -> { });
+    Thread acceptor = new Thread(server::execute, "lobby");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    server.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MOVES)
+  public void game() throws IOException {
+    Socket x;
+    Socket o;
+    // the lobby pairs clients in the order they connect
+    synchronized (connecting) {
+      x = connect();
+      o = connect();
+    }
+    try (Socket playerX = x; Socket playerO = o) {
+      BufferedReader inX = reader(playerX);
+      BufferedReader inO = reader(playerO);
+      OutputStream outX = playerX.getOutputStream();
+      OutputStream outO = playerO.getOutputStream();
+      expect(inX, "X");
+      expect(inO, "O");
+      skipTo(inX, "Other player connected. Your move.");
+
+      for (int m = 0; m < MOVES; m++) {
+        boolean xMoves = m % 2 == 0;
+        int location = xMoves ? X_MOVES[m / 2] : O_MOVES[m / 2];
+        (xMoves ? outX : outO).write((location + "\n").getBytes(StandardCharsets.US_ASCII));
+        skipTo(xMoves ? inX : inO, "Valid move.");
+        skipTo(xMoves ? inO : inX, "Opponent moved");
+        expect(xMoves ? inO : inX, Integer.toString(location));
+      }
+      expect(inX, "VICTORY");
+      expect(inO, "DEFEAT");
+    }
+  }
+
+  private Socket connect() throws IOException {
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    socket.setTcpNoDelay(true);
+    return socket;
+  }
+
+  private static BufferedReader reader(Socket socket) throws IOException {
+    return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+  }
+
+  private static void expect(BufferedReader in, String expected) throws IOException {
+    String line = in.readLine();
+    if (!expected.equals(line)) {
+      throw new IOException("Expected " + expected + " but got " + line);
+    }
+  }
+
+  // read lines up to and including the expected one
+  private static void skipTo(BufferedReader in, String expected) throws IOException {
+    String line;
+    while ((line = in.readLine()) != null) {
+      if (line.equals(expected)) {
+        return;
+      }
+    }
+    throw new IOException("Connection closed before " + expected);
+  }
+}
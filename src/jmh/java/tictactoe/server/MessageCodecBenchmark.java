@@ -0,0 +1,87 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding the "opponent moved" message, the most frequent message of a game, in the text protocol and
+ * as a {@link BinaryProtocol} frame. Text is encoded the way the servers queue it and decoded the way the client
+ * reads it; the move of the next invocation uses the next square, so the numbers are not constant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+  private static final int SQUARES = 225; // moves of a 15x15 board
+
+  private final byte[] frame = new byte[BinaryProtocol.FRAME_SIZE];
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BinaryProtocol.FRAME_SIZE);
+  private final byte[][] textMessages = new byte[SQUARES][]; // encoded text messages to decode
+  private final byte[][] frames = new byte[SQUARES][]; // encoded frames to decode
+  private int location; // square of the current message
+
+  @Setup
+  public void setUp() {
+    for (int i = 0; i < SQUARES; i++) {
+      textMessages[i] = ("Opponent moved\n" + i + "\n").getBytes(StandardCharsets.US_ASCII);
+      frames[i] = new byte[BinaryProtocol.FRAME_SIZE];
+      BinaryProtocol.encode(frames[i], 0, BinaryProtocol.OPPONENT_MOVED, 7, i, BinaryProtocol.NONE);
+    }
+  }
+
+  private int nextLocation() {
+    location = location + 1 == SQUARES ? 0 : location + 1;
+    return location;
+  }
+
+  @Benchmark
+  public byte[] encodeText() {
+    return ("Opponent moved\n" + nextLocation() + "\n" + BinaryProtocol.resultLine(BinaryProtocol.NONE))
+      .getBytes(StandardCharsets.US_ASCII);
+  }
+
+  @Benchmark
+  public byte[] encodeFrame() {
+    BinaryProtocol.encode(frame, 0, BinaryProtocol.OPPONENT_MOVED, 7, nextLocation(), BinaryProtocol.NONE);
+    return frame;
+  }
+
+  @Benchmark
+  public ByteBuffer encodeFrameBuffer() {
+    buffer.clear();
+    BinaryProtocol.encode(buffer, BinaryProtocol.OPPONENT_MOVED, 7, nextLocation(), BinaryProtocol.NONE);
+    return buffer;
+  }
+
+  @Benchmark
+  public int decodeText() {
+    String message = new String(textMessages[nextLocation()], StandardCharsets.US_ASCII);
+    int end = message.indexOf('\n');
+    if (!message.startsWith("Opponent moved") || end < 0) {
+      return -1;
+    }
+    return Integer.parseInt(message.substring(end + 1, message.indexOf('\n', end + 1)));
+  }
+
+  @Benchmark
+  public int decodeFrame() {
+    byte[] message = frames[nextLocation()];
+    return BinaryProtocol.opcode(message, 0) == BinaryProtocol.OPPONENT_MOVED ? BinaryProtocol.cell(message, 0) : -1;
+  }
+}
@@ -0,0 +1,110 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of the deadlines of many connections. Every benchmark starts with {@code deadlines} timeouts scheduled
+ * between 1 and 31 seconds ahead, the idle timeouts of that many connections.
+ * <ul>
+ * <li>{@code wheelReschedule} moves the deadline of the next connection in a {@link TimerWheel}, what a move does to
+ * the move timeout of its room.</li>
+ * <li>{@code executorReschedule} does the same with a {@link ScheduledThreadPoolExecutor} that removes cancelled tasks,
+ * the usual way to keep deadlines without a wheel: cancel the old task and schedule a new one.</li>
+ * <li>{@code wheelAdvance} advances the wheel by one tick, 50 ms of simulated time. The timeouts due in that tick run
+ * and schedule themselves again 30 seconds later, like the idle timeouts of connections that stay active, so the time
+ * per operation is the cost of one tick of the event loop for all connections.</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerWheelBenchmark {
+
+  private static final long TICK_NANOS = 50_000_000; // as in the servers
+  private static final int BUCKETS = 1024;
+  private static final long SPREAD_NANOS = 30_000_000_000L; // deadlines lie up to this far after the first second
+
+  @Param({"100000"})
+  public int deadlines;
+
+  private TimerWheel wheel; // the wheel under test
+  private TimerWheel.Timeout[] timeouts; // one per connection
+  private ScheduledThreadPoolExecutor executor; // the baseline
+  private ScheduledFuture<?>[] futures; // its task per connection
+  private long[] delays; // random delays, cycled through
+  private long now; // simulated time of wheelAdvance
+  private int next; // index of the next connection
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    delays = new long[deadlines];
+    for (int i = 0; i < deadlines; i++) {
+      delays[i] = 1_000_000_000L + (long) (random.nextDouble() * SPREAD_NANOS);
+    }
+    wheel = new TimerWheel(TICK_NANOS, BUCKETS);
+    timeouts = new TimerWheel.Timeout[deadlines];
+    now = System.nanoTime();
+    for (int i = 0; i < deadlines; i++) {
+      int index = i;
+      timeouts[i] = new TimerWheel.Timeout(time -> wheel.schedule(timeouts[index], time + SPREAD_NANOS));
+      wheel.schedule(timeouts[i], now + delays[i]);
+    }
+    executor = new ScheduledThreadPoolExecutor(1);
+    executor.setRemoveOnCancelPolicy(true);
+    futures = new ScheduledFuture<?>[deadlines];
+    for (int i = 0; i < deadlines; i++) {
+      futures[i] = executor.schedule(() -> { }, delays[i], TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private int nextIndex() {
+    next = next + 1 == deadlines ? 0 : next + 1;
+    return next;
+  }
+
+  @Benchmark
+  public int wheelReschedule() {
+    int i = nextIndex();
+    wheel.schedule(timeouts[i], System.nanoTime() + delays[i]);
+    return wheel.size();
+  }
+
+  @Benchmark
+  public boolean executorReschedule() {
+    int i = nextIndex();
+    boolean cancelled = futures[i].cancel(false);
+    futures[i] = executor.schedule(() -> { }, delays[i], TimeUnit.NANOSECONDS);
+    return cancelled;
+  }
+
+  @Benchmark
+  public int wheelAdvance() {
+    now += TICK_NANOS;
+    return wheel.advance(now);
+  }
+}
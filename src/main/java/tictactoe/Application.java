@@ -27,6 +27,7 @@ public class Application extends JFrame {
   }
 
   public static void main(String[] args) {
+    GameFiles.STARTSCREEN.getWidth(); // decode the images while Swing starts
 
     EventQueue.invokeLater(() -> {
       Application ex = new Application();
@@ -0,0 +1,397 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import tictactoe.server.BinaryProtocol;
+import tictactoe.server.Matchmaker;
+
+/**
+ * The client side of the game protocol without any user interface. It connects to a server, reads the text messages
+ * or binary frames on the thread that calls {@link #run()}, keeps track of whose turn it is and sends moves. What the
+ * messages mean to the player is left to the subclass: the {@link TicTacToeClient} window shows them, a load test bot
+ * answers them with its next move. If the server keeps seats for players whose connection fails, it sends a session,
+ * and the client connects again by itself when its connection breaks during a game and replays the moves it missed.
+ */
+public abstract class GameClient implements Runnable, Closeable {
+
+  private static final String X_MARK = "X"; // mark for first client
+
+  private final String host; // host name for server
+  private final int port; // port of the server
+  private final boolean binaryRequested; // whether to ask the server for the binary protocol
+  private String playerName; // name sent to a matchmaking server, null to play anonymously
+  private Socket connection; // connection to server
+  private DataInputStream input; // input from server
+  private OutputStream output; // output to server, one write per move
+  private boolean binary; // whether the server switched to frames, only used by the reading thread
+  private volatile int roomId; // room of the game, known once frames arrive
+  private final byte[] inFrame = new byte[BinaryProtocol.FRAME_SIZE]; // frame being read
+  private final byte[] outFrame = new byte[BinaryProtocol.FRAME_SIZE]; // frame being written
+  private volatile String myMark; // this client's mark, null until the server sent it
+  private volatile boolean myTurn; // determines which client's turn it is
+  private volatile int boardSize = 3; // number of rows and columns, announced by the server
+  private volatile String session; // token for coming back, null if the server does not keep the seat
+  private int reconnectPort; // port where the server takes players back
+  private long reconnectMillis; // how long the server keeps the seat
+  private int moves; // moves of the game this client has seen, only used by the reading thread
+  private volatile boolean finished; // whether the game ended with a result
+  private volatile boolean closing; // whether close() was called, so the client does not come back
+
+  /**
+   * @param host The host name of the server.
+   * @param port The port of the server.
+   * @param binaryProtocol Whether to ask the server for the compact binary protocol.
+   */
+  protected GameClient(String host, int port, boolean binaryProtocol) {
+    this.host = host;
+    this.port = port;
+    this.binaryRequested = binaryProtocol;
+  }
+
+  /**
+   * Name the player before {@link #connect()}. A server with matchmaking pairs it with players of a similar rating
+   * and rates its games; other servers do not expect the name.
+   *
+   * @param name The name, without spaces.
+   */
+  public void setPlayerName(String name) {
+    playerName = name;
+  }
+
+  /**
+   * Open the connection, then call {@link #run()} to receive the messages.
+   *
+   * @throws IOException If the server cannot be reached.
+   */
+  public void connect() throws IOException {
+    open(port, playerName == null ? "" : Matchmaker.HELLO + " " + playerName + "\n");
+  }
+
+  // open a connection, send the first line if there is one and ask for frames if requested
+  private void open(int serverPort, String firstLine) throws IOException {
+    connection = new Socket(InetAddress.getByName(host), serverPort);
+    connection.setTcpNoDelay(true); // a move is a single write
+    input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+    output = connection.getOutputStream();
+    binary = false;
+    if (binaryRequested) {
+      // the server answers once it reads the request
+      firstLine += BinaryProtocol.REQUEST + "\n";
+    }
+    if (!firstLine.isEmpty()) {
+      output.write(firstLine.getBytes(StandardCharsets.US_ASCII));
+    }
+  }
+
+  /**
+   * Receive messages until the server closes the connection, then call {@link #disconnected(IOException)}. A
+   * connection that fails during a game is opened again if the server keeps the seat.
+   */
+  @Override
+  public void run() {
+    IOException failure = null;
+    try {
+      myMark = readLine(); // get player's mark (X or O)
+      if (myMark == null) {
+        throw new IOException("Server closed the connection");
+      }
+      myTurn = myMark.equals(X_MARK); // determine if client's turn
+      markAssigned(myMark);
+
+      do {
+        try {
+          receive();
+          failure = null;
+        } catch (IOException ioException) {
+          failure = ioException;
+        }
+      } while (reconnect());
+    } catch (IOException ioException) {
+      failure = ioException;
+    }
+    disconnected(failure);
+  }
+
+  // receive messages sent to client until the connection ends
+  private void receive() throws IOException {
+    while (true) {
+      if (binary) {
+        input.readFully(inFrame);
+        processFrame(inFrame);
+      } else {
+        String message = readLine();
+        if (message == null) {
+          return; // server closed the connection
+        }
+        if (message.equals(BinaryProtocol.ACCEPTED)) {
+          binary = true; // the rest of the input is frames
+        } else {
+          processMessage(message);
+        }
+      }
+    }
+  }
+
+  // connect again while the server keeps the seat, true once the server has the new connection
+  private boolean reconnect() {
+    String token = session;
+    if (token == null || finished || closing) {
+      return false;
+    }
+    message("Connection lost, reconnecting");
+    long deadline = System.nanoTime() + reconnectMillis * 1_000_000;
+    long pause = 50; // milliseconds until the next attempt
+    while (!closing && System.nanoTime() - deadline < 0) {
+      try {
+        open(reconnectPort, "RESUME " + token + " " + moves + "\n");
+        return true; // the server answers with the missed moves, or with "Session expired"
+      } catch (IOException ioException) {
+        try {
+          Thread.sleep(pause);
+        } catch (InterruptedException exception) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+        pause = Math.min(pause * 2, 1000);
+      }
+    }
+    return false;
+  }
+
+  // read a line of the text protocol without buffering beyond it, null at the end of the input
+  private String readLine() throws IOException {
+    StringBuilder line = new StringBuilder();
+    int b = input.read();
+    if (b < 0) {
+      return null;
+    }
+    while (b >= 0 && b != '\n') {
+      if (b != '\r') {
+        line.append((char) b);
+      }
+      b = input.read();
+    }
+    return line.toString();
+  }
+
+  // process a frame of the binary protocol
+  private void processFrame(byte[] frame) {
+    roomId = BinaryProtocol.room(frame, 0);
+    int result = BinaryProtocol.result(frame, 0);
+    switch (BinaryProtocol.opcode(frame, 0)) {
+      case BinaryProtocol.YOUR_MOVE:
+        otherPlayerConnected();
+        break;
+      case BinaryProtocol.VALID:
+        moves++;
+        moveValid();
+        break;
+      case BinaryProtocol.INVALID:
+        myTurn = true; // still this client's turn
+        moveInvalid();
+        break;
+      case BinaryProtocol.OPPONENT_MOVED:
+        moves++;
+        myTurn = result == BinaryProtocol.NONE; // now this client's turn
+        opponentMoved(BinaryProtocol.cell(frame, 0));
+        break;
+      case BinaryProtocol.TIMED_OUT:
+        message(BinaryProtocol.TIMED_OUT_LINE); // the result tells whose time it was
+        break;
+      default:
+        break;
+    }
+    if (result != BinaryProtocol.NONE) {
+      myTurn = false;
+      finished = true;
+      gameOver(result);
+    }
+  }
+
+  // process messages sent to the client
+  private void processMessage(String message) throws IOException {
+    switch (message) {
+      case "Other player connected. Your move.":
+        otherPlayerConnected();
+        break;
+      case "Valid move.":
+        moves++;
+        moveValid();
+        break;
+      case "Invalid move, try again":
+        myTurn = true; // still this client's turn
+        moveInvalid();
+        break;
+      case "Opponent moved":
+        moves++;
+        myTurn = true; // now this client's turn, unless the result follows
+        opponentMoved(Integer.parseInt(readLine().trim())); // get move location
+        break;
+      case "VICTORY":
+        myTurn = false;
+        finished = true;
+        gameOver(BinaryProtocol.VICTORY);
+        break;
+      case "DEFEAT":
+        myTurn = false;
+        finished = true;
+        gameOver(BinaryProtocol.DEFEAT);
+        break;
+      case "TIE":
+        myTurn = false;
+        finished = true;
+        gameOver(BinaryProtocol.TIE);
+        break;
+      case "Session expired":
+        session = null; // the server gave up the seat, do not come back again
+        message(message);
+        break;
+      default:
+        String[] parts = message.split(" ");
+        if (parts[0].equals("Board") && parts.length == 3) {
+          // the server plays on a larger board, message is "Board <size> <win length>"
+          boardSize = Integer.parseInt(parts[1]);
+          boardAnnounced(boardSize, Integer.parseInt(parts[2]));
+        } else if (parts[0].equals("Session") && parts.length == 4) {
+          // the server keeps the seat, message is "Session <token> <port> <milliseconds>"
+          reconnectPort = Integer.parseInt(parts[2]);
+          reconnectMillis = Long.parseLong(parts[3]);
+          session = parts[1];
+        } else if (parts[0].equals("Moved") && parts.length == 4) {
+          // a move missed while disconnected, message is "Moved <number> <mark> <location>"
+          moves = Integer.parseInt(parts[1]);
+          moveReplayed(Integer.parseInt(parts[3]), parts[2]);
+        } else if (parts[0].equals("Snapshot") && parts.length == 3) {
+          // the board instead of the missed moves, message is "Snapshot <moves> <cells>"
+          moves = Integer.parseInt(parts[1]);
+          for (int location = 0; location < parts[2].length(); location++) {
+            if (parts[2].charAt(location) != '.') {
+              moveReplayed(location, String.valueOf(parts[2].charAt(location)));
+            }
+          }
+        } else if (parts[0].equals("Resumed") && parts.length == 2) {
+          // back in the game, the moves so far tell whose turn it is, a result may follow
+          moves = Integer.parseInt(parts[1]);
+          myTurn = !finished && (moves % 2 == 0) == myMark.equals(X_MARK);
+          resumed(moves);
+        } else {
+          message(message);
+        }
+        break;
+    }
+  }
+
+  /**
+   * Send a move if it is this client's turn.
+   *
+   * @param location The square, counted row by row from 0.
+   * @return False if it is not this client's turn, or the move could not be sent.
+   */
+  public boolean sendMove(int location) {
+    if (!myTurn) {
+      return false;
+    }
+    myTurn = false; // not my turn any more
+    try {
+      if (binaryRequested) { // the server reads the request before this move, so it expects a frame
+        BinaryProtocol.encode(outFrame, 0, BinaryProtocol.MOVE, roomId, location, BinaryProtocol.NONE);
+        output.write(outFrame); // send location to server
+      } else {
+        output.write((location + "\n").getBytes(StandardCharsets.US_ASCII)); // send location to server
+      }
+      return true;
+    } catch (IOException ioException) {
+      message(ioException.toString());
+      return false;
+    }
+  }
+
+  /**
+   * Close the connection, the reading thread then ends with {@link #disconnected(IOException)}.
+   */
+  @Override
+  public void close() throws IOException {
+    closing = true;
+    if (connection != null) {
+      connection.close();
+    }
+  }
+
+  /**
+   * Close the connection the way a failing network would, for load tests. The client comes back if the server keeps
+   * its seat, otherwise the reading thread ends as after {@link #close()}.
+   *
+   * @throws IOException If closing the socket failed.
+   */
+  public void dropConnection() throws IOException {
+    if (connection != null) {
+      connection.close();
+    }
+  }
+
+  public String getMark() {
+    return myMark;
+  }
+
+  public boolean isMyTurn() {
+    return myTurn;
+  }
+
+  public int getBoardSize() {
+    return boardSize;
+  }
+
+  // whether the server keeps the seat, so the client comes back after a failed connection
+  public boolean isResumable() {
+    return session != null;
+  }
+
+  // the server sent this client's mark, X moves first
+  protected void markAssigned(String mark) {
+  }
+
+  // the server plays on a larger board than 3x3
+  protected void boardAnnounced(int size, int winLength) {
+  }
+
+  // both players are connected, sent to player X
+  protected void otherPlayerConnected() {
+    message("Other player connected. Your move.");
+  }
+
+  // the server accepted this client's last move
+  protected abstract void moveValid();
+
+  // the server rejected this client's last move, it is still this client's turn
+  protected abstract void moveInvalid();
+
+  // the other player marked a square, it is this client's turn unless the game is over
+  protected abstract void opponentMoved(int location);
+
+  // the game ended with a result of BinaryProtocol, from this client's point of view
+  protected abstract void gameOver(int result);
+
+  // a move this client missed while it was disconnected, played by the given mark
+  protected void moveReplayed(int location, String mark) {
+  }
+
+  // the client is back in the game after a failed connection, it is this client's turn if isMyTurn() says so
+  protected void resumed(int moves) {
+    message("Reconnected to the game");
+  }
+
+  // any other line of text from the server
+  protected void message(String message) {
+  }
+
+  // the connection ended, failure is null if the server closed it normally
+  protected void disconnected(IOException failure) {
+  }
+}
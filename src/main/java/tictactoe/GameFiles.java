@@ -1,14 +1,13 @@
 // License: GPL. For details, see LICENSE file.
 package tictactoe;
 
-import java.awt.Image;
-import tictactoe.tools.ImageProvider;
+import tictactoe.tools.ImageCache;
 
 /**
- * Class for storing in game resources.
+ * Class for storing in game resources. Loading this class starts decoding them in the background.
  * @author Kishan
  */
 public class GameFiles {
-  public static final Image STARTSCREEN = new ImageProvider("images/startscreen.jpeg").get().
-    getScaledInstance(500, 500, Image.SCALE_SMOOTH); 
+  public static final ImageCache.Asset STARTSCREEN = ImageCache.getInstance().load("images/startscreen.jpeg", 500,
+    500);
 }
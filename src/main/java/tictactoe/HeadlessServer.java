@@ -0,0 +1,120 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import tictactoe.server.EventLog;
+import tictactoe.server.GameServer;
+import tictactoe.server.ServerConfig;
+
+/**
+ * Entry point of the server without a window, for machines without a display. It starts in lobby mode and takes the
+ * options of {@link ServerConfig#parse(String...)}, plus:
+ * <ul>
+ * <li>{@code --log true} prints the messages of the rooms, read from the {@link EventLog} once a second so the games
+ * never wait for the console;</li>
+ * <li>{@code --status <seconds>} prints the metrics of the server every so many seconds, 0 for never (the
+ * default); they are also available over JMX;</li>
+ * <li>{@code --viewer true} also opens the {@link TicTacToeServer} window, if there is a display.</li>
+ * </ul>
+ *
+ * Example: {@code HeadlessServer --transport nio --port 12345 --status 10}
+ */
+public class HeadlessServer {
+
+  private static final int EVENT_CAPACITY = 1 << 16; // messages kept for the console and the viewer
+  private static final int PRINT_MILLIS = 1000; // time between two prints of the messages
+
+  public static void main(String[] args) throws IOException {
+    boolean printLog = false;
+    int statusSeconds = 0;
+    boolean viewer = false;
+    List<String> serverArgs = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      String value = i + 1 < args.length ? args[i + 1] : null;
+      switch (args[i]) {
+        case "--log":
+          printLog = Boolean.parseBoolean(value);
+          i++;
+          break;
+        case "--status":
+          statusSeconds = value == null ? 0 : Integer.parseInt(value);
+          i++;
+          break;
+        case "--viewer":
+          viewer = Boolean.parseBoolean(value);
+          i++;
+          break;
+        default:
+          serverArgs.add(args[i]);
+          break;
+      }
+    }
+
+    ServerConfig config;
+    try {
+      config = ServerConfig.lobby().parse(serverArgs.toArray(new String[0]));
+    } catch (IllegalArgumentException illegalArgumentException) {
+      System.out.println(illegalArgumentException.getMessage());
+      return;
+    }
+
+    EventLog events = new EventLog(EVENT_CAPACITY);
+    GameServer server = config.open(events);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> close(server)));
+    System.out.println("Server listening on port " + server.getPort() + " (" + config.getTransport() + ")");
+    if (printLog || statusSeconds > 0) {
+      boolean log = printLog;
+      int seconds = statusSeconds;
+      Thread printer = new Thread(() -> print(server, events, log, seconds), "console");
+      printer.setDaemon(true);
+      printer.start();
+    }
+    if (viewer) {
+      openViewer(server, events);
+    }
+    server.execute();
+  }
+
+  // the window is only loaded when asked for, so the server runs where Swing cannot
+  private static void openViewer(GameServer server, EventLog events) {
+    new TicTacToeServer(server, events);
+  }
+
+  // print the messages of the rooms and the metrics until the server stops
+  private static void print(GameServer server, EventLog events, boolean printLog, int statusSeconds) {
+    long next = events.getSequence();
+    long lastStatus = System.nanoTime();
+    StringBuilder text = new StringBuilder();
+    try {
+      while (true) {
+        Thread.sleep(PRINT_MILLIS);
+        if (printLog) {
+          long end = events.getSequence();
+          long skipped = Math.max(0, end - events.getCapacity() - next);
+          next = events.read(next + skipped, Integer.MAX_VALUE, text::append);
+          if (skipped > 0) {
+            text.append("\n... ").append(skipped).append(" messages skipped\n");
+          }
+          System.out.print(text);
+          text.setLength(0);
+        }
+        if (statusSeconds > 0 && System.nanoTime() - lastStatus >= statusSeconds * 1_000_000_000L) {
+          lastStatus = System.nanoTime();
+          System.out.print("\n" + server.getMetrics().dump());
+        }
+      }
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void close(GameServer server) {
+    try {
+      server.close();
+    } catch (IOException ioException) {
+      System.out.println(ioException.toString());
+    }
+  }
+}
@@ -0,0 +1,98 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import tictactoe.server.ClusterRouter;
+import tictactoe.server.ExecutionMode;
+import tictactoe.server.ServerConfig;
+
+/**
+ * Entry point of a {@link ClusterRouter} in front of several {@link HeadlessServer}s, each started with
+ * {@code --routed true} and {@code --public-reconnect-port} set to the reconnect port of the router. Options:
+ * <ul>
+ * <li>{@code --port} for the players (default 12345), {@code --spectator-port} and {@code --reconnect-port}
+ * (default 0, any free port, which is printed);</li>
+ * <li>{@code --node host:port} puts a server on the ring, repeat it for every server;</li>
+ * <li>{@code --threads platform|virtual} for the threads that copy the bytes.</li>
+ * </ul>
+ *
+ * The router then reads commands from the console: {@code add host:port}, {@code drain host:port}, which moves the
+ * rooms of that server to the others, {@code nodes} and {@code quit}.
+ *
+ * Example: {@code Router --reconnect-port 12347 --node localhost:12400 --node localhost:12401}
+ */
+public class Router {
+
+  public static void main(String[] args) throws IOException {
+    int port = ServerConfig.DEFAULT_PORT;
+    int spectatorPort = 0;
+    int reconnectPort = 0;
+    ExecutionMode mode = ExecutionMode.PLATFORM;
+    List<String> nodes = new ArrayList<>();
+    try {
+      for (int i = 0; i + 1 < args.length; i += 2) {
+        String value = args[i + 1];
+        switch (args[i]) {
+          case "--port":
+            port = Integer.parseInt(value);
+            break;
+          case "--spectator-port":
+            spectatorPort = Integer.parseInt(value);
+            break;
+          case "--reconnect-port":
+            reconnectPort = Integer.parseInt(value);
+            break;
+          case "--node":
+            nodes.add(value);
+            break;
+          case "--threads":
+            mode = ExecutionMode.parse(value);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option " + args[i]);
+        }
+      }
+    } catch (IllegalArgumentException illegalArgumentException) {
+      System.out.println(illegalArgumentException.getMessage());
+      return;
+    }
+
+    try (ClusterRouter router = new ClusterRouter(port, spectatorPort, reconnectPort, mode)) {
+      System.out.println("Router listening on port " + router.getPort() + ", spectators on "
+        + router.getSpectatorPort() + ", reconnect on " + router.getReconnectPort());
+      for (String node : nodes) {
+        execute(router, "add " + node);
+      }
+      BufferedReader console = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+      String line;
+      while ((line = console.readLine()) != null && !line.trim().equals("quit")) {
+        execute(router, line.trim());
+      }
+    }
+  }
+
+  // run one console command and print its outcome
+  private static void execute(ClusterRouter router, String command) {
+    String[] words = command.split("\\s+");
+    try {
+      if (words.length == 2 && words[0].equals("add")) {
+        int colon = words[1].lastIndexOf(':');
+        System.out.println("Added " + router.addNode(words[1].substring(0, colon),
+          Integer.parseInt(words[1].substring(colon + 1))));
+      } else if (words.length == 2 && words[0].equals("drain")) {
+        System.out.println("Moved " + router.drain(words[1]) + " rooms away from " + words[1]);
+      } else if (words.length == 1 && words[0].equals("nodes")) {
+        router.getNodes().forEach(System.out::println);
+      } else if (!command.isEmpty()) {
+        System.out.println("Commands: add host:port, drain host:port, nodes, quit");
+      }
+    } catch (IOException | RuntimeException exception) {
+      System.out.println(command + ": " + exception.getMessage());
+    }
+  }
+}
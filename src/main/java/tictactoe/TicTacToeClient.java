@@ -3,68 +3,89 @@ package tictactoe;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
-import java.awt.GridLayout;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.net.Socket;
-import java.net.InetAddress;
 import java.io.IOException;
+import java.util.Arrays;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
-import java.util.Formatter;
-import java.util.Scanner;
-import java.util.concurrent.Executors;
+import javax.swing.text.BadLocationException;
 import java.util.concurrent.ExecutorService;
+import tictactoe.server.BinaryProtocol;
+import tictactoe.server.ExecutionMode;
+import tictactoe.server.ServerConfig;
 
-public final class TicTacToeClient extends JFrame implements Runnable {
+/**
+ * Window of a player. The thread that reads from the server never touches Swing: it collects the lines, marks and
+ * board changes it receives and makes sure one task is waiting on the event-dispatch thread to show them. However fast
+ * the messages come, the event queue holds at most one such task, which shows everything received until it runs, and
+ * a new mark repaints only its square. The message area keeps the last {@link #MAX_LINES} lines.
+ */
+public final class TicTacToeClient extends JFrame {
+
+  private static final int MAX_LINES = 200; // lines kept in the message area, and waiting to be shown
 
   private final JTextField idField; // textfield to display player's mark
   private final JTextArea displayArea; // JTextArea to display output
-  private final JPanel boardPanel; // panel for tic-tac-toe board
+  private final BoardView board; // tic-tac-toe board, only changed in the event-dispatch thread
   private final JPanel panel2; // panel to hold board
-  private final Square[][] board; // tic-tac-toe board
-  private Square currentSquare; // current square
-  private Socket connection; // connection to server
-  private Scanner input; // input from server
-  private Formatter output; // output to server
-  private final String ticTacToeHost; // host name for server
-  private String myMark; // this client's mark
-  private boolean myTurn; // determines which client's turn it is
+  private volatile int currentSquare = -1; // location of the square clicked last
+  private final Connection connection; // protocol of the connection to the server
+  private final ExecutionMode executionMode; // kind of thread that reads from the server
   private final String X_MARK = "X"; // mark for first client
   private final String O_MARK = "O"; // mark for second client
 
+  private final Object updates = new Object(); // guards the updates not shown yet
+  private final String[] lines = new String[MAX_LINES]; // ring of the lines not shown yet
+  private int firstLine; // index of the oldest of them
+  private int lineCount; // number of lines not shown yet
+  private int skippedLines; // lines dropped because the window fell behind
+  private int[] marks = new int[16]; // marks not shown yet, location * 2 + 0 for X or 1 for O
+  private int markCount; // number of marks not shown yet
+  private int newSize; // rows and columns of a new board, 0 if unchanged
+  private String newId; // new text of the id field, null if unchanged
+  private boolean updateQueued; // whether a task to show the updates waits on the event-dispatch thread
+
   // set up user-interface and board
   public TicTacToeClient(String host) {
-    ticTacToeHost = host; // set name of server
+    this(host, ExecutionMode.PLATFORM);
+  }
+
+  // set up user-interface and board, reading from the server on a thread of the given mode
+  public TicTacToeClient(String host, ExecutionMode mode) {
+    this(host, mode, false);
+  }
+
+  // set up user-interface and board, optionally asking the server for the compact binary protocol
+  public TicTacToeClient(String host, ExecutionMode mode, boolean binaryProtocol) {
+    this(host, ServerConfig.DEFAULT_PORT, mode, binaryProtocol);
+  }
+
+  // set up user-interface and board for a server on any port
+  public TicTacToeClient(String host, int port, ExecutionMode mode, boolean binaryProtocol) {
+    connection = new Connection(host, port, binaryProtocol);
+    executionMode = mode;
     displayArea = new JTextArea(4, 30); // set up JTextArea
     displayArea.setEditable(false);
     add(new JScrollPane(displayArea), BorderLayout.SOUTH);
 
-    boardPanel = new JPanel(); // set up panel for squares in board
-    boardPanel.setLayout(new GridLayout(3, 3, 0, 0));
-    board = new Square[3][3]; // create board
-
-    // loop over the rows in the board
-    for (int row = 0; row < board.length; row++) {
-      // loop over the columns in the board
-      for (int column = 0; column < board[row].length; column++) {
-        // create square
-        board[row][column] = new Square(" ", row * 3 + column);
-        boardPanel.add(board[row][column]); // add square       
-      }
-    }
+    board = new BoardView(3); // create board
 
     idField = new JTextField(); // set up textfield
     idField.setEditable(false);
     add(idField, BorderLayout.NORTH);
 
-    panel2 = new JPanel(); // set up panel to contain boardPanel
-    panel2.add(boardPanel, BorderLayout.CENTER); // add board panel
+    panel2 = new JPanel(); // set up panel to contain the board
+    panel2.add(board, BorderLayout.CENTER); // add board
     add(panel2, BorderLayout.CENTER); // add container panel
 
     setSize(300, 225); // set size of window
@@ -77,158 +98,280 @@ public final class TicTacToeClient extends JFrame implements Runnable {
   public void startClient() {
     // connect to server and get streams
     try {
-      // make connection to server
-      connection = new Socket(InetAddress.getByName(ticTacToeHost), 12345);
-
-      // get streams for input and output
-      input = new Scanner(connection.getInputStream());
-      output = new Formatter(connection.getOutputStream());
+      connection.connect();
     } catch (IOException e) {
-      e.printStackTrace();
-      System.exit(0);
+      displayMessage("Cannot connect to the server: " + e + "\n"); // the window stays open to show why
+      return;
     }
 
     // create and start worker thread for this client
-    ExecutorService worker = Executors.newFixedThreadPool(1);
-    worker.execute(this); // execute client
+    ExecutorService worker = executionMode.newExecutor(1);
+    worker.execute(connection); // execute client
   }
 
-  /**
-   * The Players run method controls the information that is sent to and received from the client.
-   */
-  @Override
-  public void run() {
-    myMark = input.nextLine(); // get player's mark (X or O)
-
-    SwingUtilities.invokeLater(() -> {
-      // display player's mark
-      idField.setText("You are player \"" + myMark + "\"");
-    });
+  // replace the board with an empty one of the given size
+  private void resizeBoard(final int size) {
+    synchronized (updates) {
+      newSize = size;
+      markCount = 0; // marks of the old board
+      queueUpdate();
+    }
+  }
 
-    myTurn = (myMark.equals(X_MARK)); // determine if client's turn
+  // add a line to the message area
+  private void displayMessage(final String messageToDisplay) {
+    synchronized (updates) {
+      if (lineCount == MAX_LINES) {
+        firstLine = (firstLine + 1) % MAX_LINES; // the oldest line would be trimmed anyway
+        lineCount--;
+        skippedLines++;
+      }
+      lines[(firstLine + lineCount) % MAX_LINES] = messageToDisplay;
+      lineCount++;
+      queueUpdate();
+    }
+  }
 
-    // receive messages sent to client and output them
-    while (true) {
-      if (input.hasNextLine()) {
-        processMessage(input.nextLine());
+  // set mark on the square at a location
+  private void setMark(final int location, final String mark) {
+    synchronized (updates) {
+      if (markCount == marks.length) {
+        marks = Arrays.copyOf(marks, markCount * 2);
       }
+      marks[markCount++] = location * 2 + (mark.equals(X_MARK) ? 0 : 1);
+      queueUpdate();
     }
   }
 
-  // process messages sent to the client
-  private void processMessage(String message) {
-    // valid move occurred
-    switch (message) {
-      case "Valid move.":
-        displayMessage("Valid move, please wait.\n");
-        setMark(currentSquare, myMark); // set mark in square
-        break;
-      case "Invalid move, try again":
-        displayMessage(message + "\n"); // display invalid move
-        myTurn = true; // still this client's turn
-        break;
-      case "Opponent moved":
-        int location = input.nextInt(); // get move location
-        input.nextLine(); // skip newline after int location
-        int row = location / 3; // calculate row
-        int column = location % 3; // calculate column
-        setMark(board[row][column],
-          (myMark.equals(X_MARK) ? O_MARK : X_MARK)); // mark move  
-        displayMessage("Opponent moved. Your turn.\n");
-        myTurn = true; // now this client's turn
-        break;
-      case "DEFEAT":
-      case "TIE":
-      case "VICTORY":
-        //  Game is over, display the results and stop game
-        displayMessage(message + "\n"); // display the message
-        myTurn = false;
-        break;
-      default:
-        displayMessage(message + "\n"); // display the message
-        break;
-    }
-  }
-
-  // manipulate displayArea in event-dispatch thread
-  private void displayMessage(final String messageToDisplay) {
-    SwingUtilities.invokeLater(() -> {
-      displayArea.append(messageToDisplay); // updates output
-    });
+  // show the player's mark
+  private void setId(final String id) {
+    synchronized (updates) {
+      newId = id;
+      queueUpdate();
+    }
+  }
+
+  // make sure a task will show the updates, called with the lock on the updates
+  private void queueUpdate() {
+    if (!updateQueued) {
+      updateQueued = true;
+      SwingUtilities.invokeLater(this::showUpdates);
+    }
   }
 
-  // utility method to set mark on board in event-dispatch thread
-  private void setMark(final Square squareToMark, final String mark) {
-    SwingUtilities.invokeLater(() -> {
-      squareToMark.setMark(mark); // set mark in square
-    });
+  // show everything received since the last call, in event-dispatch thread
+  private void showUpdates() {
+    String id;
+    int size;
+    int[] moves;
+    int moveCount;
+    StringBuilder text = new StringBuilder();
+    synchronized (updates) {
+      updateQueued = false;
+      id = newId;
+      newId = null;
+      size = newSize;
+      newSize = 0;
+      moves = marks;
+      moveCount = markCount;
+      marks = new int[Math.max(16, moveCount)];
+      markCount = 0;
+      if (skippedLines > 0) {
+        text.append("... ").append(skippedLines).append(" messages skipped\n");
+        skippedLines = 0;
+      }
+      for (; lineCount > 0; lineCount--) {
+        text.append(lines[firstLine]);
+        lines[firstLine] = null;
+        firstLine = (firstLine + 1) % MAX_LINES;
+      }
+    }
+
+    if (id != null) {
+      idField.setText(id);
+    }
+    if (size > 0) {
+      board.reset(size);
+      pack(); // fit window to the new board
+    }
+    for (int i = 0; i < moveCount; i++) {
+      board.setMark(moves[i] / 2, moves[i] % 2 == 0 ? X_MARK : O_MARK); // repaints only that square
+    }
+    if (text.length() > 0) {
+      displayArea.append(text.toString());
+      trim();
+    }
+  }
+
+  // drop the oldest lines of the message area
+  private void trim() {
+    int excess = displayArea.getLineCount() - 1 - MAX_LINES; // the text ends with a line break
+    if (excess > 0) {
+      try {
+        displayArea.replaceRange("", 0, displayArea.getLineEndOffset(excess - 1));
+      } catch (BadLocationException badLocationException) {
+        displayArea.setText("");
+      }
+    }
   }
 
   // send message to server indicating clicked square
   public void sendClickedSquare(int location) {
-    // if it is my turn
-    if (myTurn) {
-      output.format("%d\n", location); // send location to server
-      output.flush();
-      myTurn = false; // not my turn any more
-    }
+    connection.sendMove(location); // only sent if it is my turn
   }
 
   // set current Square
-  public void setCurrentSquare(Square square) {
-    currentSquare = square; // set current square to argument
+  public void setCurrentSquare(int location) {
+    currentSquare = location; // set current square to argument
+  }
+
+  // shows what the server sends in the window
+  private class Connection extends GameClient {
+
+    Connection(String host, int port, boolean binaryProtocol) {
+      super(host, port, binaryProtocol);
+    }
+
+    @Override
+    protected void markAssigned(String mark) {
+      setId("You are player \"" + mark + "\""); // display player's mark
+    }
+
+    @Override
+    protected void boardAnnounced(int size, int winLength) {
+      resizeBoard(size);
+      displayMessage(winLength + " in a row wins.\n");
+    }
+
+    @Override
+    protected void moveValid() {
+      displayMessage("Valid move, please wait.\n");
+      setMark(currentSquare, getMark()); // set mark in square
+    }
+
+    @Override
+    protected void moveInvalid() {
+      displayMessage("Invalid move, try again\n"); // display invalid move
+    }
+
+    @Override
+    protected void opponentMoved(int location) {
+      setMark(location, (getMark().equals(X_MARK) ? O_MARK : X_MARK)); // mark move
+      displayMessage("Opponent moved. Your turn.\n");
+    }
+
+    @Override
+    protected void moveReplayed(int location, String mark) {
+      setMark(location, mark); // missed while the connection was down
+    }
+
+    @Override
+    protected void resumed(int moves) {
+      displayMessage(isMyTurn() ? "Reconnected. Your turn.\n" : "Reconnected, please wait.\n");
+    }
+
+    //  Game is over, display the results and stop game
+    @Override
+    protected void gameOver(int result) {
+      displayMessage(BinaryProtocol.resultLine(result)); // display the message
+    }
+
+    @Override
+    protected void message(String message) {
+      displayMessage(message + "\n"); // display the message
+    }
+
+    @Override
+    protected void disconnected(IOException failure) {
+      if (failure != null && getMark() == null) {
+        displayMessage(failure.toString() + "\n");
+      }
+    }
   }
 
-  // private inner class for the squares on the board
-  private class Square extends JPanel {
+  // private inner class for the board, one component that paints the squares that need it
+  private class BoardView extends JComponent {
 
-    private String mark; // mark to be drawn in this square
-    private final int location; // location of square
+    private static final long serialVersionUID = 1L; // never serialized, Swing components are Serializable
+    private int size; // number of rows and columns
+    private int squareSize; // width and height of a square in pixels
+    private char[] squares; // mark of every square, a space if empty
 
-    public Square(String squareMark, int squareLocation) {
-      mark = squareMark; // set mark for this square
-      location = squareLocation; // set location of this square
+    BoardView(int boardSize) {
+      reset(boardSize);
 
       addMouseListener(new MouseAdapter() {
         @Override
         public void mouseReleased(MouseEvent e) {
-          setCurrentSquare(Square.this); // set current square
-
-          // send location of this square
-          sendClickedSquare(getSquareLocation());
+          int column = e.getX() / squareSize;
+          int row = e.getY() / squareSize;
+          if (column < size && row < size) {
+            setCurrentSquare(row * size + column); // set current square
+
+            // send location of this square
+            sendClickedSquare(row * size + column);
+          }
         }
       });
     }
 
-    // return preferred size of Square
+    // clear the board and give it a new size
+    void reset(int boardSize) {
+      size = boardSize;
+      squareSize = Math.max(8, Math.min(30, 600 / size)); // keep large boards on the screen
+      squares = new char[size * size];
+      Arrays.fill(squares, ' ');
+      setFont(new Font(Font.DIALOG, Font.PLAIN, Math.max(6, squareSize * 2 / 5)));
+      revalidate();
+      repaint();
+    }
+
+    // set mark for a square and repaint it
+    void setMark(int location, String mark) {
+      if (location < 0 || location >= squares.length) {
+        return;
+      }
+      squares[location] = mark.charAt(0);
+      repaint(location % size * squareSize, location / size * squareSize, squareSize, squareSize);
+    }
+
+    // return preferred size of the board
     @Override
     public Dimension getPreferredSize() {
-      return new Dimension(30, 30); // return preferred size
+      return new Dimension(size * squareSize, size * squareSize); // return preferred size
     }
 
-    // return minimum size of Square
+    // return minimum size of the board
     @Override
     public Dimension getMinimumSize() {
       return getPreferredSize(); // return preferred size
     }
 
-    // set mark for Square
-    public void setMark(String newMark) {
-      mark = newMark; // set mark of square
-      repaint(); // repaint square
-    }
-
-    // return Square location
-    public int getSquareLocation() {
-      return location; // return location of square
-    }
-
-    // draw Square
+    // draw the squares inside the area to repaint
     @Override
     public void paintComponent(Graphics g) {
-      super.paintComponent(g);
-      g.drawRect(0, 0, 29, 29); // draw square
-      g.drawString(mark, 11, 20); // draw mark   
+      Rectangle clip = g.getClipBounds();
+      if (clip == null) {
+        clip = new Rectangle(getPreferredSize());
+      }
+      g.setColor(getForeground()); // not opaque, the panel behind it paints the background
+      FontMetrics metrics = g.getFontMetrics();
+      int firstColumn = Math.max(0, clip.x / squareSize);
+      int lastColumn = Math.min(size - 1, (clip.x + clip.width - 1) / squareSize);
+      int firstRow = Math.max(0, clip.y / squareSize);
+      int lastRow = Math.min(size - 1, (clip.y + clip.height - 1) / squareSize);
+      for (int row = firstRow; row <= lastRow; row++) {
+        for (int column = firstColumn; column <= lastColumn; column++) {
+          int x = column * squareSize;
+          int y = row * squareSize;
+          g.drawRect(x, y, squareSize - 1, squareSize - 1); // draw square
+          char mark = squares[row * size + column];
+          if (mark != ' ') {
+            g.drawChars(squares, row * size + column, 1, x + (squareSize - metrics.charWidth(mark)) / 2,
+              y + (squareSize + metrics.getAscent() - metrics.getDescent()) / 2); // draw mark
+          }
+        }
+      }
     }
   }
 }
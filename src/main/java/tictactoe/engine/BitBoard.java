@@ -0,0 +1,110 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+/**
+ * Tic-tac-toe board kept as one 9 bit mask per player, bit {@code i} is set when the player has a mark on square
+ * {@code i}. Wins are looked up in a table precomputed from the eight line masks, so a move never allocates and every
+ * check is a few bit operations.
+ */
+public final class BitBoard implements GameBoard {
+
+  public final static int SQUARES = 9; // number of squares on the board
+  public final static int FULL = (1 << SQUARES) - 1; // mask with every square set
+
+  /**
+   * The rows, columns and diagonals as masks of their three squares.
+   */
+  public final static int[] LINES = {
+    0b000_000_111, 0b000_111_000, 0b111_000_000, // rows
+    0b001_001_001, 0b010_010_010, 0b100_100_100, // columns
+    0b100_010_001, 0b001_010_100 // diagonals
+  };
+
+  private final static boolean[] WINS = new boolean[FULL + 1]; // whether a mask contains a full line
+
+  static {
+    for (int mask = 0; mask <= FULL; mask++) {
+      for (int line : LINES) {
+        WINS[mask] |= (mask & line) == line;
+      }
+    }
+  }
+
+  private int xMarks; // squares of player X
+  private int oMarks; // squares of player O
+  private int currentPlayer = PLAYER_X; // player to move
+
+  /**
+   * @param mask The squares of one player.
+   * @return True if the squares contain three in a row.
+   */
+  public static boolean isWin(int mask) {
+    return WINS[mask];
+  }
+
+  @Override
+  public int getSize() {
+    return 3;
+  }
+
+  @Override
+  public int getWinLength() {
+    return 3;
+  }
+
+  @Override
+  public int getCurrentPlayer() {
+    return currentPlayer;
+  }
+
+  /**
+   * @param player {@link #PLAYER_X} or {@link #PLAYER_O}.
+   * @return The squares of the player as a bit mask.
+   */
+  public int getMarks(int player) {
+    return player == PLAYER_X ? xMarks : oMarks;
+  }
+
+  @Override
+  public boolean isOccupied(int location) {
+    return ((xMarks | oMarks) & (1 << location)) != 0;
+  }
+
+  @Override
+  public int getMark(int location) {
+    int square = 1 << location;
+    return (xMarks & square) != 0 ? PLAYER_X : (oMarks & square) != 0 ? PLAYER_O : EMPTY;
+  }
+
+  @Override
+  public boolean isValidMove(int location) {
+    return location >= 0 && location < SQUARES && !isOccupied(location);
+  }
+
+  @Override
+  public void move(int location) {
+    if (currentPlayer == PLAYER_X) {
+      xMarks |= 1 << location;
+    } else {
+      oMarks |= 1 << location;
+    }
+    currentPlayer ^= 1; // change player
+  }
+
+  @Override
+  public boolean hasWinner() {
+    return WINS[xMarks] || WINS[oMarks];
+  }
+
+  @Override
+  public boolean boardFilledUp() {
+    return (xMarks | oMarks) == FULL;
+  }
+
+  @Override
+  public void reset() {
+    xMarks = 0;
+    oMarks = 0;
+    currentPlayer = PLAYER_X;
+  }
+}
@@ -0,0 +1,86 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+/**
+ * A square board on which two players take turns to place marks, the first to get a given number of marks in a row
+ * wins. Squares are numbered row by row starting at 0.
+ */
+public interface GameBoard {
+
+  int PLAYER_X = 0; // constant for first player
+  int PLAYER_O = 1; // constant for second player
+  int EMPTY = -1; // no mark on a square
+
+  /**
+   * Create the fastest board for the given dimensions.
+   *
+   * @param size The number of rows and columns.
+   * @param winLength The number of marks in a row that win.
+   * @return A {@link BitBoard} for the classic 3×3 game, otherwise a {@link GridBoard}.
+   */
+  static GameBoard create(int size, int winLength) {
+    return size == 3 && winLength == 3 ? new BitBoard() : new GridBoard(size, winLength);
+  }
+
+  /**
+   * @return The number of rows and columns.
+   */
+  int getSize();
+
+  /**
+   * @return The number of marks in a row that win.
+   */
+  int getWinLength();
+
+  /**
+   * @return {@link #PLAYER_X} or {@link #PLAYER_O}.
+   */
+  int getCurrentPlayer();
+
+  /**
+   * @param location A square on the board.
+   * @return True if a player has a mark on the square.
+   */
+  boolean isOccupied(int location);
+
+  /**
+   * @param location A square on the board.
+   * @return The player with a mark on the square, or {@link #EMPTY}.
+   */
+  int getMark(int location);
+
+  /**
+   * @param location The square the current player chose.
+   * @return True if the location is on the board and not occupied.
+   */
+  boolean isValidMove(int location);
+
+  /**
+   * Place the mark of the current player and hand the turn to the other player. The move must be valid.
+   *
+   * @param location The square to mark.
+   */
+  void move(int location);
+
+  /**
+   * @return True if a player has enough marks in a row.
+   */
+  boolean hasWinner();
+
+  /**
+   * @return True if every square is occupied.
+   */
+  boolean boardFilledUp();
+
+  /**
+   * @return True if there is a winner or the board is full.
+   */
+  default boolean isGameOver() {
+    return hasWinner() || boardFilledUp();
+  }
+
+  /**
+   * Empty the board so the object can be reused for the next game.
+   */
+  void reset();
+}
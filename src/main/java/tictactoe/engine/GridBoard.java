@@ -0,0 +1,127 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import java.util.Arrays;
+
+/**
+ * Board of any size where a given number of marks in a row wins, for example 15×15 with five in a row. A move only
+ * checks the four lines through the new mark and stops after the win length in each direction, so detecting a win
+ * costs O(K) regardless of the board size.
+ */
+public final class GridBoard implements GameBoard {
+
+  public final static int MAX_SIZE = 1000; // largest supported number of rows and columns
+
+  private final static byte NO_MARK = 0; // no mark on the square
+  private final static int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}}; // row, column steps of the lines
+
+  private final int size; // number of rows and columns
+  private final int winLength; // marks in a row that win
+  private final byte[] cells; // NO_MARK or player number + 1, row by row
+  private int filled; // number of occupied squares
+  private int currentPlayer = PLAYER_X; // player to move
+  private boolean winner; // whether a move completed a line
+
+  /**
+   * Create an empty board.
+   *
+   * @param size The number of rows and columns, 1 to {@link #MAX_SIZE}.
+   * @param winLength The number of marks in a row that win, 1 to size.
+   */
+  public GridBoard(int size, int winLength) {
+    if (size < 1 || size > MAX_SIZE) {
+      throw new IllegalArgumentException("Board size must be between 1 and " + MAX_SIZE + ": " + size);
+    }
+    if (winLength < 1 || winLength > size) {
+      throw new IllegalArgumentException("Win length must be between 1 and the board size: " + winLength);
+    }
+    this.size = size;
+    this.winLength = winLength;
+    this.cells = new byte[size * size];
+  }
+
+  @Override
+  public int getSize() {
+    return size;
+  }
+
+  @Override
+  public int getWinLength() {
+    return winLength;
+  }
+
+  @Override
+  public int getCurrentPlayer() {
+    return currentPlayer;
+  }
+
+  @Override
+  public boolean isOccupied(int location) {
+    return cells[location] != NO_MARK;
+  }
+
+  @Override
+  public int getMark(int location) {
+    return cells[location] - 1;
+  }
+
+  @Override
+  public boolean isValidMove(int location) {
+    return location >= 0 && location < cells.length && cells[location] == NO_MARK;
+  }
+
+  @Override
+  public void move(int location) {
+    byte mark = (byte) (currentPlayer + 1);
+    cells[location] = mark;
+    filled++;
+    winner |= completesLine(location, mark);
+    currentPlayer ^= 1; // change player
+  }
+
+  @Override
+  public boolean hasWinner() {
+    return winner;
+  }
+
+  @Override
+  public boolean boardFilledUp() {
+    return filled == cells.length;
+  }
+
+  @Override
+  public void reset() {
+    Arrays.fill(cells, NO_MARK);
+    filled = 0;
+    currentPlayer = PLAYER_X;
+    winner = false;
+  }
+
+  // check the row, column and both diagonals through the new mark
+  private boolean completesLine(int location, byte mark) {
+    int row = location / size;
+    int column = location % size;
+
+    for (int[] direction : DIRECTIONS) {
+      int count = 1 + count(row, column, direction[0], direction[1], mark)
+        + count(row, column, -direction[0], -direction[1], mark);
+      if (count >= winLength) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // number of marks next to the square in one direction, at most winLength - 1
+  private int count(int row, int column, int rowStep, int columnStep, byte mark) {
+    int count = 0;
+    int r = row + rowStep;
+    int c = column + columnStep;
+    while (count < winLength - 1 && r >= 0 && r < size && c >= 0 && c < size && cells[r * size + c] == mark) {
+      count++;
+      r += rowStep;
+      c += columnStep;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,342 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computer player for boards of any size using Monte Carlo tree search with UCT selection. Every iteration walks down
+ * the tree, adds the children of a leaf and finishes the game with random moves, then counts the result on the way
+ * back up. The most visited move of the root is played once the time or iteration budget is used up.
+ *
+ * The tree lives in preallocated int arrays instead of node objects, and a playout works on byte and int arrays
+ * reused from move to move, so searching does not allocate. Each concurrent search borrows one such {@link Tree}
+ * from a pool, so instances are thread-safe and meant to be shared by all rooms of a server.
+ */
+public final class MonteCarloPlayer implements Strategy {
+
+  private final static double EXPLORATION = Math.sqrt(2); // weight of the exploration term of UCT
+  private final static int CHECK_INTERVAL = 64; // iterations between looks at the clock
+  private final static int NEAR = 2; // children are only added for squares this close to a mark
+  private final static int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}}; // row, column steps of the lines
+
+  private final long moveTimeNanos; // time for one move, 0 for no limit
+  private final int maxIterations; // iterations for one move, 0 for no limit
+  private final int capacity; // nodes of each tree
+  private final Queue<Tree> trees = new ConcurrentLinkedQueue<>(); // trees not used by a search right now
+  private final LongAdder playouts = new LongAdder(); // iterations of all searches
+  private final LongAdder searchNanos = new LongAdder(); // time spent in all searches
+
+  /**
+   * @param moveTimeMillis Time for one move, 0 for no limit.
+   * @param maxIterations Playouts for one move, 0 for no limit.
+   * @param capacity Nodes of the tree of each concurrent search. Once the tree is full the search goes on with
+   * playouts from its leaves.
+   */
+  public MonteCarloPlayer(long moveTimeMillis, int maxIterations, int capacity) {
+    if (moveTimeMillis <= 0 && maxIterations <= 0) {
+      throw new IllegalArgumentException("Need a time or an iteration budget");
+    }
+    this.moveTimeNanos = TimeUnit.MILLISECONDS.toNanos(moveTimeMillis);
+    this.maxIterations = maxIterations;
+    this.capacity = capacity;
+  }
+
+  @Override
+  public boolean isExpensive() {
+    return true;
+  }
+
+  @Override
+  public int chooseMove(GameBoard board) {
+    Tree tree = trees.poll();
+    if (tree == null) {
+      tree = new Tree(capacity);
+    }
+    try {
+      long start = System.nanoTime();
+      int iterations = tree.search(board, start);
+      playouts.add(iterations);
+      searchNanos.add(System.nanoTime() - start);
+      return tree.bestMove();
+    } finally {
+      trees.add(tree);
+    }
+  }
+
+  /**
+   * @return Playouts of all searches so far.
+   */
+  public long getPlayouts() {
+    return playouts.sum();
+  }
+
+  /**
+   * @return Playouts per second of search, averaged over all searches so far.
+   */
+  public double getPlayoutsPerSecond() {
+    long nanos = searchNanos.sum();
+    return nanos == 0 ? 0 : playouts.sum() / (nanos / 1e9);
+  }
+
+  // the nodes and the scratch boards of one search, used by one thread at a time
+  private final class Tree {
+    // nodes, index 0 is the root; the children of a node are stored next to each other
+    private final int[] move; // square played to reach the node
+    private final int[] parent; // index of the parent node, -1 for the root
+    private final int[] firstChild; // index of the first child
+    private final int[] childCount; // number of children, 0 until expanded
+    private final int[] visits; // playouts through the node
+    private final int[] reward; // 2 per win and 1 per tie for the player who moved into the node
+    private int used; // nodes in use
+
+    private int size; // rows and columns of the board searched
+    private int winLength; // marks in a row that win
+    private int rootPlayer; // player to move at the root
+    private byte[] rootCells = new byte[0]; // the searched position, 0 for empty or player number + 1
+    private int[] rootEmpties = new int[0]; // empty squares of the position
+    private int[] rootPositions = new int[0]; // index of each square in rootEmpties
+    private int rootEmptyCount; // number of empty squares of the position
+    private byte[] cells = new byte[0]; // board of the current iteration
+    private int[] empties = new int[0]; // empty squares of the current iteration
+    private int[] positions = new int[0]; // index of each square in empties
+    private int emptyCount; // number of empty squares of the current iteration
+    private boolean[] near = new boolean[0]; // scratch marks of the squares next to a mark
+    private long seed = System.nanoTime() | 1; // state of the xorshift generator
+
+    Tree(int capacity) {
+      move = new int[capacity];
+      parent = new int[capacity];
+      firstChild = new int[capacity];
+      childCount = new int[capacity];
+      visits = new int[capacity];
+      reward = new int[capacity];
+    }
+
+    // copy the position, the arrays only grow when a larger board is searched than before
+    private void setUp(GameBoard board) {
+      size = board.getSize();
+      winLength = board.getWinLength();
+      rootPlayer = board.getCurrentPlayer();
+      int squares = size * size;
+      if (rootCells.length < squares) {
+        rootCells = new byte[squares];
+        rootEmpties = new int[squares];
+        rootPositions = new int[squares];
+        cells = new byte[squares];
+        empties = new int[squares];
+        positions = new int[squares];
+        near = new boolean[squares];
+      }
+      rootEmptyCount = 0;
+      for (int location = 0; location < squares; location++) {
+        int mark = board.getMark(location);
+        rootCells[location] = (byte) (mark + 1);
+        if (mark == GameBoard.EMPTY) {
+          rootPositions[location] = rootEmptyCount;
+          rootEmpties[rootEmptyCount++] = location;
+        }
+      }
+
+      used = 1;
+      parent[0] = -1;
+      childCount[0] = 0;
+      visits[0] = 0;
+      reward[0] = 0;
+    }
+
+    // run iterations until the budget is used up, returns the number of iterations
+    int search(GameBoard board, long start) {
+      setUp(board);
+      long deadline = moveTimeNanos > 0 ? start + moveTimeNanos : Long.MAX_VALUE;
+      int iterations = 0;
+      while (maxIterations <= 0 || iterations < maxIterations) {
+        iterate();
+        if (++iterations % CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+          break;
+        }
+      }
+      return iterations;
+    }
+
+    // the most visited move of the root
+    int bestMove() {
+      int best = -1;
+      for (int child = firstChild[0]; child < firstChild[0] + childCount[0]; child++) {
+        if (best < 0 || visits[child] > visits[best]) {
+          best = child;
+        }
+      }
+      return best < 0 ? rootEmpties[0] : move[best];
+    }
+
+    // one selection, expansion, playout and update
+    private void iterate() {
+      int squares = size * size;
+      System.arraycopy(rootCells, 0, cells, 0, squares);
+      System.arraycopy(rootEmpties, 0, empties, 0, rootEmptyCount);
+      System.arraycopy(rootPositions, 0, positions, 0, squares);
+      emptyCount = rootEmptyCount;
+
+      int node = 0;
+      int player = rootPlayer; // player to move at the node
+      int winner = GameBoard.EMPTY;
+      while (childCount[node] > 0) {
+        node = select(node);
+        if (play(move[node], player)) {
+          winner = player;
+        }
+        player ^= 1;
+        if (winner != GameBoard.EMPTY) {
+          break;
+        }
+      }
+
+      if (winner == GameBoard.EMPTY && emptyCount > 0) {
+        // a leaf gets children on its second visit, so the tree is not filled with nodes seen only once
+        if ((node == 0 || visits[node] > 0) && expand(node)) {
+          node = firstChild[node] + nextInt(childCount[node]);
+          if (play(move[node], player)) {
+            winner = player;
+          }
+          player ^= 1;
+        }
+        if (winner == GameBoard.EMPTY) {
+          winner = playout(player);
+        }
+      }
+
+      // player is now the one to move after the node, so the other one moved into it
+      for (int mover = player ^ 1; node >= 0; node = parent[node], mover ^= 1) {
+        visits[node]++;
+        reward[node] += winner == GameBoard.EMPTY ? 1 : winner == mover ? 2 : 0;
+      }
+    }
+
+    // the child with the highest upper confidence bound, unvisited children first
+    private int select(int node) {
+      double logVisits = Math.log(visits[node]);
+      int best = -1;
+      double bestValue = Double.NEGATIVE_INFINITY;
+      for (int child = firstChild[node]; child < firstChild[node] + childCount[node]; child++) {
+        if (visits[child] == 0) {
+          return child;
+        }
+        double value = reward[child] / (2.0 * visits[child]) + EXPLORATION * Math.sqrt(logVisits / visits[child]);
+        if (value > bestValue) {
+          bestValue = value;
+          best = child;
+        }
+      }
+      return best;
+    }
+
+    // add a child for every empty square near a mark, returns false if the tree is full
+    private boolean expand(int node) {
+      int squares = size * size;
+      int count = 0;
+      for (int location = 0; location < squares; location++) {
+        if (cells[location] != 0) {
+          markNear(location);
+        }
+      }
+      for (int i = 0; i < emptyCount; i++) {
+        if (near[empties[i]]) {
+          count++;
+        }
+      }
+      if (count == 0) {
+        count = emptyCount; // empty board, or no empty square near a mark
+        for (int i = 0; i < emptyCount; i++) {
+          near[empties[i]] = true;
+        }
+      }
+      if (used + count > move.length) {
+        Arrays.fill(near, 0, squares, false);
+        return false;
+      }
+
+      firstChild[node] = used;
+      for (int i = 0; i < emptyCount; i++) {
+        int location = empties[i];
+        if (near[location]) {
+          move[used] = location;
+          parent[used] = node;
+          childCount[used] = 0;
+          visits[used] = 0;
+          reward[used] = 0;
+          used++;
+        }
+      }
+      childCount[node] = count;
+      Arrays.fill(near, 0, squares, false);
+      return true;
+    }
+
+    private void markNear(int location) {
+      int row = location / size;
+      int column = location % size;
+      for (int r = Math.max(0, row - NEAR); r <= Math.min(size - 1, row + NEAR); r++) {
+        for (int c = Math.max(0, column - NEAR); c <= Math.min(size - 1, column + NEAR); c++) {
+          near[r * size + c] = true;
+        }
+      }
+    }
+
+    // finish the game with random moves, returns the winner or EMPTY for a tie
+    private int playout(int player) {
+      while (emptyCount > 0) {
+        int location = empties[nextInt(emptyCount)];
+        if (play(location, player)) {
+          return player;
+        }
+        player ^= 1;
+      }
+      return GameBoard.EMPTY;
+    }
+
+    // place a mark on an empty square, returns true if it completes a line
+    private boolean play(int location, int player) {
+      byte mark = (byte) (player + 1);
+      cells[location] = mark;
+      int index = positions[location];
+      int last = empties[--emptyCount];
+      empties[index] = last;
+      positions[last] = index;
+
+      int row = location / size;
+      int column = location % size;
+      for (int[] direction : DIRECTIONS) {
+        int count = 1 + count(row, column, direction[0], direction[1], mark)
+          + count(row, column, -direction[0], -direction[1], mark);
+        if (count >= winLength) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private int count(int row, int column, int rowStep, int columnStep, byte mark) {
+      int count = 0;
+      int r = row + rowStep;
+      int c = column + columnStep;
+      while (count < winLength - 1 && r >= 0 && r < size && c >= 0 && c < size && cells[r * size + c] == mark) {
+        count++;
+        r += rowStep;
+        c += columnStep;
+      }
+      return count;
+    }
+
+    // uniform random number below the bound from a xorshift64* generator
+    private int nextInt(int bound) {
+      seed ^= seed >>> 12;
+      seed ^= seed << 25;
+      seed ^= seed >>> 27;
+      return (int) (((seed * 0x2545F4914F6CDD1DL) >>> 32) * bound >>> 32);
+    }
+  }
+}
@@ -0,0 +1,208 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Best move and game value of every legal 3×3 position, read from a memory-mapped file. A position is looked up
+ * directly by its base 3 index, so a reply needs no search at all.
+ *
+ * The file starts with a 16 byte header (magic, version, number of legal positions, table size) followed by one byte
+ * for each of the 3^9 boards. The byte is 0 for boards that cannot occur in a game, otherwise
+ * {@code 0x80 | value << 4 | move}, where value is {@link #LOSS}, {@link #DRAW} or {@link #WIN} for the player to
+ * move and move is the best square, or {@link #NO_MOVE} once the game is over.
+ *
+ * The build generates the book as the class path resource {@value #RESOURCE}. {@link #loadDefault()} reads it from
+ * there, and computes the same table in memory when the classes run without it.
+ */
+public final class OpeningBook implements Strategy {
+
+  public final static int LOSS = 0; // the player to move loses with perfect play
+  public final static int DRAW = 1; // perfect play ends in a tie
+  public final static int WIN = 2; // the player to move wins with perfect play
+  public final static int NO_MOVE = 0xf; // the game is over
+  public final static String RESOURCE = "tictactoe.book"; // name of the book built with the game, on the class path
+
+  private final static int MAGIC = 0x54545442; // "TTTB"
+  private final static int VERSION = 1;
+  private final static int HEADER = 16; // bytes before the table
+  private final static int TABLE_SIZE = 19683; // 3^9 boards
+  private final static int LEGAL = 0x80; // marks an entry of a legal position
+
+  /**
+   * {@code TERNARY[mask]} is the sum of 3^square over the squares in the mask, so a board's index is
+   * {@code TERNARY[x] + 2 * TERNARY[o]}.
+   */
+  private final static int[] TERNARY = new int[BitBoard.FULL + 1];
+
+  static {
+    for (int mask = 0; mask <= BitBoard.FULL; mask++) {
+      int power = 1;
+      for (int square = 0; square < BitBoard.SQUARES; square++) {
+        if ((mask & (1 << square)) != 0) {
+          TERNARY[mask] += power;
+        }
+        power *= 3;
+      }
+    }
+  }
+
+  private final ByteBuffer table; // the whole file, mapped or computed
+  private final int positions; // number of legal positions in the file
+
+  private OpeningBook(ByteBuffer table) throws IOException {
+    if (table.capacity() != HEADER + TABLE_SIZE || table.getInt(0) != MAGIC || table.getInt(4) != VERSION
+      || table.getInt(12) != TABLE_SIZE) {
+      throw new IOException("Not an opening book file");
+    }
+    this.table = table;
+    this.positions = table.getInt(8);
+  }
+
+  /**
+   * Map a book file written by {@link #generate(Path)}.
+   *
+   * @param file The book file.
+   * @return The book.
+   * @throws IOException If the file cannot be read or is not a book.
+   */
+  public static OpeningBook load(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Read the book built with the game, the class path resource {@value #RESOURCE}, or compute it if there is none.
+   *
+   * @return The book.
+   * @throws IOException If the resource cannot be read or is not a book.
+   */
+  public static OpeningBook loadDefault() throws IOException {
+    try (InputStream stream = OpeningBook.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+      if (stream != null) {
+        return new OpeningBook(ByteBuffer.wrap(stream.readAllBytes()));
+      }
+    }
+    return new OpeningBook(compute());
+  }
+
+  /**
+   * Map a book file, generating it first if it does not exist yet.
+   *
+   * @param file The book file.
+   * @return The book.
+   * @throws IOException If the file cannot be written or read.
+   */
+  public static OpeningBook loadOrGenerate(Path file) throws IOException {
+    if (!Files.exists(file)) {
+      generate(file);
+    }
+    return load(file);
+  }
+
+  /**
+   * Enumerate every position reachable from the empty board, solve it with the {@link PerfectPlayer} and write the
+   * book file.
+   *
+   * @param file The file to write, parent directories are created.
+   * @return The number of legal positions written.
+   * @throws IOException If the file cannot be written.
+   */
+  public static int generate(Path file) throws IOException {
+    ByteBuffer contents = compute();
+    if (file.toAbsolutePath().getParent() != null) {
+      Files.createDirectories(file.toAbsolutePath().getParent());
+    }
+    Files.write(file, contents.array());
+    return contents.getInt(8);
+  }
+
+  // the contents of a book file, header and table
+  private static ByteBuffer compute() {
+    byte[] entries = new byte[TABLE_SIZE];
+    int positions = enumerate(new PerfectPlayer(), 0, 0, entries);
+    ByteBuffer contents = ByteBuffer.allocate(HEADER + TABLE_SIZE);
+    contents.putInt(MAGIC).putInt(VERSION).putInt(positions).putInt(TABLE_SIZE).put(entries).flip();
+    return contents;
+  }
+
+  // fill the entries of the position and everything reachable from it, returns the number of new positions
+  private static int enumerate(PerfectPlayer solver, int x, int o, byte[] entries) {
+    int index = index(x, o);
+    if (entries[index] != 0) {
+      return 0; // reached before by another move order
+    }
+
+    boolean xToMove = Integer.bitCount(x) == Integer.bitCount(o);
+    int me = xToMove ? x : o;
+    int other = xToMove ? o : x;
+    int score = solver.evaluate(me, other);
+    int value = score > 0 ? WIN : score < 0 ? LOSS : DRAW;
+    boolean over = BitBoard.isWin(other) || (x | o) == BitBoard.FULL;
+    int move = over ? NO_MOVE : solver.chooseMove(me, other);
+    entries[index] = (byte) (LEGAL | value << 4 | move);
+
+    int count = 1;
+    if (!over) {
+      for (int free = ~(x | o) & BitBoard.FULL; free != 0; free &= free - 1) {
+        int square = free & -free;
+        count += xToMove ? enumerate(solver, x | square, o, entries) : enumerate(solver, x, o | square, entries);
+      }
+    }
+    return count;
+  }
+
+  private static int index(int x, int o) {
+    return TERNARY[x] + 2 * TERNARY[o];
+  }
+
+  // entry of a position, throws if the position cannot occur
+  private int entry(int x, int o) {
+    int entry = table.get(HEADER + index(x, o)) & 0xff;
+    if (entry == 0) {
+      throw new IllegalArgumentException("Not a legal position");
+    }
+    return entry;
+  }
+
+  /**
+   * @return The number of legal positions in the book.
+   */
+  public int getPositions() {
+    return positions;
+  }
+
+  /**
+   * @param x The squares of player X.
+   * @param o The squares of player O.
+   * @return The best square for the player to move, or {@link #NO_MOVE} if the game is over.
+   */
+  public int bestMove(int x, int o) {
+    return entry(x, o) & 0xf;
+  }
+
+  /**
+   * @param x The squares of player X.
+   * @param o The squares of player O.
+   * @return {@link #WIN}, {@link #DRAW} or {@link #LOSS} with perfect play, for the player to move.
+   */
+  public int value(int x, int o) {
+    return (entry(x, o) >> 4) & 0x3;
+  }
+
+  @Override
+  public int chooseMove(GameBoard board) {
+    if (!(board instanceof BitBoard)) {
+      throw new IllegalArgumentException("The opening book only covers the 3×3 game");
+    }
+    BitBoard bits = (BitBoard) board;
+    return bestMove(bits.getMarks(GameBoard.PLAYER_X), bits.getMarks(GameBoard.PLAYER_O));
+  }
+}
@@ -0,0 +1,351 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computer player for large boards. It searches with iterative deepening alpha-beta until the time for a move runs
+ * out and plays the best move of the last completed depth. Each depth is split at the root: the first move is
+ * searched alone to get a bound, then the other moves run as tasks of a {@link ForkJoinPool} whose idle workers steal
+ * them, and every finished move raises the shared bound of the moves still running.
+ *
+ * The threads share a lockless transposition table. Every slot is two longs, the entry and the position hash xor the
+ * entry, so a slot torn by two threads writing at once does not verify and is ignored. Instances are thread-safe and
+ * meant to be shared by all rooms of a server.
+ */
+public final class ParallelSearch implements Strategy {
+
+  private final static int WIN = 1_000_000_000; // score of a win before subtracting the marks on the board
+  private final static int INFINITY = Integer.MAX_VALUE; // larger than any score
+  private final static int EXACT = 1; // table entry holds the exact score
+  private final static int LOWER = 2; // table entry holds a lower bound
+  private final static int UPPER = 3; // table entry holds an upper bound
+  private final static int NO_MOVE = 0xfffff; // table entry without a best move, larger than any square
+  private final static int MAX_BRANCHING = 16; // moves searched per position, in order of the move heuristic
+  private final static int CHECK_INTERVAL = 1024; // nodes between looks at the clock
+  private final static int TABLE_BITS = 20; // log2 of the number of table slots
+
+  private final ForkJoinPool pool; // runs the root moves
+  private final long moveTimeNanos; // time for one move, 0 for no limit
+  private final int maxDepth; // deepest iteration
+  private final long[] keys = new long[1 << TABLE_BITS]; // hash ^ entry of each slot
+  private final long[] entries = new long[1 << TABLE_BITS]; // score, depth, bound and move of each slot
+  private final LongAdder nodes = new LongAdder(); // positions searched by all threads
+  private final LongAdder completedDepth = new LongAdder(); // sum of the depths reached by chooseMove
+
+  /**
+   * @param parallelism Number of worker threads.
+   * @param moveTimeMillis Time for one move, 0 to always search to the maximum depth.
+   * @param maxDepth Deepest iteration in plies.
+   */
+  public ParallelSearch(int parallelism, long moveTimeMillis, int maxDepth) {
+    this.pool = new ForkJoinPool(parallelism);
+    this.moveTimeNanos = TimeUnit.MILLISECONDS.toNanos(moveTimeMillis);
+    this.maxDepth = maxDepth;
+  }
+
+  @Override
+  public boolean isExpensive() {
+    return true;
+  }
+
+  @Override
+  public int chooseMove(GameBoard board) {
+    return search(board, maxDepth);
+  }
+
+  /**
+   * Search the position with iterative deepening.
+   *
+   * @param board The game, which is not over.
+   * @param depth Deepest iteration in plies, searching stops earlier if the time for the move runs out.
+   * @return The best move of the deepest completed iteration.
+   */
+  public int search(GameBoard board, int depth) {
+    SearchBoard root = new SearchBoard(board);
+    int player = board.getCurrentPlayer();
+    long deadline = moveTimeNanos > 0 ? System.nanoTime() + moveTimeNanos : Long.MAX_VALUE;
+    Search search = new Search(deadline);
+
+    int[] moves = new int[root.size * root.size];
+    int count = orderMoves(root, player, moves, NO_MOVE, Integer.MAX_VALUE);
+    for (int i = 0; i < count; i++) {
+      SearchBoard copy = root.copy();
+      if (copy.place(moves[i], player)) {
+        return moves[i]; // winning at once needs no search
+      }
+    }
+
+    int best = moves[0]; // the heuristic's favorite in case not even depth 1 completes
+    for (int d = 1; d <= depth; d++) {
+      int move = pool.invoke(new RootTask(search, root, player, moves, count, best, d));
+      if (search.aborted) {
+        break;
+      }
+      best = move;
+      completedDepth.add(1);
+    }
+    return best;
+  }
+
+  /**
+   * @return Positions searched by all calls so far.
+   */
+  public long getNodes() {
+    return nodes.sum();
+  }
+
+  /**
+   * @return Sum of the deepest completed iteration over all calls so far.
+   */
+  public long getCompletedDepth() {
+    return completedDepth.sum();
+  }
+
+  /**
+   * @return Number of worker threads.
+   */
+  public int getParallelism() {
+    return pool.getParallelism();
+  }
+
+  /**
+   * Forget all cached positions, for measuring a cold start.
+   */
+  public void clearTable() {
+    Arrays.fill(keys, 0);
+    Arrays.fill(entries, 0);
+  }
+
+  /**
+   * Stop the worker threads.
+   */
+  public void close() {
+    pool.shutdown();
+  }
+
+  // state of one chooseMove call shared by its tasks
+  private static final class Search {
+    final long deadline; // System.nanoTime() at which to stop
+    volatile boolean aborted; // time ran out, results of the current iteration are incomplete
+
+    Search(long deadline) {
+      this.deadline = deadline;
+    }
+  }
+
+  // one iteration: search the best move alone, then the others in parallel
+  private final class RootTask extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = 1L; // never serialized, ForkJoinTask is Serializable
+    private final Search search;
+    private final SearchBoard board;
+    private final int player;
+    private final int[] moves;
+    private final int count;
+    private final int previousBest;
+    private final int depth;
+
+    RootTask(Search search, SearchBoard board, int player, int[] moves, int count, int previousBest, int depth) {
+      this.search = search;
+      this.board = board;
+      this.player = player;
+      this.moves = moves;
+      this.count = count;
+      this.previousBest = previousBest;
+      this.depth = depth;
+    }
+
+    @Override
+    protected Integer compute() {
+      AtomicInteger alpha = new AtomicInteger(-INFINITY);
+      MoveTask first = new MoveTask(search, board, player, previousBest, depth, alpha);
+      first.compute();
+
+      List<MoveTask> rest = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        if (moves[i] != previousBest) {
+          rest.add(new MoveTask(search, board, player, moves[i], depth, alpha));
+        }
+      }
+      invokeAll(rest);
+
+      MoveTask best = first;
+      for (MoveTask task : rest) {
+        if (task.exact && task.score > best.score) {
+          best = task;
+        }
+      }
+      return best.move;
+    }
+  }
+
+  // search one root move on a private copy of the board
+  private final class MoveTask extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = 1L; // never serialized, ForkJoinTask is Serializable
+    private final Search search;
+    private final SearchBoard root;
+    private final int player;
+    private final int move;
+    private final int depth;
+    private final AtomicInteger alpha; // best score of the finished root moves
+    private int score; // result, an upper bound unless exact
+    private boolean exact; // whether the score beat the bound the move was searched with
+
+    MoveTask(Search search, SearchBoard root, int player, int move, int depth, AtomicInteger alpha) {
+      this.search = search;
+      this.root = root;
+      this.player = player;
+      this.move = move;
+      this.depth = depth;
+      this.alpha = alpha;
+    }
+
+    @Override
+    protected Integer compute() {
+      Worker worker = new Worker(search, root.copy(), depth);
+      int bound = alpha.get();
+      if (worker.board.place(move, player)) {
+        score = WIN - worker.board.filled;
+      } else {
+        score = -worker.negamax(player ^ 1, depth - 1, 1, -INFINITY, -bound);
+      }
+      nodes.add(worker.nodes);
+      exact = score > bound;
+      if (exact) {
+        alpha.accumulateAndGet(score, Math::max);
+      }
+      return score;
+    }
+  }
+
+  // sequential alpha-beta on the board of one task
+  private final class Worker {
+    private final Search search;
+    private final SearchBoard board;
+    private final int[][] moves; // candidate moves of each ply
+    private final int[] heuristic; // ordering keys of the moves of the current node
+    private long nodes; // positions searched
+
+    Worker(Search search, SearchBoard board, int depth) {
+      this.search = search;
+      this.board = board;
+      this.moves = new int[depth + 1][];
+      this.heuristic = new int[board.size * board.size];
+    }
+
+    int negamax(int player, int depth, int ply, int alpha, int beta) {
+      if (++nodes % CHECK_INTERVAL == 0 && System.nanoTime() > search.deadline) {
+        search.aborted = true;
+      }
+      if (search.aborted) {
+        return 0; // the iteration is thrown away
+      }
+      if (board.filled == board.size * board.size) {
+        return 0; // tie
+      }
+      if (depth == 0) {
+        return player == GameBoard.PLAYER_X ? board.eval : -board.eval;
+      }
+
+      int slot = (int) board.hash & (keys.length - 1);
+      long entry = entries[slot];
+      int tableMove = NO_MOVE;
+      if ((keys[slot] ^ entry) == board.hash) {
+        tableMove = (int) (entry >>> 10) & NO_MOVE;
+        int tableScore = (int) (entry >>> 32);
+        if (((entry >>> 2) & 0xff) >= depth) {
+          int bound = (int) entry & 0x3;
+          if (bound == EXACT || (bound == LOWER && tableScore >= beta) || (bound == UPPER && tableScore <= alpha)) {
+            return tableScore;
+          }
+        }
+      }
+
+      if (moves[ply] == null) {
+        moves[ply] = new int[board.size * board.size];
+      }
+      int[] candidates = moves[ply];
+      int count = orderMoves(board, player, candidates, tableMove, MAX_BRANCHING, heuristic);
+
+      int originalAlpha = alpha;
+      int best = -INFINITY;
+      int bestMove = NO_MOVE;
+      for (int i = 0; i < count; i++) {
+        int move = candidates[i];
+        int eval = board.eval;
+        int minRow = board.minRow;
+        int maxRow = board.maxRow;
+        int minColumn = board.minColumn;
+        int maxColumn = board.maxColumn;
+        int score = board.place(move, player) ? WIN - board.filled
+          : -negamax(player ^ 1, depth - 1, ply + 1, -beta, -alpha);
+        board.remove(move, player);
+        board.eval = eval;
+        board.minRow = minRow;
+        board.maxRow = maxRow;
+        board.minColumn = minColumn;
+        board.maxColumn = maxColumn;
+
+        if (search.aborted) {
+          return 0;
+        }
+        if (score > best) {
+          best = score;
+          bestMove = move;
+        }
+        alpha = Math.max(alpha, score);
+        if (alpha >= beta) {
+          break;
+        }
+      }
+
+      int bound = best <= originalAlpha ? UPPER : best >= beta ? LOWER : EXACT;
+      long packed = (long) best << 32 | (long) bestMove << 10 | (long) depth << 2 | bound;
+      entries[slot] = packed;
+      keys[slot] = board.hash ^ packed;
+      return best;
+    }
+  }
+
+  private static int orderMoves(SearchBoard board, int player, int[] moves, int first, int limit) {
+    return orderMoves(board, player, moves, first, limit, new int[board.size * board.size]);
+  }
+
+  /**
+   * Generate the candidate moves and sort the most promising to the front: the move from the table first, then by
+   * how much the move improves the player's windows plus how much it spoils the opponent's.
+   *
+   * @return The number of moves to search, at most the limit.
+   */
+  private static int orderMoves(SearchBoard board, int player, int[] moves, int first, int limit, int[] order) {
+    int count = board.generateMoves(moves);
+    int sign = player == GameBoard.PLAYER_X ? 1 : -1;
+    for (int i = 0; i < count; i++) {
+      order[i] = moves[i] == first ? INFINITY
+        : sign * board.evalDelta(moves[i], player) - sign * board.evalDelta(moves[i], player ^ 1);
+    }
+    int searched = Math.min(count, limit);
+    for (int i = 0; i < searched; i++) {
+      int max = i;
+      for (int j = i + 1; j < count; j++) {
+        if (order[j] > order[max]) {
+          max = j;
+        }
+      }
+      int move = moves[i];
+      moves[i] = moves[max];
+      moves[max] = move;
+      int key = order[i];
+      order[i] = order[max];
+      order[max] = key;
+    }
+    return searched;
+  }
+}
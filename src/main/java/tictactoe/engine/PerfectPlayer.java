@@ -0,0 +1,194 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import java.util.Arrays;
+
+/**
+ * Computer player for the classic 3×3 game that never loses. It searches with negamax and alpha-beta pruning and
+ * caches every evaluated position in a transposition table shared by all instances. The table is indexed by a
+ * canonical key, the smallest key among the eight rotations and reflections of the position, so symmetric positions
+ * share one entry. Once the table is warm a reply takes a few table lookups.
+ */
+public final class PerfectPlayer implements Strategy {
+
+  private final static int WIN = 10; // score of a win before subtracting the plies played
+  private final static int INFINITY = 100; // larger than any score
+  private final static int EXACT = 1; // table entry holds the exact score
+  private final static int LOWER = 2; // table entry holds a lower bound
+  private final static int UPPER = 3; // table entry holds an upper bound
+  private final static int SCORE_OFFSET = 16; // makes scores positive for packing
+
+  /**
+   * {@code SYMMETRIES[s][mask]} is the mask after applying symmetry {@code s}, symmetry 0 is the identity.
+   */
+  private final static int[][] SYMMETRIES = new int[8][BitBoard.FULL + 1];
+
+  /**
+   * Entries packed as {@code bound << 5 | score + SCORE_OFFSET}, 0 for positions not searched yet. Indexed by
+   * {@code canonical(toMove, other)}, an 18 bit key. Single byte writes make sharing between threads safe.
+   */
+  private final static byte[] TABLE = new byte[1 << 18];
+
+  static {
+    for (int s = 0; s < 8; s++) {
+      int[] target = new int[BitBoard.SQUARES]; // where each square goes under this symmetry
+      for (int square = 0; square < BitBoard.SQUARES; square++) {
+        int row = square / 3;
+        int column = square % 3;
+        for (int turn = 0; turn < s % 4; turn++) {
+          int rotated = column;
+          column = 2 - row;
+          row = rotated;
+        }
+        if (s >= 4) {
+          column = 2 - column; // mirror
+        }
+        target[square] = row * 3 + column;
+      }
+      for (int mask = 0; mask <= BitBoard.FULL; mask++) {
+        int image = 0;
+        for (int square = 0; square < BitBoard.SQUARES; square++) {
+          if ((mask & (1 << square)) != 0) {
+            image |= 1 << target[square];
+          }
+        }
+        SYMMETRIES[s][mask] = image;
+      }
+    }
+  }
+
+  private long nodes; // positions searched by this instance
+  private long probes; // table lookups by this instance
+  private long hits; // table lookups that found an entry
+
+  /**
+   * Forget all cached positions, for measuring a cold start.
+   */
+  public static void clearTable() {
+    Arrays.fill(TABLE, (byte) 0);
+  }
+
+  @Override
+  public int chooseMove(GameBoard board) {
+    if (!(board instanceof BitBoard)) {
+      throw new IllegalArgumentException("The perfect player only plays the 3×3 game");
+    }
+    BitBoard bits = (BitBoard) board;
+    int me = bits.getMarks(bits.getCurrentPlayer());
+    int other = bits.getMarks(bits.getCurrentPlayer() ^ 1);
+    return chooseMove(me, other);
+  }
+
+  /**
+   * Choose the best square for the player to move.
+   *
+   * @param me The squares of the player to move.
+   * @param other The squares of the opponent.
+   * @return The square with the best score, the lowest one among equals.
+   */
+  public int chooseMove(int me, int other) {
+    int free = ~(me | other) & BitBoard.FULL;
+    int best = -INFINITY;
+    int bestMove = Integer.numberOfTrailingZeros(free);
+
+    for (int moves = free; moves != 0; moves &= moves - 1) {
+      int move = Integer.numberOfTrailingZeros(moves);
+      int score = -search(other, me | (1 << move), -INFINITY, -best);
+      if (score > best) {
+        best = score;
+        bestMove = move;
+      }
+    }
+    return bestMove;
+  }
+
+  /**
+   * Score of a position for the player to move: {@code WIN - plies} for a win, 0 for a draw and negative for a loss.
+   *
+   * @param me The squares of the player to move.
+   * @param other The squares of the player who just moved.
+   * @return The score of the position.
+   */
+  public int evaluate(int me, int other) {
+    return search(me, other, -INFINITY, INFINITY);
+  }
+
+  private int search(int me, int other, int alpha, int beta) {
+    nodes++;
+    int occupied = me | other;
+    if (BitBoard.isWin(other)) {
+      return Integer.bitCount(occupied) - WIN; // the player who just moved won
+    }
+    if (occupied == BitBoard.FULL) {
+      return 0; // tie
+    }
+
+    int originalAlpha = alpha;
+    int key = canonical(me, other);
+    probes++;
+    int entry = TABLE[key];
+    if (entry != 0) {
+      hits++;
+      int score = (entry & 0x1f) - SCORE_OFFSET;
+      int bound = entry >> 5;
+      if (bound == EXACT) {
+        return score;
+      } else if (bound == LOWER) {
+        alpha = Math.max(alpha, score);
+      } else {
+        beta = Math.min(beta, score);
+      }
+      if (alpha >= beta) {
+        return score;
+      }
+    }
+
+    int best = -INFINITY;
+    for (int moves = ~occupied & BitBoard.FULL; moves != 0; moves &= moves - 1) {
+      int score = -search(other, me | (moves & -moves), -beta, -alpha);
+      if (score > best) {
+        best = score;
+        if (score > alpha) {
+          alpha = score;
+          if (alpha >= beta) {
+            break;
+          }
+        }
+      }
+    }
+
+    int bound = best <= originalAlpha ? UPPER : best >= beta ? LOWER : EXACT;
+    TABLE[key] = (byte) (bound << 5 | (best + SCORE_OFFSET));
+    return best;
+  }
+
+  // smallest key of the position among its eight symmetries
+  private static int canonical(int me, int other) {
+    int key = Integer.MAX_VALUE;
+    for (int[] symmetry : SYMMETRIES) {
+      key = Math.min(key, symmetry[me] | symmetry[other] << 9);
+    }
+    return key;
+  }
+
+  /**
+   * @return The number of positions searched by this player.
+   */
+  public long getNodes() {
+    return nodes;
+  }
+
+  /**
+   * @return The number of transposition table lookups by this player.
+   */
+  public long getProbes() {
+    return probes;
+  }
+
+  /**
+   * @return The number of transposition table lookups that found an entry.
+   */
+  public long getHits() {
+    return hits;
+  }
+}
@@ -0,0 +1,225 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Mutable copy of a board for searching, with make and unmake of moves. It keeps a Zobrist hash and a static
+ * evaluation up to date on every move by only looking at the windows of K squares through the changed square, and it
+ * tracks the bounding box of the marks so that move generation only scans the area in play. Not thread-safe, every
+ * search thread works on its own copy.
+ */
+final class SearchBoard {
+
+  private final static int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}}; // row, column steps of the lines
+  private final static int MAX_WEIGHT_MARKS = 5; // windows with more marks score the same
+  private final static int[] WEIGHTS = {0, 1, 10, 100, 1000, 10000}; // score of a window by its number of marks
+  private final static ConcurrentMap<Integer, long[][]> ZOBRIST = new ConcurrentHashMap<>(); // keys by board size
+  private final static int MARGIN = 2; // distance from the marks in which moves are generated
+
+  final int size; // number of rows and columns
+  final int winLength; // marks in a row that win
+  private final byte[] cells; // 0 for empty or player number + 1
+  private final long[][] keys; // Zobrist key of each player's mark on each square
+  long hash; // Zobrist hash of the marks
+  int eval; // static evaluation from player X's point of view
+  int filled; // number of marks
+  int minRow, maxRow, minColumn, maxColumn; // bounding box of the marks, empty if minRow > maxRow
+
+  SearchBoard(GameBoard board) {
+    size = board.getSize();
+    winLength = board.getWinLength();
+    cells = new byte[size * size];
+    keys = ZOBRIST.computeIfAbsent(size, SearchBoard::newKeys);
+    minRow = minColumn = size;
+    maxRow = maxColumn = -1;
+    for (int location = 0; location < cells.length; location++) {
+      int mark = board.getMark(location);
+      if (mark != GameBoard.EMPTY) {
+        place(location, mark);
+      }
+    }
+  }
+
+  private SearchBoard(SearchBoard other) {
+    size = other.size;
+    winLength = other.winLength;
+    cells = other.cells.clone();
+    keys = other.keys;
+    hash = other.hash;
+    eval = other.eval;
+    filled = other.filled;
+    minRow = other.minRow;
+    maxRow = other.maxRow;
+    minColumn = other.minColumn;
+    maxColumn = other.maxColumn;
+  }
+
+  private static long[][] newKeys(int size) {
+    SplittableRandom random = new SplittableRandom(size);
+    long[][] keys = new long[2][size * size];
+    for (long[] player : keys) {
+      for (int i = 0; i < player.length; i++) {
+        player[i] = random.nextLong();
+      }
+    }
+    return keys;
+  }
+
+  SearchBoard copy() {
+    return new SearchBoard(this);
+  }
+
+  boolean isEmpty(int location) {
+    return cells[location] == 0;
+  }
+
+  /**
+   * Place a mark. Callers save {@link #eval} and the bounding box before and restore them in {@link #remove}.
+   *
+   * @return True if the mark completes a line.
+   */
+  boolean place(int location, int player) {
+    eval += evalDelta(location, player);
+    cells[location] = (byte) (player + 1);
+    hash ^= keys[player][location];
+    filled++;
+    int row = location / size;
+    int column = location % size;
+    minRow = Math.min(minRow, row);
+    maxRow = Math.max(maxRow, row);
+    minColumn = Math.min(minColumn, column);
+    maxColumn = Math.max(maxColumn, column);
+    return completesLine(row, column, (byte) (player + 1));
+  }
+
+  // take back a mark, the caller restores eval and the bounding box it saved before place()
+  void remove(int location, int player) {
+    cells[location] = 0;
+    hash ^= keys[player][location];
+    filled--;
+  }
+
+  /**
+   * Collect the empty squares within {@link #MARGIN} of the bounding box of the marks, or the center of an empty
+   * board. If that area is full, all empty squares.
+   *
+   * @param moves Receives the squares, must hold at least {@code size * size} entries.
+   * @return The number of squares written.
+   */
+  int generateMoves(int[] moves) {
+    if (filled == 0) {
+      moves[0] = (size / 2) * size + size / 2;
+      return 1;
+    }
+    int count = 0;
+    int top = Math.max(0, minRow - MARGIN);
+    int bottom = Math.min(size - 1, maxRow + MARGIN);
+    int left = Math.max(0, minColumn - MARGIN);
+    int right = Math.min(size - 1, maxColumn + MARGIN);
+    for (int row = top; row <= bottom; row++) {
+      for (int column = left; column <= right; column++) {
+        int location = row * size + column;
+        if (cells[location] == 0) {
+          moves[count++] = location;
+        }
+      }
+    }
+    if (count == 0) {
+      for (int location = 0; location < cells.length; location++) {
+        if (cells[location] == 0) {
+          moves[count++] = location;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Change of the evaluation if the player placed a mark on the empty square. Only the windows of
+   * {@link #winLength} squares that contain the square change; they are counted by sliding one window along each
+   * line through the square.
+   */
+  int evalDelta(int location, int player) {
+    int row = location / size;
+    int column = location % size;
+    int delta = 0;
+
+    for (int[] direction : DIRECTIONS) {
+      // first and last square of the line within winLength - 1 steps of the square and on the board
+      int back = steps(row, column, -direction[0], -direction[1]);
+      int ahead = steps(row, column, direction[0], direction[1]);
+      if (back + ahead + 1 < winLength) {
+        continue; // no window fits
+      }
+      int step = direction[0] * size + direction[1];
+      int start = location - back * step;
+      int x = 0;
+      int o = 0;
+      for (int i = 0; i < winLength - 1; i++) {
+        byte cell = cells[start + i * step];
+        x += cell & 1;
+        o += cell >> 1;
+      }
+      for (int first = 0; first + winLength <= back + ahead + 1; first++) {
+        byte entering = cells[start + (first + winLength - 1) * step];
+        x += entering & 1;
+        o += entering >> 1;
+        int before = windowScore(x, o);
+        int after = player == GameBoard.PLAYER_X ? windowScore(x + 1, o) : windowScore(x, o + 1);
+        delta += after - before;
+        byte leaving = cells[start + first * step];
+        x -= leaving & 1;
+        o -= leaving >> 1;
+      }
+    }
+    return delta;
+  }
+
+  // squares the line can be followed from the square in the direction, up to winLength - 1
+  private int steps(int row, int column, int rowStep, int columnStep) {
+    int steps = 0;
+    int r = row + rowStep;
+    int c = column + columnStep;
+    while (steps < winLength - 1 && r >= 0 && r < size && c >= 0 && c < size) {
+      steps++;
+      r += rowStep;
+      c += columnStep;
+    }
+    return steps;
+  }
+
+  private static int windowScore(int x, int o) {
+    if (o == 0) {
+      return WEIGHTS[Math.min(x, MAX_WEIGHT_MARKS)];
+    } else if (x == 0) {
+      return -WEIGHTS[Math.min(o, MAX_WEIGHT_MARKS)];
+    }
+    return 0; // blocked window
+  }
+
+  private boolean completesLine(int row, int column, byte mark) {
+    for (int[] direction : DIRECTIONS) {
+      int count = 1 + count(row, column, direction[0], direction[1], mark)
+        + count(row, column, -direction[0], -direction[1], mark);
+      if (count >= winLength) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int count(int row, int column, int rowStep, int columnStep, byte mark) {
+    int count = 0;
+    int r = row + rowStep;
+    int c = column + columnStep;
+    while (count < winLength - 1 && r >= 0 && r < size && c >= 0 && c < size && cells[r * size + c] == mark) {
+      count++;
+      r += rowStep;
+      c += columnStep;
+    }
+    return count;
+  }
+}
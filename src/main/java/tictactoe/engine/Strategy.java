@@ -0,0 +1,23 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+/**
+ * Picks the moves of a computer player.
+ */
+public interface Strategy {
+
+  /**
+   * Choose a move for the current player. The board is not changed.
+   *
+   * @param board The game, which is not over.
+   * @return A valid location on the board.
+   */
+  int chooseMove(GameBoard board);
+
+  /**
+   * @return True if a move takes long enough that it should not run on a thread serving connections.
+   */
+  default boolean isExpensive() {
+    return false;
+  }
+}
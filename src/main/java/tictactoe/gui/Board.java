@@ -7,7 +7,6 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
-import java.awt.Image;
 import java.awt.Insets;
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -17,6 +16,7 @@ import javax.swing.JTextField;
 import tictactoe.GameFiles;
 import tictactoe.TicTacToeClient;
 import tictactoe.TicTacToeServer;
+import tictactoe.tools.ImageCache;
 
 /**
  *
@@ -24,7 +24,7 @@ import tictactoe.TicTacToeServer;
  */
 public class Board extends JPanel {
 
-  private final Image startscreen;
+  private final ImageCache.Asset startscreen; // decoded in the background
   private static Board instance;
   private final JButton startServer;
   private final JButton startClient;
@@ -36,6 +36,7 @@ public class Board extends JPanel {
     serverAddress = new JTextField(15);
 
     startscreen = GameFiles.STARTSCREEN;
+    startscreen.addLoadListener(this::repaint);
     initBoard();
     setServerButton();
     setClientButton();
@@ -76,15 +77,15 @@ public class Board extends JPanel {
   }
 
   private void initBoard() {
-    int w = startscreen.getWidth(this);
-    int h = startscreen.getHeight(this);
+    int w = startscreen.getWidth();
+    int h = startscreen.getHeight();
     setPreferredSize(new Dimension(w, h));
   }
 
   @Override
   public void paintComponent(Graphics g) {
     super.paintComponent(g);
-    g.drawImage(startscreen, 0, 0, null);
+    startscreen.draw(g, 0, 0); // nothing until it is decoded, the listener repaints then
   }
 
   private void setServerButton() {
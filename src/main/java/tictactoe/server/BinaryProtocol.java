@@ -0,0 +1,103 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary form of the messages of a running game. A client asks for it by sending the line {@link #REQUEST}
+ * instead of a move; the server answers with the text line {@link #ACCEPTED}, and from then on both sides only send
+ * frames of {@link #FRAME_SIZE} bytes. Messages sent before the answer, like the player's mark, stay text, so a client
+ * reads lines until it sees the answer. Clients that never ask keep the text protocol.
+ *
+ * A frame is, in network byte order: opcode (1 byte), result (1 byte), 2 reserved bytes, room id (4 bytes) and cell
+ * (4 bytes). The server ignores the room id of frames from clients.
+ */
+public final class BinaryProtocol {
+
+  public static final String REQUEST = "BINARY"; // line a client sends to switch to frames
+  public static final String ACCEPTED = "Binary protocol"; // last text line the server sends after the request
+  public static final int FRAME_SIZE = 12; // bytes of every frame
+
+  // opcodes
+  public static final int MOVE = 1; // client to server: the player chose the cell
+  public static final int YOUR_MOVE = 2; // the other player connected, player X begins
+  public static final int VALID = 3; // the player's move was made, result tells if it ended the game
+  public static final int INVALID = 4; // the player's move was not valid, try again
+  public static final int OPPONENT_MOVED = 5; // the other player marked the cell, result tells if it ended the game
+  public static final int TIMED_OUT = 6; // the player to move ran out of time, result tells who that was
+
+  // results
+  public static final int NONE = 0; // the game goes on
+  public static final int VICTORY = 1; // the receiving player won
+  public static final int DEFEAT = 2; // the receiving player lost
+  public static final int TIE = 3; // the board is full
+
+  public static final String TIMED_OUT_LINE = "Move timed out"; // text form of TIMED_OUT, the result follows
+
+  private static final String[] RESULT_LINES = {"", "VICTORY\n", "DEFEAT\n", "TIE\n"}; // text form of the results
+
+  private BinaryProtocol() {
+  }
+
+  /**
+   * Write a frame into an array.
+   *
+   * @param frame Receives the frame.
+   * @param offset Index of the first byte of the frame.
+   * @param opcode What happened, for example {@link #OPPONENT_MOVED}.
+   * @param room The room of the game.
+   * @param cell The cell of a move, 0 if the message has none.
+   * @param result {@link #NONE} or how the game ended.
+   */
+  public static void encode(byte[] frame, int offset, int opcode, int room, int cell, int result) {
+    frame[offset] = (byte) opcode;
+    frame[offset + 1] = (byte) result;
+    frame[offset + 2] = 0;
+    frame[offset + 3] = 0;
+    putInt(frame, offset + 4, room);
+    putInt(frame, offset + 8, cell);
+  }
+
+  /**
+   * Append a frame to a buffer with at least {@link #FRAME_SIZE} bytes remaining.
+   */
+  public static void encode(ByteBuffer buffer, int opcode, int room, int cell, int result) {
+    buffer.put((byte) opcode).put((byte) result).putShort((short) 0).putInt(room).putInt(cell);
+  }
+
+  public static int opcode(byte[] frame, int offset) {
+    return frame[offset] & 0xff;
+  }
+
+  public static int result(byte[] frame, int offset) {
+    return frame[offset + 1] & 0xff;
+  }
+
+  public static int room(byte[] frame, int offset) {
+    return getInt(frame, offset + 4);
+  }
+
+  public static int cell(byte[] frame, int offset) {
+    return getInt(frame, offset + 8);
+  }
+
+  /**
+   * @param result A result code.
+   * @return The line the text protocol sends for the result, empty for {@link #NONE}.
+   */
+  public static String resultLine(int result) {
+    return RESULT_LINES[result];
+  }
+
+  private static void putInt(byte[] frame, int offset, int value) {
+    frame[offset] = (byte) (value >>> 24);
+    frame[offset + 1] = (byte) (value >>> 16);
+    frame[offset + 2] = (byte) (value >>> 8);
+    frame[offset + 3] = (byte) value;
+  }
+
+  private static int getInt(byte[] frame, int offset) {
+    return (frame[offset] & 0xff) << 24 | (frame[offset + 1] & 0xff) << 16 | (frame[offset + 2] & 0xff) << 8
+      | frame[offset + 3] & 0xff;
+  }
+}
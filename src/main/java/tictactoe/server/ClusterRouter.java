@@ -0,0 +1,568 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Front of several servers, each a routed {@link Lobby} in a process of its own. The router pairs the players in
+ * arrival order and gives every pair a room id, and a {@link HashRing} names the server that owns the room, so the
+ * two players of a room, its spectators and the players coming back with their sessions all reach the same server.
+ * The router only reads the first line of a connection, then copies the bytes both ways, so the clients speak the
+ * same protocol as with a single server.
+ * <ul>
+ * <li>Players connect to the port of the router and are sent on with {@code ROOM <id>}.</li>
+ * <li>Spectators connect to the spectator port: {@code WATCH <room>} goes to the server of the room, {@code LIST}
+ * asks every server and answers with all rooms.</li>
+ * <li>Players whose connection failed connect to the reconnect port, which the servers announce in place of their
+ * own; {@code RESUME <token> <moves>} goes to the server of the room in the token, and to the other servers, also
+ * those that drained, if that one does not know the session, as for a game that ended while a player was away and
+ * so stayed where it was.</li>
+ * </ul>
+ *
+ * A server that drains is taken off the ring, so new rooms go to the others, and its rooms move to the servers that
+ * own them now: it freezes its games and describes them, the new owners rebuild them with the sessions of the
+ * players, and only then it closes the connections, whose clients come back through the router to the new owner.
+ * A server that is added takes over the rooms the ring gives it from the others the same way. New connections wait
+ * while rooms move. If a new owner cannot be reached the old one keeps its games.
+ */
+public final class ClusterRouter implements Closeable {
+
+  // commands to the servers, each the first line of a connection to the port of the server
+  public static final String ROOM = "ROOM"; // a player of the room with the id that follows
+  public static final String INFO = "INFO"; // asks for the other ports of the server
+  public static final String NODE = "Node"; // answer to INFO, followed by the spectator and the reconnect port
+  public static final String DRAIN = "DRAIN"; // freezes the games of the server and asks for them, then END
+  public static final String IMPORT = "IMPORT"; // followed by games to take over, one line each, then END
+  public static final String IMPORTED = "Imported"; // answer to IMPORT, followed by the number of games
+  public static final String END = "END"; // ends a list of games
+  public static final String DONE = "DONE"; // followed by the ids of the games that were taken over, closed there
+  public static final String ABORT = "ABORT"; // none were, the server plays on with all of them
+
+  private static final int CONNECT_MILLIS = 2000; // time to connect to a server
+  private static final int COMMAND_MILLIS = 5000; // time a spectator or a returning player has for its first line
+  private static final int MAX_COMMAND = 80; // bytes of that line
+  private static final int ANSWER_MILLIS = 1000; // time a server has to answer the first line before rooms may move
+
+  /**
+   * A server behind the router.
+   */
+  public static final class Node {
+
+    private final String host;
+    private final int port; // for players and commands
+    private final int spectatorPort; // of its SpectatorHub, -1 if it has none
+    private final int reconnectPort; // of its Reconnector
+
+    private Node(String host, int port, int spectatorPort, int reconnectPort) {
+      this.host = host;
+      this.port = port;
+      this.spectatorPort = spectatorPort;
+      this.reconnectPort = reconnectPort;
+    }
+
+    // host:port, unique among the servers
+    public String getName() {
+      return host + ":" + port;
+    }
+
+    @Override
+    public String toString() {
+      return getName() + " (spectators " + spectatorPort + ", reconnect " + reconnectPort + ")";
+    }
+  }
+
+  private final ServerSocket players; // accepts the players
+  private final ServerSocket spectators; // accepts the spectators
+  private final ServerSocket reconnects; // accepts the returning players
+  private final ExecutorService relays; // copies the bytes of the connections
+  private final HashRing<Node> ring = new HashRing<>(); // owner of every room
+  private final Map<String, Node> nodes = new LinkedHashMap<>(); // servers by name, guarded by itself
+  private final Map<String, Node> drained = new LinkedHashMap<>(); // servers taken off the ring, guarded by nodes
+  private final ReentrantReadWriteLock moving = new ReentrantReadWriteLock(); // written while rooms move
+  private final AtomicInteger nextRoomId = new AtomicInteger(); // id of the next room
+  private int pendingRoom; // room whose player X waits for player O, 0 for none, guarded by this
+  private volatile boolean closed; // set once close() was called
+
+  /**
+   * Listen on the three ports and start their accept threads.
+   *
+   * @param port The port for players, 0 for any free port.
+   * @param spectatorPort The port for spectators, 0 for any free port.
+   * @param reconnectPort The port for returning players, 0 for any free port. The servers must announce it.
+   * @param mode The kind of thread that copies the bytes of a connection, two per connection.
+   * @throws IOException If a port could not be opened.
+   */
+  public ClusterRouter(int port, int spectatorPort, int reconnectPort, ExecutionMode mode) throws IOException {
+    players = new ServerSocket(port);
+    spectators = new ServerSocket(spectatorPort);
+    reconnects = new ServerSocket(reconnectPort);
+    relays = mode.newExecutor(0);
+    start(players, this::player, "router-players");
+    start(spectators, socket -> relays.execute(() -> spectator(socket)), "router-spectators");
+    start(reconnects, socket -> relays.execute(() -> reconnect(socket)), "router-reconnect");
+  }
+
+  public int getPort() {
+    return players.getLocalPort();
+  }
+
+  public int getSpectatorPort() {
+    return spectators.getLocalPort();
+  }
+
+  public int getReconnectPort() {
+    return reconnects.getLocalPort();
+  }
+
+  /**
+   * Put a server on the ring and move the running rooms it owns now from the other servers to it.
+   *
+   * @param host The host of the server.
+   * @param port Its port, started with {@code --routed true}.
+   * @return The server.
+   * @throws IOException If the server did not answer, or the rooms of another server could not move. The server is
+   * on the ring in the second case, and the rooms that stayed behind cannot be reached until they end.
+   */
+  public Node addNode(String host, int port) throws IOException {
+    String answer;
+    try (Socket socket = connect(host, port)) {
+      socket.getOutputStream().write((INFO + "\n").getBytes(StandardCharsets.US_ASCII));
+      answer = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII))
+        .readLine();
+    }
+    String[] words = answer == null ? new String[0] : answer.split(" ");
+    if (words.length != 3 || !words[0].equals(NODE)) {
+      throw new IOException(host + ":" + port + " is not a routed server");
+    }
+    Node node = new Node(host, port, Integer.parseInt(words[1]), Integer.parseInt(words[2]));
+    moving.writeLock().lock();
+    try {
+      synchronized (nodes) {
+        if (nodes.putIfAbsent(node.getName(), node) != null) {
+          throw new IllegalArgumentException(node.getName() + " is on the ring already");
+        }
+        drained.remove(node.getName());
+      }
+      ring.add(node, node.getName());
+      IOException failure = null;
+      for (Node other : getNodes()) {
+        if (other != node) {
+          try {
+            rebalance(other);
+          } catch (IOException ioException) {
+            failure = failure != null ? failure : ioException; // the others move theirs all the same
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    } finally {
+      moving.writeLock().unlock();
+    }
+    return node;
+  }
+
+  /**
+   * Take a server off the ring and move its running rooms to the servers that own them now. Players and spectators
+   * that connect meanwhile wait until the rooms have moved.
+   *
+   * @param name The name of the server, host:port.
+   * @return The number of rooms that moved.
+   * @throws IOException If the rooms could not be moved, the server then stays on the ring with its games.
+   */
+  public int drain(String name) throws IOException {
+    moving.writeLock().lock();
+    try {
+      Node node;
+      synchronized (nodes) {
+        node = nodes.get(name);
+        if (node == null) {
+          throw new IllegalArgumentException("No server " + name);
+        }
+        if (nodes.size() == 1) {
+          throw new IllegalArgumentException("The last server cannot drain");
+        }
+        nodes.remove(name);
+      }
+      ring.remove(node);
+      try {
+        int moved = rebalance(node);
+        synchronized (nodes) {
+          drained.put(name, node); // it may still have sessions of games that ended there
+        }
+        return moved;
+      } catch (IOException | RuntimeException exception) {
+        synchronized (nodes) {
+          nodes.put(name, node);
+        }
+        ring.add(node, name);
+        throw exception;
+      }
+    } finally {
+      moving.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return The servers on the ring, in the order they were added.
+   */
+  public List<Node> getNodes() {
+    synchronized (nodes) {
+      return new ArrayList<>(nodes.values());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    players.close();
+    spectators.close();
+    reconnects.close();
+    relays.shutdownNow(); // the relays end as their sockets close
+  }
+
+  // move the rooms of a server that the ring gives to others, called with the write lock, returns how many moved
+  private int rebalance(Node node) throws IOException {
+    try (Socket socket = connect(node.host, node.port)) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+        StandardCharsets.US_ASCII));
+      Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII);
+      writer.write(DRAIN + "\n");
+      writer.flush();
+      Map<Node, List<String>> owners = new LinkedHashMap<>(); // the games that move by their new server
+      StringBuilder moved = new StringBuilder(DONE);
+      int count = 0;
+      String line;
+      while ((line = reader.readLine()) != null && !line.equals(END)) {
+        String id = line.substring(0, line.indexOf(' ')); // each game starts with the id of its room
+        Node owner = ring.lookup(Integer.parseInt(id));
+        if (owner != null && owner != node) {
+          owners.computeIfAbsent(owner, key -> new ArrayList<>()).add(line);
+          moved.append(' ').append(id);
+          count++;
+        }
+      }
+      if (line == null) {
+        throw new IOException(node.getName() + " closed the connection while its rooms were moving");
+      }
+      try {
+        for (Map.Entry<Node, List<String>> owner : owners.entrySet()) {
+          importTo(owner.getKey(), owner.getValue());
+        }
+      } catch (IOException | RuntimeException exception) {
+        writer.write(ABORT + "\n"); // the server plays on with all its games
+        writer.flush();
+        throw exception;
+      }
+      writer.write(moved + "\n");
+      writer.flush();
+      reader.readLine(); // the server closes the connection once it closed the games that moved
+      return count;
+    }
+  }
+
+  // accept connections on a thread of its own until the router is closed
+  private void start(ServerSocket server, Handler handler, String name) {
+    Thread thread = new Thread(() -> {
+      while (!closed) {
+        try {
+          Socket socket = server.accept();
+          socket.setTcpNoDelay(true); // a move is a single write
+          handler.accept(socket);
+        } catch (IOException ioException) {
+          if (!closed) {
+            System.out.println(ioException.toString());
+          }
+        }
+      }
+    }, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // give a player the room of the waiting one, or a new room, on the accept thread so pairs keep arrival order
+  private void player(Socket client) {
+    int room;
+    synchronized (this) {
+      if (pendingRoom == 0) {
+        pendingRoom = nextRoomId.incrementAndGet();
+        room = pendingRoom;
+      } else {
+        room = pendingRoom;
+        pendingRoom = 0;
+      }
+    }
+    relays.execute(() -> {
+      Socket server = open(room, node -> node.port, ROOM + " " + room + "\n", client, false);
+      if (server != null) {
+        relay(client, server, room);
+      } else {
+        closeQuietly(client);
+        roomClosed(room);
+      }
+    });
+  }
+
+  // the server closed the connection of a player, a room still waiting for player O is gone with it
+  private synchronized void roomClosed(int room) {
+    if (pendingRoom == room) {
+      pendingRoom = 0;
+    }
+  }
+
+  private void spectator(Socket client) {
+    String command = readCommand(client);
+    String[] words = command == null ? new String[0] : command.trim().split("\\s+");
+    if (words.length == 1 && words[0].equals("LIST")) {
+      list(client);
+      return;
+    }
+    int room = -1;
+    if (words.length == 2 && words[0].equals("WATCH")) {
+      try {
+        room = Integer.parseInt(words[1]);
+      } catch (NumberFormatException numberFormatException) {
+        room = -1;
+      }
+    }
+    Socket server = room < 0 ? null : open(room, node -> node.spectatorPort, command, client, false);
+    if (server != null) {
+      relay(client, server, 0);
+    } else {
+      answer(client, "No such room\n");
+    }
+  }
+
+  // the rooms of all servers, as one answer to LIST
+  private void list(Socket client) {
+    TreeSet<Integer> rooms = new TreeSet<>();
+    for (Node node : getNodes()) {
+      if (node.spectatorPort < 0) {
+        continue;
+      }
+      try (Socket socket = connect(node.host, node.spectatorPort)) {
+        socket.getOutputStream().write("LIST\n".getBytes(StandardCharsets.US_ASCII));
+        String answer = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII))
+          .readLine();
+        String[] words = answer == null ? new String[0] : answer.split(" ");
+        for (int i = 1; i < words.length; i++) {
+          rooms.add(Integer.parseInt(words[i]));
+        }
+      } catch (IOException | NumberFormatException exception) {
+        System.out.println(node.getName() + ": " + exception);
+      }
+    }
+    StringBuilder text = new StringBuilder("Rooms");
+    for (Integer room : rooms) {
+      text.append(' ').append(room);
+    }
+    answer(client, text.append('\n').toString());
+  }
+
+  private void reconnect(Socket client) {
+    String command = readCommand(client);
+    String[] words = command == null ? new String[0] : command.trim().split("\\s+");
+    int room = words.length == 3 && words[0].equals("RESUME") ? Reconnector.roomOf(words[1]) : -1;
+    Socket server = room < 0 ? null : open(room, node -> node.reconnectPort, command, client, true);
+    if (server != null) {
+      relay(client, server, 0);
+    } else {
+      answer(client, Reconnector.EXPIRED + "\n");
+    }
+  }
+
+  // connect to the server of a room, send it the first line and pass on the first line of its answer, null if no server
+  // could be reached; with anyServer a session the owner does not know is tried on the other servers, since a game
+  // that ended while a player was away does not move and keeps its sessions where it ended
+  private Socket open(int room, Port port, String firstLine, Socket client, boolean anyServer) {
+    moving.readLock().lock(); // the room cannot move until the server has seated the client, which it answers
+    try {
+      Node owner = ring.lookup(room);
+      List<Node> candidates = new ArrayList<>(); // the owner first
+      if (anyServer) {
+        synchronized (nodes) {
+          candidates.addAll(nodes.values());
+          candidates.addAll(drained.values());
+        }
+        candidates.remove(owner);
+      }
+      if (owner != null) {
+        candidates.add(0, owner);
+      }
+      ByteArrayOutputStream answer = new ByteArrayOutputStream();
+      for (Iterator<Node> tries = candidates.iterator(); tries.hasNext();) {
+        Node node = tries.next();
+        if (port.of(node) < 0) {
+          continue;
+        }
+        answer.reset();
+        Socket server;
+        try {
+          server = ask(node.host, port.of(node), firstLine, answer);
+        } catch (IOException ioException) {
+          System.out.println(node.getName() + ": " + ioException);
+          continue;
+        }
+        if (tries.hasNext() && answer.toString(StandardCharsets.US_ASCII).equals(Reconnector.EXPIRED + "\n")) {
+          closeQuietly(server);
+          continue;
+        }
+        try {
+          client.getOutputStream().write(answer.toByteArray());
+        } catch (IOException ioException) {
+          closeQuietly(server); // the client is gone
+          return null;
+        }
+        return server;
+      }
+      return null;
+    } finally {
+      moving.readLock().unlock();
+    }
+  }
+
+  // connect to a server, send it the first line and read the first line of its answer, or what arrives of it in time
+  private static Socket ask(String host, int port, String firstLine, ByteArrayOutputStream answer)
+    throws IOException {
+    Socket server = connect(host, port);
+    try {
+      server.getOutputStream().write(firstLine.getBytes(StandardCharsets.US_ASCII));
+      server.setSoTimeout(ANSWER_MILLIS);
+      InputStream in = server.getInputStream();
+      int b = 0;
+      try {
+        while (b != '\n' && (b = in.read()) >= 0) {
+          answer.write(b); // a handful of bytes, the mark of a player or the first line of a replay
+        }
+      } catch (SocketTimeoutException timeout) {
+        // the server answers later, for example once a player out of turn gets it, moves need not wait for that
+      }
+      server.setSoTimeout(0);
+    } catch (IOException ioException) {
+      server.close();
+      throw ioException;
+    }
+    return server;
+  }
+
+  // copy the bytes both ways until the server closes the connection, on this thread and one more
+  private void relay(Socket client, Socket server, int room) {
+    relays.execute(() -> {
+      try {
+        client.getInputStream().transferTo(server.getOutputStream());
+        server.shutdownOutput(); // the server sees the client leave, as without a router
+      } catch (IOException ioException) {
+        closeQuietly(server); // the client failed, so does the connection to the server
+      }
+    });
+    try {
+      server.getInputStream().transferTo(client.getOutputStream());
+    } catch (IOException ioException) {
+      // the client or the server is gone
+    } finally {
+      closeQuietly(client);
+      closeQuietly(server);
+      if (room > 0) {
+        roomClosed(room);
+      }
+    }
+  }
+
+  private static void importTo(Node node, List<String> games) throws IOException {
+    try (Socket socket = connect(node.host, node.port)) {
+      Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII);
+      writer.write(IMPORT + "\n");
+      for (String game : games) {
+        writer.write(game + "\n");
+      }
+      writer.write(END + "\n");
+      writer.flush();
+      String answer = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII))
+        .readLine();
+      if (!(IMPORTED + " " + games.size()).equals(answer)) {
+        throw new IOException(node.getName() + " took over " + answer + " of " + games.size() + " rooms");
+      }
+    }
+  }
+
+  private static Socket connect(String host, int port) throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(host, port), CONNECT_MILLIS);
+      socket.setTcpNoDelay(true);
+    } catch (IOException ioException) {
+      socket.close();
+      throw ioException;
+    }
+    return socket;
+  }
+
+  // read the first line of a client, byte by byte so nothing after it is lost, null if there is none in time
+  private static String readCommand(Socket client) {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    try {
+      client.setSoTimeout(COMMAND_MILLIS);
+      InputStream in = client.getInputStream();
+      int b = 0;
+      while (b != '\n' && line.size() < MAX_COMMAND && (b = in.read()) >= 0) {
+        line.write(b);
+      }
+      client.setSoTimeout(0);
+    } catch (IOException ioException) {
+      return null;
+    }
+    String command = line.toString(StandardCharsets.US_ASCII);
+    return command.endsWith("\n") ? command : null;
+  }
+
+  // send a single message and close
+  private static void answer(Socket client, String message) {
+    try (client) {
+      OutputStream out = client.getOutputStream();
+      out.write(message.getBytes(StandardCharsets.US_ASCII));
+    } catch (IOException ioException) {
+      // the client is gone already
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ioException) {
+      // closed already
+    }
+  }
+
+  // takes an accepted connection
+  private interface Handler {
+    void accept(Socket socket) throws IOException;
+  }
+
+  // the port of a server for one kind of connection
+  private interface Port {
+    int of(Node node);
+  }
+}
@@ -0,0 +1,68 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded stream of the progress messages of a server. Rooms append without locking or waiting, and a viewer reads
+ * at its own pace from the sequence number it got last. Only the newest {@link #getCapacity()} messages are kept, so
+ * a slow viewer skips messages instead of holding memory or slowing the games down.
+ *
+ * A reader that races with writers may find a slot that is not written yet or already overwritten; the stream is
+ * meant for watching a server, not for a record of its games.
+ */
+public final class EventLog implements Consumer<String> {
+
+  private final AtomicReferenceArray<String> events; // ring of the newest messages
+  private final int mask; // capacity - 1, the capacity is a power of two
+  private final AtomicLong next = new AtomicLong(); // sequence number of the next message
+
+  /**
+   * @param capacity The number of messages kept, rounded up to a power of two.
+   */
+  public EventLog(int capacity) {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.events = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+  }
+
+  @Override
+  public void accept(String event) {
+    events.lazySet((int) next.getAndIncrement() & mask, event);
+  }
+
+  public int getCapacity() {
+    return mask + 1;
+  }
+
+  /**
+   * @return The sequence number the next message will get, which is also the number of messages so far.
+   */
+  public long getSequence() {
+    return next.get();
+  }
+
+  /**
+   * Pass messages to a reader, oldest first.
+   *
+   * @param from The sequence number of the first message wanted, usually the result of the previous call.
+   * @param max The most messages to pass.
+   * @param reader Receives the messages.
+   * @return The sequence number to continue from. If it is more than {@code from} plus the messages read, the
+   * messages in between were overwritten before they could be read.
+   */
+  public long read(long from, int max, Consumer<String> reader) {
+    long end = next.get();
+    long sequence = Math.max(from, end - getCapacity()); // older messages are gone
+    long last = Math.min(end, sequence + max);
+    for (; sequence < last; sequence++) {
+      String event = events.get((int) sequence & mask);
+      if (event != null) {
+        reader.accept(event);
+      }
+    }
+    return sequence;
+  }
+}
@@ -0,0 +1,86 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Selects which kind of thread runs the players of the server and the reader of the client. The game is built for
+ * Java 17, but virtual threads need Java 21 or newer, so they are looked up at runtime: the same build uses them when
+ * it runs on 21 or newer and falls back to platform threads, with a notice, on 17 to 20.
+ */
+public enum ExecutionMode {
+  /** Platform threads from a thread pool. */
+  PLATFORM,
+  /** One virtual thread per task. */
+  VIRTUAL;
+
+  private static final ThreadFactory VIRTUAL_FACTORY = virtualThreadFactory(); // null before Java 21
+  private static final Method NEW_THREAD_PER_TASK = threadPerTaskMethod(); // null before Java 21
+  private static boolean warned; // whether the fallback was reported
+
+  /**
+   * @return True if this Java version has virtual threads.
+   */
+  public static boolean isVirtualSupported() {
+    return VIRTUAL_FACTORY != null && NEW_THREAD_PER_TASK != null;
+  }
+
+  /**
+   * Parse a mode given on the command line, ignoring case.
+   *
+   * @param name {@code platform} or {@code virtual}.
+   * @return The mode.
+   */
+  public static ExecutionMode parse(String name) {
+    return valueOf(name.toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * Create an executor that runs every task in its own thread of this mode.
+   *
+   * @param poolSize For platform threads, the number of threads of the pool, or 0 for a pool that grows as needed.
+   * Ignored for virtual threads.
+   * @return The executor.
+   */
+  public ExecutorService newExecutor(int poolSize) {
+    if (this == VIRTUAL) {
+      if (isVirtualSupported()) {
+        try {
+          return (ExecutorService) NEW_THREAD_PER_TASK.invoke(null, VIRTUAL_FACTORY);
+        } catch (ReflectiveOperationException ex) {
+          throw new IllegalStateException("Cannot create virtual thread executor", ex);
+        }
+      }
+      warnFallback();
+    }
+    return poolSize > 0 ? Executors.newFixedThreadPool(poolSize) : Executors.newCachedThreadPool();
+  }
+
+  private static synchronized void warnFallback() {
+    if (!warned) {
+      warned = true;
+      System.out.println("Virtual threads need Java 21, using platform threads");
+    }
+  }
+
+  private static ThreadFactory virtualThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      return null;
+    }
+  }
+
+  private static Method threadPerTaskMethod() {
+    try {
+      return Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+    } catch (NoSuchMethodException ex) {
+      return null;
+    }
+  }
+}
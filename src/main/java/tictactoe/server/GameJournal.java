@@ -0,0 +1,503 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only journal of the games of a server, so that the games in progress survive a crash of the process. Every
+ * change is one record of {@value #RECORD_SIZE} bytes: a room started with its board size, a player got a session
+ * token (in four records, four bytes each), a player moved, a room ended. The player threads and event loops append
+ * records to a buffer, and one writer thread takes everything that was appended while it wrote the previous batch and
+ * writes it with a single system call followed by a single fsync, a group commit. How often the file is forced to disk
+ * is the {@link Sync} policy.
+ *
+ * Opening the journal replays it: the rooms that started but did not end are rebuilt with their moves and the session
+ * tokens of their players, a torn or damaged record ends the replay, and the file is rewritten with only the rebuilt
+ * rooms, so it does not grow across restarts. The lobby seats the players of a rebuilt room so that they can come back
+ * to it with their tokens, or ends the room if they cannot.
+ */
+public final class GameJournal implements Closeable {
+
+  /**
+   * When the journal forces its file to disk.
+   */
+  public enum Sync {
+    /** Never, the operating system writes the file when it likes. Survives a crash of the process only. */
+    NONE,
+    /** Every interval, a crash of the machine loses at most the moves of the last interval. */
+    INTERVAL,
+    /** After every batch, and a move is only answered once it is on disk. */
+    ALWAYS
+  }
+
+  public static final int RECORD_SIZE = 16; // bytes of every record
+
+  // record types
+  private static final byte STARTED = 1; // extra is the board size, value the win length
+  private static final byte MOVED = 2; // player moved, value is the location
+  private static final byte ENDED = 3; // the room was left or the game is over
+  private static final byte SESSION = 4; // part of the token of a player, extra is the part, value four of its bytes
+
+  private static final int SESSION_PARTS = 4; // records of a session token, its 16 random bytes
+
+  private static final int CHECK_SEED = 0x5EED7AC0; // so that a record of zeros fails the check
+  private static final int BATCH_SIZE = 64 * 1024; // initial capacity of each buffer
+  private static final int MAX_BATCH_SIZE = 1024 * 1024; // appenders wait for the writer beyond this
+
+  private final FileChannel channel; // the journal, positioned at its end
+  private final Sync sync; // when to force the file
+  private final long intervalNanos; // time between forces with Sync.INTERVAL
+  private final Map<Integer, GameState> recovered; // rooms still in progress when the journal was opened
+  private final Map<Integer, String[]> sessions; // session tokens of their players, by room id
+  private final int lastRoomId; // highest room id found in the journal
+  private final Thread writer; // writes and forces the batches
+  private final ReentrantLock lock = new ReentrantLock(); // guards filling, appended, durable and stopping
+  private final Condition appendedRecords = lock.newCondition(); // the writer waits for records
+  private final Condition batchWritten = lock.newCondition(); // appenders wait for their batch, or for space
+  private ByteBuffer filling = ByteBuffer.allocate(BATCH_SIZE); // records not yet taken by the writer
+  private ByteBuffer writing = ByteBuffer.allocate(BATCH_SIZE); // batch being written, only used by the writer
+  private long appended; // sequence number of the last record appended
+  private long durable; // sequence number of the last record written, with Sync.ALWAYS also forced
+  private boolean stopping; // set by close(), records appended after it are dropped
+  private boolean stopped; // the writer ended
+  private volatile long batches; // batches written, only changed by the writer
+  private volatile long forces; // fsyncs, only changed by the writer
+
+  /**
+   * Open or create a journal, rebuild the rooms in progress from it and start the writer.
+   *
+   * @param file The journal file.
+   * @param sync When to force the file to disk.
+   * @param intervalMillis Milliseconds between forces with {@link Sync#INTERVAL}.
+   * @return The journal, with the rebuilt rooms in {@link #getRecovered()}.
+   * @throws IOException If the file cannot be read or written.
+   */
+  public static GameJournal open(Path file, Sync sync, long intervalMillis) throws IOException {
+    Map<Integer, Replayed> rooms = new LinkedHashMap<>();
+    int lastRoomId = 0;
+    if (Files.exists(file)) {
+      lastRoomId = replay(file, rooms);
+    }
+    compact(file, rooms);
+    Map<Integer, GameState> recovered = new LinkedHashMap<>();
+    Map<Integer, String[]> sessions = new LinkedHashMap<>();
+    for (Map.Entry<Integer, Replayed> room : rooms.entrySet()) {
+      recovered.put(room.getKey(), room.getValue().state);
+      sessions.put(room.getKey(), new String[] {room.getValue().session(room.getKey(), GameState.PLAYER_X),
+        room.getValue().session(room.getKey(), GameState.PLAYER_O)});
+    }
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    return new GameJournal(channel, sync, intervalMillis, recovered, sessions, lastRoomId);
+  }
+
+  private GameJournal(FileChannel channel, Sync sync, long intervalMillis, Map<Integer, GameState> recovered,
+    Map<Integer, String[]> sessions, int lastRoomId) {
+    this.channel = channel;
+    this.sync = sync;
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    this.recovered = Collections.unmodifiableMap(recovered);
+    this.sessions = sessions;
+    this.lastRoomId = lastRoomId;
+    writer = new Thread(this::writeBatches, "journal");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Append the start of a game.
+   *
+   * @param room The id of the room.
+   * @param size The number of rows and columns of the board.
+   * @param winLength The number of marks in a row that win.
+   * @return The sequence number of the record, for {@link #awaitDurable(long)}.
+   */
+  public long roomStarted(int room, int size, int winLength) {
+    return append(room, STARTED, 0, size, winLength);
+  }
+
+  /**
+   * Append the session token of a player, so that the player can come back to the room after a restart. Called after
+   * {@link #roomStarted}.
+   *
+   * @param room The id of the room.
+   * @param player The number of the player.
+   * @param token The token from {@link Reconnector}, the room id and the hex digits of its random bytes.
+   * @return The sequence number of the last record, 0 if the token does not have the expected form.
+   */
+  public long sessionIssued(int room, int player, String token) {
+    byte[] bytes = HexFormat.of().parseHex(token, token.indexOf('-') + 1, token.length());
+    if (bytes.length != SESSION_PARTS * 4) {
+      return 0;
+    }
+    long sequence = 0;
+    ByteBuffer parts = ByteBuffer.wrap(bytes);
+    for (int part = 0; part < SESSION_PARTS; part++) {
+      sequence = append(room, SESSION, player, part, parts.getInt());
+    }
+    return sequence;
+  }
+
+  /**
+   * Append a valid move.
+   *
+   * @param room The id of the room.
+   * @param player The number of the player who moved.
+   * @param location The square of the move.
+   * @return The sequence number of the record, for {@link #awaitDurable(long)}.
+   */
+  public long moveMade(int room, int player, int location) {
+    return append(room, MOVED, player, 0, location);
+  }
+
+  /**
+   * Append the end of a room, it is not rebuilt after a restart.
+   *
+   * @param room The id of the room.
+   * @return The sequence number of the record.
+   */
+  public long roomEnded(int room) {
+    return append(room, ENDED, 0, 0, 0);
+  }
+
+  /**
+   * With {@link Sync#ALWAYS}, wait until the record and all before it are on disk. Returns at once with the other
+   * policies and after the journal was closed.
+   *
+   * @param sequence The sequence number returned when the record was appended.
+   */
+  public void awaitDurable(long sequence) {
+    if (sync != Sync.ALWAYS) {
+      return;
+    }
+    lock.lock();
+
+    try {
+      while (durable < sequence && !stopped) {
+        batchWritten.awaitUninterruptibly();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The rooms that were in progress when the journal was opened, by room id, with their moves made.
+   */
+  public Map<Integer, GameState> getRecovered() {
+    return recovered;
+  }
+
+  /**
+   * @param room The id of a room in {@link #getRecovered()}.
+   * @param player The number of a player.
+   * @return The session token the player had in that room, null if it had none, for example a computer player, or
+   * its records did not all reach the disk.
+   */
+  public String getSession(int room, int player) {
+    String[] tokens = sessions.get(room);
+    return tokens == null ? null : tokens[player];
+  }
+
+  /**
+   * @return The highest room id in the journal, new rooms should use higher ids.
+   */
+  public int getLastRoomId() {
+    return lastRoomId;
+  }
+
+  public Sync getSync() {
+    return sync;
+  }
+
+  // batches written so far, each one a single write
+  public long getBatches() {
+    return batches;
+  }
+
+  // times the file was forced to disk
+  public long getForces() {
+    return forces;
+  }
+
+  /**
+   * Write what was appended, force it unless the policy is {@link Sync#NONE} and close the file. Records appended
+   * afterwards are dropped, so the rooms still open are rebuilt when the journal is opened again.
+   *
+   * @throws IOException If the file could not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+
+    try {
+      stopping = true;
+      appendedRecords.signal();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      writer.join();
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    }
+    channel.close();
+  }
+
+  private long append(int room, byte type, int player, int extra, int value) {
+    lock.lock();
+
+    try {
+      while (filling.position() >= MAX_BATCH_SIZE && !stopping) {
+        batchWritten.awaitUninterruptibly(); // the disk does not keep up, do not buffer without limit
+      }
+      if (stopping) {
+        return 0;
+      }
+      if (filling.remaining() < RECORD_SIZE) {
+        ByteBuffer larger = ByteBuffer.allocate(filling.capacity() * 2);
+        filling.flip();
+        larger.put(filling);
+        filling = larger;
+      }
+      int word = type << 24 | player << 16 | extra & 0xFFFF;
+      filling.putInt(room).putInt(word).putInt(value).putInt(check(room, word, value));
+      appendedRecords.signal();
+      return ++appended;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // the writer thread: take the records appended so far, write them at once, force them and wake the appenders
+  private void writeBatches() {
+    long written = 0; // sequence number of the last record written
+    long forced = 0; // sequence number of the last record forced
+    long lastForce = System.nanoTime();
+    try {
+      while (true) {
+        long batchEnd;
+        boolean last;
+        lock.lock();
+
+        try {
+          while (filling.position() == 0 && !stopping) {
+            if (sync == Sync.INTERVAL && written > forced) {
+              long wait = lastForce + intervalNanos - System.nanoTime();
+              if (wait <= 0) {
+                break; // time to force what was written
+              }
+              appendedRecords.awaitNanos(wait);
+            } else {
+              appendedRecords.awaitUninterruptibly();
+            }
+          }
+          ByteBuffer batch = filling;
+          filling = writing;
+          writing = batch;
+          batchEnd = appended;
+          last = stopping;
+        } finally {
+          lock.unlock();
+        }
+
+        writing.flip();
+        if (writing.hasRemaining()) {
+          while (writing.hasRemaining()) {
+            channel.write(writing);
+          }
+          batches++;
+        }
+        writing.clear();
+        written = batchEnd;
+
+        long now = System.nanoTime();
+        boolean force = sync == Sync.ALWAYS || sync == Sync.INTERVAL && (last || now - lastForce >= intervalNanos);
+        if (force && written > forced) {
+          channel.force(false);
+          forces++;
+          forced = written;
+          lastForce = now;
+        }
+
+        lock.lock();
+
+        try {
+          durable = written;
+          batchWritten.signalAll();
+        } finally {
+          lock.unlock();
+        }
+        if (last) {
+          break;
+        }
+      }
+    } catch (IOException | InterruptedException exception) {
+      System.out.println("Journal stopped: " + exception);
+    } finally {
+      lock.lock();
+
+      try {
+        stopping = true;
+        stopped = true;
+        batchWritten.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private static int check(int room, int word, int value) {
+    int hash = (CHECK_SEED ^ room) * 0x9E3779B1;
+    hash = (hash ^ word) * 0x9E3779B1;
+    hash = (hash ^ value) * 0x9E3779B1;
+    return hash ^ hash >>> 15;
+  }
+
+  // read the records up to the first damaged one, keep the rooms that did not end, return the highest room id
+  private static int replay(Path file, Map<Integer, Replayed> rooms) throws IOException {
+    int lastRoomId = 0;
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate(BATCH_SIZE);
+      while (in.read(buffer) > 0 || buffer.position() >= RECORD_SIZE) {
+        buffer.flip();
+        while (buffer.remaining() >= RECORD_SIZE) {
+          int room = buffer.getInt();
+          int word = buffer.getInt();
+          int value = buffer.getInt();
+          if (buffer.getInt() != check(room, word, value)) {
+            return lastRoomId; // torn write at the crash, nothing after it is valid
+          }
+          lastRoomId = Math.max(lastRoomId, room);
+          apply(rooms, room, (byte) (word >>> 24), word >>> 16 & 0xFF, (short) word, value);
+        }
+        buffer.compact();
+      }
+    }
+    return lastRoomId;
+  }
+
+  private static void apply(Map<Integer, Replayed> rooms, int room, byte type, int player, int extra, int value) {
+    switch (type) {
+      case STARTED:
+        rooms.put(room, new Replayed(new GameState(extra, value)));
+        break;
+      case MOVED:
+        Replayed replayed = rooms.get(room);
+        if (replayed != null && replayed.move(player, value) && replayed.state.isGameOver()) {
+          rooms.remove(room); // the end record did not make it to disk
+        }
+        break;
+      case ENDED:
+        rooms.remove(room);
+        break;
+      case SESSION:
+        Replayed seated = rooms.get(room);
+        if (seated != null && player < 2 && extra >= 0 && extra < SESSION_PARTS) {
+          seated.sessionPart(player, extra, value);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  // write the rooms in progress to a new file and replace the journal with it
+  private static void compact(Path file, Map<Integer, Replayed> rooms) throws IOException {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocate(BATCH_SIZE);
+      for (Map.Entry<Integer, Replayed> entry : rooms.entrySet()) {
+        int room = entry.getKey();
+        Replayed replayed = entry.getValue();
+        put(out, buffer, room, STARTED << 24 | replayed.state.getSize() & 0xFFFF, replayed.state.getWinLength());
+        for (int player = 0; player < 2; player++) {
+          if (replayed.session(room, player) != null) {
+            for (int part = 0; part < SESSION_PARTS; part++) {
+              put(out, buffer, room, SESSION << 24 | player << 16 | part, replayed.sessions[player][part]);
+            }
+          }
+        }
+        for (int i = 0; i < replayed.count; i++) {
+          put(out, buffer, room, MOVED << 24 | (i & 1) << 16, replayed.moves[i]);
+        }
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
+      }
+      out.force(true);
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void put(FileChannel out, ByteBuffer buffer, int room, int word, int value) throws IOException {
+    if (buffer.remaining() < RECORD_SIZE) {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
+      }
+      buffer.clear();
+    }
+    buffer.putInt(room).putInt(word).putInt(value).putInt(check(room, word, value));
+  }
+
+  // a room being rebuilt, with its moves for the compacted journal
+  private static final class Replayed {
+
+    final GameState state; // board after the moves so far
+    int[] moves = new int[9]; // locations in the order they were played
+    int count; // moves so far
+    final int[][] sessions = new int[2][SESSION_PARTS]; // parts of the session tokens of both players
+    final int[] sessionParts = new int[2]; // bit mask of the parts read of each token
+
+    Replayed(GameState state) {
+      this.state = state;
+    }
+
+    void sessionPart(int player, int part, int value) {
+      sessions[player][part] = value;
+      sessionParts[player] |= 1 << part;
+    }
+
+    // the token of a player as the reconnector wrote it, null unless all its parts were read
+    String session(int room, int player) {
+      if (sessionParts[player] != (1 << SESSION_PARTS) - 1) {
+        return null;
+      }
+      ByteBuffer bytes = ByteBuffer.allocate(SESSION_PARTS * 4);
+      for (int part : sessions[player]) {
+        bytes.putInt(part);
+      }
+      return room + "-" + HexFormat.of().formatHex(bytes.array());
+    }
+
+    // apply a move if it fits the board, a move that does not is skipped
+    boolean move(int player, int location) {
+      if (state.isGameOver() || player != state.getCurrentPlayer() || !state.isValidMove(location)) {
+        return false;
+      }
+      state.move(location);
+      if (count == moves.length) {
+        moves = Arrays.copyOf(moves, count * 2);
+      }
+      moves[count++] = location;
+      return true;
+    }
+  }
+}
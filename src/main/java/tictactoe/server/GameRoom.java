@@ -0,0 +1,905 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import tictactoe.engine.Strategy;
+
+import static tictactoe.server.GameState.MARKS;
+import static tictactoe.server.GameState.PLAYER_O;
+import static tictactoe.server.GameState.PLAYER_X;
+
+/**
+ * One game of tic-tac-toe between two connected players. Every room keeps its own board, current player and turn
+ * state, so a {@link Lobby} can host any number of independent games at the same time. If the lobby has a
+ * {@link Reconnector}, the thread of a player whose connection failed keeps the seat until the client comes back on
+ * a new connection or the reconnect timeout passes. If the lobby has a {@link Timekeeper}, a player who does not move
+ * in time loses the game, and a client that stays silent while the server waits for it is disconnected.
+ *
+ * A room can also move to another server behind a {@link ClusterRouter}: {@link #freeze()} holds the turn so no move
+ * is made and describes the game, the other server rebuilds it with {@link #seatReturning} and {@link #resume()}, and
+ * {@link #migrated()} closes the connections here, after which the clients come back to the other server with their
+ * sessions.
+ */
+public class GameRoom {
+
+  private static final int MAX_TOKEN = 16; // characters of a text move or request, the rest of a longer one is dropped
+
+  private final int id; // identifies this room in the lobby
+  private final GameState state; // board and current player
+  private final Seat[] players = new Seat[2]; // array of Players
+  private final Executor runGame; // will run players
+  private final Consumer<String> log; // receives messages about the game
+  private final Runnable onClose; // called once both players have left
+  private final ServerMetrics metrics; // counters and histograms of the lobby
+  private final GameJournal journal; // records the moves, null if the lobby has no journal
+  private final ReplayArchive replays; // keeps the finished game, null if the lobby keeps none
+  private final SpectatorHub spectators; // passes the moves to spectators, null if the lobby has none
+  private final Reconnector reconnector; // brings back players whose connection failed, null if a leaver ends the game
+  private final Timekeeper timekeeper; // runs the move and idle timeouts, null if players have unlimited time
+  private final TimerWheel.Timeout moveTimer = new TimerWheel.Timeout(this::checkMoveTime); // time of the turn
+  private volatile long turnStarted; // System.nanoTime() when the side to move got the turn
+  private long startedMillis; // System.currentTimeMillis() when the game started
+  private RatingTable ratings; // rates the players once the game is finished, null if they are not rated
+  private final String[] names = new String[2]; // of the rated players, null for anonymous ones
+  private final AtomicInteger running = new AtomicInteger(); // players still connected
+  private final TurnState turns = new TurnState(); // whose turn it is, owner of the board
+  private int frozenSide = -1; // side whose turn freeze() holds, -1 if the room is not frozen
+
+  /**
+   * Create an empty room.
+   *
+   * @param id The room number, used in log messages.
+   * @param state The empty board of the game.
+   * @param runGame The executor that runs the player threads.
+   * @param log Receives progress messages, for example the server's output area.
+   * @param onClose Called once after both players of the room have disconnected.
+   * @param metrics Counts the moves and socket traffic and times the moves.
+   * @param journal Records the start, the moves and the end of the game, or null.
+   * @param replays Keeps the game once it is finished, or null.
+   * @param spectators Lets spectators watch the game, or null.
+   * @param reconnector Keeps the seat of a player whose connection failed until it comes back, or null.
+   * @param timekeeper Ends the game of a player who takes too long and closes silent connections, or null.
+   */
+  public GameRoom(int id, GameState state, Executor runGame, Consumer<String> log, Runnable onClose,
+    ServerMetrics metrics, GameJournal journal, ReplayArchive replays, SpectatorHub spectators,
+    Reconnector reconnector, Timekeeper timekeeper) {
+    this.id = id;
+    this.state = state;
+    this.runGame = runGame;
+    this.log = log;
+    this.onClose = onClose;
+    this.metrics = metrics;
+    this.journal = journal;
+    this.replays = replays;
+    this.spectators = spectators;
+    this.reconnector = reconnector;
+    this.timekeeper = timekeeper;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * Rate the players of this game once it is finished. Called before {@link #start()}.
+   *
+   * @param ratings The ratings of the lobby.
+   * @param playerX The name of player X, or null if it is anonymous.
+   * @param playerO The name of player O, or null.
+   */
+  public void rate(RatingTable ratings, String playerX, String playerO) {
+    this.ratings = ratings;
+    names[PLAYER_X] = playerX;
+    names[PLAYER_O] = playerO;
+  }
+
+  /**
+   * Seat a newly connected client in the next free place and start its thread.
+   *
+   * @param socket The connection to the client.
+   * @return True if the room is full after seating this client.
+   */
+  public boolean seat(Socket socket) {
+    return seat(socket, null);
+  }
+
+  /**
+   * Seat a client whose first bytes the lobby read already, for example its name.
+   *
+   * @param socket The connection to the client.
+   * @param in The input of the connection without the bytes the lobby consumed, null for the socket's own.
+   * @return True if the room is full after seating this client.
+   */
+  public boolean seat(Socket socket, InputStream in) {
+    int number = players[PLAYER_X] == null ? PLAYER_X : PLAYER_O;
+    Player player = new Player(socket, in, number);
+    players[number] = player;
+    player.greet(); // before the other player can move, so the mark is the first line the client reads
+    running.incrementAndGet();
+    runGame.execute(players[number]); // execute player runnable
+    return number == PLAYER_O;
+  }
+
+  /**
+   * Seat a player whose game moved here from another server or was rebuilt from the journal. The seat waits for the
+   * client to come back with its session, as after a failed connection. Needs a reconnector.
+   *
+   * @param number The place of the player.
+   * @param session The token the client has from the other server.
+   */
+  public void seatReturning(int number, String session) {
+    players[number] = new Player(session, number);
+    running.incrementAndGet();
+    runGame.execute(players[number]);
+  }
+
+  // whether player O can still join, called by the lobby with its lock
+  public boolean isOpen() {
+    return players[PLAYER_O] == null && !turns.isFinished();
+  }
+
+  /**
+   * Continue a game that moved here from another server or that the journal rebuilt after a restart, with the moves
+   * its state has. Spectators and the journal get the moves made so far.
+   *
+   * @param startedMillis When the game started on the first server, or when it was rebuilt.
+   */
+  public void resume(long startedMillis) {
+    this.startedMillis = startedMillis;
+    announce();
+    turnStarted = System.nanoTime();
+    if (timekeeper != null && timekeeper.getMoveTimeoutNanos() > 0) {
+      timekeeper.schedule(moveTimer, turnStarted + timekeeper.getMoveTimeoutNanos());
+    }
+    turns.startAt(state.getMoveCount());
+  }
+
+  /**
+   * Hold the turn so that no move is made, to move the game to another server. A room that waits for player O can
+   * only be frozen while the lobby keeps other clients out of it.
+   *
+   * @return The game as one line: id, board size, win length, start time, the sessions of both players ({@code -}
+   * for O if it has not arrived) and the moves separated by commas ({@code -} for none). Null if the game is over or
+   * the players have no sessions.
+   */
+  public String freeze() {
+    int status;
+    while ((status = turns.getStatus()) == TurnState.PLAYING) {
+      int side = turns.getSideToMove();
+      if (turns.seize(side, turns.getMoves())) {
+        frozenSide = side;
+        break;
+      }
+      Thread.onSpinWait(); // a move is being made
+    }
+    if (status != TurnState.PLAYING && status != TurnState.WAITING || !(players[PLAYER_X] instanceof Player)) {
+      return null;
+    }
+    String sessionX = ((Player) players[PLAYER_X]).session;
+    String sessionO = players[PLAYER_O] instanceof Player ? ((Player) players[PLAYER_O]).session : "-";
+    if (sessionX == null || sessionO == null) {
+      thaw();
+      return null;
+    }
+    StringBuilder moves = new StringBuilder();
+    for (int i = 0; i < state.getMoveCount(); i++) {
+      moves.append(i == 0 ? "" : ",").append(state.getMove(i));
+    }
+    return id + " " + state.getSize() + " " + state.getWinLength() + " " + startedMillis + " " + sessionX + " "
+      + sessionO + " " + (moves.length() == 0 ? "-" : moves);
+  }
+
+  // let the game go on here after all, the move did not happen
+  public void thaw() {
+    if (frozenSide >= 0) {
+      turns.release(frozenSide);
+      frozenSide = -1;
+    }
+  }
+
+  /**
+   * End a frozen game here without a result, it goes on on another server. The connections are closed, so the
+   * clients come back with their sessions through the router.
+   */
+  public void migrated() {
+    turns.abandon(); // the player threads leave without a result
+    for (Seat player : players) {
+      if (player != null) {
+        player.stopReading();
+      }
+    }
+    log.accept("Room " + id + " moved to another server\n");
+  }
+
+  /**
+   * Seat a computer player in place O and start its thread.
+   *
+   * @param strategy Chooses the moves of the computer player.
+   */
+  public void seatComputer(Strategy strategy) {
+    players[PLAYER_O] = new ComputerPlayer(strategy, PLAYER_O);
+    running.incrementAndGet();
+    runGame.execute(players[PLAYER_O]); // execute computer player
+  }
+
+  /**
+   * Signal player X that the second player arrived and the game can begin.
+   */
+  public void start() {
+    startedMillis = System.currentTimeMillis(); // read by the player threads after they got the turn
+    announce();
+    turnStarted = System.nanoTime();
+    if (timekeeper != null && timekeeper.getMoveTimeoutNanos() > 0) {
+      timekeeper.schedule(moveTimer, turnStarted + timekeeper.getMoveTimeoutNanos());
+    }
+    turns.start(); // wakes up player X's thread
+  }
+
+  // tell the journal and the spectators that the game started and which moves it has, the journal also gets the
+  // sessions of the players so that they can come back to the game after a restart
+  private void announce() {
+    if (journal != null) {
+      journal.roomStarted(id, state.getSize(), state.getWinLength());
+      for (Seat player : players) {
+        if (player instanceof Player && ((Player) player).session != null) {
+          journal.sessionIssued(id, ((Player) player).playerNumber, ((Player) player).session);
+        }
+      }
+    }
+    if (spectators != null) {
+      spectators.roomStarted(id, state.getSize(), state.getWinLength());
+    }
+    for (int i = 0; i < state.getMoveCount(); i++) {
+      if (journal != null) {
+        journal.moveMade(id, i % 2, state.getMove(i));
+      }
+      if (spectators != null) {
+        spectators.moved(id, i % 2, state.getMove(i), BinaryProtocol.NONE);
+      }
+    }
+  }
+
+  /**
+   * Wait for the player's turn, then make the move if it is valid. The turn is handed over with the compare-and-set
+   * word of {@link TurnState}: the player that has the turn owns the board, sends both answers to the move and only
+   * then passes the turn, which unparks the other player. No lock is taken, so a virtual thread never pins its
+   * carrier thread here. The player claims the turn first, so a move and the timeout of the turn cannot both happen.
+   *
+   * @param location The square the player chose.
+   * @param player The number of the player making the move.
+   * @return True if the move was valid, false if it was not or the game ended while waiting for the turn.
+   */
+  public boolean validateAndMove(int location, int player) {
+    long time = metrics.now();
+    boolean myTurn = turns.claim(player); // wait for player's turn
+    time = metrics.lap(metrics.turnWait, time);
+    if (!myTurn) {
+      return false; // the game ended or the other player left
+    }
+
+    // if location not occupied, make move
+    if (state.isValidMove(location)) {
+      state.move(location); // set move on board and change player
+      boolean gameOver = state.isGameOver();
+      if (journal != null) {
+        // answer the move only once the journal has it, as durable as its sync policy makes it
+        journal.awaitDurable(journal.moveMade(id, player, location));
+        if (gameOver) {
+          journal.roomEnded(id);
+        }
+      }
+      if (gameOver) {
+        finished();
+      }
+
+      int result = state.hasWinner() ? BinaryProtocol.VICTORY
+        : state.boardFilledUp() ? BinaryProtocol.TIE : BinaryProtocol.NONE;
+
+      // confirm the move before the other player can answer it
+      players[player].moveAccepted(result);
+
+      // let new current player know that move occurred
+      players[state.getCurrentPlayer()].otherPlayerMoved(location);
+      if (spectators != null) {
+        spectators.moved(id, player, location, result); // encoded once by the hub for all spectators
+      }
+      metrics.moves.increment();
+      turnStarted = System.nanoTime(); // before the pass, so the move timer sees it with the new turn
+      turns.pass(player, gameOver); // let the other player continue
+      if (gameOver) {
+        players[state.getCurrentPlayer()].stopReading(); // its thread waits for a move that will not come
+      }
+      metrics.lap(metrics.validation, time);
+
+      return true; // notify player that move was valid
+    } else {
+      // move was not valid
+      turns.release(player);
+      metrics.invalidMoves.increment();
+      metrics.lap(metrics.validation, time);
+      return false; // notify player that move was invalid
+    }
+  }
+
+  // determine whether game over, or a player left
+  public boolean isGameOver() {
+    return turns.isFinished();
+  }
+
+  // runs on the timer thread once the time of the side to move may be up, ends the game if it is
+  private void checkMoveTime(long now) {
+    if (turns.isFinished()) {
+      return;
+    }
+    int moves = turns.getMoves(); // before the start of the turn, which is written before the turn is passed
+    int side = turns.getSideToMove();
+    long deadline = turnStarted + timekeeper.getMoveTimeoutNanos();
+    if (!(players[side] instanceof Player)) {
+      timekeeper.schedule(moveTimer, now + timekeeper.getMoveTimeoutNanos()); // the computer has no time limit
+      return;
+    }
+    if (now - deadline < 0 || !turns.seize(side, moves)) {
+      timekeeper.schedule(moveTimer, Math.max(deadline, now)); // moved meanwhile, or is moving right now
+      return;
+    }
+
+    // this thread holds the turn of the player who ran out of time
+    state.forfeit(side);
+    if (journal != null) {
+      journal.roomEnded(id);
+    }
+    finished();
+    if (spectators != null) {
+      spectators.timedOut(id, side);
+    }
+    players[side].timedOut(BinaryProtocol.DEFEAT);
+    players[side ^ 1].timedOut(BinaryProtocol.VICTORY);
+    metrics.moveTimeouts.increment();
+    log.accept("Player " + MARKS[side] + " of room " + id + " ran out of time\n");
+    turns.forfeit(side); // wakes a player waiting for its turn
+    players[side].stopReading();
+    players[side ^ 1].stopReading();
+  }
+
+  // archive and rate the game that just ended, called by the thread holding the last turn
+  private void finished() {
+    if (replays != null) {
+      replays.gameFinished(state, startedMillis, System.currentTimeMillis());
+    }
+    if (ratings != null) {
+      int winner = state.getForfeited() >= 0 ? state.getForfeited() ^ 1
+        : state.hasWinner() ? (state.getMoveCount() - 1) % 2 : -1;
+      ratings.gameFinished(names[PLAYER_X], names[PLAYER_O], winner < 0 ? 0.5 : winner == PLAYER_X ? 1 : 0);
+    }
+  }
+
+  // called by each player thread when its connection is closed
+  private void playerLeft() {
+    if (running.decrementAndGet() == 0) {
+      if (journal != null && !state.isGameOver()) {
+        journal.roomEnded(id); // abandoned, unless the lobby closed the journal first to recover the game
+      }
+      if (spectators != null) {
+        spectators.roomEnded(id);
+      }
+      onClose.run();
+    }
+  }
+
+  // a seat in the room, taken by a client or a computer player
+  private abstract class Seat implements Runnable {
+
+    // send message that other player moved, called by the thread that has the turn
+    public abstract void otherPlayerMoved(int location);
+
+    // confirm a valid move and send the result if it ended the game, called by the thread that has the turn
+    public abstract void moveAccepted(int result);
+
+    // the player to move ran out of time, send the result, called by the timer thread holding the turn
+    public abstract void timedOut(int result);
+
+    // end the wait for the next move once the game ended without one
+    public void stopReading() {
+    }
+  }
+
+  // private inner class ComputerPlayer chooses moves for seat O
+  private class ComputerPlayer extends Seat {
+
+    private final Strategy strategy; // chooses the moves
+    private final int playerNumber; // tracks which player this is
+
+    public ComputerPlayer(Strategy strategy, int number) {
+      this.strategy = strategy;
+      this.playerNumber = number;
+    }
+
+    // the computer reads the move from the board
+    @Override
+    public void otherPlayerMoved(int location) {
+    }
+
+    @Override
+    public void moveAccepted(int result) {
+    }
+
+    @Override
+    public void timedOut(int result) {
+    }
+
+    @Override
+    public void run() {
+      try {
+        log.accept("Computer player " + MARKS[playerNumber] + " joined room " + id + "\n");
+
+        while (turns.awaitTurn(playerNumber)) {
+          // the board belongs to this thread until the move passes the turn
+          validateAndMove(strategy.chooseMove(state.getBoard()), playerNumber);
+        }
+      } catch (RuntimeException exception) {
+        metrics.errors.increment();
+        log.accept("Computer player " + MARKS[playerNumber] + " of room " + id + " failed: " + exception + "\n");
+        turns.abandon(); // wake up the client waiting for its turn
+        Seat other = players[playerNumber ^ 1];
+        if (other != null) {
+          other.stopReading(); // nobody will move any more
+        }
+      } finally {
+        playerLeft();
+      }
+    }
+  }
+
+  // private inner class Player manages each Player as a runnable
+  private class Player extends Seat implements Reconnector.Seat {
+
+    private volatile Socket connection; // connection to client, replaced when the client comes back
+    private DataInputStream input; // input from client, only used by the player's thread
+    private final Outbox output; // output to client, one write per flush
+    private final byte[] inFrame = new byte[BinaryProtocol.FRAME_SIZE]; // frame being read
+    private final StringBuilder token = new StringBuilder(); // text token being read
+    private boolean binary; // whether the client switched to frames, guarded by the output lock
+    private int delivered; // moves sent to the client, guarded by the output lock
+    private int lastResult = BinaryProtocol.NONE; // result sent with the last of them, guarded by the output lock
+    private final int playerNumber; // tracks which player this is
+    private final String mark; // mark for this player
+    private String session; // token for coming back, null if the room has no reconnector
+    private final BlockingQueue<SocketChannel> comebacks = new LinkedBlockingQueue<>(); // connections it came back on
+    private int seen; // moves the client of the newest comeback has seen, guarded by comebacks
+    private boolean gone; // whether the thread stopped taking comebacks, guarded by comebacks
+    private boolean finished; // whether the client was sent a result before the thread stopped, guarded by comebacks
+    private final TimerWheel.Timeout watchdog = new TimerWheel.Timeout(this::checkIdle); // closes a silent client
+    private volatile long lastInput; // System.nanoTime() when the client last sent a move
+
+    // a seat whose client plays on after its game moved here, it waits for the client to come back
+    public Player(String session, int number) {
+      playerNumber = number;
+      mark = MARKS[playerNumber];
+      connection = new Socket(); // not connected, the client comes back on a connection of its own
+      input = new DataInputStream(InputStream.nullInputStream());
+      output = new Outbox(OutputStream.nullOutputStream(), metrics); // redirected once the client is back
+      delivered = state.getMoveCount(); // the client saw them on the other server, or learns them when it is back
+      this.session = session;
+      reconnector.adopt(session, this);
+    }
+
+    // set up Player thread
+    public Player(Socket socket, InputStream unread, int number) {
+      playerNumber = number; // store this player's number
+      mark = MARKS[playerNumber]; // specify player's mark
+      connection = socket; // store socket for client
+
+      // obtain streams from Socket, a connection that fails already counts as a client that has gone away
+      Outbox outbox;
+      try {
+        InputStream in = unread != null ? unread : connection.getInputStream();
+        input = new DataInputStream(new BufferedInputStream(new CountingInput(in)));
+        outbox = new Outbox(connection.getOutputStream(), metrics);
+      } catch (IOException ioException) {
+        metrics.errors.increment();
+        System.out.println(ioException.toString());
+        input = new DataInputStream(InputStream.nullInputStream());
+        outbox = new Outbox(OutputStream.nullOutputStream(), metrics);
+      }
+      output = outbox;
+    }
+
+    // send message that other player moved, called by the other player's thread
+    @Override
+    public void otherPlayerMoved(int location) {
+      int result = state.hasWinner() ? BinaryProtocol.DEFEAT
+        : state.boardFilledUp() ? BinaryProtocol.TIE : BinaryProtocol.NONE;
+      output.lock();
+      try {
+        if (binary) {
+          output.addFrame(BinaryProtocol.OPPONENT_MOVED, id, location, result);
+        } else {
+          // send location of move and the result in the same write
+          output.add("Opponent moved\n" + location + "\n" + BinaryProtocol.resultLine(result));
+        }
+        delivered++;
+        lastResult = result;
+        output.flush(); // flush output
+      } finally {
+        output.unlock();
+      }
+    }
+
+    @Override
+    public void timedOut(int result) {
+      output.lock();
+      try {
+        lastResult = result;
+        if (binary) {
+          output.addFrame(BinaryProtocol.TIMED_OUT, id, 0, result);
+        } else {
+          output.add(BinaryProtocol.TIMED_OUT_LINE + "\n" + BinaryProtocol.resultLine(result));
+        }
+        output.flush();
+      } finally {
+        output.unlock();
+      }
+    }
+
+    // the thread reads until the client goes away, the game is over so it stops at once
+    @Override
+    public void stopReading() {
+      try {
+        connection.shutdownInput();
+      } catch (IOException ioException) {
+        // closed already, the thread is not reading
+      }
+    }
+
+    // runs on the timer thread once the client may have been silent too long, closes the connection if it was
+    private void checkIdle(long now) {
+      synchronized (comebacks) {
+        if (gone) {
+          return;
+        }
+      }
+      long timeout = timekeeper.getIdleTimeoutNanos();
+      long since = lastInput;
+      if (turns.getStatus() == TurnState.PLAYING) {
+        if (turns.getSideToMove() != playerNumber) {
+          timekeeper.schedule(watchdog, now + timeout); // waiting for the other player is not idle
+          return;
+        }
+        since = Math.max(since, turnStarted);
+      }
+      if (now - since < timeout) {
+        timekeeper.schedule(watchdog, since + timeout);
+        return;
+      }
+      if (!connection.isClosed()) {
+        metrics.idleClosed.increment();
+        log.accept("Player " + mark + " of room " + id + " was silent too long\n");
+        if (turns.getStatus() == TurnState.WAITING) {
+          turns.abandon(); // nobody else is in the room yet, free it
+        }
+        closeConnection(); // the thread then waits for the client to come back, or leaves
+      }
+      timekeeper.schedule(watchdog, now + timeout);
+    }
+
+    @Override
+    public void moveAccepted(int result) {
+      output.lock();
+      try {
+        delivered++;
+        lastResult = result;
+        if (binary) {
+          output.addFrame(BinaryProtocol.VALID, id, 0, result);
+        } else {
+          output.add("Valid move.\n").add(BinaryProtocol.resultLine(result)); // notify client
+        }
+        output.flush(); // flush output
+      } finally {
+        output.unlock();
+      }
+    }
+
+    // answer a client's request for frames, no message of the other player can come in between
+    private void switchToBinary() {
+      output.lock();
+      try {
+        output.add(BinaryProtocol.ACCEPTED + "\n").flush();
+        binary = true;
+      } finally {
+        output.unlock();
+      }
+    }
+
+    // read the next move, -1 if it is not a cell number and -2 once the client has gone away
+    private int nextMove() {
+      try {
+        while (!binary) {
+          token.setLength(0);
+          int b = input.read();
+          while (Character.isWhitespace(b)) {
+            b = input.read();
+          }
+          while (b >= 0 && !Character.isWhitespace(b)) {
+            if (token.length() <= MAX_TOKEN) { // one more than fits, so a long token is not a move
+              token.append((char) b);
+            }
+            b = input.read();
+          }
+          if (token.length() == 0) {
+            return -2;
+          }
+          if (BinaryProtocol.REQUEST.contentEquals(token)) {
+            switchToBinary();
+            continue;
+          }
+          lastInput = System.nanoTime();
+          if (token.length() > MAX_TOKEN) {
+            return -1;
+          }
+          try {
+            return Math.max(Integer.parseInt(token.toString()), -1); // -2 from the client is not a disconnect
+          } catch (NumberFormatException numberFormatException) {
+            return -1;
+          }
+        }
+        input.readFully(inFrame);
+        lastInput = System.nanoTime();
+        return BinaryProtocol.opcode(inFrame, 0) == BinaryProtocol.MOVE ? Math.max(BinaryProtocol.cell(inFrame, 0), -1)
+          : -1;
+      } catch (IOException ioException) {
+        return -2;
+      }
+    }
+
+    // send client its mark (X or O) and the size of the board
+    void greet() {
+      log.accept("Player " + mark + " connected to room " + id + "\n");
+      output.lock();
+      try {
+        output.add(mark + "\n"); // send player's mark
+        if (!state.isClassic()) {
+          output.add(state.getBoardMessage()); // send size of the board
+        }
+        if (reconnector != null) {
+          session = reconnector.register(this, id);
+          output.add(reconnector.getSessionMessage(session)); // so the client can come back
+        }
+        if (playerNumber == PLAYER_X) {
+          output.add("Player X connected\nWaiting for another player\n");
+        } else {
+          output.add("Player O connected, please wait\n");
+        }
+        output.flush(); // flush output
+      } finally {
+        output.unlock();
+      }
+      lastInput = System.nanoTime();
+      if (timekeeper != null && timekeeper.getIdleTimeoutNanos() > 0) {
+        timekeeper.schedule(watchdog, lastInput + timekeeper.getIdleTimeoutNanos());
+      }
+    }
+
+    // control thread's execution
+    @Override
+    public void run() {
+      // process messages from client
+      try {
+        /**
+         * Wait until both players are connected
+         */
+        // if player X, wait for another player to arrive
+        if (playerNumber == PLAYER_X) {
+          if (!turns.awaitStart(playerNumber)) { // wait for player O
+            return;
+          }
+
+          // send message that other player connected
+          output.lock();
+          try {
+            output.add("Other player connected. Your move.\n").flush();
+          } finally {
+            output.unlock();
+          }
+        }
+
+        // while game not over
+        while (!isGameOver()) {
+          int location = nextMove(); // get move location
+
+          // stop serving this player once the game is over, or the client has gone away and did not come back in time
+          if (location == -2) {
+            if (!isGameOver() && awaitComeback()) {
+              continue;
+            }
+            break;
+          }
+
+          // check for valid move
+          if (validateAndMove(location, playerNumber)) {
+            log.accept("\nroom " + id + " location: " + location);
+          } else if (!isGameOver()) {
+            // move was invalid
+            output.lock();
+            try {
+              if (binary) {
+                output.addFrame(BinaryProtocol.INVALID, id, location, BinaryProtocol.NONE);
+              } else {
+                output.add("Invalid move, try again\n");
+              }
+              output.flush(); // flush output
+            } finally {
+              output.unlock();
+            }
+          }
+        }
+      } finally {
+        boolean result;
+        output.lock();
+        try {
+          result = lastResult != BinaryProtocol.NONE;
+        } finally {
+          output.unlock();
+        }
+        if (reconnector != null && result) {
+          reconnector.retire(session); // a client whose connection failed with the last move can still get the result
+        } else if (reconnector != null) {
+          reconnector.unregister(session, this);
+        }
+        synchronized (comebacks) {
+          gone = true;
+          finished = result;
+          for (SocketChannel channel : comebacks) {
+            answerLate(channel, seen); // came back after the thread stopped
+          }
+        }
+        closeConnection(); // close connection to client
+        turns.abandon(); // wake up a player waiting for its turn
+        Seat other = players[playerNumber ^ 1];
+        if (other != null && turns.getStatus() == TurnState.ABANDONED) {
+          other.stopReading(); // nobody will move any more
+        }
+        playerLeft();
+      }
+    }
+
+    // the client came back on a new connection, called by the reconnector
+    @Override
+    public void resume(SocketChannel channel, int seen) {
+      Socket old = connection; // before the thread can take the new one
+      synchronized (comebacks) {
+        if (gone) {
+          answerLate(channel, seen);
+          return;
+        }
+        comebacks.add(channel);
+        this.seen = seen;
+      }
+      try {
+        old.close(); // the old connection may look open, this ends the wait for its input
+      } catch (IOException ioException) {
+        metrics.errors.increment();
+        System.out.println(ioException.toString());
+      }
+    }
+
+    // keep the seat until the client comes back, then continue on the new connection, false if it did not in time
+    private boolean awaitComeback() {
+      if (reconnector == null) {
+        return false;
+      }
+      closeConnection();
+      SocketChannel channel;
+      try {
+        channel = comebacks.poll(reconnector.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+      } catch (InterruptedException exception) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      if (channel == null) {
+        metrics.seatsExpired.increment();
+        log.accept("Player " + mark + " of room " + id + " did not come back\n");
+        return false;
+      }
+      int catchUp;
+      synchronized (comebacks) {
+        SocketChannel newer;
+        while ((newer = comebacks.poll()) != null) {
+          Reconnector.reject(channel); // the client has given up on this one already
+          channel = newer;
+        }
+        catchUp = seen;
+      }
+
+      Socket socket = channel.socket();
+      try {
+        input = new DataInputStream(new BufferedInputStream(new CountingInput(socket.getInputStream())));
+        output.lock();
+        try {
+          connection = socket;
+          output.redirect(socket.getOutputStream());
+          binary = false; // the client asks again on the new connection
+          output.add(state.getMovesMessage(catchUp, delivered)).add("Resumed " + delivered + "\n")
+            .add(BinaryProtocol.resultLine(lastResult)).flush();
+        } finally {
+          output.unlock();
+        }
+      } catch (IOException ioException) {
+        connection = socket;
+        return awaitComeback(); // failed at once, the client will try again
+      }
+      lastInput = System.nanoTime();
+      metrics.resumes.increment();
+      log.accept("Player " + mark + " came back to room " + id + "\n");
+      return true;
+    }
+
+    // send the end of a finished game to a client that came back after it, or tell it the seat is gone
+    private void answerLate(SocketChannel channel, int seen) {
+      if (!finished) {
+        Reconnector.reject(channel);
+        return;
+      }
+      String text;
+      output.lock();
+      try {
+        text = state.getMovesMessage(seen, delivered) + "Resumed " + delivered + "\n"
+          + BinaryProtocol.resultLine(lastResult);
+      } finally {
+        output.unlock();
+      }
+      try {
+        metrics.bytesOut.add(channel.write(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII))));
+        metrics.writes.increment();
+        metrics.resumes.increment();
+      } catch (IOException ioException) {
+        // the client is gone again
+      }
+      try {
+        channel.close();
+      } catch (IOException ioException) {
+        System.out.println(ioException.toString());
+      }
+    }
+
+    private void closeConnection() {
+      try {
+        connection.close();
+      } catch (IOException ioException) {
+        metrics.errors.increment();
+        System.out.println(ioException.toString());
+      }
+    }
+  }
+
+  // counts the bytes the buffered reader takes from the socket, once per buffer fill
+  private final class CountingInput extends FilterInputStream {
+
+    CountingInput(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int count = super.read(b, off, len);
+      if (count > 0) {
+        metrics.bytesIn.add(count);
+      }
+      return count;
+    }
+  }
+}
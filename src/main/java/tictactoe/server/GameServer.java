@@ -0,0 +1,45 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.Closeable;
+
+/**
+ * A transport that accepts clients and hosts their game rooms.
+ */
+public interface GameServer extends Closeable {
+
+  /**
+   * Accept clients and pair them into rooms until the room limit is reached or the server is closed.
+   */
+  void execute();
+
+  /**
+   * @return The port this server is listening on.
+   */
+  int getPort();
+
+  /**
+   * @return The number of rooms that still have a connected player.
+   */
+  int getActiveRooms();
+
+  /**
+   * @return The number of rooms that have been paired and started so far.
+   */
+  long getRoomsStarted();
+
+  /**
+   * @return The number of writes to client sockets so far, each one system call.
+   */
+  long getWrites();
+
+  /**
+   * @return The counters and latency histograms of this server.
+   */
+  ServerMetrics getMetrics();
+
+  /**
+   * @return The port where spectators watch the games, -1 if this server has no spectators.
+   */
+  int getSpectatorPort();
+}
@@ -0,0 +1,180 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.util.Arrays;
+import tictactoe.engine.GameBoard;
+
+/**
+ * Board and turn of one game of tic-tac-toe, stored in a {@link GameBoard} of the configured size. The class does no
+ * synchronization, callers make sure only one thread changes it at a time.
+ */
+public class GameState {
+
+  public final static int PLAYER_X = GameBoard.PLAYER_X; // constant for first player
+  public final static int PLAYER_O = GameBoard.PLAYER_O; // constant for second player
+  public final static String[] MARKS = {"X", "O"}; // array of marks
+
+  private final GameBoard board; // marks of both players
+  private final int[] moves; // locations in the order they were played, X moved first
+  private int moveCount; // moves played so far
+  private int forfeited = -1; // player who ran out of time for its move, -1 if none
+
+  // set up the classic 3×3 game
+  public GameState() {
+    this(3, 3);
+  }
+
+  /**
+   * Set up a game on a larger board.
+   *
+   * @param size The number of rows and columns.
+   * @param winLength The number of marks in a row that win.
+   */
+  public GameState(int size, int winLength) {
+    board = GameBoard.create(size, winLength);
+    moves = new int[size * size];
+  }
+
+  // board for computer players to look at, they must not change it
+  public GameBoard getBoard() {
+    return board;
+  }
+
+  public int getSize() {
+    return board.getSize();
+  }
+
+  public int getWinLength() {
+    return board.getWinLength();
+  }
+
+  /**
+   * @return True for the classic 3×3 game, which the protocol does not announce so that older clients keep working.
+   */
+  public boolean isClassic() {
+    return board.getSize() == 3 && board.getWinLength() == 3;
+  }
+
+  /**
+   * @return The message telling the client the size of the board and the win length, sent after the player's mark.
+   */
+  public String getBoardMessage() {
+    return "Board " + board.getSize() + " " + board.getWinLength() + "\n";
+  }
+
+  public int getCurrentPlayer() {
+    return board.getCurrentPlayer();
+  }
+
+  /**
+   * Check whether the current player may place a mark at the given location.
+   *
+   * @param location The square, counted row by row from 0.
+   * @return True if the location is on the board and not occupied.
+   */
+  public boolean isValidMove(int location) {
+    return board.isValidMove(location);
+  }
+
+  /**
+   * Place the mark of the current player and hand the turn to the other player. The move must be valid.
+   *
+   * @param location The square, counted row by row from 0.
+   */
+  public void move(int location) {
+    board.move(location);
+    moves[moveCount++] = location;
+  }
+
+  public int getMoveCount() {
+    return moveCount;
+  }
+
+  // location of a move, counted from 0
+  public int getMove(int number) {
+    return moves[number];
+  }
+
+  /**
+   * End the game because a player ran out of time for its move. The board does not change.
+   *
+   * @param player The player who loses.
+   */
+  public void forfeit(int player) {
+    forfeited = player;
+  }
+
+  // player who lost by running out of time, -1 if nobody did
+  public int getForfeited() {
+    return forfeited;
+  }
+
+  /**
+   * @param player A player of the game.
+   * @return How the game ended for the player as a result of {@link BinaryProtocol}, NONE while it goes on.
+   */
+  public int getResult(int player) {
+    if (forfeited >= 0) {
+      return forfeited == player ? BinaryProtocol.DEFEAT : BinaryProtocol.VICTORY;
+    }
+    if (board.hasWinner()) {
+      // the last move won, X made the odd ones
+      return (moveCount - 1) % 2 == player ? BinaryProtocol.VICTORY : BinaryProtocol.DEFEAT;
+    }
+    return board.boardFilledUp() ? BinaryProtocol.TIE : BinaryProtocol.NONE;
+  }
+
+  /**
+   * Lines that bring a resumed client up to date: one {@code Moved <number> <mark> <location>} line for each move it
+   * missed, or a single {@code Snapshot <moves> <cells>} line with one character per square if that is shorter. Only
+   * the first {@code count} moves are read, so another thread may call this for moves it has seen published.
+   *
+   * @param seen The number of moves the client has seen, -1 if it lost its board.
+   * @param count The number of moves the client should know of.
+   * @return The lines, empty if the client missed nothing.
+   */
+  public String getMovesMessage(int seen, int count) {
+    StringBuilder text = new StringBuilder();
+    int size = board.getSize();
+    if (seen < 0 || seen > count || (count - seen) * 12 > size * size + 16) {
+      char[] cells = new char[size * size];
+      Arrays.fill(cells, '.');
+      for (int i = 0; i < count; i++) {
+        cells[moves[i]] = MARKS[i % 2].charAt(0);
+      }
+      return text.append("Snapshot ").append(count).append(' ').append(cells).append('\n').toString();
+    }
+    for (int i = seen; i < count; i++) {
+      text.append("Moved ").append(i + 1).append(' ').append(MARKS[i % 2]).append(' ').append(moves[i]).append('\n');
+    }
+    return text.toString();
+  }
+
+  // determine whether location is occupied
+  public boolean isOccupied(int location) {
+    return board.isOccupied(location);
+  }
+
+  /**
+   * Check if there are enough of the same marks in a row.
+   *
+   * @return True if there is a winner, false if there is not a winner.
+   */
+  public boolean hasWinner() {
+    return board.hasWinner();
+  }
+
+  /**
+   * Check if the game board is full.
+   *
+   * @return True if the board is full, false if there is an empty slot.
+   */
+  public boolean boardFilledUp() {
+    return board.boardFilledUp();
+  }
+
+  // determine whether game over
+  public boolean isGameOver() {
+    return forfeited >= 0 || board.isGameOver();
+  }
+}
@@ -0,0 +1,119 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hashing of room ids onto servers. Every server has {@value #POINTS} points on a ring of 64-bit hashes, and
+ * a room belongs to the server of the first point at or after the hash of its id. Removing a server only moves its own
+ * rooms, each to the server that follows its point, and adding one only takes rooms from the others, so a change
+ * leaves most rooms where they are.
+ *
+ * The points are kept in sorted arrays that are replaced as a whole when a server is added or removed, so a lookup is
+ * a binary search without a lock.
+ *
+ * @param <N> The servers.
+ */
+public final class HashRing<N> {
+
+  private static final int POINTS = 100; // points per server, more spread the rooms more evenly
+
+  private volatile Points points = new Points(new long[0], new Object[0]); // replaced on every change
+
+  /**
+   * Add a server.
+   *
+   * @param node The server.
+   * @param name Its unique name, which places its points.
+   */
+  public synchronized void add(N node, String name) {
+    List<Object[]> list = points.list();
+    for (int i = 0; i < POINTS; i++) {
+      list.add(new Object[] {hash(name + "#" + i), node});
+    }
+    points = new Points(list);
+  }
+
+  /**
+   * Remove a server, its rooms go to the servers that follow its points.
+   *
+   * @param node The server.
+   */
+  public synchronized void remove(N node) {
+    List<Object[]> list = points.list();
+    list.removeIf(point -> point[1] == node);
+    points = new Points(list);
+  }
+
+  // whether no server is left
+  public boolean isEmpty() {
+    return points.hashes.length == 0;
+  }
+
+  /**
+   * @param room The id of a room.
+   * @return The server that owns it, null if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  public N lookup(int room) {
+    Points current = points;
+    if (current.hashes.length == 0) {
+      return null;
+    }
+    int index = Arrays.binarySearch(current.hashes, mix(room));
+    if (index < 0) {
+      index = -index - 1; // the first point after the hash
+    }
+    return (N) current.owners[index == current.hashes.length ? 0 : index];
+  }
+
+  // 64-bit FNV-1a of the name, mixed so similar names land far apart
+  private static long hash(String name) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+      hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  // the finalizer of SplitMix64, consecutive ids get unrelated hashes
+  private static long mix(long value) {
+    value = (value ^ value >>> 30) * 0xbf58476d1ce4e5b9L;
+    value = (value ^ value >>> 27) * 0x94d049bb133111ebL;
+    return value ^ value >>> 31;
+  }
+
+  // the points of all servers, never changed once published
+  private static final class Points {
+
+    final long[] hashes; // in ascending order
+    final Object[] owners; // server of each point
+
+    Points(long[] hashes, Object[] owners) {
+      this.hashes = hashes;
+      this.owners = owners;
+    }
+
+    // sort a list of hash and server pairs
+    Points(List<Object[]> list) {
+      list.sort((a, b) -> Long.compare((Long) a[0], (Long) b[0]));
+      hashes = new long[list.size()];
+      owners = new Object[list.size()];
+      for (int i = 0; i < hashes.length; i++) {
+        hashes[i] = (Long) list.get(i)[0];
+        owners[i] = list.get(i)[1];
+      }
+    }
+
+    List<Object[]> list() {
+      List<Object[]> list = new ArrayList<>();
+      for (int i = 0; i < hashes.length; i++) {
+        list.add(new Object[] {hashes[i], owners[i]});
+      }
+      return list;
+    }
+  }
+}
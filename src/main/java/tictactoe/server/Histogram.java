@@ -0,0 +1,96 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of non-negative values, usually nanoseconds, with a fixed relative precision in the style of
+ * HdrHistogram. Values below {@code 2 * SUB_BUCKETS} get a bucket each, larger values share a bucket with the values
+ * that agree in their highest {@code SUB_BITS + 1} bits, so every bucket is narrower than 1/32 of its values and the
+ * whole range of a long fits in under 2000 counters. Recording is one array increment without locks or allocation.
+ */
+public final class Histogram {
+
+  private static final int SUB_BITS = 5; // precision of a bucket, 2^-SUB_BITS of its values
+  private static final int SUB_BUCKETS = 1 << SUB_BITS; // buckets per power of two
+  private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS; // enough for Long.MAX_VALUE
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS); // values recorded per bucket
+  private final LongAdder count = new LongAdder(); // values recorded
+  private final LongAdder sum = new LongAdder(); // total of the values
+  private final AtomicLong max = new AtomicLong(); // largest value
+
+  /**
+   * Count a value, negative values count as 0.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts.getAndIncrement(bucket(value));
+    count.increment();
+    sum.add(value);
+    long largest = max.get();
+    while (value > largest && !max.compareAndSet(largest, value)) {
+      largest = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long n = count.sum();
+    return n == 0 ? 0 : sum.sum() / (double) n;
+  }
+
+  /**
+   * @param fraction The share of values that are at most the result, for example 0.99.
+   * @return The largest value of the bucket holding the percentile, 0 if nothing was recorded. Buckets that are
+   * being written to while this runs may be counted or not.
+   */
+  public long getPercentile(double fraction) {
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(total * fraction));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highest(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  // values below 2 * SUB_BUCKETS map to themselves, larger ones keep their SUB_BITS + 1 highest bits
+  static int bucket(long value) {
+    int shift = 64 - Long.numberOfLeadingZeros(value) - (SUB_BITS + 1);
+    if (shift <= 0) {
+      return (int) value;
+    }
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  // largest value that falls into a bucket
+  static long highest(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowest = (long) (bucket - shift * SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
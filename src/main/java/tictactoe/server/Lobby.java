@@ -0,0 +1,481 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import tictactoe.engine.Strategy;
+
+/**
+ * Accepts connections and pairs them into {@link GameRoom}s. The first client of a pair becomes player X of a new
+ * room and the next one becomes player O, after which the room starts and the lobby waits for the next pair.
+ *
+ * With matchmaking a thread of the lobby reads the name a client may send first, and the {@link Matchmaker} pairs it
+ * with a client of a similar rating. The rating of a named player is updated after each of its games; a client that
+ * sends no name within {@value #HELLO_MILLIS} ms plays unrated at the initial rating.
+ *
+ * A routed lobby is one of the servers behind a {@link ClusterRouter}. The router names the room of every client in
+ * its first line, so the two players of a room meet here whatever else arrives in between, and it also uses the port
+ * for its commands: {@code INFO} asks for the spectator and reconnect ports, {@code DRAIN} freezes the running games
+ * and hands over those the router names to other servers, and {@code IMPORT} takes such games in. The commands are
+ * not authenticated, so the servers behind a router must only be reachable by the router.
+ */
+public class Lobby implements GameServer {
+
+  private static final int HELLO_MILLIS = 500; // time a client has to send its name
+  private static final int MAX_HELLO = 80; // longest line with a name
+
+  private final ServerSocket server; // server socket to connect with clients
+  private final ExecutorService runGame; // will run players
+  private final Consumer<String> log; // receives messages about the games
+  private final int maxRooms; // stop accepting after this many rooms
+  private final ServerConfig config; // board size of the rooms
+  private final AtomicInteger nextRoomId = new AtomicInteger(); // id of the next room
+  private final AtomicInteger activeRooms = new AtomicInteger(); // rooms with a connected player
+  private final AtomicLong roomsStarted = new AtomicLong(); // rooms that got two players
+  private final ServerMetrics metrics; // counters and histograms of this server
+  private final GameJournal journal; // records every move, null if the games are kept in memory only
+  private final ReplayArchive replays; // keeps the finished games, null if they are not kept
+  private final SpectatorHub spectators; // sends the moves to spectators, null if there are none
+  private final Reconnector reconnector; // brings back players whose connection failed, null if seats are not kept
+  private final Timekeeper timekeeper; // move and idle timeouts, null if players have unlimited time
+  private final RatingTable ratings = new RatingTable(); // of the named players
+  private final Matchmaker<Waiting> matchmaker; // pairs the clients by rating, null to pair them in arrival order
+  private final Map<Integer, GameRoom> routedRooms = new ConcurrentHashMap<>(); // rooms by id, if routed
+  private boolean moving; // whether the router is moving routed rooms away, guarded by routedRooms
+  private volatile boolean closed; // set once close() was called
+
+  /**
+   * Create a lobby listening on the configured port.
+   *
+   * @param config The port, backlog and room limit.
+   * @param log Receives progress messages of all rooms.
+   * @throws IOException If the journal, the replay archive or the server socket could not be opened.
+   */
+  public Lobby(ServerConfig config, Consumer<String> log) throws IOException {
+    this.journal = config.openJournal();
+    if (journal != null) {
+      nextRoomId.set(journal.getLastRoomId()); // ids of recovered rooms stay unique
+    }
+    this.replays = config.openReplayArchive();
+    this.server = new ServerSocket(config.getPort(), config.getBacklog());
+    this.maxRooms = config.getMaxRooms();
+    this.config = config;
+    this.log = log;
+    // a single game needs exactly two threads, otherwise grow with the number of players
+    this.runGame = config.getExecutionMode().newExecutor(maxRooms == 1 ? 2 : 0);
+    this.metrics = new ServerMetrics(config.isMetrics(), activeRooms::get);
+    metrics.register(getPort());
+    this.spectators = config.openSpectatorHub(metrics);
+    this.reconnector = config.openReconnector(metrics);
+    this.timekeeper = config.openTimekeeper();
+    this.matchmaker = config.openMatchmaker(this::match, metrics);
+    if (journal != null) {
+      resumeRecovered();
+    }
+  }
+
+  // seat the players of the games the journal rebuilt, each seat waits for its client to come back with its session
+  // as after a failed connection; a game nobody can come back to ends, so the journal does not carry it forward
+  private void resumeRecovered() {
+    int resumed = 0;
+    for (Map.Entry<Integer, GameState> game : journal.getRecovered().entrySet()) {
+      int id = game.getKey();
+      String sessionX = journal.getSession(id, GameState.PLAYER_X);
+      String sessionO = journal.getSession(id, GameState.PLAYER_O);
+      Strategy computer = sessionO == null && !config.isRouted() ? config.newStrategy() : null;
+      if (reconnector == null || sessionX == null || sessionO == null && computer == null) {
+        journal.roomEnded(id);
+        continue;
+      }
+      GameRoom room;
+      if (config.isRouted()) {
+        room = newRoutedRoom(id, game.getValue());
+        routedRooms.put(id, room);
+      } else {
+        activeRooms.incrementAndGet();
+        room = new GameRoom(id, game.getValue(), runGame, log, activeRooms::decrementAndGet, metrics, journal, replays,
+          spectators, reconnector, timekeeper);
+      }
+      room.seatReturning(GameState.PLAYER_X, sessionX);
+      if (computer != null) {
+        room.seatComputer(computer);
+      } else {
+        room.seatReturning(GameState.PLAYER_O, sessionO);
+      }
+      room.resume(System.currentTimeMillis()); // the journal does not keep the start time
+      resumed++;
+    }
+    log.accept("Recovered " + journal.getRecovered().size() + " games from the journal, " + resumed
+      + " wait for their players\n");
+  }
+
+  @Override
+  public void execute() {
+    GameRoom waiting = null; // room with only player X seated
+    int rooms = 0;
+    int queued = 0; // clients given to the matchmaker
+
+    while (!closed && (maxRooms == ServerConfig.UNLIMITED || rooms < maxRooms || waiting != null
+      || queued % 2 == 1)) {
+      Socket socket;
+      try {
+        socket = server.accept();
+        socket.setTcpNoDelay(config.isTcpNoDelay());
+        metrics.accepted.increment();
+      } catch (IOException ioException) {
+        if (!closed) {
+          metrics.errors.increment();
+          System.out.println(ioException.toString());
+        }
+        break;
+      }
+
+      if (config.isRouted()) {
+        runGame.execute(() -> route(socket)); // the router names the room
+        continue;
+      }
+
+      Strategy computer = config.newStrategy();
+      if (computer != null) {
+        // play against the computer, no need to wait for a second client
+        GameRoom room = new GameRoom(nextRoomId.incrementAndGet(), config.newGameState(), runGame, log,
+          activeRooms::decrementAndGet, metrics, journal, replays, spectators, reconnector, timekeeper);
+        activeRooms.incrementAndGet();
+        rooms++;
+        room.seat(socket);
+        room.seatComputer(computer);
+        room.start();
+        roomsStarted.incrementAndGet();
+        continue;
+      }
+
+      if (matchmaker != null) {
+        // the room is made once the matchmaker found a partner, every two clients count as one room
+        rooms = (++queued + 1) / 2;
+        runGame.execute(() -> greet(socket));
+        continue;
+      }
+
+      if (waiting != null && waiting.isGameOver()) {
+        waiting = null; // player X left before anybody joined, for example because it was silent too long
+      }
+      if (waiting == null) {
+        waiting = new GameRoom(nextRoomId.incrementAndGet(), config.newGameState(), runGame, log,
+          activeRooms::decrementAndGet, metrics, journal, replays, spectators, reconnector, timekeeper);
+        activeRooms.incrementAndGet();
+        rooms++;
+      }
+
+      if (waiting.seat(socket)) {
+        waiting.start();
+        roomsStarted.incrementAndGet();
+        waiting = null;
+      }
+    }
+  }
+
+  // read the name a client may send first and queue the client with its rating, runs on a thread of runGame
+  private void greet(Socket socket) {
+    PushbackInputStream in;
+    String name = null;
+    try {
+      in = new PushbackInputStream(socket.getInputStream(), MAX_HELLO);
+      byte[] line = new byte[MAX_HELLO];
+      int length = readLine(socket, in, line);
+      String text = new String(line, 0, length, StandardCharsets.US_ASCII);
+      String prefix = Matchmaker.HELLO + " ";
+      if (text.endsWith("\n") && text.startsWith(prefix) && !text.trim().equals(Matchmaker.HELLO)) {
+        name = text.substring(prefix.length()).trim();
+      } else {
+        in.unread(line, 0, length); // not a name, the room reads it
+      }
+    } catch (IOException ioException) {
+      metrics.errors.increment();
+      System.out.println(ioException.toString());
+      closeQuietly(socket);
+      return;
+    }
+    matchmaker.enqueue(new Waiting(socket, in, name), ratings.getRating(name));
+  }
+
+  // read the first line a client sends within HELLO_MILLIS, byte by byte so nothing after it is consumed
+  private static int readLine(Socket socket, InputStream in, byte[] line) throws IOException {
+    int length = 0;
+    socket.setSoTimeout(HELLO_MILLIS);
+    try {
+      int b = 0;
+      while (b != '\n' && length < line.length && (b = in.read()) >= 0) {
+        line[length++] = (byte) b;
+      }
+    } catch (SocketTimeoutException timeout) {
+      // the client waits for its mark, what it sent so far is all there is
+    } finally {
+      socket.setSoTimeout(0);
+    }
+    return length;
+  }
+
+  // serve a connection from the router by its first line, runs on a thread of runGame
+  private void route(Socket socket) {
+    try {
+      InputStream in = socket.getInputStream();
+      byte[] line = new byte[MAX_HELLO];
+      String[] words = new String(line, 0, readLine(socket, in, line), StandardCharsets.US_ASCII).trim().split(" ");
+      switch (words[0]) {
+        case ClusterRouter.ROOM:
+          if (words.length == 2) {
+            seatRouted(Integer.parseInt(words[1]), socket, in);
+            return;
+          }
+          break;
+        case ClusterRouter.INFO:
+          try (socket) {
+            socket.getOutputStream().write((ClusterRouter.NODE + " " + getSpectatorPort() + " "
+              + reconnector.getPort() + "\n").getBytes(StandardCharsets.US_ASCII));
+          }
+          return;
+        case ClusterRouter.DRAIN:
+          moveRooms(socket);
+          return;
+        case ClusterRouter.IMPORT:
+          importRooms(socket);
+          return;
+        default:
+          break;
+      }
+    } catch (IOException | RuntimeException exception) {
+      metrics.errors.increment();
+      System.out.println(exception.toString());
+    }
+    closeQuietly(socket);
+  }
+
+  // seat a client in the room the router named, the first one of a room becomes player X
+  private void seatRouted(int id, Socket socket, InputStream in) {
+    GameRoom room;
+    boolean full;
+    synchronized (routedRooms) {
+      while (moving) {
+        try {
+          routedRooms.wait(); // the room may be leaving, it is clear once the router answered
+        } catch (InterruptedException exception) {
+          Thread.currentThread().interrupt();
+          closeQuietly(socket);
+          return;
+        }
+      }
+      room = routedRooms.get(id);
+      if (room == null || !room.isOpen()) {
+        room = newRoutedRoom(id, config.newGameState());
+        routedRooms.put(id, room);
+      }
+      full = room.seat(socket, in);
+    }
+    if (full) {
+      room.start();
+      roomsStarted.incrementAndGet();
+    }
+  }
+
+  private GameRoom newRoutedRoom(int id, GameState state) {
+    activeRooms.incrementAndGet();
+    return new GameRoom(id, state, runGame, log, () -> routedRoomClosed(id), metrics, journal, replays, spectators,
+      reconnector, timekeeper);
+  }
+
+  // both players of a routed room left, forget it unless a newer room has its id
+  private void routedRoomClosed(int id) {
+    activeRooms.decrementAndGet();
+    routedRooms.computeIfPresent(id, (key, room) -> room.isGameOver() ? null : room);
+  }
+
+  // describe the games to the router, then close those it placed on other servers and go on with the others
+  private void moveRooms(Socket socket) throws IOException {
+    List<GameRoom> frozen = new ArrayList<>();
+    Set<Integer> moved = new HashSet<>(); // ids of the rooms the other servers took over
+    try (socket) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+        StandardCharsets.US_ASCII));
+      Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+      synchronized (routedRooms) {
+        moving = true; // nobody joins a waiting room until it is clear where it is
+        for (GameRoom room : routedRooms.values()) {
+          String record = room.freeze();
+          if (record != null) {
+            frozen.add(room);
+            writer.write(record + "\n");
+          }
+        }
+      }
+      writer.write(ClusterRouter.END + "\n");
+      writer.flush();
+      String[] answer = String.valueOf(reader.readLine()).split(" ");
+      if (answer[0].equals(ClusterRouter.DONE)) {
+        for (int i = 1; i < answer.length; i++) {
+          moved.add(Integer.parseInt(answer[i]));
+        }
+      }
+    } finally {
+      synchronized (routedRooms) {
+        for (GameRoom room : frozen) {
+          if (moved.contains(room.getId())) {
+            routedRooms.remove(room.getId(), room);
+            room.migrated();
+          } else {
+            room.thaw();
+          }
+        }
+        moving = false;
+        routedRooms.notifyAll();
+      }
+      log.accept("Moved " + moved.size() + " rooms to other servers, kept " + (frozen.size() - moved.size()) + "\n");
+    }
+  }
+
+  // rebuild the games the router brings from a server that drains, their players come back with their sessions
+  private void importRooms(Socket socket) throws IOException {
+    try (socket) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+        StandardCharsets.US_ASCII));
+      int imported = 0;
+      String line;
+      while ((line = reader.readLine()) != null && !line.equals(ClusterRouter.END)) {
+        // id, size, win length, start time, sessions of X and O, moves, as written by GameRoom.freeze()
+        String[] fields = line.split(" ");
+        if (fields.length != 7) {
+          continue;
+        }
+        int id = Integer.parseInt(fields[0]);
+        GameState state = new GameState(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+        if (!fields[6].equals("-")) {
+          for (String move : fields[6].split(",")) {
+            state.move(Integer.parseInt(move));
+          }
+        }
+        GameRoom room = newRoutedRoom(id, state);
+        room.seatReturning(GameState.PLAYER_X, fields[4]);
+        if (!fields[5].equals("-")) {
+          room.seatReturning(GameState.PLAYER_O, fields[5]);
+          room.resume(Long.parseLong(fields[3]));
+        }
+        synchronized (routedRooms) {
+          routedRooms.put(id, room);
+        }
+        imported++;
+      }
+      socket.getOutputStream().write((ClusterRouter.IMPORTED + " " + imported + "\n")
+        .getBytes(StandardCharsets.US_ASCII));
+      log.accept("Took over " + imported + " rooms\n");
+    }
+  }
+
+  // seat a pair the matchmaker found in a new room, called by the thread that made the match
+  private void match(Waiting playerX, Waiting playerO) {
+    GameRoom room = new GameRoom(nextRoomId.incrementAndGet(), config.newGameState(), runGame, log,
+      activeRooms::decrementAndGet, metrics, journal, replays, spectators, reconnector, timekeeper);
+    room.rate(ratings, playerX.name, playerO.name);
+    activeRooms.incrementAndGet();
+    room.seat(playerX.socket, playerX.input);
+    room.seat(playerO.socket, playerO.input);
+    room.start();
+    roomsStarted.incrementAndGet();
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ioException) {
+      // closing anyway
+    }
+  }
+
+  @Override
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  @Override
+  public int getActiveRooms() {
+    return activeRooms.get();
+  }
+
+  @Override
+  public long getRoomsStarted() {
+    return roomsStarted.get();
+  }
+
+  @Override
+  public long getWrites() {
+    return metrics.getWrites();
+  }
+
+  @Override
+  public ServerMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public int getSpectatorPort() {
+    return spectators == null ? -1 : spectators.getPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    if (journal != null) {
+      journal.close(); // before the players leave, so their games are recovered on restart
+    }
+    server.close();
+    if (matchmaker != null) {
+      matchmaker.drain().forEach(player -> closeQuietly(player.socket)); // nobody will play them any more
+    }
+    if (spectators != null) {
+      spectators.close();
+    }
+    if (reconnector != null) {
+      reconnector.close();
+    }
+    if (timekeeper != null) {
+      timekeeper.close();
+    }
+    if (replays != null) {
+      replays.close(); // writes the last block, games that end later are not kept
+    }
+    metrics.unregister();
+    runGame.shutdown();
+  }
+
+  // a client the matchmaker holds, with the bytes the lobby read from it
+  private static final class Waiting {
+
+    final Socket socket; // connection to the client
+    final InputStream input; // input of the connection, with the bytes after the name pushed back
+    final String name; // the name the client sent, null if it is anonymous
+
+    Waiting(Socket socket, InputStream input, String name) {
+      this.socket = socket;
+      this.input = input;
+      this.name = name;
+    }
+  }
+}
@@ -0,0 +1,335 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Pairs waiting players with similar ratings. The waiting players are kept in buckets of {@value #BUCKET_WIDTH}
+ * rating points, oldest first, and the buckets share {@value #STRIPES} locks, neighbouring buckets different ones. A
+ * player who arrives takes the oldest player of the nearest bucket within the base window and is matched at once,
+ * locking one bucket at a time; only if there is none it waits in its own bucket. Arrivals of different ratings
+ * therefore rarely meet on a lock, and the cost of an arrival does not grow with the number of waiting players.
+ *
+ * A sweeper thread widens the window of every waiting player with its waiting time, by a number of points per second
+ * up to a maximum, and pairs the players whose windows now reach each other. It also catches two players of the same
+ * rating that arrived at the same moment and both found the bucket empty. The time every player waited until its
+ * match is recorded in a histogram.
+ *
+ * @param <T> The players.
+ */
+public final class Matchmaker<T> implements Closeable {
+
+  public static final String HELLO = "PLAYER"; // line a client sends first to name itself, followed by its name
+  public static final int BUCKET_WIDTH = 25; // rating points per bucket
+  private static final int MAX_RATING = 4000; // higher ratings share the top bucket
+  private static final int BUCKETS = MAX_RATING / BUCKET_WIDTH;
+  private static final int STRIPES = 16; // locks shared by the buckets, a power of two
+  private static final long SWEEP_NANOS = 50_000_000; // time between two sweeps
+
+  /**
+   * A player waiting for a match.
+   *
+   * @param <T> The players.
+   */
+  public static final class Ticket<T> {
+
+    private final T player; // the player
+    private final int rating; // its rating
+    private final int bucket; // index of its bucket
+    private final long enqueued; // System.nanoTime() when it arrived
+    private boolean waiting; // whether it is in its bucket, guarded by the lock of the bucket
+
+    private Ticket(T player, int rating, long enqueued) {
+      this.player = player;
+      this.rating = rating;
+      this.bucket = Math.min(BUCKETS - 1, Math.max(0, rating / BUCKET_WIDTH));
+      this.enqueued = enqueued;
+    }
+
+    public T getPlayer() {
+      return player;
+    }
+
+    public int getRating() {
+      return rating;
+    }
+  }
+
+  private final int baseWindow; // rating difference accepted at once
+  private final int widenPerSecond; // points the window grows per second of waiting
+  private final int maxWindow; // the window grows no further
+  private final BiConsumer<T, T> onMatch; // receives the pairs, the player who waited longer first
+  private final Histogram waits; // nanoseconds every player waited for its match
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private final ArrayDeque<Ticket<T>>[] buckets = new ArrayDeque[BUCKETS]; // waiting players, oldest first
+  private final ReentrantLock[] locks = new ReentrantLock[STRIPES]; // bucket i is guarded by locks[i % STRIPES]
+  private final AtomicInteger waiting = new AtomicInteger(); // players in the buckets
+  private final LongAdder matches = new LongAdder(); // pairs made
+  private final Thread sweeper; // widens the windows
+  private volatile boolean closed; // set once close() was called
+
+  /**
+   * Create an empty queue and start its sweeper thread.
+   *
+   * @param baseWindow The rating difference accepted at once.
+   * @param widenPerSecond The points the window of a waiting player grows per second.
+   * @param maxWindow The largest window.
+   * @param onMatch Receives every pair, the player who waited longer first. Called without a lock on the thread that
+   * made the match, the thread of an arriving player or the sweeper.
+   * @param waits Records the nanoseconds every player waited for its match.
+   */
+  public Matchmaker(int baseWindow, int widenPerSecond, int maxWindow, BiConsumer<T, T> onMatch, Histogram waits) {
+    this.baseWindow = Math.max(0, baseWindow);
+    this.widenPerSecond = Math.max(0, widenPerSecond);
+    this.maxWindow = Math.max(this.baseWindow, maxWindow);
+    this.onMatch = onMatch;
+    this.waits = waits;
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new ArrayDeque<>();
+    }
+    for (int i = 0; i < STRIPES; i++) {
+      locks[i] = new ReentrantLock();
+    }
+    sweeper = new Thread(this::sweep, "matchmaker");
+    sweeper.setDaemon(true);
+    sweeper.start();
+  }
+
+  /**
+   * Match a player with the nearest waiting one within the base window, or let it wait.
+   *
+   * @param player The player.
+   * @param rating Its rating.
+   * @return The ticket of the player, to cancel it while it waits.
+   */
+  public Ticket<T> enqueue(T player, int rating) {
+    long now = System.nanoTime();
+    Ticket<T> ticket = new Ticket<>(player, rating, now);
+    Ticket<T> partner = null;
+    int reach = baseWindow / BUCKET_WIDTH + 1; // buckets that may hold ratings within the window
+    for (int distance = 0; distance <= reach && partner == null; distance++) {
+      partner = take(ticket.bucket + distance, rating, baseWindow);
+      if (partner == null && distance > 0) {
+        partner = take(ticket.bucket - distance, rating, baseWindow);
+      }
+    }
+    if (partner != null) {
+      matched(partner, ticket, now);
+      return ticket;
+    }
+
+    ReentrantLock lock = lockOf(ticket.bucket);
+    lock.lock();
+    try {
+      if (closed) {
+        return ticket; // nobody will be matched any more
+      }
+      buckets[ticket.bucket].addLast(ticket);
+      ticket.waiting = true;
+      waiting.incrementAndGet();
+    } finally {
+      lock.unlock();
+    }
+    return ticket;
+  }
+
+  /**
+   * Take a player out of the queue, for example because its connection closed.
+   *
+   * @param ticket The ticket {@link #enqueue} returned.
+   * @return True if it was still waiting and will not be matched.
+   */
+  public boolean cancel(Ticket<T> ticket) {
+    ReentrantLock lock = lockOf(ticket.bucket);
+    lock.lock();
+    try {
+      return remove(ticket);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // players waiting right now
+  public int getWaiting() {
+    return waiting.get();
+  }
+
+  // pairs made so far
+  public long getMatches() {
+    return matches.sum();
+  }
+
+  /**
+   * @param waitedNanos How long a player has waited.
+   * @return The rating difference it accepts now.
+   */
+  public int getWindow(long waitedNanos) {
+    return (int) Math.min(maxWindow, baseWindow + widenPerSecond * waitedNanos / 1_000_000_000L);
+  }
+
+  /**
+   * Stop the sweeper and empty the queue.
+   *
+   * @return The players that were still waiting.
+   */
+  public List<T> drain() {
+    closed = true;
+    List<T> left = new ArrayList<>();
+    for (int i = 0; i < BUCKETS; i++) {
+      ReentrantLock lock = lockOf(i);
+      lock.lock();
+      try {
+        for (Ticket<T> ticket : buckets[i]) {
+          ticket.waiting = false;
+          left.add(ticket.player);
+        }
+        waiting.addAndGet(-buckets[i].size());
+        buckets[i].clear();
+      } finally {
+        lock.unlock();
+      }
+    }
+    return left;
+  }
+
+  @Override
+  public void close() {
+    drain();
+    LockSupport.unpark(sweeper);
+  }
+
+  private ReentrantLock lockOf(int bucket) {
+    return locks[bucket & (STRIPES - 1)];
+  }
+
+  // take the oldest player of a bucket whose rating is within the window, null if there is none
+  private Ticket<T> take(int bucket, int rating, int window) {
+    if (bucket < 0 || bucket >= BUCKETS) {
+      return null;
+    }
+    ReentrantLock lock = lockOf(bucket);
+    lock.lock();
+    try {
+      for (Iterator<Ticket<T>> tickets = buckets[bucket].iterator(); tickets.hasNext();) {
+        Ticket<T> ticket = tickets.next();
+        if (Math.abs(ticket.rating - rating) <= window) {
+          tickets.remove();
+          ticket.waiting = false;
+          waiting.decrementAndGet();
+          return ticket;
+        }
+      }
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // remove a waiting ticket from its bucket, called with the lock of the bucket
+  private boolean remove(Ticket<T> ticket) {
+    if (!ticket.waiting) {
+      return false;
+    }
+    buckets[ticket.bucket].remove(ticket);
+    ticket.waiting = false;
+    waiting.decrementAndGet();
+    return true;
+  }
+
+  private void matched(Ticket<T> older, Ticket<T> newer, long now) {
+    waits.record(now - older.enqueued);
+    waits.record(now - newer.enqueued);
+    matches.increment();
+    onMatch.accept(older.player, newer.player);
+  }
+
+  // pair the waiting players whose windows grew enough, until the matchmaker is closed
+  private void sweep() {
+    List<Ticket<T>> snapshot = new ArrayList<>();
+    while (!closed) {
+      LockSupport.parkNanos(this, SWEEP_NANOS);
+      if (waiting.get() < 2) {
+        continue;
+      }
+      for (int bucket = 0; bucket < BUCKETS && !closed; bucket++) {
+        ReentrantLock lock = lockOf(bucket);
+        lock.lock();
+        try {
+          snapshot.addAll(buckets[bucket]);
+        } finally {
+          lock.unlock();
+        }
+        for (Ticket<T> ticket : snapshot) {
+          pair(ticket, System.nanoTime());
+        }
+        snapshot.clear();
+      }
+    }
+  }
+
+  // match a waiting player with the nearest one its window reaches, nearest buckets first
+  private void pair(Ticket<T> ticket, long now) {
+    int window = getWindow(now - ticket.enqueued);
+    int reach = window / BUCKET_WIDTH + 1;
+    for (int distance = 0; distance <= reach; distance++) {
+      for (int side = 0; side < (distance == 0 ? 1 : 2); side++) {
+        int bucket = ticket.bucket + (side == 0 ? distance : -distance);
+        if (bucket < 0 || bucket >= BUCKETS) {
+          continue;
+        }
+        Boolean paired = pairIn(ticket, bucket, window, now);
+        if (paired != null) {
+          return; // paired, or the ticket is no longer waiting
+        }
+      }
+    }
+  }
+
+  // try to pair a ticket with one of a bucket, null if that bucket had nobody within the window
+  private Boolean pairIn(Ticket<T> ticket, int bucket, int window, long now) {
+    int own = ticket.bucket & (STRIPES - 1);
+    int other = bucket & (STRIPES - 1);
+    ReentrantLock first = locks[Math.min(own, other)]; // the lower stripe first, so two sweeps cannot deadlock
+    ReentrantLock second = locks[Math.max(own, other)]; // may be the same lock, which is reentrant
+    Ticket<T> partner = null;
+    first.lock();
+    try {
+      second.lock();
+      try {
+        if (!ticket.waiting) {
+          return Boolean.FALSE;
+        }
+        for (Ticket<T> candidate : buckets[bucket]) {
+          if (candidate != ticket && Math.abs(candidate.rating - ticket.rating) <= window) {
+            partner = candidate;
+            break;
+          }
+        }
+        if (partner == null) {
+          return null;
+        }
+        remove(ticket);
+        remove(partner);
+      } finally {
+        second.unlock();
+      }
+    } finally {
+      first.unlock();
+    }
+    if (partner.enqueued - ticket.enqueued < 0) {
+      matched(partner, ticket, now);
+    } else {
+      matched(ticket, partner, now);
+    }
+    return Boolean.TRUE;
+  }
+}
@@ -0,0 +1,957 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import tictactoe.engine.GameBoard;
+import tictactoe.engine.Strategy;
+
+import static tictactoe.server.GameState.MARKS;
+import static tictactoe.server.GameState.PLAYER_O;
+import static tictactoe.server.GameState.PLAYER_X;
+
+/**
+ * Non-blocking variant of the {@link Lobby}. A few event loops, each with its own {@link Selector}, serve all
+ * connections, so idle or slow clients do not hold a thread. Both players of a room are served by the same event
+ * loop, which is the only thread that touches the room. The server speaks the same text protocol as the blocking
+ * transport, so the {@code TicTacToeClient} works with either. Computer players whose moves take long think on
+ * separate threads and hand their move back to the event loop. Every event loop keeps the deadlines of its rooms and
+ * connections in a {@link TimerWheel}: the move timeouts, the idle timeouts and the seats kept for players whose
+ * connection failed.
+ */
+public class NioLobby implements GameServer {
+
+  private static final int MAX_QUEUED_MOVES = 64; // moves a player may send ahead of its turn
+  private static final int BUFFER_SIZE = 16 * 1024; // size of the direct buffers of each event loop
+  private static final long TICK_NANOS = 50_000_000; // precision of the deadlines
+  private static final int TIMER_BUCKETS = 1024; // one turn of a wheel covers about 50 seconds
+
+  private final ServerSocketChannel server; // accepts the clients
+  private final EventLoop[] loops; // serve the accepted connections
+  private final Consumer<String> log; // receives messages about the games
+  private final int maxRooms; // stop accepting after this many rooms
+  private final ServerConfig config; // board size of the rooms
+  private final ExecutorService thinkers; // run the expensive computer players off the event loops
+  private final AtomicInteger nextRoomId = new AtomicInteger(); // id of the next room
+  private final AtomicInteger activeRooms = new AtomicInteger(); // rooms with a connected player
+  private final AtomicLong roomsStarted = new AtomicLong(); // rooms that got two players
+  private final ServerMetrics metrics; // counters and histograms of this server
+  private final GameJournal journal; // records every move, null if the games are kept in memory only
+  private final ReplayArchive replays; // keeps the finished games, null if they are not kept
+  private final SpectatorHub spectators; // sends the moves to spectators, null if there are none
+  private final Reconnector reconnector; // brings back players whose connection failed, null if seats are not kept
+  private final long moveTimeoutNanos; // time a player has for its move, 0 for no limit
+  private final long idleTimeoutNanos; // time a client may stay silent while the server waits for it, 0 for no limit
+  private volatile boolean closed; // set once close() was called
+
+  /**
+   * Create a lobby listening on the configured port.
+   *
+   * @param config The port, backlog, room limit and number of event loops.
+   * @param log Receives progress messages of all rooms.
+   * @throws IOException If the journal, the replay archive, the server socket or a selector could not be opened.
+   */
+  public NioLobby(ServerConfig config, Consumer<String> log) throws IOException {
+    this.journal = config.openJournal();
+    if (journal != null) {
+      nextRoomId.set(journal.getLastRoomId()); // ids of recovered rooms stay unique
+    }
+    this.replays = config.openReplayArchive();
+    if (config.isRouted()) {
+      // the rooms of a loop are not found by id, nor can they move to another server
+      log.accept("Routing needs the blocking transport, this server pairs its clients itself\n");
+    }
+    if (config.isMatchmaking()) {
+      // a connection belongs to the room of its loop before it sends anything, so nothing is left to pair by rating
+      log.accept("Matchmaking needs the blocking transport, clients are paired in arrival order\n");
+    }
+    this.server = ServerSocketChannel.open();
+    this.server.bind(new InetSocketAddress(config.getPort()), config.getBacklog());
+    this.maxRooms = config.getMaxRooms();
+    this.config = config;
+    this.log = log;
+    this.thinkers = config.getExecutionMode().newExecutor(0);
+    this.metrics = new ServerMetrics(config.isMetrics(), activeRooms::get);
+    metrics.register(getPort());
+    this.spectators = config.openSpectatorHub(metrics);
+    this.reconnector = config.openReconnector(metrics);
+    this.moveTimeoutNanos = Math.max(0, config.getMoveTimeoutMillis()) * 1_000_000;
+    this.idleTimeoutNanos = Math.max(0, config.getIdleTimeoutMillis()) * 1_000_000;
+    this.loops = new EventLoop[Math.max(1, config.getEventLoops())];
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new EventLoop();
+    }
+    if (journal != null) {
+      resumeRecovered();
+    }
+  }
+
+  // hand the games the journal rebuilt to the loops, where their seats wait for the players to come back with their
+  // sessions; a game nobody can come back to ends, so the journal does not carry it forward
+  private void resumeRecovered() {
+    int resumed = 0;
+    for (Map.Entry<Integer, GameState> game : journal.getRecovered().entrySet()) {
+      int id = game.getKey();
+      String sessionX = journal.getSession(id, PLAYER_X);
+      String sessionO = journal.getSession(id, PLAYER_O);
+      Strategy computer = sessionO == null ? config.newStrategy() : null;
+      if (reconnector == null || sessionX == null || sessionO == null && computer == null) {
+        journal.roomEnded(id);
+        continue;
+      }
+      Room room = new Room(id, game.getValue(), loops[resumed % loops.length]);
+      room.computer = computer;
+      room.adopt(sessionX, sessionO);
+      activeRooms.incrementAndGet();
+      room.loop.submit(room::recover); // runs once the loop starts, a player coming back earlier waits behind it
+      resumed++;
+    }
+    log.accept("Recovered " + journal.getRecovered().size() + " games from the journal, " + resumed
+      + " wait for their players\n");
+  }
+
+  @Override
+  public void execute() {
+    for (int i = 0; i < loops.length; i++) {
+      new Thread(loops[i], "nio-loop-" + i).start();
+    }
+
+    Room waiting = null; // room with only player X seated
+    int rooms = 0;
+
+    while (!closed && (maxRooms == ServerConfig.UNLIMITED || rooms < maxRooms || waiting != null)) {
+      SocketChannel channel;
+      try {
+        channel = server.accept();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, config.isTcpNoDelay());
+        metrics.accepted.increment();
+      } catch (IOException ioException) {
+        if (!closed) {
+          metrics.errors.increment();
+          System.out.println(ioException.toString());
+        }
+        break;
+      }
+
+      Strategy computer = config.newStrategy();
+      if (computer != null) {
+        // play against the computer, no need to wait for a second client
+        Room room = new Room(nextRoomId.incrementAndGet(), config.newGameState(), loops[rooms % loops.length]);
+        room.computer = computer;
+        activeRooms.incrementAndGet();
+        rooms++;
+        room.loop.submit(() -> {
+          room.join(channel, PLAYER_X);
+          room.start();
+        });
+        roomsStarted.incrementAndGet();
+        continue;
+      }
+
+      if (waiting != null && waiting.over) {
+        waiting = null; // player X left before anybody joined, for example because it was silent too long
+      }
+      if (waiting == null) {
+        waiting = new Room(nextRoomId.incrementAndGet(), config.newGameState(), loops[rooms % loops.length]);
+        activeRooms.incrementAndGet();
+        rooms++;
+      }
+
+      Room room = waiting;
+      if (room.seated++ == PLAYER_X) {
+        room.loop.submit(() -> room.join(channel, PLAYER_X));
+      } else {
+        room.loop.submit(() -> {
+          room.join(channel, PLAYER_O);
+          room.start();
+        });
+        roomsStarted.incrementAndGet();
+        waiting = null;
+      }
+    }
+  }
+
+  @Override
+  public int getPort() {
+    return server.socket().getLocalPort();
+  }
+
+  @Override
+  public int getActiveRooms() {
+    return activeRooms.get();
+  }
+
+  @Override
+  public long getRoomsStarted() {
+    return roomsStarted.get();
+  }
+
+  @Override
+  public long getWrites() {
+    return metrics.getWrites();
+  }
+
+  @Override
+  public ServerMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public int getSpectatorPort() {
+    return spectators == null ? -1 : spectators.getPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    if (journal != null) {
+      journal.close(); // before the players leave, so their games are recovered on restart
+    }
+    server.close();
+    if (spectators != null) {
+      spectators.close();
+    }
+    if (reconnector != null) {
+      reconnector.close();
+    }
+    if (replays != null) {
+      replays.close(); // writes the last block, games that end later are not kept
+    }
+    metrics.unregister();
+    thinkers.shutdownNow();
+    for (EventLoop loop : loops) {
+      loop.selector.wakeup();
+    }
+  }
+
+  // a selector thread serving the connections of its rooms, output is written once per pass of the loop
+  private final class EventLoop implements Runnable {
+
+    private final Selector selector; // waits for ready connections
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // work handed over by the acceptor
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE); // reused for every read
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE); // reused for every write
+    private final List<Connection> flushes = new ArrayList<>(); // connections with output queued in this pass
+    private final TimerWheel timers = new TimerWheel(TICK_NANOS, TIMER_BUCKETS); // deadlines of this loop
+    private long journaled; // sequence number of the last journal record of this pass, 0 if none
+
+    EventLoop() throws IOException {
+      selector = Selector.open();
+    }
+
+    // run a task on this loop's thread
+    void submit(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      while (!closed) {
+        try {
+          long wait = timers.nanosToNextTick(System.nanoTime());
+          selector.select(wait < 0 ? 0 : Math.max(1, wait / 1_000_000));
+        } catch (IOException ioException) {
+          metrics.errors.increment();
+          System.out.println(ioException.toString());
+          break;
+        }
+
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+
+        // move, idle and seat timeouts
+        if (timers.size() > 0) {
+          timers.advance(System.nanoTime());
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          Connection connection = (Connection) key.attachment();
+          if (key.isValid() && key.isReadable()) {
+            connection.read();
+          }
+          if (key.isValid() && key.isWritable()) {
+            connection.write();
+          }
+        }
+
+        // answer the moves of this pass once the journal has them, one wait for all of them
+        if (journaled > 0) {
+          journal.awaitDurable(journaled);
+          journaled = 0;
+        }
+
+        // one write per connection for all messages of this pass
+        for (int i = 0; i < flushes.size(); i++) {
+          Connection connection = flushes.get(i);
+          connection.flushScheduled = false;
+          connection.write();
+        }
+        flushes.clear();
+      }
+
+      for (SelectionKey key : selector.keys()) {
+        ((Connection) key.attachment()).close();
+      }
+      try {
+        selector.close();
+      } catch (IOException ioException) {
+        metrics.errors.increment();
+        System.out.println(ioException.toString());
+      }
+    }
+  }
+
+  // one client connection, only used by the thread of its event loop
+  private final class Connection {
+
+    private final SocketChannel channel; // connection to client
+    private final EventLoop loop; // loop serving this connection
+    private final Room room; // room of this player
+    private final int playerNumber; // tracks which player this is
+    private SelectionKey key; // registration with the loop's selector
+    private ByteBuffer pending = ByteBuffer.allocate(64); // output not yet written to the channel
+    private int token; // value of the number being read
+    private boolean inToken; // whether a number is being read
+    private boolean badToken; // whether the current token is not a number
+    private int requestMatched; // leading characters of the token that match the binary request, -1 if none
+    private boolean binary; // whether the client switched to frames
+    private final byte[] frame = new byte[BinaryProtocol.FRAME_SIZE]; // frame being read
+    private int frameFill; // bytes of the frame read so far
+    private int[] queuedMoves = new int[4]; // moves sent before the player's turn, a ring buffer
+    private int queueHead; // index of the oldest queued move
+    private int queueSize; // number of queued moves
+    private boolean closeWhenFlushed; // close once all output is written
+    private boolean flushScheduled; // whether the loop writes the output at the end of this pass
+    private boolean closed; // whether close() was called
+    private final TimerWheel.Timeout idleTimer = new TimerWheel.Timeout(this::checkIdle); // closes a silent client
+    private long lastInput; // System.nanoTime() of the last read
+
+    Connection(SocketChannel channel, EventLoop loop, Room room, int playerNumber) {
+      this.channel = channel;
+      this.loop = loop;
+      this.room = room;
+      this.playerNumber = playerNumber;
+    }
+
+    void register() throws ClosedChannelException {
+      key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+      lastInput = System.nanoTime();
+      if (idleTimeoutNanos > 0) {
+        loop.timers.schedule(idleTimer, lastInput + idleTimeoutNanos);
+      }
+    }
+
+    // close the connection if the client sent nothing for too long while the server waited for it
+    private void checkIdle(long now) {
+      if (room.isWaitingFor(playerNumber ^ 1)) {
+        loop.timers.schedule(idleTimer, now + idleTimeoutNanos); // waiting for the other player is not idle
+        return;
+      }
+      long since = Math.max(lastInput, room.turnStarted);
+      if (now - since < idleTimeoutNanos) {
+        loop.timers.schedule(idleTimer, since + idleTimeoutNanos);
+        return;
+      }
+      metrics.idleClosed.increment();
+      log.accept("Player " + MARKS[playerNumber] + " of room " + room.id + " was silent too long\n");
+      close();
+    }
+
+    // read what is available and pass every complete, whitespace separated token to the room
+    void read() {
+      ByteBuffer buffer = loop.readBuffer;
+      buffer.clear();
+      int count;
+      try {
+        count = channel.read(buffer);
+      } catch (IOException ioException) {
+        count = -1;
+      }
+      if (count < 0) {
+        close();
+        return;
+      }
+      metrics.bytesIn.add(count);
+      lastInput = System.nanoTime(); // the idle timer looks at it when it runs
+
+      buffer.flip();
+      while (buffer.hasRemaining() && !closed) {
+        if (binary) {
+          readFrames(buffer);
+          break;
+        }
+        byte b = buffer.get();
+        if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+          if (inToken) {
+            if (requestMatched == BinaryProtocol.REQUEST.length()) {
+              switchToBinary();
+            } else {
+              room.onMove(this, badToken ? -1 : token);
+            }
+            token = 0;
+            inToken = false;
+            badToken = false;
+            requestMatched = 0;
+          }
+        } else {
+          inToken = true;
+          if (b >= '0' && b <= '9' && token < 100_000_000) {
+            token = token * 10 + (b - '0');
+          } else {
+            badToken = true;
+          }
+          requestMatched = requestMatched >= 0 && requestMatched < BinaryProtocol.REQUEST.length()
+            && BinaryProtocol.REQUEST.charAt(requestMatched) == b ? requestMatched + 1 : -1;
+        }
+      }
+    }
+
+    // pass every complete frame to the room, keeping a partial frame for the next read
+    private void readFrames(ByteBuffer buffer) {
+      while (buffer.hasRemaining() && !closed) {
+        int count = Math.min(buffer.remaining(), frame.length - frameFill);
+        buffer.get(frame, frameFill, count);
+        frameFill += count;
+        if (frameFill == frame.length) {
+          frameFill = 0;
+          boolean move = BinaryProtocol.opcode(frame, 0) == BinaryProtocol.MOVE;
+          room.onMove(this, move ? BinaryProtocol.cell(frame, 0) : -1);
+        }
+      }
+    }
+
+    // answer the client's request for frames, the rest of its input is frames
+    private void switchToBinary() {
+      send(BinaryProtocol.ACCEPTED + "\n");
+      flush();
+      binary = true;
+    }
+
+    // keep a move until it is the player's turn, false if too many are waiting
+    boolean queueMove(int location) {
+      if (queueSize == MAX_QUEUED_MOVES) {
+        return false;
+      }
+      if (queueSize == queuedMoves.length) {
+        int[] larger = new int[queuedMoves.length * 2];
+        for (int i = 0; i < queueSize; i++) {
+          larger[i] = queuedMoves[(queueHead + i) % queuedMoves.length];
+        }
+        queuedMoves = larger;
+        queueHead = 0;
+      }
+      queuedMoves[(queueHead + queueSize) % queuedMoves.length] = location;
+      queueSize++;
+      return true;
+    }
+
+    boolean hasQueuedMove() {
+      return queueSize > 0;
+    }
+
+    int pollMove() {
+      int location = queuedMoves[queueHead];
+      queueHead = (queueHead + 1) % queuedMoves.length;
+      queueSize--;
+      return location;
+    }
+
+    // queue a message, it is written after the next flush()
+    void send(String message) {
+      reserve(message.length());
+      for (int i = 0; i < message.length(); i++) {
+        pending.put((byte) message.charAt(i));
+      }
+    }
+
+    // queue a message in the client's protocol
+    void send(String text, int opcode, int cell, int result) {
+      if (binary) {
+        reserve(BinaryProtocol.FRAME_SIZE);
+        BinaryProtocol.encode(pending, opcode, room.id, cell, result);
+      } else {
+        send(text + BinaryProtocol.resultLine(result));
+      }
+    }
+
+    // make room for more output
+    private void reserve(int length) {
+      if (pending.remaining() < length) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length));
+        pending.flip();
+        larger.put(pending);
+        pending = larger;
+      }
+    }
+
+    // write the queued output at the end of this pass of the loop, together with any message queued until then
+    void flush() {
+      if (!flushScheduled && !closed) {
+        flushScheduled = true;
+        loop.flushes.add(this);
+      }
+    }
+
+    // write queued output, waiting for OP_WRITE if the socket buffer is full
+    void write() {
+      if (closed) {
+        return;
+      }
+      pending.flip();
+      try {
+        while (pending.hasRemaining()) {
+          ByteBuffer out = loop.writeBuffer;
+          out.clear();
+          int limit = pending.limit();
+          pending.limit(pending.position() + Math.min(out.remaining(), pending.remaining()));
+          out.put(pending);
+          pending.limit(limit);
+          out.flip();
+          metrics.bytesOut.add(channel.write(out));
+          metrics.writes.increment();
+          if (out.hasRemaining()) {
+            pending.position(pending.position() - out.remaining()); // keep what was not written
+            break;
+          }
+        }
+      } catch (IOException ioException) {
+        pending.clear();
+        close();
+        return;
+      }
+      pending.compact();
+
+      if (pending.position() > 0) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      } else if (closeWhenFlushed) {
+        close();
+      } else {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      loop.timers.cancel(idleTimer);
+      if (key != null) {
+        key.cancel();
+      }
+      try {
+        channel.close(); // close connection to client
+      } catch (IOException ioException) {
+        metrics.errors.increment();
+        System.out.println(ioException.toString());
+      }
+      room.disconnected(this);
+    }
+  }
+
+  // one game, only used by the thread of its event loop
+  private final class Room {
+
+    private final int id; // identifies this room in the lobby
+    private final EventLoop loop; // loop serving both players
+    private final GameState state; // board and current player
+    private final Connection[] players = new Connection[2]; // connections of the players, null for the computer
+    private Strategy computer; // plays seat O if set
+    private int seated; // players seated so far, only used by the acceptor
+    private boolean started; // whether both players are connected
+    private boolean thinking; // whether the computer is choosing a move on another thread
+    private volatile boolean over; // whether the room has been left, the acceptor looks at it too
+    private final String[] sessions = new String[2]; // tokens for coming back, null without a reconnector
+    private final boolean[] kept = new boolean[2]; // seats kept for players whose connection failed
+    private final TimerWheel.Timeout[] seatTimers = { // give up the kept seats
+      new TimerWheel.Timeout(now -> expireSeat(PLAYER_X)), new TimerWheel.Timeout(now -> expireSeat(PLAYER_O))};
+    private final TimerWheel.Timeout moveTimer = new TimerWheel.Timeout(now -> moveTimedOut()); // time of the turn
+    private long turnStarted; // System.nanoTime() when the side to move got the turn
+    private long startedMillis; // System.currentTimeMillis() when the game started
+
+    Room(int id, GameState state, EventLoop loop) {
+      this.id = id;
+      this.state = state;
+      this.loop = loop;
+    }
+
+    // set up a newly accepted player and send the greeting
+    void join(SocketChannel channel, int number) {
+      Connection player = new Connection(channel, loop, this, number);
+      players[number] = player;
+      if (over) {
+        player.close(); // player X already left, there is no game to join
+        return;
+      }
+      try {
+        player.register();
+      } catch (ClosedChannelException exception) {
+        player.close();
+        return;
+      }
+
+      log.accept("Player " + MARKS[number] + " connected to room " + id + "\n");
+      player.send(MARKS[number] + "\n"); // send player's mark
+      if (!state.isClassic()) {
+        player.send(state.getBoardMessage()); // send size of the board
+      }
+      if (reconnector != null) {
+        sessions[number] = reconnector.register((comeback, seen) -> loop.submit(() -> resume(number, comeback, seen)),
+          id);
+        player.send(reconnector.getSessionMessage(sessions[number])); // so the client can come back
+      }
+      player.send(number == PLAYER_X ? "Player X connected\nWaiting for another player\n"
+        : "Player O connected, please wait\n");
+      player.flush();
+    }
+
+    // both players are seated, let player X begin
+    void start() {
+      if (over) {
+        return;
+      }
+      started = true;
+      startedMillis = System.currentTimeMillis();
+      announce();
+      if (computer != null) {
+        log.accept("Computer player O joined room " + id + "\n");
+      }
+      startTurn();
+      players[PLAYER_X].send("Other player connected. Your move.\n", BinaryProtocol.YOUR_MOVE, 0,
+        BinaryProtocol.NONE);
+      players[PLAYER_X].flush();
+      playWaitingMoves();
+    }
+
+    // take the sessions of a game the journal rebuilt, called before the room is handed to its loop
+    void adopt(String sessionX, String sessionO) {
+      sessions[PLAYER_X] = sessionX;
+      sessions[PLAYER_O] = sessionO;
+      for (int number = PLAYER_X; number <= PLAYER_O; number++) {
+        if (sessions[number] != null) {
+          int seat = number;
+          reconnector.adopt(sessions[number], (comeback, seen) -> loop.submit(() -> resume(seat, comeback, seen)));
+        }
+      }
+    }
+
+    // continue a game the journal rebuilt, its players come back with their sessions as after a failed connection
+    void recover() {
+      started = true;
+      startedMillis = System.currentTimeMillis(); // the journal does not keep the start time
+      announce();
+      for (int number = PLAYER_X; number <= PLAYER_O; number++) {
+        if (sessions[number] != null) {
+          kept[number] = true;
+          loop.timers.schedule(seatTimers[number], System.nanoTime() + reconnector.getTimeoutMillis() * 1_000_000);
+        }
+      }
+      startTurn();
+      playWaitingMoves(); // the computer may be to move
+    }
+
+    // tell the journal and the spectators that the game started and which moves it has, the journal also gets the
+    // sessions of the players so that they can come back to the game after a restart
+    private void announce() {
+      if (journal != null) {
+        journal.roomStarted(id, state.getSize(), state.getWinLength());
+        for (int number = PLAYER_X; number <= PLAYER_O; number++) {
+          if (sessions[number] != null) {
+            journal.sessionIssued(id, number, sessions[number]);
+          }
+        }
+      }
+      if (spectators != null) {
+        spectators.roomStarted(id, state.getSize(), state.getWinLength());
+      }
+      for (int i = 0; i < state.getMoveCount(); i++) {
+        if (journal != null) {
+          journal.moveMade(id, i % 2, state.getMove(i));
+        }
+        if (spectators != null) {
+          spectators.moved(id, i % 2, state.getMove(i), BinaryProtocol.NONE);
+        }
+      }
+    }
+
+    // whether the game goes on and the player is to move
+    boolean isWaitingFor(int player) {
+      return started && !over && !state.isGameOver() && state.getCurrentPlayer() == player;
+    }
+
+    // the side to move got the turn, start its time unless it is the computer
+    private void startTurn() {
+      turnStarted = System.nanoTime();
+      if (moveTimeoutNanos > 0 && (computer == null || state.getCurrentPlayer() == PLAYER_X)) {
+        loop.timers.schedule(moveTimer, turnStarted + moveTimeoutNanos);
+      }
+    }
+
+    // the player to move ran out of time and loses
+    private void moveTimedOut() {
+      if (!isWaitingFor(state.getCurrentPlayer())) {
+        return;
+      }
+      int loser = state.getCurrentPlayer();
+      state.forfeit(loser);
+      if (journal != null) {
+        journal.roomEnded(id);
+      }
+      if (replays != null) {
+        replays.gameFinished(state, startedMillis, System.currentTimeMillis());
+      }
+      if (spectators != null) {
+        spectators.timedOut(id, loser);
+      }
+      for (Connection player : players) {
+        if (player != null) {
+          player.send(BinaryProtocol.TIMED_OUT_LINE + "\n", BinaryProtocol.TIMED_OUT, 0,
+            state.getResult(player.playerNumber));
+          player.closeWhenFlushed = true;
+          player.flush();
+        }
+      }
+      metrics.moveTimeouts.increment();
+      log.accept("Player " + MARKS[loser] + " of room " + id + " ran out of time\n");
+    }
+
+    // a player sent a location
+    void onMove(Connection player, int location) {
+      if (over || state.isGameOver()) {
+        return;
+      }
+      if (!started || player.playerNumber != state.getCurrentPlayer()) {
+        // the blocking server makes the player wait for its turn, so keep the move until then
+        if (!player.queueMove(location)) {
+          player.close(); // far more moves than a game can take
+        }
+        return;
+      }
+      play(player, location);
+      playWaitingMoves();
+    }
+
+    // make a move of the current player, player is null for the computer
+    private void play(Connection player, int location) {
+      long time = metrics.now();
+      if (state.isValidMove(location)) {
+        int mover = state.getCurrentPlayer();
+        state.move(location); // set move on board and change player
+        Connection other = players[state.getCurrentPlayer()];
+        boolean winner = state.hasWinner();
+        boolean full = state.boardFilledUp();
+        log.accept("\nroom " + id + " location: " + location);
+        if (journal != null) {
+          loop.journaled = journal.moveMade(id, mover, location);
+          if (winner || full) {
+            journal.roomEnded(id);
+          }
+        }
+        if ((winner || full) && replays != null) {
+          replays.gameFinished(state, startedMillis, System.currentTimeMillis());
+        }
+        if (spectators != null) {
+          spectators.moved(id, mover, location,
+            winner ? BinaryProtocol.VICTORY : full ? BinaryProtocol.TIE : BinaryProtocol.NONE);
+        }
+
+        // mark both connections before flushing, closing one ends the room and closes the other
+        if (player != null) {
+          player.send("Valid move.\n", BinaryProtocol.VALID, 0,
+            winner ? BinaryProtocol.VICTORY : full ? BinaryProtocol.TIE : BinaryProtocol.NONE);
+          player.closeWhenFlushed = winner || full;
+        }
+        // let new current player know that move occurred
+        if (other != null) {
+          other.send("Opponent moved\n" + location + "\n", BinaryProtocol.OPPONENT_MOVED, location,
+            winner ? BinaryProtocol.DEFEAT : full ? BinaryProtocol.TIE : BinaryProtocol.NONE);
+          other.closeWhenFlushed = winner || full;
+        }
+        if (player != null) {
+          player.flush();
+        }
+        if (other != null) {
+          other.flush();
+        }
+        if (winner || full) {
+          loop.timers.cancel(moveTimer);
+        } else {
+          startTurn();
+        }
+        metrics.moves.increment();
+      } else {
+        player.send("Invalid move, try again\n", BinaryProtocol.INVALID, location, BinaryProtocol.NONE);
+        player.flush();
+        metrics.invalidMoves.increment();
+      }
+      metrics.lap(metrics.validation, time);
+    }
+
+    // play the moves the current player sent before its turn, and the moves of the computer
+    private void playWaitingMoves() {
+      while (started && !over && !state.isGameOver()) {
+        if (computer != null && state.getCurrentPlayer() == PLAYER_O) {
+          if (computer.isExpensive()) {
+            think();
+            return;
+          }
+          play(null, computer.chooseMove(state.getBoard()));
+          continue;
+        }
+        Connection current = players[state.getCurrentPlayer()];
+        if (current == null || !current.hasQueuedMove()) {
+          return;
+        }
+        play(current, current.pollMove());
+      }
+    }
+
+    // let the computer choose its move on another thread, the board does not change until it answers
+    private void think() {
+      if (thinking) {
+        return;
+      }
+      thinking = true;
+      GameBoard board = state.getBoard();
+      try {
+        thinkers.execute(() -> {
+          try {
+            int location = computer.chooseMove(board);
+            loop.submit(() -> computerMoved(location));
+          } catch (RuntimeException exception) {
+            metrics.errors.increment();
+            System.out.println(exception.toString());
+            loop.submit(this::left);
+          }
+        });
+      } catch (RejectedExecutionException exception) {
+        left(); // the server is closing
+      }
+    }
+
+    // the computer's move is ready
+    private void computerMoved(int location) {
+      thinking = false;
+      if (over || state.isGameOver()) {
+        return;
+      }
+      play(null, location);
+      playWaitingMoves();
+    }
+
+    // a player's connection closed, keep the seat if the player can come back, otherwise end the room
+    void disconnected(Connection player) {
+      int number = player.playerNumber;
+      if (players[number] != player) {
+        return; // replaced by the connection the player came back on
+      }
+      players[number] = null;
+      if (reconnector != null && started && !over && !player.closeWhenFlushed) {
+        kept[number] = true;
+        loop.timers.schedule(seatTimers[number], System.nanoTime() + reconnector.getTimeoutMillis() * 1_000_000);
+        return;
+      }
+      if (!state.isGameOver() || !kept[PLAYER_X] && !kept[PLAYER_O]) {
+        left(); // otherwise the room waits for the kept seat, so that player learns the result
+      }
+    }
+
+    // the player came back on a new connection, send what it missed and continue
+    private void resume(int number, SocketChannel channel, int seen) {
+      if (over && !state.isGameOver()) {
+        Reconnector.reject(channel); // the seat was given up
+        return;
+      }
+      Connection old = players[number];
+      Connection player = new Connection(channel, loop, this, number);
+      players[number] = player;
+      kept[number] = false;
+      loop.timers.cancel(seatTimers[number]);
+      if (old != null) {
+        old.close(); // the server had not noticed yet that it failed
+      }
+      try {
+        channel.configureBlocking(false);
+        player.register();
+      } catch (IOException ioException) {
+        player.close();
+        return;
+      }
+
+      int count = state.getMoveCount();
+      int result = state.getResult(number);
+      player.send(state.getMovesMessage(seen, count) + "Resumed " + count + "\n" + BinaryProtocol.resultLine(result));
+      player.closeWhenFlushed = state.isGameOver();
+      player.flush();
+      metrics.resumes.increment();
+      log.accept("Player " + MARKS[number] + " came back to room " + id + "\n");
+      playWaitingMoves();
+    }
+
+    // give up a kept seat whose time is over
+    private void expireSeat(int number) {
+      if (kept[number]) {
+        kept[number] = false;
+        metrics.seatsExpired.increment();
+        log.accept("Player " + MARKS[number] + " of room " + id + " did not come back\n");
+        left();
+      }
+    }
+
+    // a player disconnected for good, end the game for the other one too
+    void left() {
+      if (over) {
+        return;
+      }
+      over = true;
+      loop.timers.cancel(moveTimer);
+      loop.timers.cancel(seatTimers[PLAYER_X]);
+      loop.timers.cancel(seatTimers[PLAYER_O]);
+      if (reconnector != null && state.isGameOver()) {
+        // a player whose connection failed with the last move can still get the result
+        reconnector.retire(sessions[PLAYER_X]);
+        reconnector.retire(sessions[PLAYER_O]);
+      } else if (reconnector != null) {
+        reconnector.unregister(sessions[PLAYER_X]);
+        reconnector.unregister(sessions[PLAYER_O]);
+      }
+      if (journal != null && started && !state.isGameOver()) {
+        journal.roomEnded(id); // abandoned, unless the lobby closed the journal first to recover the game
+      }
+      if (spectators != null && started) {
+        spectators.roomEnded(id);
+      }
+      for (Connection player : players) {
+        if (player != null && !player.closeWhenFlushed) {
+          player.close();
+        }
+      }
+      activeRooms.decrementAndGet();
+    }
+  }
+}
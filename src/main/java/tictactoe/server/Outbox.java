@@ -0,0 +1,101 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Outgoing messages of one connection of the blocking transport. Text and frames are queued in one buffer and written
+ * to the socket with a single write per {@link #flush()}, so a move costs one system call per connection no matter
+ * how many messages it produces. Both players' threads may send to a connection, so the methods hold a lock. It is a
+ * {@link ReentrantLock} rather than a monitor because {@link #flush()} blocks in the socket write, and a virtual thread
+ * blocked inside a monitor would pin its carrier. A caller whose messages must reach the client together, without a
+ * message of the other player in between, holds the lock across them with {@link #lock()} and {@link #unlock()}.
+ */
+final class Outbox {
+
+  private OutputStream out; // stream of the socket
+  private final ServerMetrics metrics; // counts the socket writes and bytes of the server
+  private byte[] buffer = new byte[128]; // queued output
+  private int length; // bytes queued
+  private final ReentrantLock lock = new ReentrantLock(); // both players' threads send to the connection
+
+  Outbox(OutputStream out, ServerMetrics metrics) {
+    this.out = out;
+    this.metrics = metrics;
+  }
+
+  // hold the lock across several messages and the state that goes with them, reentrant
+  void lock() {
+    lock.lock();
+  }
+
+  void unlock() {
+    lock.unlock();
+  }
+
+  // queue a text message, the protocol only uses ASCII
+  Outbox add(String message) {
+    lock.lock();
+    try {
+      reserve(message.length());
+      for (int i = 0; i < message.length(); i++) {
+        buffer[length++] = (byte) message.charAt(i);
+      }
+    } finally {
+      lock.unlock();
+    }
+    return this;
+  }
+
+  // queue a frame of the binary protocol
+  Outbox addFrame(int opcode, int room, int cell, int result) {
+    lock.lock();
+    try {
+      reserve(BinaryProtocol.FRAME_SIZE);
+      BinaryProtocol.encode(buffer, length, opcode, room, cell, result);
+      length += BinaryProtocol.FRAME_SIZE;
+    } finally {
+      lock.unlock();
+    }
+    return this;
+  }
+
+  // write everything queued with one write, failures show up as the end of the input on the reading side
+  void flush() {
+    lock.lock();
+    try {
+      if (length == 0) {
+        return;
+      }
+      out.write(buffer, 0, length);
+      metrics.writes.increment();
+      metrics.bytesOut.add(length);
+    } catch (IOException ioException) {
+      // like a Formatter, leave it to the reading side to notice the closed connection
+    } finally {
+      length = 0;
+      lock.unlock();
+    }
+  }
+
+  // send from now on to the new connection of a player that came back, output queued for the old one is dropped
+  void redirect(OutputStream out) {
+    lock.lock();
+    try {
+      this.out = out;
+      length = 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void reserve(int count) {
+    if (length + count > buffer.length) {
+      byte[] larger = new byte[Math.max(buffer.length * 2, length + count)];
+      System.arraycopy(buffer, 0, larger, 0, length);
+      buffer = larger;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Elo ratings of the named players of a server, kept in memory. A new player starts at {@value #INITIAL} and after
+ * every game both players move by up to {@value #K} points towards their result: the winner gains what the loser
+ * loses, more the less the win was expected.
+ */
+public final class RatingTable {
+
+  public static final int INITIAL = 1500; // rating of a player's first game
+  private static final double K = 32; // largest change per game
+
+  private final Map<String, Double> ratings = new ConcurrentHashMap<>(); // by player name
+
+  /**
+   * @param name The player, or null for an anonymous one.
+   * @return Its rating, rounded.
+   */
+  public int getRating(String name) {
+    return (int) Math.round(name == null ? INITIAL : ratings.getOrDefault(name, (double) INITIAL));
+  }
+
+  // number of players that have a rating
+  public int size() {
+    return ratings.size();
+  }
+
+  /**
+   * Update the ratings of both players of a finished game. Anonymous players and a player against itself are not
+   * rated.
+   *
+   * @param playerX The name of player X, or null.
+   * @param playerO The name of player O, or null.
+   * @param scoreX 1 if X won, 0 if O won and 0.5 for a tie.
+   */
+  public void gameFinished(String playerX, String playerO, double scoreX) {
+    if (playerX == null || playerO == null || playerX.equals(playerO)) {
+      return;
+    }
+    double ratingX = ratings.getOrDefault(playerX, (double) INITIAL);
+    double ratingO = ratings.getOrDefault(playerO, (double) INITIAL);
+    double expectedX = 1 / (1 + Math.pow(10, (ratingO - ratingX) / 400));
+    double change = K * (scoreX - expectedX);
+    ratings.merge(playerX, INITIAL + change, (old, initial) -> old + change);
+    ratings.merge(playerO, INITIAL - change, (old, initial) -> old - change);
+  }
+}
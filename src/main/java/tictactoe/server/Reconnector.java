@@ -0,0 +1,370 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Lets a player whose connection failed continue the game on a new one. The seat of every human player gets a session
+ * token, the room id and random digits, which the client receives after its mark together with the port of the
+ * reconnector and how long the seat is kept:
+ *
+ * <pre>
+ * Session &lt;token&gt; &lt;port&gt; &lt;milliseconds&gt;
+ * </pre>
+ *
+ * A client that lost its connection connects to that port and sends {@code RESUME <token> <moves seen>}. The
+ * reconnector reads only that line, one byte at a time so that nothing the client sends after it is lost, and hands
+ * the connection to the seat. The seat closes the old connection in case the server has not noticed yet that it
+ * failed, sends the moves the client missed, the number of moves so far and the result if the game ended meanwhile:
+ *
+ * <pre>
+ * Moved &lt;move number&gt; &lt;X or O&gt; &lt;location&gt;   or   Snapshot &lt;moves&gt; &lt;cells&gt;
+ * Resumed &lt;moves&gt;
+ * VICTORY, DEFEAT or TIE
+ * </pre>
+ *
+ * An unknown or expired token is answered with {@code Session expired}. The session of a finished game is kept for
+ * the same time, so a player whose connection failed with the last move still learns the result. One selector thread
+ * reads the commands, so a client that connects and says nothing holds no thread.
+ *
+ * Behind a {@link ClusterRouter} the clients are told the port of the router, which finds the server of the room by
+ * the id in the token. A room that moved to another server keeps its tokens, see {@link #adopt(String, Seat)}.
+ */
+public final class Reconnector implements Runnable, Closeable {
+
+  public static final String EXPIRED = "Session expired"; // answer to an unknown or expired token
+  private static final int MAX_COMMAND = 64; // bytes of the command of a client
+  private static final int TOKEN_BYTES = 16; // random bytes of a session token
+
+  /**
+   * A seat that a player can come back to.
+   */
+  public interface Seat {
+
+    /**
+     * Continue the game on a new connection. Called on the reconnector thread, so it must not block.
+     *
+     * @param channel The new connection, in blocking mode.
+     * @param seen The number of moves the client has seen, -1 if it lost its board.
+     */
+    void resume(SocketChannel channel, int seen);
+  }
+
+  private final ServerSocketChannel server; // accepts the returning clients
+  private final Selector selector; // waits for their commands
+  private final int publicPort; // port announced to the clients, 0 for the port of the reconnector
+  private final long timeoutMillis; // how long the seats wait for their players
+  private final ServerMetrics metrics; // counts the traffic and errors
+  private final Map<String, Seat> seats = new ConcurrentHashMap<>(); // seats by session token
+  private final Queue<Retired> retired = new ConcurrentLinkedQueue<>(); // sessions of finished games, oldest first
+  private final SecureRandom random = new SecureRandom(); // tokens must not be guessable
+  private final Thread thread; // the selector loop
+  private volatile boolean closed; // set once close() was called
+
+  /**
+   * Listen for returning clients and start the reconnector thread.
+   *
+   * @param port The port for returning clients, 0 for any free port.
+   * @param publicPort The port announced to the clients, for example that of a router, 0 for the port itself.
+   * @param timeoutMillis How long a seat waits for its player, announced to the clients.
+   * @param metrics Counts the commands read with the traffic of the players.
+   * @throws IOException If the port could not be opened.
+   */
+  public Reconnector(int port, int publicPort, long timeoutMillis, ServerMetrics metrics) throws IOException {
+    this.publicPort = publicPort;
+    this.timeoutMillis = timeoutMillis;
+    this.metrics = metrics;
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(port));
+    server.configureBlocking(false);
+    selector = Selector.open();
+    server.register(selector, SelectionKey.OP_ACCEPT);
+    thread = new Thread(this, "reconnect");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public int getPort() {
+    return server.socket().getLocalPort();
+  }
+
+  public long getTimeoutMillis() {
+    return timeoutMillis;
+  }
+
+  /**
+   * Give a seat a session token.
+   *
+   * @param seat The seat the token leads back to.
+   * @param room The id of the room of the seat, the token starts with it.
+   * @return The token, for {@link #getSessionMessage(String)} and {@link #unregister(String)}.
+   */
+  public String register(Seat seat, int room) {
+    byte[] bytes = new byte[TOKEN_BYTES];
+    String token;
+    do {
+      random.nextBytes(bytes);
+      token = room + "-" + HexFormat.of().formatHex(bytes);
+    } while (seats.putIfAbsent(token, seat) != null);
+    return token;
+  }
+
+  /**
+   * Lead a token another server gave out to a seat of this one, for a room that moved here.
+   *
+   * @param token The token the client has.
+   * @param seat The seat that continues the game.
+   */
+  public void adopt(String token, Seat seat) {
+    seats.put(token, seat);
+  }
+
+  /**
+   * @param token A session token.
+   * @return The id of the room it belongs to, -1 if it is not a token.
+   */
+  public static int roomOf(String token) {
+    int dash = token.indexOf('-');
+    try {
+      return dash > 0 ? Integer.parseInt(token.substring(0, dash)) : -1;
+    } catch (NumberFormatException numberFormatException) {
+      return -1;
+    }
+  }
+
+  /**
+   * Forget a session once its seat is gone.
+   *
+   * @param token The token of the seat, may be null.
+   */
+  public void unregister(String token) {
+    if (token != null) {
+      seats.remove(token);
+    }
+  }
+
+  /**
+   * Forget a session once its seat is gone, unless the token leads to another seat by now, like that of a room that
+   * moved away and came back while the old seat still waited for its player.
+   *
+   * @param token The token of the seat, may be null.
+   * @param seat The seat that is gone.
+   */
+  public void unregister(String token, Seat seat) {
+    if (token != null) {
+      seats.remove(token, seat);
+    }
+  }
+
+  /**
+   * Forget a session of a finished game once the seat's time is over. Every session is kept for the same time, so the
+   * sessions expire in the order they were retired.
+   *
+   * @param token The token of the seat, may be null.
+   */
+  public void retire(String token) {
+    if (token != null) {
+      retired.add(new Retired(System.nanoTime() + timeoutMillis * 1_000_000, token));
+    }
+  }
+
+  /**
+   * @param token The token of a seat.
+   * @return The line that tells the client its session.
+   */
+  public String getSessionMessage(String token) {
+    return "Session " + token + " " + (publicPort > 0 ? publicPort : getPort()) + " " + timeoutMillis + "\n";
+  }
+
+  /**
+   * Answer a client whose seat is gone and close its connection.
+   *
+   * @param channel The connection of the client, in either mode.
+   */
+  public static void reject(SocketChannel channel) {
+    try {
+      channel.write(ByteBuffer.wrap((EXPIRED + "\n").getBytes(StandardCharsets.US_ASCII)));
+    } catch (IOException ioException) {
+      // the client is gone already
+    }
+    try {
+      channel.close();
+    } catch (IOException ioException) {
+      System.out.println(ioException.toString());
+    }
+  }
+
+  @Override
+  public void run() {
+    List<SelectionKey> complete = new ArrayList<>(); // keys whose command was read in this pass
+    while (!closed) {
+      try {
+        selector.select(timeoutMillis); // wakes up at least once per timeout to forget the retired sessions
+      } catch (IOException ioException) {
+        metrics.errors.increment();
+        System.out.println(ioException.toString());
+        break;
+      }
+
+      long now = System.nanoTime();
+      Retired oldest;
+      while ((oldest = retired.peek()) != null && now - oldest.deadline >= 0) {
+        retired.poll();
+        seats.remove(oldest.token);
+      }
+
+      Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+      while (keys.hasNext()) {
+        SelectionKey key = keys.next();
+        keys.remove();
+        if (key.isValid() && key.isAcceptable()) {
+          accept();
+        } else if (key.isValid() && key.isReadable() && read(key)) {
+          key.cancel();
+          complete.add(key);
+        }
+      }
+      if (complete.isEmpty()) {
+        continue;
+      }
+
+      try {
+        selector.selectNow(); // deregisters the cancelled keys, so their channels can block again
+      } catch (IOException ioException) {
+        metrics.errors.increment();
+        System.out.println(ioException.toString());
+      }
+      for (SelectionKey key : complete) {
+        execute((SocketChannel) key.channel(), (ByteBuffer) key.attachment());
+      }
+      complete.clear();
+    }
+
+    for (SelectionKey key : selector.keys()) {
+      try {
+        key.channel().close();
+      } catch (IOException ioException) {
+        System.out.println(ioException.toString());
+      }
+    }
+    try {
+      selector.close();
+    } catch (IOException ioException) {
+      metrics.errors.increment();
+      System.out.println(ioException.toString());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    seats.clear();
+    server.close();
+    selector.wakeup();
+    try {
+      thread.join(1000);
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void accept() {
+    try {
+      SocketChannel channel = server.accept();
+      if (channel == null) {
+        return;
+      }
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true); // a move is a single write
+      channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(MAX_COMMAND));
+    } catch (IOException ioException) {
+      metrics.errors.increment();
+      System.out.println(ioException.toString());
+    }
+  }
+
+  // read the command up to its end of line but not beyond, true once it is complete or the client is gone
+  private boolean read(SelectionKey key) {
+    SocketChannel channel = (SocketChannel) key.channel();
+    ByteBuffer command = (ByteBuffer) key.attachment();
+    try {
+      while (command.position() < command.capacity()) {
+        command.limit(command.position() + 1);
+        int count = channel.read(command);
+        if (count < 0) {
+          command.clear(); // no command
+          return true;
+        }
+        if (count == 0) {
+          return false;
+        }
+        metrics.bytesIn.increment();
+        if (command.get(command.position() - 1) == '\n') {
+          return true;
+        }
+      }
+      return true; // no command is that long
+    } catch (IOException ioException) {
+      command.clear();
+      return true;
+    } finally {
+      command.limit(command.capacity());
+    }
+  }
+
+  // hand the connection to the seat named by the command
+  private void execute(SocketChannel channel, ByteBuffer command) {
+    String[] words = new String(command.array(), 0, command.position(), StandardCharsets.US_ASCII).trim()
+      .split("\\s+");
+    Seat seat = words.length == 3 && words[0].equals("RESUME") ? seats.get(words[1]) : null;
+    int seen = -1;
+    if (seat != null) {
+      try {
+        seen = Integer.parseInt(words[2]);
+      } catch (NumberFormatException numberFormatException) {
+        seen = -1; // send a snapshot
+      }
+    }
+    if (seat == null || closed) {
+      reject(channel);
+      return;
+    }
+    try {
+      channel.configureBlocking(true);
+    } catch (IOException ioException) {
+      reject(channel);
+      return;
+    }
+    seat.resume(channel, seen);
+  }
+
+  // session of a finished game and when it expires
+  private static final class Retired {
+
+    final long deadline; // in System.nanoTime()
+    final String token; // session token
+
+    Retired(long deadline, String token) {
+      this.deadline = deadline;
+      this.token = token;
+    }
+  }
+}
@@ -0,0 +1,298 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Compact archive of finished games for later analysis. Every game is one record with the board, the result, when it
+ * started and ended and all its moves. Records are written in blocks of about {@value #BLOCK_SIZE} bytes, each with a
+ * header of {@value #HEADER_SIZE} bytes: a magic number, the length of the records, the number of games, a checksum of
+ * the records and the start time of the first game. Readers can therefore find the blocks without decoding them and
+ * split a large archive between threads.
+ *
+ * Within a record every number is a variable-length integer of 7 bits per byte, and the numbers that are close to
+ * the previous one are stored as signed differences: the start time to that of the previous game of the block, the
+ * end time to the start, and every move to the previous move, which on large boards is usually nearby. A 3×3 game
+ * takes about 15 bytes.
+ *
+ * The rooms append their games from any thread; a full block is written by the thread that filled it. A game is on
+ * disk once its block is full or the archive is closed, so a crash loses the last unfinished block. Opening an
+ * archive that ends with a torn block cuts it off.
+ */
+public final class ReplayArchive implements Closeable {
+
+  public static final int MAGIC = 0x54545242; // "TTRB", begins every block
+  public static final int HEADER_SIZE = 24; // magic, length, games, checksum, base time
+  public static final int BLOCK_SIZE = 64 * 1024; // records per block, a larger record gets a block of its own
+
+  // results of a game
+  public static final int X_WON = 0; // player X made the last move and won
+  public static final int O_WON = 1; // player O made the last move and won
+  public static final int TIE = 2; // the board filled up
+  public static final int X_TIMED_OUT = 3; // player X ran out of time, player O won
+  public static final int O_TIMED_OUT = 4; // player O ran out of time, player X won
+
+  /**
+   * Receives the games of a block.
+   */
+  public interface GameVisitor {
+
+    /**
+     * @param size The number of rows and columns.
+     * @param winLength The number of marks in a row that won.
+     * @param result One of the results of this class.
+     * @param started When the game started, in milliseconds since the epoch.
+     * @param ended When it ended, in milliseconds since the epoch.
+     * @param moves The locations in the order they were played, X first. Only valid during the call.
+     * @param moveCount The number of moves.
+     */
+    void game(int size, int winLength, int result, long started, long ended, int[] moves, int moveCount);
+  }
+
+  private final FileChannel channel; // the archive, positioned at its end
+  private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE); // of the block being written
+  private final CRC32C checksum = new CRC32C(); // of the block being written
+  private ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE); // records not written yet
+  private int games; // in the block
+  private long baseTime; // start time of the first game in the block
+  private long previousStart; // start time of the last game in the block
+  private long written; // games written so far
+  private boolean closed; // set once close() was called
+
+  /**
+   * Open an archive to append games to, or create it. A torn block at its end, left by a crash, is cut off.
+   *
+   * @param file The archive.
+   * @return The archive, positioned at its end.
+   * @throws IOException If the file cannot be read or written.
+   */
+  public static ReplayArchive open(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+      StandardOpenOption.WRITE);
+    try {
+      long[] blocks = findBlocks(channel);
+      long end = blocks.length == 0 ? 0 : blocks[blocks.length - 1] + HEADER_SIZE
+        + readHeader(channel, blocks[blocks.length - 1]).getInt(4);
+      channel.truncate(end);
+      channel.position(end);
+    } catch (IOException ioException) {
+      channel.close();
+      throw ioException;
+    }
+    return new ReplayArchive(channel);
+  }
+
+  private ReplayArchive(FileChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Append a finished game.
+   *
+   * @param state The game, over with a result.
+   * @param startedMillis When it started, in milliseconds since the epoch.
+   * @param endedMillis When it ended.
+   */
+  public void gameFinished(GameState state, long startedMillis, long endedMillis) {
+    int moveCount = state.getMoveCount();
+    int result = state.getForfeited() >= 0 ? X_TIMED_OUT + state.getForfeited()
+      : state.hasWinner() ? (moveCount - 1) % 2 : TIE;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      // the largest record has ten bytes for every number and five for every move
+      int maximum = 50 + 5 * moveCount;
+      if (games > 0 && block.remaining() < maximum) {
+        writeBlock();
+      }
+      if (block.remaining() < maximum) {
+        block = ByteBuffer.allocate(Math.max(BLOCK_SIZE, maximum)); // gets a block of its own
+      }
+      if (games == 0) {
+        baseTime = startedMillis;
+        previousStart = startedMillis;
+      }
+      putVarint(block, state.getSize());
+      putVarint(block, state.getWinLength());
+      block.put((byte) result);
+      putVarint(block, zigzag(startedMillis - previousStart));
+      putVarint(block, zigzag(endedMillis - startedMillis));
+      putVarint(block, moveCount);
+      int previous = 0;
+      for (int i = 0; i < moveCount; i++) {
+        int location = state.getMove(i);
+        putVarint(block, zigzag(location - previous));
+        previous = location;
+      }
+      previousStart = startedMillis;
+      games++;
+      if (block.position() >= BLOCK_SIZE) {
+        writeBlock();
+      }
+    }
+  }
+
+  // games written to the file so far
+  public synchronized long getGamesWritten() {
+    return written;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (games > 0) {
+        writeBlock();
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  // write the block and start a new one, called with the lock held
+  private void writeBlock() {
+    block.flip();
+    checksum.reset();
+    checksum.update(block.array(), 0, block.limit());
+    header.clear();
+    header.putInt(MAGIC).putInt(block.limit()).putInt(games).putInt((int) checksum.getValue()).putLong(baseTime);
+    header.flip();
+    try {
+      ByteBuffer[] buffers = {header, block};
+      while (block.hasRemaining()) {
+        channel.write(buffers);
+      }
+      written += games;
+    } catch (IOException ioException) {
+      System.out.println("Replay archive: " + ioException); // the games of this block are lost
+    }
+    if (block.capacity() > BLOCK_SIZE) {
+      block = ByteBuffer.allocate(BLOCK_SIZE);
+    }
+    block.clear();
+    games = 0;
+  }
+
+  /**
+   * Find the blocks of an archive by their headers, without reading the games. The search ends at the first header
+   * that is damaged or whose block does not fit into the file.
+   *
+   * @param channel The archive.
+   * @return The positions of the blocks.
+   * @throws IOException If the file cannot be read.
+   */
+  public static long[] findBlocks(FileChannel channel) throws IOException {
+    long[] blocks = new long[16];
+    int count = 0;
+    long size = channel.size();
+    long position = 0;
+    while (position + HEADER_SIZE <= size) {
+      ByteBuffer header = readHeader(channel, position);
+      int length = header.getInt(4);
+      if (header.getInt(0) != MAGIC || length < 0 || position + HEADER_SIZE + length > size) {
+        break;
+      }
+      if (count == blocks.length) {
+        blocks = Arrays.copyOf(blocks, count * 2);
+      }
+      blocks[count++] = position;
+      position += HEADER_SIZE + length;
+    }
+    return Arrays.copyOf(blocks, count);
+  }
+
+  private static ByteBuffer readHeader(FileChannel channel, long position) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (header.hasRemaining() && channel.read(header, position + header.position()) >= 0) {
+      // read until the header is complete or the file ends
+    }
+    return header;
+  }
+
+  /**
+   * Pass the games of one block to a visitor.
+   *
+   * @param buffer Holds the block, for example a mapped part of the archive. Its position is not changed.
+   * @param offset The index of the block's header in the buffer.
+   * @param visitor Receives the games.
+   * @return The index after the block, or -1 if it is damaged and its games were not visited.
+   */
+  public static int readBlock(ByteBuffer buffer, int offset, GameVisitor visitor) {
+    if (offset + HEADER_SIZE > buffer.limit() || buffer.getInt(offset) != MAGIC) {
+      return -1;
+    }
+    int length = buffer.getInt(offset + 4);
+    int games = buffer.getInt(offset + 8);
+    int start = offset + HEADER_SIZE;
+    if (length < 0 || start + length > buffer.limit()) {
+      return -1;
+    }
+    CRC32C check = new CRC32C();
+    check.update(buffer.slice(start, length));
+    if ((int) check.getValue() != buffer.getInt(offset + 12)) {
+      return -1;
+    }
+
+    ByteBuffer records = buffer.slice(start, length);
+    long started = buffer.getLong(offset + 16);
+    int[] moves = new int[64];
+    for (int game = 0; game < games; game++) {
+      int size = (int) getVarint(records);
+      int winLength = (int) getVarint(records);
+      int result = records.get();
+      started += unzigzag(getVarint(records));
+      long ended = started + unzigzag(getVarint(records));
+      int moveCount = (int) getVarint(records);
+      if (moves.length < moveCount) {
+        moves = new int[moveCount];
+      }
+      int location = 0;
+      for (int i = 0; i < moveCount; i++) {
+        location += (int) unzigzag(getVarint(records));
+        moves[i] = location;
+      }
+      visitor.game(size, winLength, result, started, ended, moves, moveCount);
+    }
+    return start + length;
+  }
+
+  private static void putVarint(ByteBuffer buffer, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) (value & 0x7F | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private static long getVarint(ByteBuffer buffer) {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return value;
+  }
+
+  // small positive and negative numbers both become small unsigned ones
+  private static long zigzag(long value) {
+    return value << 1 ^ value >> 63;
+  }
+
+  private static long unzigzag(long value) {
+    return value >>> 1 ^ -(value & 1);
+  }
+}
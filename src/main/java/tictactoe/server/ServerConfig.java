@@ -0,0 +1,685 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import tictactoe.engine.GridBoard;
+import tictactoe.engine.MonteCarloPlayer;
+import tictactoe.engine.OpeningBook;
+import tictactoe.engine.ParallelSearch;
+import tictactoe.engine.PerfectPlayer;
+import tictactoe.engine.Strategy;
+
+/**
+ * Settings of a game server. The setters return the config so that they can be chained.
+ */
+public class ServerConfig {
+
+  public static final int DEFAULT_PORT = 12345; // port the clients connect to
+  public static final int UNLIMITED = 0; // no limit on the number of rooms
+  public static final long ROUTED_RECONNECT_MILLIS = 10_000; // seats kept by a routed server without a timeout set
+
+  /**
+   * How connections are served.
+   */
+  public enum Transport {
+    /** One blocking thread per player, see {@link Lobby}. */
+    BLOCKING,
+    /** A few selector threads for all players, see {@link NioLobby}. */
+    NIO
+  }
+
+  /**
+   * Who takes the second seat of a room.
+   */
+  public enum Opponent {
+    /** The next client that connects. */
+    HUMAN,
+    /** A computer player that never loses, see {@link PerfectPlayer}. Only for the 3×3 game. */
+    PERFECT,
+    /** Perfect play looked up in a precomputed {@link OpeningBook}. Only for the 3×3 game. */
+    BOOK,
+    /** A time limited parallel search for any board size, see {@link ParallelSearch}. */
+    PARALLEL,
+    /** Monte Carlo tree search for any board size, see {@link MonteCarloPlayer}. */
+    MONTE_CARLO
+  }
+
+  private static final int MAX_SEARCH_DEPTH = 32; // deepest iteration of the parallel search
+  private static final int TREE_NODES = 1 << 18; // nodes of each Monte Carlo search tree
+
+  private int port = DEFAULT_PORT;
+  private int backlog = 2;
+  private int maxRooms = 1;
+  private Transport transport = Transport.BLOCKING;
+  private int eventLoops = Runtime.getRuntime().availableProcessors();
+  private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+  private Opponent opponent = Opponent.HUMAN;
+  private Path bookFile; // null for the book built with the game
+  private OpeningBook book; // loaded on first use, shared by all rooms
+  private long moveTimeMillis = 1000;
+  private int searchThreads = Runtime.getRuntime().availableProcessors();
+  private ParallelSearch search; // created on first use, shared by all rooms
+  private int playouts; // playouts per Monte Carlo move, 0 to only limit the time
+  private MonteCarloPlayer monteCarlo; // created on first use, shared by all rooms
+  private boolean tcpNoDelay = true;
+  private boolean metrics = true; // whether the servers time their hot paths
+  private Path journalFile; // journal of the games in progress, null for none
+  private GameJournal.Sync journalSync = GameJournal.Sync.INTERVAL;
+  private long journalIntervalMillis = 100;
+  private Path replayFile; // archive of the finished games, null for none
+  private int spectatorPort = -1; // port of the SpectatorHub, -1 for no spectators
+  private long reconnectMillis; // how long a seat waits for its player to come back, 0 to end the game at once
+  private int reconnectPort; // port of the Reconnector, 0 for any free port
+  private int publicReconnectPort; // port announced to returning clients, 0 for that of the Reconnector
+  private long moveTimeoutMillis; // time a player has for its move before it loses, 0 for no limit
+  private long idleTimeoutMillis; // time a client may stay silent before its connection is closed, 0 for no limit
+  private boolean matchmaking; // whether clients are paired by rating instead of in arrival order
+  private int matchWindow = 100; // rating difference the matchmaker accepts at once
+  private int matchWiden = 50; // points per second of waiting the window grows
+  private int matchMaxWindow = 800; // the window grows no further
+  private boolean routed; // whether the clients come through a ClusterRouter
+  private int boardSize = 3;
+  private int winLength = 3;
+
+  /**
+   * @return A config for a server that hosts a single game, like the original server.
+   */
+  public static ServerConfig singleGame() {
+    return new ServerConfig();
+  }
+
+  /**
+   * @return A config for a server that keeps pairing clients into rooms.
+   */
+  public static ServerConfig lobby() {
+    return new ServerConfig().setBacklog(1024).setMaxRooms(UNLIMITED);
+  }
+
+  /**
+   * Apply command line options to these settings. Every option takes a value: {@code --port}, {@code --backlog},
+   * {@code --rooms} (0 for no limit), {@code --transport} (blocking or nio), {@code --event-loops},
+   * {@code --threads} (platform or virtual), {@code --opponent} (human, perfect, book, parallel or monte_carlo),
+   * {@code --book}, {@code --move-time} (milliseconds), {@code --search-threads}, {@code --playouts},
+   * {@code --size}, {@code --win}, {@code --tcp-nodelay}, {@code --metrics} (true or false), {@code --journal}
+   * (a file), {@code --journal-sync} (none, interval or always), {@code --journal-interval} (milliseconds),
+   * {@code --replays} (a file), {@code --spectator-port}, {@code --reconnect-timeout} (milliseconds),
+   * {@code --reconnect-port}, {@code --public-reconnect-port}, {@code --move-timeout} (milliseconds),
+   * {@code --idle-timeout} (milliseconds),
+   * {@code --matchmaking} (true or false), {@code --match-window}, {@code --match-widen} (points per second),
+   * {@code --match-max-window} and {@code --routed} (true or false).
+   *
+   * @param args The options and their values.
+   * @return This config.
+   * @throws IllegalArgumentException If an option is unknown, has no value or a value that does not parse, if the board
+   * size or win length is out of range, or if the opponent cannot play the board.
+   */
+  public ServerConfig parse(String... args) {
+    for (int i = 0; i < args.length; i += 2) {
+      String option = args[i];
+      if (i + 1 >= args.length) {
+        throw new IllegalArgumentException("Missing value for " + option);
+      }
+      String value = args[i + 1];
+      switch (option) {
+        case "--port":
+          setPort(Integer.parseInt(value));
+          break;
+        case "--backlog":
+          setBacklog(Integer.parseInt(value));
+          break;
+        case "--rooms":
+          setMaxRooms(Integer.parseInt(value));
+          break;
+        case "--transport":
+          setTransport(Transport.valueOf(value.toUpperCase(Locale.ROOT)));
+          break;
+        case "--event-loops":
+          setEventLoops(Integer.parseInt(value));
+          break;
+        case "--threads":
+          setExecutionMode(ExecutionMode.parse(value));
+          break;
+        case "--opponent":
+          setOpponent(Opponent.valueOf(value.toUpperCase(Locale.ROOT)));
+          break;
+        case "--book":
+          setBookFile(Paths.get(value));
+          break;
+        case "--move-time":
+          setMoveTimeMillis(Long.parseLong(value));
+          break;
+        case "--search-threads":
+          setSearchThreads(Integer.parseInt(value));
+          break;
+        case "--playouts":
+          setPlayouts(Integer.parseInt(value));
+          break;
+        case "--size":
+          setBoardSize(Integer.parseInt(value));
+          break;
+        case "--win":
+          setWinLength(Integer.parseInt(value));
+          break;
+        case "--tcp-nodelay":
+          setTcpNoDelay(Boolean.parseBoolean(value));
+          break;
+        case "--metrics":
+          setMetrics(Boolean.parseBoolean(value));
+          break;
+        case "--journal":
+          setJournalFile(Paths.get(value));
+          break;
+        case "--journal-sync":
+          setJournalSync(GameJournal.Sync.valueOf(value.toUpperCase(Locale.ROOT)));
+          break;
+        case "--journal-interval":
+          setJournalIntervalMillis(Long.parseLong(value));
+          break;
+        case "--replays":
+          setReplayFile(Paths.get(value));
+          break;
+        case "--spectator-port":
+          setSpectatorPort(Integer.parseInt(value));
+          break;
+        case "--reconnect-timeout":
+          setReconnectMillis(Long.parseLong(value));
+          break;
+        case "--reconnect-port":
+          setReconnectPort(Integer.parseInt(value));
+          break;
+        case "--public-reconnect-port":
+          setPublicReconnectPort(Integer.parseInt(value));
+          break;
+        case "--move-timeout":
+          setMoveTimeoutMillis(Long.parseLong(value));
+          break;
+        case "--idle-timeout":
+          setIdleTimeoutMillis(Long.parseLong(value));
+          break;
+        case "--matchmaking":
+          setMatchmaking(Boolean.parseBoolean(value));
+          break;
+        case "--match-window":
+          setMatchWindow(Integer.parseInt(value));
+          break;
+        case "--match-widen":
+          setMatchWiden(Integer.parseInt(value));
+          break;
+        case "--match-max-window":
+          setMatchMaxWindow(Integer.parseInt(value));
+          break;
+        case "--routed":
+          setRouted(Boolean.parseBoolean(value));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + option);
+      }
+    }
+    checkBoard();
+    checkOpponent();
+    return this;
+  }
+
+  /**
+   * Open a server with these settings.
+   *
+   * @param log Receives progress messages of all rooms.
+   * @return The server, call {@link GameServer#execute()} to start accepting.
+   * @throws IOException If the server socket could not be opened.
+   * @throws IllegalArgumentException If the win length is longer than the board or the opponent cannot play the board.
+   */
+  public GameServer open(Consumer<String> log) throws IOException {
+    checkBoard();
+    checkOpponent();
+    return transport == Transport.NIO ? new NioLobby(this, log) : new Lobby(this, log);
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  // 0 picks any free port
+  public ServerConfig setPort(int port) {
+    this.port = port;
+    return this;
+  }
+
+  public int getBacklog() {
+    return backlog;
+  }
+
+  public ServerConfig setBacklog(int backlog) {
+    this.backlog = backlog;
+    return this;
+  }
+
+  public int getMaxRooms() {
+    return maxRooms;
+  }
+
+  // number of rooms to host before the server stops accepting, or UNLIMITED
+  public ServerConfig setMaxRooms(int maxRooms) {
+    this.maxRooms = maxRooms;
+    return this;
+  }
+
+  public Transport getTransport() {
+    return transport;
+  }
+
+  public ServerConfig setTransport(Transport transport) {
+    this.transport = transport;
+    return this;
+  }
+
+  public int getEventLoops() {
+    return eventLoops;
+  }
+
+  // number of selector threads of the NIO transport
+  public ServerConfig setEventLoops(int eventLoops) {
+    this.eventLoops = eventLoops;
+    return this;
+  }
+
+  public Opponent getOpponent() {
+    return opponent;
+  }
+
+  // computer player for seat O, or HUMAN to pair clients with each other
+  public ServerConfig setOpponent(Opponent opponent) {
+    this.opponent = opponent;
+    return this;
+  }
+
+  /**
+   * @return A new computer player of the configured kind, null if clients play each other.
+   * @throws IllegalArgumentException If the opponent cannot play the configured board.
+   */
+  public Strategy newStrategy() {
+    checkOpponent();
+    switch (opponent) {
+      case PERFECT:
+        return new PerfectPlayer();
+      case BOOK:
+        return getBook();
+      case PARALLEL:
+        return getSearch();
+      case MONTE_CARLO:
+        return getMonteCarlo();
+      default:
+        return null;
+    }
+  }
+
+  // the size and the win length are set one at a time, so they are checked against each other once both are known
+  private void checkBoard() {
+    if (winLength > boardSize) {
+      throw new IllegalArgumentException("Win length must be between 1 and the board size " + boardSize + ": "
+        + winLength);
+    }
+  }
+
+  // the perfect player and the opening book only know the classic 3×3 game
+  private void checkOpponent() {
+    if ((opponent == Opponent.PERFECT || opponent == Opponent.BOOK) && (boardSize != 3 || winLength != 3)) {
+      throw new IllegalArgumentException("The " + opponent.name().toLowerCase(Locale.ROOT)
+        + " opponent only plays the 3×3 game, use parallel or monte_carlo");
+    }
+  }
+
+  public Path getBookFile() {
+    return bookFile;
+  }
+
+  // file of the opening book, generated on first use if it does not exist, or null for the one built with the game
+  public ServerConfig setBookFile(Path bookFile) {
+    this.bookFile = bookFile;
+    this.book = null;
+    return this;
+  }
+
+  private synchronized OpeningBook getBook() {
+    if (book == null) {
+      try {
+        book = bookFile == null ? OpeningBook.loadDefault() : OpeningBook.loadOrGenerate(bookFile);
+      } catch (IOException ioException) {
+        throw new UncheckedIOException(ioException);
+      }
+    }
+    return book;
+  }
+
+  public long getMoveTimeMillis() {
+    return moveTimeMillis;
+  }
+
+  // time the parallel search may think about one move
+  public ServerConfig setMoveTimeMillis(long moveTimeMillis) {
+    this.moveTimeMillis = moveTimeMillis;
+    return this;
+  }
+
+  public int getSearchThreads() {
+    return searchThreads;
+  }
+
+  // worker threads of the parallel search, shared by all rooms
+  public ServerConfig setSearchThreads(int searchThreads) {
+    this.searchThreads = searchThreads;
+    return this;
+  }
+
+  private synchronized ParallelSearch getSearch() {
+    if (search == null) {
+      search = new ParallelSearch(searchThreads, moveTimeMillis, MAX_SEARCH_DEPTH);
+    }
+    return search;
+  }
+
+  public int getPlayouts() {
+    return playouts;
+  }
+
+  // playouts of the Monte Carlo player per move, it also stops when the move time is up
+  public ServerConfig setPlayouts(int playouts) {
+    this.playouts = playouts;
+    return this;
+  }
+
+  private synchronized MonteCarloPlayer getMonteCarlo() {
+    if (monteCarlo == null) {
+      monteCarlo = new MonteCarloPlayer(moveTimeMillis, playouts, TREE_NODES);
+    }
+    return monteCarlo;
+  }
+
+  public boolean isTcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  // send every write at once instead of waiting for the acknowledgement of the previous one, the servers
+  // already combine the messages of a move into one write
+  public ServerConfig setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+    return this;
+  }
+
+  public boolean isMetrics() {
+    return metrics;
+  }
+
+  // record the latency histograms of ServerMetrics, the counters are always kept
+  public ServerConfig setMetrics(boolean metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  public Path getJournalFile() {
+    return journalFile;
+  }
+
+  // file of the game journal, null to keep the games in memory only
+  public ServerConfig setJournalFile(Path journalFile) {
+    this.journalFile = journalFile;
+    return this;
+  }
+
+  public GameJournal.Sync getJournalSync() {
+    return journalSync;
+  }
+
+  // when the journal forces its file to disk
+  public ServerConfig setJournalSync(GameJournal.Sync journalSync) {
+    this.journalSync = journalSync;
+    return this;
+  }
+
+  public long getJournalIntervalMillis() {
+    return journalIntervalMillis;
+  }
+
+  // time between forces of the journal with GameJournal.Sync.INTERVAL
+  public ServerConfig setJournalIntervalMillis(long journalIntervalMillis) {
+    this.journalIntervalMillis = journalIntervalMillis;
+    return this;
+  }
+
+  /**
+   * Open the configured journal and rebuild the games in progress from it.
+   *
+   * @return The journal, or null if no journal file is set.
+   * @throws IOException If the journal cannot be read or written.
+   */
+  public GameJournal openJournal() throws IOException {
+    return journalFile == null ? null : GameJournal.open(journalFile, journalSync, journalIntervalMillis);
+  }
+
+  public Path getReplayFile() {
+    return replayFile;
+  }
+
+  // archive the finished games are appended to, null to keep none
+  public ServerConfig setReplayFile(Path replayFile) {
+    this.replayFile = replayFile;
+    return this;
+  }
+
+  /**
+   * @return The archive of the finished games, or null if none is configured.
+   * @throws IOException If the archive cannot be opened.
+   */
+  public ReplayArchive openReplayArchive() throws IOException {
+    return replayFile == null ? null : ReplayArchive.open(replayFile);
+  }
+
+  public int getSpectatorPort() {
+    return spectatorPort;
+  }
+
+  // port where spectators watch the games, 0 for any free port and -1 to allow no spectators
+  public ServerConfig setSpectatorPort(int spectatorPort) {
+    this.spectatorPort = spectatorPort;
+    return this;
+  }
+
+  /**
+   * Open the port for spectators if one is configured.
+   *
+   * @param metrics The metrics of the server, which count the traffic to spectators too.
+   * @return The hub, or null if the server has no spectators.
+   * @throws IOException If the port could not be opened.
+   */
+  public SpectatorHub openSpectatorHub(ServerMetrics metrics) throws IOException {
+    return spectatorPort < 0 ? null : new SpectatorHub(spectatorPort, metrics);
+  }
+
+  public long getReconnectMillis() {
+    return reconnectMillis;
+  }
+
+  // how long a disconnected player's seat is kept, 0 to end the game as soon as a player leaves
+  public ServerConfig setReconnectMillis(long reconnectMillis) {
+    this.reconnectMillis = reconnectMillis;
+    return this;
+  }
+
+  public int getReconnectPort() {
+    return reconnectPort;
+  }
+
+  // port where players resume their games, 0 for any free port, the clients learn it from their session
+  public ServerConfig setReconnectPort(int reconnectPort) {
+    this.reconnectPort = reconnectPort;
+    return this;
+  }
+
+  public int getPublicReconnectPort() {
+    return publicReconnectPort;
+  }
+
+  // port the clients are told to come back to, that of the router in front of this server, 0 for the reconnect port
+  public ServerConfig setPublicReconnectPort(int publicReconnectPort) {
+    this.publicReconnectPort = publicReconnectPort;
+    return this;
+  }
+
+  /**
+   * Open the port for reconnecting players if seats are kept for them. A routed server always keeps them, for
+   * {@link #ROUTED_RECONNECT_MILLIS} if no timeout is set, since its rooms move to other servers that way.
+   *
+   * @param metrics The metrics of the server, which count the resumed sessions.
+   * @return The reconnector, or null if a player that leaves ends the game.
+   * @throws IOException If the port could not be opened.
+   */
+  public Reconnector openReconnector(ServerMetrics metrics) throws IOException {
+    long millis = reconnectMillis > 0 ? reconnectMillis : routed ? ROUTED_RECONNECT_MILLIS : 0;
+    return millis <= 0 ? null : new Reconnector(reconnectPort, publicReconnectPort, millis, metrics);
+  }
+
+  public long getMoveTimeoutMillis() {
+    return moveTimeoutMillis;
+  }
+
+  // time a player has for its move, it loses the game when the time is up, 0 for no limit
+  public ServerConfig setMoveTimeoutMillis(long moveTimeoutMillis) {
+    this.moveTimeoutMillis = moveTimeoutMillis;
+    return this;
+  }
+
+  public long getIdleTimeoutMillis() {
+    return idleTimeoutMillis;
+  }
+
+  // time a client may send nothing while the server waits for it, before or during its turn, 0 for no limit
+  public ServerConfig setIdleTimeoutMillis(long idleTimeoutMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * Start the timer thread of the blocking transport if any timeout is set. The NIO transport keeps the deadlines in
+   * its event loops.
+   *
+   * @return The timekeeper, or null if players have unlimited time.
+   */
+  public Timekeeper openTimekeeper() {
+    return moveTimeoutMillis <= 0 && idleTimeoutMillis <= 0 ? null
+      : new Timekeeper(moveTimeoutMillis, idleTimeoutMillis);
+  }
+
+  public boolean isMatchmaking() {
+    return matchmaking;
+  }
+
+  // pair clients with similar ratings, they name themselves with a Matchmaker.HELLO line; blocking transport only
+  public ServerConfig setMatchmaking(boolean matchmaking) {
+    this.matchmaking = matchmaking;
+    return this;
+  }
+
+  public int getMatchWindow() {
+    return matchWindow;
+  }
+
+  // rating difference two players may have to be paired at once
+  public ServerConfig setMatchWindow(int matchWindow) {
+    this.matchWindow = matchWindow;
+    return this;
+  }
+
+  public int getMatchWiden() {
+    return matchWiden;
+  }
+
+  // points per second of waiting the window of a player grows
+  public ServerConfig setMatchWiden(int matchWiden) {
+    this.matchWiden = matchWiden;
+    return this;
+  }
+
+  public int getMatchMaxWindow() {
+    return matchMaxWindow;
+  }
+
+  // largest rating difference of a pair, however long the players wait
+  public ServerConfig setMatchMaxWindow(int matchMaxWindow) {
+    this.matchMaxWindow = matchMaxWindow;
+    return this;
+  }
+
+  public boolean isRouted() {
+    return routed;
+  }
+
+  // clients come through a ClusterRouter that names their room, pairing, matchmaking and the opponent do not apply;
+  // blocking transport only
+  public ServerConfig setRouted(boolean routed) {
+    this.routed = routed;
+    return this;
+  }
+
+  /**
+   * Start the matchmaker if clients are paired by rating.
+   *
+   * @param onMatch Receives the pairs, the player who waited longer first.
+   * @param metrics The metrics of the server, which record how long the players waited.
+   * @param <T> The players.
+   * @return The matchmaker, or null if clients are paired in arrival order.
+   */
+  public <T> Matchmaker<T> openMatchmaker(BiConsumer<T, T> onMatch, ServerMetrics metrics) {
+    return !matchmaking ? null
+      : new Matchmaker<>(matchWindow, matchWiden, matchMaxWindow, onMatch, metrics.matchWait);
+  }
+
+  public int getBoardSize() {
+    return boardSize;
+  }
+
+  // number of rows and columns of the board, 1 to GridBoard.MAX_SIZE
+  public ServerConfig setBoardSize(int boardSize) {
+    if (boardSize < 1 || boardSize > GridBoard.MAX_SIZE) {
+      throw new IllegalArgumentException("Board size must be between 1 and " + GridBoard.MAX_SIZE + ": " + boardSize);
+    }
+    this.boardSize = boardSize;
+    return this;
+  }
+
+  public int getWinLength() {
+    return winLength;
+  }
+
+  // number of marks in a row that win, 1 to the board size
+  public ServerConfig setWinLength(int winLength) {
+    if (winLength < 1) {
+      throw new IllegalArgumentException("Win length must be at least 1: " + winLength);
+    }
+    this.winLength = winLength;
+    return this;
+  }
+
+  /**
+   * @return A new game state with the configured board size and win length.
+   * @throws IllegalArgumentException If the win length is longer than the board.
+   */
+  public GameState newGameState() {
+    checkBoard();
+    return new GameState(boardSize, winLength);
+  }
+
+  public ExecutionMode getExecutionMode() {
+    return executionMode;
+  }
+
+  // kind of thread that runs each player of the blocking transport
+  public ServerConfig setExecutionMode(ExecutionMode executionMode) {
+    this.executionMode = executionMode;
+    return this;
+  }
+}
@@ -0,0 +1,263 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of one server. The transports update the fields directly from their hot paths:
+ * counters are {@link LongAdder}s and histograms take one array increment, so recording never blocks a game. If
+ * timing is switched off with {@link ServerConfig#setMetrics(boolean)}, the clock is not read at all and the
+ * histograms stay empty.
+ *
+ * The turn wait only exists in the blocking transport; the NIO transport never waits for a turn, so that histogram
+ * stays empty there. Read the metrics with {@link #dump()}, or over JMX once {@link #register(int)} was
+ * called.
+ */
+public final class ServerMetrics implements ServerMetricsMBean {
+
+  final LongAdder accepted = new LongAdder(); // connections accepted
+  final LongAdder moves = new LongAdder(); // valid moves
+  final LongAdder invalidMoves = new LongAdder(); // moves that were not valid
+  final LongAdder bytesIn = new LongAdder(); // bytes read from clients
+  final LongAdder bytesOut = new LongAdder(); // bytes written to clients
+  final LongAdder writes = new LongAdder(); // writes to client sockets, each one system call
+  final LongAdder errors = new LongAdder(); // unexpected exceptions
+  final LongAdder spectators = new LongAdder(); // spectators connected right now
+  final LongAdder spectatorUpdates = new LongAdder(); // moves encoded for spectators, once for all of them
+  final LongAdder resyncs = new LongAdder(); // snapshots sent to spectators that fell behind
+  final LongAdder resumes = new LongAdder(); // games continued on a new connection
+  final LongAdder seatsExpired = new LongAdder(); // seats given up because the player did not come back in time
+  final LongAdder moveTimeouts = new LongAdder(); // games lost by a player who ran out of time for its move
+  final LongAdder idleClosed = new LongAdder(); // connections closed because the client stayed silent too long
+  final Histogram validation = new Histogram(); // nanoseconds to check and apply a move and send the answers
+  final Histogram turnWait = new Histogram(); // nanoseconds a move waited for the player's turn
+  final Histogram matchWait = new Histogram(); // nanoseconds a player waited for its opponent, always recorded
+
+  private final boolean timed; // whether the histograms are recorded
+  private final IntSupplier activeRooms; // gauge of the server
+  private final long started = System.nanoTime(); // when the server was opened
+  private ObjectName name; // JMX name while registered
+
+  /**
+   * @param timed Whether to read the clock and record the histograms.
+   * @param activeRooms Reports the rooms of the server that still have a connected player.
+   */
+  public ServerMetrics(boolean timed, IntSupplier activeRooms) {
+    this.timed = timed;
+    this.activeRooms = activeRooms;
+  }
+
+  // the clock for a histogram, 0 if timing is off
+  long now() {
+    return timed ? System.nanoTime() : 0;
+  }
+
+  // record the time since a reading of now() and return the current time, for timing consecutive steps
+  long lap(Histogram histogram, long start) {
+    if (!timed) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    histogram.record(now - start);
+    return now;
+  }
+
+  /**
+   * Make the metrics visible over JMX as {@code tictactoe:type=ServerMetrics,port=<port>}. A failure is reported and
+   * otherwise ignored, the server works without JMX.
+   *
+   * @param port The port of the server, tells the servers of one JVM apart.
+   */
+  public synchronized void register(int port) {
+    try {
+      ObjectName objectName = new ObjectName("tictactoe:type=ServerMetrics,port=" + port);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      name = objectName;
+    } catch (JMException exception) {
+      System.out.println(exception.toString());
+    }
+  }
+
+  /**
+   * Remove the metrics from JMX, called when the server is closed.
+   */
+  public synchronized void unregister() {
+    if (name != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      } catch (JMException exception) {
+        System.out.println(exception.toString());
+      }
+      name = null;
+    }
+  }
+
+  @Override
+  public long getAccepted() {
+    return accepted.sum();
+  }
+
+  @Override
+  public double getAcceptRate() {
+    return accepted.sum() / uptimeSeconds();
+  }
+
+  @Override
+  public int getActiveRooms() {
+    return activeRooms.getAsInt();
+  }
+
+  @Override
+  public long getMoves() {
+    return moves.sum();
+  }
+
+  @Override
+  public long getInvalidMoves() {
+    return invalidMoves.sum();
+  }
+
+  @Override
+  public double getInvalidMoveRate() {
+    long invalid = invalidMoves.sum();
+    long all = invalid + moves.sum();
+    return all == 0 ? 0 : invalid / (double) all;
+  }
+
+  @Override
+  public long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  @Override
+  public long getBytesOut() {
+    return bytesOut.sum();
+  }
+
+  @Override
+  public long getWrites() {
+    return writes.sum();
+  }
+
+  @Override
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  @Override
+  public long getSpectators() {
+    return spectators.sum();
+  }
+
+  @Override
+  public long getSpectatorUpdates() {
+    return spectatorUpdates.sum();
+  }
+
+  @Override
+  public long getResyncs() {
+    return resyncs.sum();
+  }
+
+  @Override
+  public long getResumes() {
+    return resumes.sum();
+  }
+
+  @Override
+  public long getSeatsExpired() {
+    return seatsExpired.sum();
+  }
+
+  @Override
+  public long getMoveTimeouts() {
+    return moveTimeouts.sum();
+  }
+
+  @Override
+  public long getIdleClosed() {
+    return idleClosed.sum();
+  }
+
+  @Override
+  public double getValidationP50Micros() {
+    return validation.getPercentile(0.50) / 1e3;
+  }
+
+  @Override
+  public double getValidationP99Micros() {
+    return validation.getPercentile(0.99) / 1e3;
+  }
+
+  @Override
+  public double getTurnWaitP50Micros() {
+    return turnWait.getPercentile(0.50) / 1e3;
+  }
+
+  @Override
+  public double getTurnWaitP99Micros() {
+    return turnWait.getPercentile(0.99) / 1e3;
+  }
+
+  @Override
+  public long getMatches() {
+    return matchWait.getCount() / 2;
+  }
+
+  @Override
+  public double getMatchWaitP50Millis() {
+    return matchWait.getPercentile(0.50) / 1e6;
+  }
+
+  @Override
+  public double getMatchWaitP99Millis() {
+    return matchWait.getPercentile(0.99) / 1e6;
+  }
+
+  @Override
+  public String dump() {
+    StringBuilder text = new StringBuilder();
+    line(text, "uptime_seconds", String.format("%.1f", uptimeSeconds()));
+    line(text, "accepted", getAccepted());
+    line(text, "accept_rate", String.format("%.1f", getAcceptRate()));
+    line(text, "active_rooms", getActiveRooms());
+    line(text, "moves", getMoves());
+    line(text, "invalid_moves", getInvalidMoves());
+    line(text, "invalid_move_rate", String.format("%.4f", getInvalidMoveRate()));
+    line(text, "bytes_in", getBytesIn());
+    line(text, "bytes_out", getBytesOut());
+    line(text, "writes", getWrites());
+    line(text, "errors", getErrors());
+    line(text, "spectators", getSpectators());
+    line(text, "spectator_updates", getSpectatorUpdates());
+    line(text, "resyncs", getResyncs());
+    line(text, "resumes", getResumes());
+    line(text, "seats_expired", getSeatsExpired());
+    line(text, "move_timeouts", getMoveTimeouts());
+    line(text, "idle_closed", getIdleClosed());
+    histogram(text, "validation", validation);
+    histogram(text, "turn_wait", turnWait);
+    line(text, "matches", getMatches());
+    histogram(text, "match_wait", matchWait);
+    return text.toString();
+  }
+
+  private static void line(StringBuilder text, String name, Object value) {
+    text.append(name).append(' ').append(value).append('\n');
+  }
+
+  private static void histogram(StringBuilder text, String name, Histogram histogram) {
+    line(text, name + "_count", histogram.getCount());
+    line(text, name + "_us", String.format("mean %.1f p50 %.1f p90 %.1f p99 %.1f p999 %.1f max %.1f",
+      histogram.getMean() / 1e3, histogram.getPercentile(0.50) / 1e3, histogram.getPercentile(0.90) / 1e3,
+      histogram.getPercentile(0.99) / 1e3, histogram.getPercentile(0.999) / 1e3, histogram.getMax() / 1e3));
+  }
+
+  private double uptimeSeconds() {
+    return Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+  }
+}
@@ -0,0 +1,61 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+/**
+ * JMX view of the {@link ServerMetrics} of a running server. Times are in microseconds, rates per second since the
+ * server was opened.
+ */
+public interface ServerMetricsMBean {
+
+  long getAccepted();
+
+  double getAcceptRate();
+
+  int getActiveRooms();
+
+  long getMoves();
+
+  long getInvalidMoves();
+
+  // share of the moves received that were not valid
+  double getInvalidMoveRate();
+
+  long getBytesIn();
+
+  long getBytesOut();
+
+  long getWrites();
+
+  long getErrors();
+
+  long getSpectators();
+
+  long getSpectatorUpdates();
+
+  long getResyncs();
+
+  long getResumes();
+
+  long getSeatsExpired();
+
+  long getMoveTimeouts();
+
+  long getIdleClosed();
+
+  double getValidationP50Micros();
+
+  double getValidationP99Micros();
+
+  double getTurnWaitP50Micros();
+
+  double getTurnWaitP99Micros();
+
+  long getMatches();
+
+  double getMatchWaitP50Millis();
+
+  double getMatchWaitP99Millis();
+
+  // all metrics as text, one per line
+  String dump();
+}
@@ -0,0 +1,504 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static tictactoe.server.GameState.MARKS;
+
+/**
+ * Read-only spectators of running games, served on a port of their own by one selector thread. A spectator connects
+ * and sends {@code WATCH <room>}, or {@code LIST} for the ids of the running rooms. It then receives a snapshot of
+ * the board, followed by one line per move, and the result before the connection is closed:
+ *
+ * <pre>
+ * Board &lt;size&gt; &lt;win length&gt;
+ * Snapshot &lt;moves&gt; &lt;cells, row by row, X, O or . for free&gt;
+ * Moved &lt;move number&gt; &lt;X or O&gt; &lt;location&gt;
+ * Result &lt;X, O, TIE or ABANDONED&gt;
+ * </pre>
+ *
+ * The result names the winner, also when the other player ran out of time for its move.
+ *
+ * The players' threads only queue small events, they never wait for a spectator. The hub encodes every update once
+ * into a read-only buffer shared by all spectators of the room, and writes everything a spectator has pending with a
+ * single gathering write per pass of its loop. A spectator that falls {@value #MAX_PENDING} updates behind loses them
+ * and gets a new snapshot instead, so a slow connection costs the server a bounded amount of memory and never holds
+ * up a game.
+ */
+public final class SpectatorHub implements Runnable, Closeable {
+
+  private static final int MAX_PENDING = 32; // updates queued for a spectator before it is resynchronized
+  private static final int MAX_EVENTS = MAX_PENDING / 2; // events applied per pass, so each write keeps up with them
+  private static final int MAX_COMMAND = 64; // bytes of the command of a spectator
+  private static final int MAX_LISTED = 100; // rooms in the answer to LIST
+  private static final int SEND_BUFFER = 8 * 1024; // socket send buffer, the pending updates are the real backlog
+
+  // events from the game threads
+  private static final int STARTED = 0;
+  private static final int MOVED = 1;
+  private static final int ENDED = 2;
+  private static final int TIMED_OUT = 3;
+
+  private final ServerSocketChannel server; // accepts the spectators
+  private final Selector selector; // serves all spectators
+  private final ServerMetrics metrics; // counts the spectators and their traffic
+  private final Queue<Event> events = new ConcurrentLinkedQueue<>(); // published by the game threads
+  private final AtomicBoolean wakeupPending = new AtomicBoolean(); // whether the selector was woken for events
+  private final Map<Integer, Room> rooms = new HashMap<>(); // running rooms, only used by the hub thread
+  private final List<Spectator> flushes = new ArrayList<>(); // spectators with output queued in this pass
+  private final ByteBuffer[] gather = new ByteBuffer[MAX_PENDING + 1]; // buffers of one gathering write
+  private final ByteBuffer discard = ByteBuffer.allocate(256); // input of spectators that already sent a command
+  private final Thread thread; // the selector loop
+  private volatile boolean closed; // set once close() was called
+
+  /**
+   * Listen for spectators and start the hub thread.
+   *
+   * @param port The port for spectators, 0 for any free port.
+   * @param metrics Counts the spectators, their updates and resyncs, and their traffic with that of the players.
+   * @throws IOException If the port could not be opened.
+   */
+  public SpectatorHub(int port, ServerMetrics metrics) throws IOException {
+    this.metrics = metrics;
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(port));
+    server.configureBlocking(false);
+    selector = Selector.open();
+    server.register(selector, SelectionKey.OP_ACCEPT);
+    thread = new Thread(this, "spectators");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public int getPort() {
+    return server.socket().getLocalPort();
+  }
+
+  /**
+   * A game began, spectators may watch it from now on.
+   *
+   * @param room The id of the room.
+   * @param size The number of rows and columns of the board.
+   * @param winLength The number of marks in a row that win.
+   */
+  public void roomStarted(int room, int size, int winLength) {
+    publish(new Event(STARTED, room, size, winLength, 0));
+  }
+
+  /**
+   * A player made a valid move.
+   *
+   * @param room The id of the room.
+   * @param player The number of the player who moved.
+   * @param location The square of the move.
+   * @param result {@link BinaryProtocol#VICTORY} if the move won, {@link BinaryProtocol#TIE} if it filled the board,
+   * otherwise {@link BinaryProtocol#NONE}.
+   */
+  public void moved(int room, int player, int location, int result) {
+    publish(new Event(MOVED, room, player, location, result));
+  }
+
+  /**
+   * A player ran out of time for its move and lost.
+   *
+   * @param room The id of the room.
+   * @param player The number of the player who lost.
+   */
+  public void timedOut(int room, int player) {
+    publish(new Event(TIMED_OUT, room, player, 0, 0));
+  }
+
+  /**
+   * The room closed. Spectators of a game that had no result yet learn that it was abandoned.
+   *
+   * @param room The id of the room.
+   */
+  public void roomEnded(int room) {
+    publish(new Event(ENDED, room, 0, 0, 0));
+  }
+
+  private void publish(Event event) {
+    events.add(event);
+    if (wakeupPending.compareAndSet(false, true)) {
+      selector.wakeup(); // once until the hub took the events
+    }
+  }
+
+  @Override
+  public void run() {
+    while (!closed) {
+      try {
+        if (events.isEmpty()) {
+          selector.select();
+        } else {
+          selector.selectNow(); // events are left over from the last pass
+        }
+      } catch (IOException ioException) {
+        metrics.errors.increment();
+        System.out.println(ioException.toString());
+        break;
+      }
+
+      wakeupPending.set(false);
+      Event event;
+      for (int i = 0; i < MAX_EVENTS && (event = events.poll()) != null; i++) {
+        apply(event);
+      }
+
+      Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+      while (keys.hasNext()) {
+        SelectionKey key = keys.next();
+        keys.remove();
+        if (key.isValid() && key.isAcceptable()) {
+          accept();
+          continue;
+        }
+        Spectator spectator = (Spectator) key.attachment();
+        if (key.isValid() && key.isReadable()) {
+          spectator.read();
+        }
+        if (key.isValid() && key.isWritable()) {
+          spectator.write();
+        }
+      }
+
+      // one write per spectator for all updates of this pass
+      for (int i = 0; i < flushes.size(); i++) {
+        Spectator spectator = flushes.get(i);
+        spectator.flushScheduled = false;
+        spectator.write();
+      }
+      flushes.clear();
+    }
+
+    for (SelectionKey key : selector.keys()) {
+      if (key.attachment() != null) {
+        ((Spectator) key.attachment()).close();
+      }
+    }
+    try {
+      selector.close();
+      server.close();
+    } catch (IOException ioException) {
+      metrics.errors.increment();
+      System.out.println(ioException.toString());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    selector.wakeup();
+    try {
+      thread.join(1000);
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void accept() {
+    try {
+      SocketChannel channel = server.accept();
+      if (channel == null) {
+        return;
+      }
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER);
+      Spectator spectator = new Spectator(channel);
+      spectator.key = channel.register(selector, SelectionKey.OP_READ, spectator);
+      metrics.spectators.increment();
+    } catch (IOException ioException) {
+      metrics.errors.increment();
+      System.out.println(ioException.toString());
+    }
+  }
+
+  // update the hub's copy of a room and pass the encoded update to its spectators
+  private void apply(Event event) {
+    if (event.type == STARTED) {
+      rooms.put(event.room, new Room(event.room, event.a, event.b));
+      return;
+    }
+    Room room = rooms.get(event.room);
+    if (room == null) {
+      return; // ended before, or started before the hub
+    }
+    String text;
+    if (event.type == MOVED) {
+      room.cells[event.b] = MARKS[event.a].charAt(0);
+      room.moves++;
+      text = "Moved " + room.moves + " " + MARKS[event.a] + " " + event.b + "\n";
+      if (event.c != BinaryProtocol.NONE) {
+        room.result = event.c == BinaryProtocol.TIE ? "TIE" : MARKS[event.a];
+        text += "Result " + room.result + "\n";
+      }
+    } else if (event.type == TIMED_OUT) {
+      room.result = MARKS[event.a ^ 1];
+      text = "Result " + room.result + "\n";
+    } else {
+      room.result = "ABANDONED";
+      text = "Result ABANDONED\n";
+    }
+    room.snapshot = null;
+    ByteBuffer update = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    metrics.spectatorUpdates.increment();
+    for (int i = 0; i < room.watchers.size(); i++) {
+      room.watchers.get(i).offer(update);
+    }
+    if (room.result != null) {
+      rooms.remove(room.id);
+      for (int i = 0; i < room.watchers.size(); i++) {
+        room.watchers.get(i).closeWhenFlushed = true;
+      }
+    }
+  }
+
+  // one event of a game thread, the meaning of a, b and c depends on the type
+  private static final class Event {
+
+    final int type; // STARTED, MOVED, TIMED_OUT or ENDED
+    final int room; // id of the room
+    final int a; // size or player
+    final int b; // win length or location
+    final int c; // result of a move
+
+    Event(int type, int room, int a, int b, int c) {
+      this.type = type;
+      this.room = room;
+      this.a = a;
+      this.b = b;
+      this.c = c;
+    }
+  }
+
+  // the hub's copy of a running game
+  private static final class Room {
+
+    final int id; // identifies the room in the lobby
+    final int size; // rows and columns
+    final int winLength; // marks in a row that win
+    final char[] cells; // X, O or . for every square
+    final List<Spectator> watchers = new ArrayList<>(); // spectators of this room
+    int moves; // moves made
+    String result; // X, O, TIE or ABANDONED once the game ended
+    ByteBuffer snapshot; // encoded state after the last move, null until needed
+
+    Room(int id, int size, int winLength) {
+      this.id = id;
+      this.size = size;
+      this.winLength = winLength;
+      cells = new char[size * size];
+      Arrays.fill(cells, '.');
+    }
+
+    // the encoded state, shared by every spectator that needs it until the next move
+    ByteBuffer snapshot() {
+      if (snapshot == null) {
+        StringBuilder text = new StringBuilder(cells.length + 48);
+        text.append("Board ").append(size).append(' ').append(winLength).append('\n');
+        text.append("Snapshot ").append(moves).append(' ').append(cells).append('\n');
+        if (result != null) {
+          text.append("Result ").append(result).append('\n');
+        }
+        snapshot = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+      }
+      return snapshot;
+    }
+  }
+
+  // one spectator connection, only used by the hub thread
+  private final class Spectator {
+
+    private final SocketChannel channel; // connection to the spectator
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>(); // shared updates with own positions
+    private SelectionKey key; // registration with the selector
+    private ByteBuffer command = ByteBuffer.allocate(MAX_COMMAND); // input until the first line, then null
+    private Room room; // room watched, null before the command
+    private boolean resync; // updates were dropped, a snapshot is due
+    private boolean closeWhenFlushed; // close once all output is written
+    private boolean flushScheduled; // whether the hub writes the output at the end of this pass
+    private boolean closed; // whether close() was called
+
+    Spectator(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    // read the command, later only notice when the spectator goes away
+    void read() {
+      ByteBuffer buffer = command;
+      if (buffer == null) {
+        buffer = discard;
+        buffer.clear();
+      }
+      int count;
+      try {
+        count = channel.read(buffer);
+      } catch (IOException ioException) {
+        count = -1;
+      }
+      if (count < 0) {
+        close();
+        return;
+      }
+      metrics.bytesIn.add(count);
+      if (command == null) {
+        return; // spectators have nothing to say
+      }
+      for (int i = 0; i < command.position(); i++) {
+        if (command.get(i) == '\n') {
+          String line = new String(command.array(), 0, i, StandardCharsets.US_ASCII).trim();
+          command = null;
+          execute(line);
+          return;
+        }
+      }
+      if (!command.hasRemaining()) {
+        command = null;
+        execute(""); // no command is that long
+      }
+    }
+
+    private void execute(String line) {
+      String[] words = line.split("\\s+");
+      if (words[0].equals("LIST")) {
+        StringBuilder text = new StringBuilder("Rooms");
+        int listed = 0;
+        for (Integer id : rooms.keySet()) {
+          if (listed++ == MAX_LISTED) {
+            break;
+          }
+          text.append(' ').append(id);
+        }
+        answer(text + "\n");
+        return;
+      }
+      Room watched = null;
+      if (words.length == 2 && words[0].equals("WATCH")) {
+        try {
+          watched = rooms.get(Integer.parseInt(words[1]));
+        } catch (NumberFormatException numberFormatException) {
+          watched = null;
+        }
+      }
+      if (watched == null) {
+        answer("No such room\n");
+        return;
+      }
+      room = watched;
+      room.watchers.add(this);
+      resync = true; // starts with a snapshot
+      flush();
+    }
+
+    // send a single message and close
+    private void answer(String message) {
+      pending.add(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII)));
+      closeWhenFlushed = true;
+      flush();
+    }
+
+    // queue an update, or drop the backlog if the spectator does not keep up
+    void offer(ByteBuffer update) {
+      if (!resync) {
+        if (pending.size() < MAX_PENDING) {
+          pending.add(update.duplicate());
+        } else {
+          // keep a partly written update so the client never sees half a line
+          ByteBuffer head = pending.peekFirst();
+          pending.clear();
+          if (head.position() > 0) {
+            pending.add(head);
+          }
+          resync = true;
+          metrics.resyncs.increment();
+        }
+      }
+      flush();
+    }
+
+    // write the pending output at the end of this pass of the loop
+    private void flush() {
+      if (!flushScheduled && !closed) {
+        flushScheduled = true;
+        flushes.add(this);
+      }
+    }
+
+    // write what is pending with one gathering write, waiting for OP_WRITE if the socket buffer is full
+    void write() {
+      if (closed) {
+        return;
+      }
+      if (resync && pending.size() < MAX_PENDING) {
+        pending.add(room.snapshot().duplicate());
+        resync = false;
+      }
+      int count = 0;
+      for (ByteBuffer buffer : pending) {
+        gather[count++] = buffer;
+        if (count == gather.length) {
+          break;
+        }
+      }
+      try {
+        if (count > 0) {
+          metrics.bytesOut.add(channel.write(gather, 0, count));
+          metrics.writes.increment();
+        }
+      } catch (IOException ioException) {
+        close();
+        return;
+      } finally {
+        Arrays.fill(gather, 0, count, null);
+      }
+      while (!pending.isEmpty() && !pending.peekFirst().hasRemaining()) {
+        pending.pollFirst();
+      }
+
+      if (!pending.isEmpty() || resync) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      } else if (closeWhenFlushed) {
+        close();
+      } else {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException ioException) {
+        metrics.errors.increment();
+        System.out.println(ioException.toString());
+      }
+      if (room != null) {
+        room.watchers.remove(this);
+      }
+      metrics.spectators.decrement();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The move and idle timeouts of the blocking {@link Lobby}. One thread owns a {@link TimerWheel} and runs the tasks
+ * of the deadlines that passed; the player threads hand their timeouts to it with {@link #schedule}, which only
+ * queues them. A player thread never changes a deadline after that: the task of a timeout looks at the time of the
+ * last move or input when it runs and schedules itself again if the deadline moved, so reading a move costs a
+ * volatile write and no call to this class.
+ */
+public final class Timekeeper implements Runnable, Closeable {
+
+  private static final long TICK_NANOS = 50_000_000; // precision of the deadlines
+  private static final int BUCKETS = 1024; // one turn of the wheel covers about 50 seconds
+
+  private final long moveTimeoutNanos; // time a player has for its move, 0 for no limit
+  private final long idleTimeoutNanos; // time a connection may stay silent, 0 for no limit
+  private final TimerWheel wheel = new TimerWheel(TICK_NANOS, BUCKETS); // only used by the thread
+  private final Queue<Runnable> requests = new ConcurrentLinkedQueue<>(); // schedules of the player threads
+  private final Thread thread; // runs the tasks
+  private volatile boolean closed; // set once close() was called
+
+  /**
+   * Start the timer thread.
+   *
+   * @param moveTimeoutMillis The time a player has for its move, 0 for no limit.
+   * @param idleTimeoutMillis The time a connection may stay silent when the server waits for it, 0 for no limit.
+   */
+  public Timekeeper(long moveTimeoutMillis, long idleTimeoutMillis) {
+    this.moveTimeoutNanos = Math.max(0, moveTimeoutMillis) * 1_000_000;
+    this.idleTimeoutNanos = Math.max(0, idleTimeoutMillis) * 1_000_000;
+    thread = new Thread(this, "timers");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public long getMoveTimeoutNanos() {
+    return moveTimeoutNanos;
+  }
+
+  public long getIdleTimeoutNanos() {
+    return idleTimeoutNanos;
+  }
+
+  /**
+   * Schedule a timeout from any thread. Tasks that schedule their own timeout again run on the timer thread and may
+   * call this too.
+   *
+   * @param timeout The timeout, owned by this timekeeper from now on.
+   * @param deadline When to run its task, in {@link System#nanoTime()}.
+   */
+  public void schedule(TimerWheel.Timeout timeout, long deadline) {
+    if (Thread.currentThread() == thread) {
+      wheel.schedule(timeout, deadline);
+      return;
+    }
+    requests.add(() -> wheel.schedule(timeout, deadline));
+    LockSupport.unpark(thread);
+  }
+
+  @Override
+  public void run() {
+    while (!closed) {
+      Runnable request;
+      while ((request = requests.poll()) != null) {
+        request.run();
+      }
+      long now = System.nanoTime();
+      wheel.advance(now);
+      long wait = wheel.nanosToNextTick(now);
+      if (!requests.isEmpty()) {
+        continue;
+      }
+      if (wait < 0) {
+        LockSupport.park(this);
+      } else {
+        LockSupport.parkNanos(this, wait);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(thread);
+  }
+}
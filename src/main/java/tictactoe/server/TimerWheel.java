@@ -0,0 +1,163 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Hashed timer wheel for the deadlines of many connections. Time is cut into ticks, and a deadline is kept in the
+ * bucket of its tick modulo the number of buckets, in a doubly linked list whose nodes are the {@link Timeout}s
+ * themselves. Scheduling, moving and cancelling a timeout are therefore constant time and allocate nothing, and an
+ * advance of the wheel only looks at the buckets of the ticks that passed. A deadline further away than one turn of
+ * the wheel stays in its bucket until its own turn comes.
+ *
+ * Deadlines are never early but may be up to one tick late. A deadline that keeps moving, like the last input of a
+ * connection, is best not rescheduled on every change: the task can compare the real deadline with the time it is
+ * run and schedule itself again for the rest.
+ *
+ * The wheel does no synchronization, it belongs to the thread that advances it. The tasks run on that thread too.
+ */
+public final class TimerWheel {
+
+  /**
+   * A deadline and the task run when it passes. It is in at most one wheel at a time and may be scheduled again once
+   * it expired or was cancelled.
+   */
+  public static final class Timeout {
+
+    private final LongConsumer task; // run with the current System.nanoTime() once the deadline passed
+    private long tick; // tick of the deadline
+    private Timeout previous; // neighbours in the bucket, null at its ends
+    private Timeout next;
+    private int bucket = -1; // index of the bucket, -1 if not scheduled
+
+    /**
+     * @param task Run with the current {@link System#nanoTime()} once the deadline passed.
+     */
+    public Timeout(LongConsumer task) {
+      this.task = task;
+    }
+
+    public boolean isScheduled() {
+      return bucket >= 0;
+    }
+  }
+
+  private final long tickNanos; // length of a tick
+  private final Timeout[] buckets; // first timeout of every bucket, null if empty
+  private final int mask; // bucket of a tick, the number of buckets is a power of two
+  private final long origin; // System.nanoTime() of tick 0
+  private long current; // last tick whose timeouts were run
+  private int size; // timeouts scheduled
+
+  /**
+   * Create an empty wheel.
+   *
+   * @param tickNanos The length of a tick, the precision of the deadlines.
+   * @param bucketCount The number of buckets, rounded up to a power of two. One turn of the wheel should cover the
+   * usual deadlines.
+   */
+  public TimerWheel(long tickNanos, int bucketCount) {
+    this.tickNanos = tickNanos;
+    int count = Integer.highestOneBit(Math.max(1, bucketCount - 1)) << 1;
+    buckets = new Timeout[count];
+    mask = count - 1;
+    origin = System.nanoTime();
+  }
+
+  /**
+   * Schedule a timeout, or move it if it is scheduled already.
+   *
+   * @param timeout The timeout, not scheduled in another wheel.
+   * @param deadline When to run its task, in {@link System#nanoTime()}. A deadline that passed already runs with the
+   * next advance.
+   */
+  public void schedule(Timeout timeout, long deadline) {
+    if (timeout.isScheduled()) {
+      unlink(timeout);
+    }
+    // round up, so the task never runs before the deadline
+    long tick = Math.max(current + 1, Math.floorDiv(deadline - origin + tickNanos - 1, tickNanos));
+    int bucket = (int) tick & mask;
+    timeout.tick = tick;
+    timeout.bucket = bucket;
+    timeout.previous = null;
+    timeout.next = buckets[bucket];
+    if (timeout.next != null) {
+      timeout.next.previous = timeout;
+    }
+    buckets[bucket] = timeout;
+    size++;
+  }
+
+  /**
+   * Cancel a timeout, nothing happens if it is not scheduled.
+   */
+  public void cancel(Timeout timeout) {
+    if (timeout.isScheduled()) {
+      unlink(timeout);
+    }
+  }
+
+  /**
+   * Run the tasks of all deadlines that passed. A task may schedule or cancel any timeout, including its own.
+   *
+   * @param now The current {@link System#nanoTime()}.
+   * @return The number of tasks run.
+   */
+  public int advance(long now) {
+    long target = Math.floorDiv(now - origin, tickNanos);
+    int run = 0;
+    // a bucket holds the ticks of every turn, so more than one turn never needs more than one visit per bucket
+    long last = Math.min(target, current + buckets.length);
+    while (current < last) {
+      current++;
+      Timeout timeout = buckets[(int) current & mask];
+      while (timeout != null) {
+        Timeout next = timeout.next;
+        if (timeout.tick <= target) {
+          unlink(timeout);
+          timeout.task.accept(now);
+          run++;
+          // the task may have moved the next timeout to another bucket, then start this bucket over
+          if (next != null && next.bucket != ((int) current & mask)) {
+            next = buckets[(int) current & mask];
+          }
+        }
+        timeout = next;
+      }
+    }
+    current = Math.max(current, target);
+    return run;
+  }
+
+  /**
+   * @param now The current {@link System#nanoTime()}.
+   * @return The time until the wheel should be advanced again, at the next tick, or -1 if nothing is scheduled.
+   */
+  public long nanosToNextTick(long now) {
+    if (size == 0) {
+      return -1;
+    }
+    return Math.max(1, origin + (current + 1) * tickNanos - now);
+  }
+
+  // number of timeouts scheduled
+  public int size() {
+    return size;
+  }
+
+  private void unlink(Timeout timeout) {
+    if (timeout.previous != null) {
+      timeout.previous.next = timeout.next;
+    } else {
+      buckets[timeout.bucket] = timeout.next;
+    }
+    if (timeout.next != null) {
+      timeout.next.previous = timeout.previous;
+    }
+    timeout.previous = null;
+    timeout.next = null;
+    timeout.bucket = -1;
+    size--;
+  }
+}
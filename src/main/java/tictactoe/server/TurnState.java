@@ -0,0 +1,266 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Whose turn it is in a game, kept in one atomic word that is only changed by compare-and-set. The word holds the side
+ * to move, the status of the game and the number of moves made.
+ *
+ * The player whose turn it is owns the board: it validates and makes its move and sends the messages about it, then
+ * passes the turn with {@link #pass(int, boolean)}. Passing the turn publishes the board to the other player, so the
+ * board needs no lock of its own, and the other player cannot answer a move before the messages about it were sent.
+ * A player waiting for its turn parks its thread, and the player passing the turn unparks it; parking works the same
+ * for platform and virtual threads.
+ *
+ * A move that takes a while, like one that waits for the journal, is protected by a claim bit: the player takes the
+ * turn with {@link #claim(int)} before it looks at the board, and {@link #seize(int, int)}, which lets a timer end the
+ * game of a player that took too long, only succeeds while the turn is not claimed. Whoever holds the claim decides,
+ * so a move and its timeout can never both happen.
+ */
+public final class TurnState {
+
+  // statuses
+  public static final int WAITING = 0; // player O has not arrived yet
+  public static final int PLAYING = 1; // moves are being made
+  public static final int OVER = 2; // the game ended with a win or a tie
+  public static final int ABANDONED = 3; // a player left before the end
+
+  private static final long SIDE = 1; // bit of the side to move, 0 for X and 1 for O
+  private static final int STATUS_SHIFT = 1; // position of the two status bits
+  private static final long STATUS_MASK = 3L << STATUS_SHIFT;
+  private static final long CLAIMED = 1L << 3; // the side to move is being decided by its player or a timer
+  private static final int MOVES_SHIFT = 4; // position of the move counter
+  private static final long ONE_MOVE = 1L << MOVES_SHIFT;
+
+  private final AtomicLong word = new AtomicLong(); // player X to move, waiting, no moves
+  private final AtomicReferenceArray<Thread> waiters = new AtomicReferenceArray<>(2); // parked thread per player
+
+  /**
+   * Player O arrived, let player X begin.
+   */
+  public void start() {
+    long current;
+    do {
+      current = word.get();
+      if (status(current) != WAITING) {
+        return;
+      }
+    } while (!word.compareAndSet(current, withStatus(current, PLAYING)));
+    wake(GameState.PLAYER_X);
+    wake(GameState.PLAYER_O);
+  }
+
+  /**
+   * Continue a game that was started on another server, with the side to move of its next move. Called instead of
+   * {@link #start()}, the players' threads may already wait.
+   *
+   * @param moves The number of moves made so far.
+   */
+  public void startAt(int moves) {
+    word.set(withStatus((long) moves << MOVES_SHIFT | moves & SIDE, PLAYING));
+    wake(GameState.PLAYER_X);
+    wake(GameState.PLAYER_O);
+  }
+
+  /**
+   * Wait until the game started, without waiting for the turn.
+   *
+   * @param player The player waiting.
+   * @return False if the game was abandoned before it started.
+   */
+  public boolean awaitStart(int player) {
+    while (true) {
+      int status = status(word.get());
+      if (status != WAITING) {
+        return status != ABANDONED;
+      }
+      park(player);
+    }
+  }
+
+  /**
+   * Wait until it is the player's turn and the turn is not claimed. A caller that does not {@link #claim(int)} the
+   * turn owns the board until it calls {@link #pass(int, boolean)}, which is only safe if no timer can
+   * {@link #seize(int, int)} the turn.
+   *
+   * @param player The player waiting.
+   * @return True if it is the player's turn, false once the game is over or abandoned.
+   */
+  public boolean awaitTurn(int player) {
+    while (true) {
+      long current = word.get();
+      int status = status(current);
+      if (status == OVER || status == ABANDONED) {
+        return false;
+      }
+      if (status == PLAYING && side(current) == player && (current & CLAIMED) == 0) {
+        return true;
+      }
+      park(player);
+    }
+  }
+
+  /**
+   * Wait until it is the player's turn and take it. The caller owns the board until it calls
+   * {@link #pass(int, boolean)} or {@link #release(int)}.
+   *
+   * @param player The player waiting.
+   * @return True if the player holds the turn, false once the game is over or abandoned, for example because a timer
+   * seized the turn first.
+   */
+  public boolean claim(int player) {
+    while (awaitTurn(player)) {
+      long current = word.get();
+      if (status(current) == PLAYING && side(current) == player && (current & CLAIMED) == 0
+        && word.compareAndSet(current, current | CLAIMED)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Give the turn back without a move, for example after an invalid one. Wakes the player in case it waited for the
+   * turn while another thread held it, like a room frozen to move to another server.
+   *
+   * @param player The player holding the turn.
+   */
+  public void release(int player) {
+    long current;
+    do {
+      current = word.get();
+    } while (!word.compareAndSet(current, current & ~CLAIMED));
+    wake(player);
+  }
+
+  /**
+   * Take the turn of a player that ran out of time, without waiting. The caller then ends the game with
+   * {@link #forfeit(int)}.
+   *
+   * @param player The player whose turn it should be.
+   * @param moves The number of moves made when its time started.
+   * @return True if the turn is still the player's, no move was made since and the player has not claimed it.
+   */
+  public boolean seize(int player, int moves) {
+    long current = word.get();
+    return status(current) == PLAYING && side(current) == player && (current & CLAIMED) == 0
+      && (int) (current >>> MOVES_SHIFT) == moves && word.compareAndSet(current, current | CLAIMED);
+  }
+
+  /**
+   * End the game without a move, the player holding the turn loses. Wakes both players.
+   *
+   * @param player The player holding the turn.
+   */
+  public void forfeit(int player) {
+    long current;
+    long next;
+    do {
+      current = word.get();
+      next = current & ~CLAIMED;
+      if (status(current) == PLAYING) {
+        next = withStatus(next, OVER);
+      }
+    } while (!word.compareAndSet(current, next));
+    wake(GameState.PLAYER_X);
+    wake(GameState.PLAYER_O);
+  }
+
+  /**
+   * Hand the turn to the other player after a move, or end the game.
+   *
+   * @param player The player who moved, must be the side to move.
+   * @param gameOver Whether the move ended the game.
+   * @throws IllegalStateException If it is not the player's turn.
+   */
+  public void pass(int player, boolean gameOver) {
+    long current;
+    long next;
+    do {
+      current = word.get();
+      if (side(current) != player || status(current) == WAITING) {
+        throw new IllegalStateException("Player " + player + " does not have the turn");
+      }
+      next = ((current ^ SIDE) + ONE_MOVE) & ~CLAIMED;
+      if (gameOver && status(current) == PLAYING) {
+        next = withStatus(next, OVER);
+      }
+    } while (!word.compareAndSet(current, next));
+    wake(player ^ 1);
+    if (gameOver) {
+      wake(player);
+    }
+  }
+
+  /**
+   * A player left, wake everybody waiting. Has no effect once the game is over.
+   */
+  public void abandon() {
+    long current;
+    do {
+      current = word.get();
+      if (status(current) == OVER || status(current) == ABANDONED) {
+        return;
+      }
+    } while (!word.compareAndSet(current, withStatus(current, ABANDONED)));
+    wake(GameState.PLAYER_X);
+    wake(GameState.PLAYER_O);
+  }
+
+  public int getStatus() {
+    return status(word.get());
+  }
+
+  // whether the game ended or was abandoned
+  public boolean isFinished() {
+    int status = status(word.get());
+    return status == OVER || status == ABANDONED;
+  }
+
+  public int getSideToMove() {
+    return side(word.get());
+  }
+
+  public int getMoves() {
+    return (int) (word.get() >>> MOVES_SHIFT);
+  }
+
+  // park until woken or spuriously, the callers check the word again
+  private void park(int player) {
+    waiters.set(player, Thread.currentThread());
+    long current = word.get();
+    // a pass between the caller's check and the registration would not have found the thread
+    if (!mayProceed(current, player)) {
+      LockSupport.park(this);
+    }
+    waiters.set(player, null);
+  }
+
+  private static boolean mayProceed(long current, int player) {
+    int status = status(current);
+    return status == OVER || status == ABANDONED
+      || status == PLAYING && side(current) == player && (current & CLAIMED) == 0;
+  }
+
+  private void wake(int player) {
+    Thread waiter = waiters.get(player);
+    if (waiter != null) {
+      LockSupport.unpark(waiter);
+    }
+  }
+
+  private static int side(long word) {
+    return (int) (word & SIDE);
+  }
+
+  private static int status(long word) {
+    return (int) ((word & STATUS_MASK) >>> STATUS_SHIFT);
+  }
+
+  private static long withStatus(long word, int status) {
+    return word & ~STATUS_MASK | (long) status << STATUS_SHIFT;
+  }
+}
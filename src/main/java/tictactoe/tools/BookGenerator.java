@@ -0,0 +1,21 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import tictactoe.engine.OpeningBook;
+
+/**
+ * Build step that writes the {@link OpeningBook} file with every legal 3×3 position.
+ *
+ * Usage: {@code BookGenerator [file]}, default {@code tictactoe.book}.
+ */
+public class BookGenerator {
+
+  public static void main(String[] args) throws Exception {
+    Path file = Paths.get(args.length > 0 ? args[0] : "tictactoe.book");
+    long start = System.nanoTime();
+    int positions = OpeningBook.generate(file);
+    System.out.printf("Wrote %d positions to %s in %.1f ms%n", positions, file, (System.nanoTime() - start) / 1e6);
+  }
+}
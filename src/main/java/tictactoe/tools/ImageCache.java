@@ -0,0 +1,262 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.awt.AlphaComposite;
+import java.awt.EventQueue;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+
+/**
+ * Decoded and scaled images for the GUI. {@link #load} decodes an image on a background thread and scales it to the
+ * size it is usually drawn at, so a window can be shown before the image is ready and then drawing it is a plain copy.
+ * Every asset keeps a few copies for the sizes it was drawn at, each in the pixel format of the screen and, on a
+ * screen, also as a {@link VolatileImage} that the graphics card can copy by itself.
+ *
+ * The decoded image and the copies are held by soft references, so the garbage collector drops them when memory runs
+ * low, and every asset keeps only the copies of its last {@link #MAX_COPIES} sizes. An asset whose image was dropped
+ * decodes it again in the background, draws nothing until then and tells its listeners when it is back.
+ */
+public final class ImageCache {
+
+  private static final int MAX_COPIES = 4; // sizes kept per asset
+  private static final ImageCache instance = new ImageCache();
+
+  static {
+    ImageIO.setUseCache(false); // resources are small, a temporary file only slows decoding down
+  }
+
+  private final ExecutorService decoder = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "images");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final Map<String, Asset> assets = new ConcurrentHashMap<>(); // by path and size
+
+  private ImageCache() {
+  }
+
+  /**
+   * Returns the unique instance of the class.
+   *
+   * @return The unique instance of the class.
+   */
+  public static ImageCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Start loading an image unless it is loaded already.
+   *
+   * @param path The path of the image among the resources.
+   * @param width The width it is usually drawn at, scaled in the background.
+   * @param height The height it is usually drawn at.
+   * @return The asset, the same for the same path and size.
+   */
+  public Asset load(String path, int width, int height) {
+    return assets.computeIfAbsent(path + " " + width + "x" + height, key -> new Asset(path, width, height));
+  }
+
+  /**
+   * An image and its scaled copies.
+   */
+  public final class Asset {
+
+    private final String path; // of the image among the resources
+    private final int width; // the usual size
+    private final int height;
+    private final Map<Long, Copy> copies = new LinkedHashMap<>(8, 0.75f, true); // by size, least recently drawn first
+    private final List<Runnable> listeners = new ArrayList<>(); // run after every decoding
+    private SoftReference<BufferedImage> source = new SoftReference<>(null); // the decoded image
+    private CompletableFuture<Void> loading; // the current decoding
+    private boolean missing; // set if the image could not be read, it is not tried again
+
+    private Asset(String path, int width, int height) {
+      this.path = path;
+      this.width = width;
+      this.height = height;
+      decode();
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    /**
+     * Run an action on the event dispatch thread every time the image was decoded, and right away if it is decoded
+     * already. Components repaint themselves with it.
+     */
+    public synchronized void addLoadListener(Runnable action) {
+      listeners.add(action);
+      if (source.get() != null) {
+        EventQueue.invokeLater(action);
+      }
+    }
+
+    /**
+     * Draw the image at its usual size.
+     *
+     * @return False if the image is not decoded yet and nothing was drawn.
+     */
+    public boolean draw(Graphics g, int x, int y) {
+      return draw(g, x, y, width, height);
+    }
+
+    /**
+     * Draw the image scaled to a size. The first call for a size scales the image, later ones only copy it.
+     *
+     * @return False if the image is not decoded yet and nothing was drawn.
+     */
+    public boolean draw(Graphics g, int x, int y, int width, int height) {
+      Copy copy;
+      BufferedImage image;
+      synchronized (this) {
+        image = scaled(width, height);
+        if (image == null) {
+          return false;
+        }
+        copy = copies.get(key(width, height));
+      }
+      GraphicsConfiguration configuration = g instanceof Graphics2D ? ((Graphics2D) g).getDeviceConfiguration() : null;
+      if (configuration == null || configuration.getDevice().getType() != GraphicsDevice.TYPE_RASTER_SCREEN) {
+        g.drawImage(image, x, y, null); // offscreen, a copy in main memory is as fast
+        return true;
+      }
+      do {
+        VolatileImage accelerated = copy.accelerated;
+        int valid = accelerated == null ? VolatileImage.IMAGE_INCOMPATIBLE : accelerated.validate(configuration);
+        if (valid == VolatileImage.IMAGE_INCOMPATIBLE) {
+          if (accelerated != null) {
+            accelerated.flush();
+          }
+          accelerated = configuration.createCompatibleVolatileImage(width, height, image.getTransparency());
+          copy.accelerated = accelerated;
+          valid = VolatileImage.IMAGE_RESTORED;
+        }
+        if (valid == VolatileImage.IMAGE_RESTORED) {
+          Graphics2D graphics = accelerated.createGraphics();
+          graphics.setComposite(AlphaComposite.Src);
+          graphics.drawImage(image, 0, 0, null);
+          graphics.dispose();
+        }
+        g.drawImage(accelerated, x, y, null);
+      } while (copy.accelerated.contentsLost());
+      return true;
+    }
+
+    // the image scaled to a size, scaled now if needed, or null if the image is not decoded
+    private BufferedImage scaled(int width, int height) {
+      long key = key(width, height);
+      Copy copy = copies.get(key);
+      BufferedImage scaled = copy == null ? null : copy.image.get();
+      if (scaled != null) {
+        return scaled;
+      }
+      if (copy != null) {
+        copy.flush(); // dropped by the garbage collector
+        copies.remove(key);
+      }
+      BufferedImage image = source.get();
+      if (image == null) {
+        if (loading.isDone() && !missing) {
+          decode();
+        }
+        return null;
+      }
+      scaled = scale(image, width, height);
+      copies.put(key, new Copy(scaled));
+      Iterator<Copy> oldest = copies.values().iterator();
+      while (copies.size() > MAX_COPIES) {
+        oldest.next().flush();
+        oldest.remove();
+      }
+      return scaled;
+    }
+
+    // decode the image in the background and scale it to the usual size
+    private void decode() {
+      loading = CompletableFuture.runAsync(() -> {
+        BufferedImage image = new ImageProvider(path).get();
+        synchronized (this) {
+          if (image == null) {
+            missing = true; // logged by the provider, the asset stays empty
+            return;
+          }
+          source = new SoftReference<>(image);
+          scaled(width, height);
+          listeners.forEach(EventQueue::invokeLater);
+        }
+      }, decoder);
+    }
+  }
+
+  private static long key(int width, int height) {
+    return (long) width << 32 | height;
+  }
+
+  // a scaled copy and its accelerated version
+  private static final class Copy {
+
+    final SoftReference<BufferedImage> image; // in the pixel format of the screen
+    VolatileImage accelerated; // in the memory of the graphics card, null until drawn on a screen
+
+    Copy(BufferedImage image) {
+      this.image = new SoftReference<>(image);
+    }
+
+    void flush() {
+      if (accelerated != null) {
+        accelerated.flush();
+      }
+    }
+  }
+
+  // scale in steps of at most one half, which looks like area averaging but is many times faster
+  private static BufferedImage scale(BufferedImage image, int width, int height) {
+    boolean opaque = image.getTransparency() == Transparency.OPAQUE;
+    BufferedImage current = image;
+    int w = image.getWidth();
+    int h = image.getHeight();
+    do {
+      w = w / 2 >= width ? w / 2 : width;
+      h = h / 2 >= height ? h / 2 : height;
+      BufferedImage next = compatible(w, h, opaque);
+      Graphics2D graphics = next.createGraphics();
+      graphics.setComposite(AlphaComposite.Src);
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(current, 0, 0, w, h, null);
+      graphics.dispose();
+      current = next;
+    } while (w != width || h != height);
+    return current;
+  }
+
+  private static BufferedImage compatible(int width, int height, boolean opaque) {
+    if (!GraphicsEnvironment.isHeadless()) {
+      return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration()
+        .createCompatibleImage(width, height, opaque ? Transparency.OPAQUE : Transparency.TRANSLUCENT);
+    }
+    return new BufferedImage(width, height, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+  }
+}
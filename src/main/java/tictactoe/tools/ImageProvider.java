@@ -1,7 +1,6 @@
 // License: GPL. For details, see LICENSE file.
 package tictactoe.tools;
 
-import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.Objects;
@@ -22,7 +21,7 @@ public class ImageProvider {
     this.path = Objects.requireNonNull(path, "name");
   }
 
-  public Image get() {
+  public BufferedImage get() {
     BufferedImage image = null;
     try {
       image = ImageIO.read(getClass().getClassLoader().getResource(path));
@@ -0,0 +1,256 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import tictactoe.server.GameState;
+import tictactoe.server.ReplayArchive;
+
+/**
+ * Statistics over a {@link ReplayArchive}: for every board size and win length the number of games, how they ended,
+ * their average length in moves and time, and the win rates of the openings, the first move of player X. The archive
+ * is split into segments of whole blocks, found by their headers alone. The segments are memory-mapped and decoded in
+ * parallel, each into statistics of its own, which are merged at the end, so the threads share nothing while they
+ * read.
+ *
+ * Usage: {@code ReplayAnalyzer <archive> [threads]}, by default one thread per processor. To try it on a large
+ * archive, {@code ReplayAnalyzer generate <archive> <games> [size] [win length]} appends games of random moves,
+ * default 3×3.
+ */
+public class ReplayAnalyzer {
+
+  private static final long SEGMENT_SIZE = 64L * 1024 * 1024; // bytes mapped and decoded by one task
+  private static final int TOP_OPENINGS = 10; // openings listed per board
+  private static final String[] RESULTS = {"X won", "O won", "tie", "X timed out", "O timed out"};
+
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("generate")) {
+      generate(Paths.get(args[1]), Long.parseLong(args[2]), args.length > 3 ? Integer.parseInt(args[3]) : 3,
+        args.length > 4 ? Integer.parseInt(args[4]) : 3);
+      return;
+    }
+    Path file = Paths.get(args[0]);
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+    long start = System.nanoTime();
+    Statistics total;
+    long size;
+    int blocks;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      size = channel.size();
+      long[] offsets = ReplayArchive.findBlocks(channel);
+      blocks = offsets.length;
+      List<long[]> segments = segments(offsets, offsets.length == 0 ? 0 : end(channel, offsets));
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+        total = pool.submit(() -> segments.parallelStream()
+          .map(segment -> analyze(channel, segment[0], segment[1]))
+          .reduce(Statistics::merge) // merges into the left one, so no shared identity
+          .orElseGet(Statistics::new)).get();
+      } finally {
+        pool.shutdown();
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    System.out.printf("%,d games in %,d blocks, %,.1f MB, read in %.2f s with %d threads", total.games(), blocks,
+      size / 1e6, seconds, threads);
+    System.out.printf(" (%,.0f games/s, %,.0f MB/s)%n", total.games() / seconds, size / 1e6 / seconds);
+    if (total.damaged > 0) {
+      System.out.printf("%,d damaged blocks skipped%n", total.damaged);
+    }
+    for (Board board : total.boards.values()) {
+      board.print();
+    }
+  }
+
+  // the end of the last block, where the archive ends unless it has a torn tail
+  private static long end(FileChannel channel, long[] offsets) throws IOException {
+    long last = offsets[offsets.length - 1];
+    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, last, ReplayArchive.HEADER_SIZE);
+    return last + ReplayArchive.HEADER_SIZE + header.getInt(4);
+  }
+
+  // group the blocks into segments of at least SEGMENT_SIZE bytes, the last may be shorter
+  private static List<long[]> segments(long[] offsets, long end) {
+    List<long[]> segments = new ArrayList<>();
+    if (offsets.length == 0) {
+      return segments;
+    }
+    long start = offsets[0];
+    for (long offset : offsets) {
+      if (offset - start >= SEGMENT_SIZE) {
+        segments.add(new long[] {start, offset});
+        start = offset;
+      }
+    }
+    segments.add(new long[] {start, end});
+    return segments;
+  }
+
+  // decode the blocks between two positions
+  private static Statistics analyze(FileChannel channel, long start, long end) {
+    Statistics statistics = new Statistics();
+    MappedByteBuffer buffer;
+    try {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    } catch (IOException ioException) {
+      throw new IllegalStateException(ioException);
+    }
+    int offset = 0;
+    while (offset < buffer.limit()) {
+      int next = ReplayArchive.readBlock(buffer, offset, statistics);
+      if (next < 0) {
+        statistics.damaged++;
+        next = offset + ReplayArchive.HEADER_SIZE + buffer.getInt(offset + 4); // findBlocks checked the length
+      }
+      offset = next;
+    }
+    return statistics;
+  }
+
+  // append games of random moves to an archive
+  private static void generate(Path file, long games, int size, int winLength) throws IOException {
+    long start = System.nanoTime();
+    long time = System.currentTimeMillis();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int[] free = new int[size * size];
+    try (ReplayArchive archive = ReplayArchive.open(file)) {
+      for (long game = 0; game < games; game++) {
+        GameState state = new GameState(size, winLength);
+        for (int i = 0; i < free.length; i++) {
+          free[i] = i;
+        }
+        for (int left = free.length; !state.isGameOver(); left--) {
+          int pick = random.nextInt(left);
+          state.move(free[pick]);
+          free[pick] = free[left - 1];
+        }
+        time += random.nextInt(20); // games start a few milliseconds apart
+        archive.gameFinished(state, time, time + 500 * state.getMoveCount() + random.nextInt(1000));
+      }
+    }
+    System.out.printf("%,d games appended in %.1f s, the archive has %,.1f MB%n", games,
+      (System.nanoTime() - start) / 1e9, Files.size(file) / 1e6);
+  }
+
+  // statistics of a part of the archive
+  private static final class Statistics implements ReplayArchive.GameVisitor {
+
+    final Map<Long, Board> boards = new TreeMap<>(); // by size and win length
+    long damaged; // blocks whose checksum failed
+    private Board last; // board of the previous game, most games of an archive share it
+
+    @Override
+    public void game(int size, int winLength, int result, long started, long ended, int[] moves, int moveCount) {
+      if (last == null || last.size != size || last.winLength != winLength) {
+        last = boards.computeIfAbsent((long) size << 32 | winLength, key -> new Board(size, winLength));
+      }
+      last.add(result, ended - started, moves, moveCount);
+    }
+
+    long games() {
+      return boards.values().stream().mapToLong(board -> board.games).sum();
+    }
+
+    Statistics merge(Statistics other) {
+      for (Map.Entry<Long, Board> board : other.boards.entrySet()) {
+        boards.merge(board.getKey(), board.getValue(), Board::merge);
+      }
+      damaged += other.damaged;
+      return this;
+    }
+  }
+
+  // statistics of the games on one board
+  private static final class Board {
+
+    final int size; // rows and columns
+    final int winLength; // marks in a row that win
+    long games; // games played
+    long moves; // moves of all games
+    long millis; // duration of all games
+    final long[] results = new long[RESULTS.length]; // games by result
+    final long[][] openings; // games by first move and result
+
+    Board(int size, int winLength) {
+      this.size = size;
+      this.winLength = winLength;
+      openings = new long[size * size][RESULTS.length];
+    }
+
+    void add(int result, long duration, int[] moves, int moveCount) {
+      if (result < 0 || result >= RESULTS.length) {
+        return;
+      }
+      games++;
+      this.moves += moveCount;
+      millis += duration;
+      results[result]++;
+      if (moveCount > 0 && moves[0] >= 0 && moves[0] < openings.length) {
+        openings[moves[0]][result]++;
+      }
+    }
+
+    Board merge(Board other) {
+      games += other.games;
+      moves += other.moves;
+      millis += other.millis;
+      for (int i = 0; i < results.length; i++) {
+        results[i] += other.results[i];
+      }
+      for (int location = 0; location < openings.length; location++) {
+        for (int i = 0; i < results.length; i++) {
+          openings[location][i] += other.openings[location][i];
+        }
+      }
+      return this;
+    }
+
+    void print() {
+      System.out.printf("%n%dx%d, %d in a row: %,d games, %.2f moves and %.1f s on average%n", size, size, winLength,
+        games, (double) moves / games, millis / 1000.0 / games);
+      StringBuilder line = new StringBuilder(" ");
+      for (int i = 0; i < RESULTS.length; i++) {
+        line.append(String.format(" %s %.1f%%", RESULTS[i], 100.0 * results[i] / games));
+      }
+      System.out.println(line);
+      System.out.println("  opening  games  X wins  O wins  ties");
+      List<Integer> locations = new ArrayList<>();
+      for (int location = 0; location < openings.length; location++) {
+        if (total(openings[location]) > 0) {
+          locations.add(location);
+        }
+      }
+      locations.sort(Comparator.comparingLong((Integer location) -> total(openings[location])).reversed());
+      for (int location : locations.subList(0, Math.min(TOP_OPENINGS, locations.size()))) {
+        long[] opening = openings[location];
+        double count = total(opening);
+        System.out.printf("  %3d,%-3d %,6d  %5.1f%%  %5.1f%%  %4.1f%%%n", location / size, location % size,
+          (long) count, 100 * (opening[ReplayArchive.X_WON] + opening[ReplayArchive.O_TIMED_OUT]) / count,
+          100 * (opening[ReplayArchive.O_WON] + opening[ReplayArchive.X_TIMED_OUT]) / count,
+          100 * opening[ReplayArchive.TIE] / count);
+      }
+    }
+
+    private static long total(long[] counts) {
+      long total = 0;
+      for (long count : counts) {
+        total += count;
+      }
+      return total;
+    }
+  }
+}
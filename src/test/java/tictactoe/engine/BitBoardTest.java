@@ -0,0 +1,101 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static tictactoe.engine.GameBoard.EMPTY;
+import static tictactoe.engine.GameBoard.PLAYER_O;
+import static tictactoe.engine.GameBoard.PLAYER_X;
+
+public class BitBoardTest {
+
+  // make the moves, X first
+  static GameBoard play(GameBoard board, int... locations) {
+    for (int location : locations) {
+      assertTrue("move " + location, board.isValidMove(location));
+      board.move(location);
+    }
+    return board;
+  }
+
+  @Test
+  public void everyLineWins() {
+    for (int line : BitBoard.LINES) {
+      assertTrue(BitBoard.isWin(line));
+      assertTrue(BitBoard.isWin(line | 1 << Integer.numberOfTrailingZeros(~line & BitBoard.FULL)));
+      assertFalse(BitBoard.isWin(line & line - 1)); // two of its squares
+    }
+    assertFalse(BitBoard.isWin(0));
+    assertTrue(BitBoard.isWin(BitBoard.FULL));
+  }
+
+  @Test
+  public void rowWinsForX() {
+    GameBoard board = play(new BitBoard(), 0, 3, 1, 4);
+    assertFalse(board.hasWinner());
+    play(board, 2);
+    assertTrue(board.hasWinner());
+    assertTrue(board.isGameOver());
+    assertFalse(board.boardFilledUp());
+  }
+
+  @Test
+  public void diagonalWinsForO() {
+    GameBoard board = play(new BitBoard(), 0, 2, 1, 4, 8, 6);
+    assertTrue(board.hasWinner());
+    assertEquals(PLAYER_O, board.getMark(6));
+  }
+
+  @Test
+  public void fullBoardWithoutLineIsTie() {
+    GameBoard board = play(new BitBoard(), 0, 1, 2, 4, 3, 5, 7, 6, 8);
+    assertFalse(board.hasWinner());
+    assertTrue(board.boardFilledUp());
+    assertTrue(board.isGameOver());
+  }
+
+  @Test
+  public void rejectsOccupiedAndOutsideSquares() {
+    GameBoard board = play(new BitBoard(), 4);
+    assertFalse(board.isValidMove(4));
+    assertFalse(board.isValidMove(-1));
+    assertFalse(board.isValidMove(9));
+    assertEquals(PLAYER_O, board.getCurrentPlayer());
+    assertEquals(PLAYER_X, board.getMark(4));
+    assertEquals(EMPTY, board.getMark(0));
+  }
+
+  @Test
+  public void resetEmptiesTheBoard() {
+    GameBoard board = play(new BitBoard(), 0, 3, 1, 4, 2);
+    board.reset();
+    assertFalse(board.hasWinner());
+    assertEquals(PLAYER_X, board.getCurrentPlayer());
+    for (int location = 0; location < BitBoard.SQUARES; location++) {
+      assertTrue(board.isValidMove(location));
+    }
+  }
+
+  @Test
+  public void agreesWithGridBoard() {
+    Random random = new Random(42);
+    for (int game = 0; game < 1000; game++) {
+      GameBoard bits = new BitBoard();
+      GameBoard grid = new GridBoard(3, 3);
+      while (!bits.isGameOver()) {
+        int location = random.nextInt(BitBoard.SQUARES);
+        if (bits.isValidMove(location)) {
+          bits.move(location);
+          grid.move(location);
+          assertEquals(grid.hasWinner(), bits.hasWinner());
+          assertEquals(grid.boardFilledUp(), bits.boardFilledUp());
+        }
+      }
+      assertTrue(grid.isGameOver());
+    }
+  }
+}
@@ -0,0 +1,73 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static tictactoe.engine.BitBoardTest.play;
+
+public class GridBoardTest {
+
+  private static final int SIZE = 15;
+  private static final int[] O_MOVES = {210, 212, 214, 216, 218}; // every other square of the last row, never a line
+
+  // square of a row and column of the 15×15 board
+  private static int at(int row, int column) {
+    return row * SIZE + column;
+  }
+
+  // X takes the squares, O answers on the last row
+  private static GameBoard fiveInARowFor(int... xMoves) {
+    GameBoard board = new GridBoard(SIZE, 5);
+    for (int i = 0; i < xMoves.length; i++) {
+      assertFalse(board.hasWinner());
+      play(board, xMoves[i]);
+      if (i + 1 < xMoves.length) {
+        play(board, O_MOVES[i]);
+      }
+    }
+    return board;
+  }
+
+  @Test
+  public void winsInEveryDirection() {
+    assertTrue(fiveInARowFor(at(3, 4), at(3, 5), at(3, 6), at(3, 7), at(3, 8)).hasWinner());
+    assertTrue(fiveInARowFor(at(2, 9), at(3, 9), at(4, 9), at(5, 9), at(6, 9)).hasWinner());
+    assertTrue(fiveInARowFor(at(0, 0), at(1, 1), at(2, 2), at(3, 3), at(4, 4)).hasWinner());
+    assertTrue(fiveInARowFor(at(4, 10), at(5, 9), at(6, 8), at(7, 7), at(8, 6)).hasWinner());
+  }
+
+  @Test
+  public void winsWhenTheLastMarkFillsTheGap() {
+    assertTrue(fiveInARowFor(at(7, 0), at(7, 1), at(7, 3), at(7, 4), at(7, 2)).hasWinner());
+  }
+
+  @Test
+  public void fourInARowDoesNotWin() {
+    GameBoard board = fiveInARowFor(at(3, 4), at(3, 5), at(3, 6), at(3, 7));
+    assertFalse(board.hasWinner());
+  }
+
+  @Test
+  public void linesDoNotWrapAroundTheEdge() {
+    assertFalse(fiveInARowFor(at(0, 12), at(0, 13), at(0, 14), at(1, 0), at(1, 1)).hasWinner());
+    assertFalse(fiveInARowFor(at(0, 1), at(1, 0), at(1, 14), at(2, 13), at(3, 12)).hasWinner());
+  }
+
+  @Test
+  public void fullBoardIsOver() {
+    GameBoard board = new GridBoard(2, 2);
+    play(board, 0, 3, 1);
+    assertTrue(board.hasWinner());
+    board = new GridBoard(1, 1);
+    play(board, 0);
+    assertTrue(board.boardFilledUp());
+    assertTrue(board.isGameOver());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsWinLengthAboveSize() {
+    new GridBoard(3, 4);
+  }
+}
@@ -0,0 +1,37 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static tictactoe.engine.BitBoardTest.play;
+
+public class MonteCarloPlayerTest {
+
+  private final MonteCarloPlayer player = new MonteCarloPlayer(0, 20_000, 100_000);
+
+  @Test
+  public void takesAnImmediateWin() {
+    // X has three of four in the top row, O is scattered over the bottom row
+    GameBoard board = play(new GridBoard(7, 4), 0, 42, 1, 44, 2, 46);
+    assertEquals(3, player.chooseMove(board));
+  }
+
+  @Test
+  public void blocksAnImmediateLoss() {
+    GameBoard board = play(new GridBoard(7, 4), 0, 42, 1, 44, 2);
+    assertEquals(3, player.chooseMove(board));
+  }
+
+  @Test
+  public void playsTheClassicGame() {
+    GameBoard board = play(GameBoard.create(3, 3), 0, 3, 1);
+    assertEquals(2, player.chooseMove(board)); // O blocks the top row
+    assertEquals(20_000, player.getPlayouts());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void needsABudget() {
+    new MonteCarloPlayer(0, 0, 100);
+  }
+}
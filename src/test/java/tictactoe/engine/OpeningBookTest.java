@@ -0,0 +1,78 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static tictactoe.engine.GameBoard.PLAYER_O;
+import static tictactoe.engine.GameBoard.PLAYER_X;
+
+public class OpeningBookTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private OpeningBook book() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("tictactoe.book");
+    assertEquals(5478, OpeningBook.generate(file));
+    return OpeningBook.load(file);
+  }
+
+  @Test
+  public void neverLosesFromAnyPosition() throws IOException {
+    OpeningBook book = book();
+    PerfectPlayerTest.assertDrawsAgainstItself(book);
+    PerfectPlayerTest.assertNeverLoses(book, PLAYER_X, 0, 0);
+    PerfectPlayerTest.assertNeverLoses(book, PLAYER_O, 0, 0);
+  }
+
+  @Test
+  public void valuesAreThoseOfPerfectPlay() throws IOException {
+    OpeningBook book = book();
+    assertEquals(5478, book.getPositions());
+    assertEquals(OpeningBook.DRAW, book.value(0, 0));
+    assertEquals(OpeningBook.WIN, book.value(0b000_000_011, 0b000_011_000)); // X completes the top row
+    assertEquals(2, book.bestMove(0b000_000_011, 0b000_011_000));
+    assertEquals(OpeningBook.LOSS, book.value(0b000_000_111, 0b000_011_000)); // O to move, X has won
+    assertEquals(OpeningBook.NO_MOVE, book.bestMove(0b000_000_111, 0b000_011_000));
+  }
+
+  @Test
+  public void loadOrGenerateKeepsAnExistingBook() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("sub").resolve("tictactoe.book");
+    assertEquals(5478, OpeningBook.loadOrGenerate(file).getPositions());
+    long written = file.toFile().lastModified();
+    assertEquals(5478, OpeningBook.loadOrGenerate(file).getPositions());
+    assertEquals(written, file.toFile().lastModified());
+  }
+
+  // compare the entries of the position and of everything reachable from it
+  private static void assertSameEntries(OpeningBook expected, OpeningBook actual, int x, int o) {
+    assertEquals(expected.value(x, o), actual.value(x, o));
+    assertEquals(expected.bestMove(x, o), actual.bestMove(x, o));
+    if (expected.bestMove(x, o) != OpeningBook.NO_MOVE) {
+      boolean xToMove = Integer.bitCount(x) == Integer.bitCount(o);
+      for (int free = ~(x | o) & BitBoard.FULL; free != 0; free &= free - 1) {
+        int square = free & -free;
+        assertSameEntries(expected, actual, xToMove ? x | square : x, xToMove ? o : o | square);
+      }
+    }
+  }
+
+  @Test
+  public void defaultBookIsTheGeneratedOne() throws IOException {
+    OpeningBook generated = book();
+    OpeningBook built = OpeningBook.loadDefault(); // the resource of the build, computed without it
+    assertEquals(generated.getPositions(), built.getPositions());
+    assertSameEntries(generated, built, 0, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsImpossiblePositions() throws IOException {
+    book().value(0b000_000_111, 0); // X moved three times, O never
+  }
+}
@@ -0,0 +1,44 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static tictactoe.engine.BitBoardTest.play;
+
+public class ParallelSearchTest {
+
+  private final ParallelSearch search = new ParallelSearch(2, 0, 4);
+
+  @After
+  public void close() {
+    search.close();
+  }
+
+  @Test
+  public void takesAnImmediateWin() {
+    // X has three of four in the top row, O is scattered over the bottom row
+    GameBoard board = play(new GridBoard(7, 4), 0, 42, 1, 44, 2, 46);
+    assertEquals(3, search.chooseMove(board));
+  }
+
+  @Test
+  public void blocksAnImmediateLoss() {
+    GameBoard board = play(new GridBoard(7, 4), 0, 42, 1, 44, 2);
+    assertEquals(3, search.chooseMove(board));
+  }
+
+  @Test
+  public void prefersItsOwnWinToABlock() {
+    // both have three in a row, X to move wins instead of blocking O at 45
+    GameBoard board = play(new GridBoard(7, 4), 0, 42, 1, 43, 2, 44);
+    assertEquals(3, search.chooseMove(board));
+  }
+
+  @Test
+  public void playsTheClassicGame() {
+    GameBoard board = play(GameBoard.create(3, 3), 0, 3, 1);
+    assertEquals(2, search.chooseMove(board)); // O blocks the top row
+  }
+}
@@ -0,0 +1,93 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static tictactoe.engine.GameBoard.PLAYER_O;
+import static tictactoe.engine.GameBoard.PLAYER_X;
+
+public class PerfectPlayerTest {
+
+  // the position of the masks, X and O placed in turns
+  static BitBoard boardOf(int x, int o) {
+    BitBoard board = new BitBoard();
+    while (x != 0 || o != 0) {
+      int squares = board.getCurrentPlayer() == PLAYER_X ? x : o;
+      int square = Integer.numberOfTrailingZeros(squares);
+      board.move(square);
+      if (board.getCurrentPlayer() == PLAYER_O) {
+        x &= x - 1;
+      } else {
+        o &= o - 1;
+      }
+    }
+    return board;
+  }
+
+  // play every reply of the opponent to every move of the strategy, failing if a game is lost
+  static void assertNeverLoses(Strategy strategy, int side, int x, int o) {
+    int free = ~(x | o) & BitBoard.FULL;
+    boolean xToMove = Integer.bitCount(x) == Integer.bitCount(o);
+    if (BitBoard.isWin(side == PLAYER_X ? o : x)) {
+      throw new AssertionError("Lost as " + (side == PLAYER_X ? "X" : "O") + " with X " + x + ", O " + o);
+    }
+    if (BitBoard.isWin(side == PLAYER_X ? x : o) || free == 0) {
+      return;
+    }
+    if ((side == PLAYER_X) == xToMove) {
+      int move = strategy.chooseMove(boardOf(x, o));
+      assertTrue("square " + move + " is free", (free & 1 << move) != 0);
+      assertNeverLoses(strategy, side, xToMove ? x | 1 << move : x, xToMove ? o : o | 1 << move);
+      return;
+    }
+    for (int moves = free; moves != 0; moves &= moves - 1) {
+      int square = moves & -moves;
+      assertNeverLoses(strategy, side, xToMove ? x | square : x, xToMove ? o : o | square);
+    }
+  }
+
+  // the strategy on both sides from the empty board
+  static void assertDrawsAgainstItself(Strategy strategy) {
+    BitBoard board = new BitBoard();
+    while (!board.hasWinner() && !board.boardFilledUp()) {
+      board.move(strategy.chooseMove(board));
+    }
+    assertFalse(board.hasWinner());
+  }
+
+  @Test
+  public void drawsAgainstItself() {
+    assertDrawsAgainstItself(new PerfectPlayer());
+  }
+
+  @Test
+  public void neverLosesAsX() {
+    assertNeverLoses(new PerfectPlayer(), PLAYER_X, 0, 0);
+  }
+
+  @Test
+  public void neverLosesAsO() {
+    assertNeverLoses(new PerfectPlayer(), PLAYER_O, 0, 0);
+  }
+
+  @Test
+  public void neverLosesFromAColdTable() {
+    PerfectPlayer.clearTable();
+    assertNeverLoses(new PerfectPlayer(), PLAYER_O, 0, 0);
+  }
+
+  @Test
+  public void takesTheWinAndBlocks() {
+    PerfectPlayer player = new PerfectPlayer();
+    assertEquals(2, player.chooseMove(boardOf(0b000_000_011, 0b000_011_000))); // X wins the top row
+    assertEquals(2, player.chooseMove(boardOf(0b000_100_011, 0b010_001_000))); // O blocks it
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsLargerBoards() {
+    new PerfectPlayer().chooseMove(new GridBoard(4, 3));
+  }
+}
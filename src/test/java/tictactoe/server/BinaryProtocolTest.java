@@ -0,0 +1,60 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BinaryProtocolTest {
+
+  private static final int[] ROOMS = {0, 1, 255, 256, 65_536, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+  private static final int[] CELLS = {0, 8, 224, 999_999};
+
+  @Test
+  public void arrayFramesRoundTrip() {
+    byte[] frames = new byte[3 * BinaryProtocol.FRAME_SIZE];
+    for (int room : ROOMS) {
+      for (int cell : CELLS) {
+        for (int result = BinaryProtocol.NONE; result <= BinaryProtocol.TIE; result++) {
+          int offset = BinaryProtocol.FRAME_SIZE; // not at the start of the array
+          BinaryProtocol.encode(frames, offset, BinaryProtocol.OPPONENT_MOVED, room, cell, result);
+          assertEquals(BinaryProtocol.OPPONENT_MOVED, BinaryProtocol.opcode(frames, offset));
+          assertEquals(result, BinaryProtocol.result(frames, offset));
+          assertEquals(room, BinaryProtocol.room(frames, offset));
+          assertEquals(cell, BinaryProtocol.cell(frames, offset));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void bufferAndArrayWriteTheSameBytes() {
+    for (int opcode = BinaryProtocol.MOVE; opcode <= BinaryProtocol.TIMED_OUT; opcode++) {
+      for (int room : ROOMS) {
+        byte[] frame = new byte[BinaryProtocol.FRAME_SIZE];
+        BinaryProtocol.encode(frame, 0, opcode, room, 7, BinaryProtocol.DEFEAT);
+        ByteBuffer buffer = ByteBuffer.allocate(BinaryProtocol.FRAME_SIZE);
+        BinaryProtocol.encode(buffer, opcode, room, 7, BinaryProtocol.DEFEAT);
+        assertEquals(0, buffer.remaining());
+        assertArrayEquals(frame, buffer.array());
+      }
+    }
+  }
+
+  @Test
+  public void frameIsInNetworkByteOrder() {
+    byte[] frame = new byte[BinaryProtocol.FRAME_SIZE];
+    BinaryProtocol.encode(frame, 0, BinaryProtocol.VALID, 0x01020304, 0x0A0B0C0D, BinaryProtocol.TIE);
+    assertArrayEquals(new byte[] {3, 3, 0, 0, 1, 2, 3, 4, 0x0A, 0x0B, 0x0C, 0x0D}, frame);
+  }
+
+  @Test
+  public void resultLinesMatchTheTextProtocol() {
+    assertEquals("", BinaryProtocol.resultLine(BinaryProtocol.NONE));
+    assertEquals("VICTORY\n", BinaryProtocol.resultLine(BinaryProtocol.VICTORY));
+    assertEquals("DEFEAT\n", BinaryProtocol.resultLine(BinaryProtocol.DEFEAT));
+    assertEquals("TIE\n", BinaryProtocol.resultLine(BinaryProtocol.TIE));
+  }
+}
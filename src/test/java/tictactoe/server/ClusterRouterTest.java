@@ -0,0 +1,231 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClusterRouterTest {
+
+  private static final int SERVERS = 3;
+  private static final int PAIRS = 24;
+  private static final int READ_MILLIS = 10_000; // a test that hangs fails instead
+
+  private final List<Lobby> lobbies = new ArrayList<>();
+  private final List<Player> players = new ArrayList<>();
+  private ClusterRouter router;
+
+  // a client of the text protocol, connected through the router
+  private static final class Player implements Closeable {
+    private Socket socket;
+    private BufferedReader reader;
+    private final String token; // of its session
+
+    Player(int port) throws IOException {
+      connect(port);
+      String session = await("Session ");
+      token = session.split(" ")[1];
+    }
+
+    private void connect(int port) throws IOException {
+      socket = new Socket("localhost", port);
+      socket.setSoTimeout(READ_MILLIS);
+      reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+    }
+
+    void send(String line) throws IOException {
+      socket.getOutputStream().write((line + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // the first line that starts with the prefix
+    String await(String prefix) throws IOException {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(prefix)) {
+          return line;
+        }
+      }
+      fail("Connection closed while waiting for " + prefix);
+      return null;
+    }
+
+    String readLine() throws IOException {
+      return reader.readLine();
+    }
+
+    // read until the server closed the connection
+    void awaitClosed() {
+      try {
+        while (reader.readLine() != null) {
+          // messages sent before the game moved
+        }
+      } catch (IOException ioException) {
+        // closed as well
+      }
+    }
+
+    // come back through the reconnect port of the router with the moves seen so far
+    void resume(int port, int seen) throws IOException {
+      socket.close();
+      connect(port);
+      send("RESUME " + token + " " + seen);
+      assertEquals("Resumed " + seen, await("Resumed"));
+    }
+
+    int getRoom() {
+      return Reconnector.roomOf(token);
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+
+  @Before
+  public void startCluster() throws IOException {
+    router = new ClusterRouter(0, 0, 0, ExecutionMode.PLATFORM);
+    for (int i = 0; i < SERVERS; i++) {
+      Lobby lobby = new Lobby(ServerConfig.lobby().setPort(0).setRouted(true).setSpectatorPort(0)
+        .setPublicReconnectPort(router.getReconnectPort()), message -> { });
+      lobbies.add(lobby);
+      Thread thread = new Thread(lobby::execute, "lobby-" + i);
+      thread.setDaemon(true);
+      thread.start();
+      router.addNode("localhost", lobby.getPort());
+    }
+  }
+
+  @After
+  public void stopCluster() throws IOException {
+    for (Player player : players) {
+      player.close();
+    }
+    router.close();
+    for (Lobby lobby : lobbies) {
+      lobby.close();
+    }
+  }
+
+  // pairs that made one move each, so every room has a game in progress
+  private void startGames() throws IOException {
+    for (int i = 0; i < PAIRS; i++) {
+      Player x = new Player(router.getPort());
+      Player o = new Player(router.getPort());
+      players.add(x);
+      players.add(o);
+      assertEquals(x.getRoom(), o.getRoom());
+      x.await("Other player connected");
+      x.send("4");
+      x.await("Valid move.");
+      o.await("Opponent moved");
+      o.send("0");
+      o.await("Valid move.");
+      x.await("Opponent moved");
+    }
+  }
+
+  // the ids of the running rooms of a server, from its spectator port
+  private static Set<Integer> listRooms(Lobby lobby) throws IOException {
+    try (Socket socket = new Socket("localhost", lobby.getSpectatorPort())) {
+      socket.getOutputStream().write("LIST\n".getBytes(StandardCharsets.US_ASCII));
+      String answer = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII))
+        .readLine();
+      assertNotNull(answer);
+      Set<Integer> rooms = new HashSet<>();
+      String[] words = answer.split(" ");
+      for (int i = 1; i < words.length; i++) {
+        rooms.add(Integer.parseInt(words[i]));
+      }
+      return rooms;
+    }
+  }
+
+  // X takes the middle column, O the left one too late
+  private static void finish(Player x, Player o) throws IOException {
+    x.send("1");
+    x.await("Valid move.");
+    o.await("Opponent moved");
+    o.send("3");
+    o.await("Valid move.");
+    x.await("Opponent moved");
+    x.send("7");
+    x.await("Valid move.");
+    assertEquals("VICTORY", x.readLine());
+    o.await("Opponent moved");
+    assertEquals("7", o.readLine());
+    assertEquals("DEFEAT", o.readLine());
+  }
+
+  @Test
+  public void drainMovesTheRunningGamesAndTheyFinishElsewhere() throws IOException {
+    startGames();
+    Lobby busiest = lobbies.get(0);
+    Set<Integer> rooms = listRooms(busiest);
+    for (Lobby lobby : lobbies) {
+      Set<Integer> other = listRooms(lobby);
+      if (other.size() > rooms.size()) {
+        busiest = lobby;
+        rooms = other;
+      }
+    }
+    assertFalse("no server has a running room", rooms.isEmpty());
+
+    assertEquals(rooms.size(), router.drain("localhost:" + busiest.getPort()));
+    assertEquals(SERVERS - 1, router.getNodes().size());
+
+    int migrated = 0;
+    for (int i = 0; i < players.size(); i += 2) {
+      Player x = players.get(i);
+      Player o = players.get(i + 1);
+      if (rooms.contains(x.getRoom())) {
+        x.awaitClosed();
+        o.awaitClosed();
+        x.resume(router.getReconnectPort(), 2);
+        o.resume(router.getReconnectPort(), 2);
+        migrated++;
+      }
+      finish(x, o);
+    }
+    assertEquals(rooms.size(), migrated);
+  }
+
+  @Test
+  public void addedServerTakesOverItsRooms() throws IOException {
+    Lobby drained = lobbies.get(0);
+    router.drain("localhost:" + drained.getPort());
+    startGames();
+    assertTrue(listRooms(drained).isEmpty());
+
+    router.addNode("localhost", drained.getPort());
+    Set<Integer> rooms = listRooms(drained);
+    assertFalse("the ring gave the returning server no room", rooms.isEmpty());
+    for (int i = 0; i < players.size(); i += 2) {
+      Player x = players.get(i);
+      Player o = players.get(i + 1);
+      if (rooms.contains(x.getRoom())) {
+        x.awaitClosed();
+        o.awaitClosed();
+        x.resume(router.getReconnectPort(), 2);
+        o.resume(router.getReconnectPort(), 2);
+      }
+      finish(x, o);
+    }
+  }
+}
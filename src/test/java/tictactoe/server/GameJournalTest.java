@@ -0,0 +1,141 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static tictactoe.server.GameState.PLAYER_O;
+import static tictactoe.server.GameState.PLAYER_X;
+
+public class GameJournalTest {
+
+  private static final String SESSION_X = "1-00112233445566778899aabbccddeeff";
+  private static final String SESSION_O = "1-ffeeddccbbaa99887766554433221100";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private GameJournal open(Path file) throws IOException {
+    return GameJournal.open(file, GameJournal.Sync.ALWAYS, 10);
+  }
+
+  // room 1 in progress with two moves and sessions, room 2 ended, room 3 won without its end record
+  private Path writeGames() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("games.journal");
+    try (GameJournal journal = open(file)) {
+      journal.roomStarted(1, 3, 3);
+      journal.sessionIssued(1, PLAYER_X, SESSION_X);
+      journal.sessionIssued(1, PLAYER_O, SESSION_O);
+      journal.roomStarted(2, 3, 3);
+      journal.moveMade(1, PLAYER_X, 4);
+      journal.moveMade(2, PLAYER_X, 0);
+      journal.roomEnded(2);
+      journal.roomStarted(3, 3, 3);
+      for (int location : new int[] {0, 3, 1, 4, 2}) {
+        journal.moveMade(3, (location == 3 || location == 4) ? PLAYER_O : PLAYER_X, location);
+      }
+      journal.awaitDurable(journal.moveMade(1, PLAYER_O, 0));
+    }
+    return file;
+  }
+
+  @Test
+  public void replayRebuildsTheRoomsInProgress() throws IOException {
+    try (GameJournal journal = open(writeGames())) {
+      assertEquals(1, journal.getRecovered().size());
+      GameState state = journal.getRecovered().get(1);
+      assertEquals(2, state.getMoveCount());
+      assertEquals(4, state.getMove(0));
+      assertEquals(0, state.getMove(1));
+      assertEquals(PLAYER_X, state.getCurrentPlayer());
+      assertEquals(SESSION_X, journal.getSession(1, PLAYER_X));
+      assertEquals(SESSION_O, journal.getSession(1, PLAYER_O));
+      assertEquals(3, journal.getLastRoomId());
+    }
+  }
+
+  @Test
+  public void tornTailEndsTheReplay() throws IOException {
+    Path file = writeGames();
+    try (GameJournal journal = open(file)) {
+      journal.awaitDurable(journal.moveMade(1, PLAYER_X, 8));
+    }
+    long size = Files.size(file);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(size - GameJournal.RECORD_SIZE / 2); // half of the last move reached the disk
+    }
+    try (GameJournal journal = open(file)) {
+      assertEquals(2, journal.getRecovered().get(1).getMoveCount());
+    }
+  }
+
+  @Test
+  public void damagedRecordEndsTheReplay() throws IOException {
+    Path file = writeGames();
+    try (GameJournal journal = open(file)) {
+      journal.moveMade(1, PLAYER_X, 8);
+      journal.awaitDurable(journal.moveMade(1, PLAYER_O, 2));
+    }
+    long size = Files.size(file);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0x7F}), size - 2 * GameJournal.RECORD_SIZE + 9); // in move 8
+    }
+    try (GameJournal journal = open(file)) {
+      GameState state = journal.getRecovered().get(1);
+      assertEquals(2, state.getMoveCount()); // neither the damaged move nor the one after it
+      assertFalse(state.isOccupied(2));
+    }
+  }
+
+  @Test
+  public void compactionKeepsOnlyTheRoomsInProgress() throws IOException {
+    Path file = writeGames();
+    open(file).close();
+    long records = 1 + 2 * 4 + 2; // start, four records per session, two moves
+    assertEquals(records * GameJournal.RECORD_SIZE, Files.size(file));
+    open(file).close();
+    assertEquals(records * GameJournal.RECORD_SIZE, Files.size(file)); // does not grow across restarts
+    try (GameJournal journal = open(file)) {
+      assertEquals(SESSION_O, journal.getSession(1, PLAYER_O));
+      assertEquals(2, journal.getRecovered().get(1).getMoveCount());
+    }
+  }
+
+  @Test
+  public void endedRoomIsNotCarriedForward() throws IOException {
+    Path file = writeGames();
+    try (GameJournal journal = open(file)) {
+      journal.awaitDurable(journal.roomEnded(1));
+    }
+    try (GameJournal journal = open(file)) {
+      assertTrue(journal.getRecovered().isEmpty());
+    }
+    assertEquals(0, Files.size(file));
+  }
+
+  @Test
+  public void roomWithoutSessionsHasNone() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("computer.journal");
+    try (GameJournal journal = open(file)) {
+      journal.roomStarted(5, 3, 3);
+      journal.sessionIssued(5, PLAYER_X, "5-00112233445566778899aabbccddeeff");
+      journal.awaitDurable(journal.moveMade(5, PLAYER_X, 4));
+    }
+    try (GameJournal journal = open(file)) {
+      assertEquals("5-00112233445566778899aabbccddeeff", journal.getSession(5, PLAYER_X));
+      assertNull(journal.getSession(5, PLAYER_O)); // the computer player
+      assertNull(journal.getSession(6, PLAYER_X));
+    }
+  }
+}
@@ -0,0 +1,94 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HashRingTest {
+
+  private static final int ROOMS = 20_000;
+  private static final String[] NODES = {"localhost:12400", "localhost:12401", "localhost:12402", "localhost:12403"};
+
+  private final HashRing<String> ring = new HashRing<>();
+
+  private void add(int nodes) {
+    for (int i = 0; i < nodes; i++) {
+      ring.add(NODES[i], NODES[i]);
+    }
+  }
+
+  private String[] owners() {
+    String[] owners = new String[ROOMS];
+    for (int room = 0; room < ROOMS; room++) {
+      owners[room] = ring.lookup(room + 1);
+    }
+    return owners;
+  }
+
+  @Test
+  public void emptyRingHasNoOwner() {
+    assertTrue(ring.isEmpty());
+    assertNull(ring.lookup(1));
+    ring.add(NODES[0], NODES[0]);
+    ring.remove(NODES[0]);
+    assertTrue(ring.isEmpty());
+  }
+
+  @Test
+  public void roomsSpreadOverAllServers() {
+    add(4);
+    int[] counts = new int[NODES.length];
+    for (String owner : owners()) {
+      counts[Arrays.asList(NODES).indexOf(owner)]++;
+    }
+    for (int count : counts) {
+      assertTrue("rooms of a server: " + count, count > ROOMS / 8 && count < ROOMS / 2);
+    }
+  }
+
+  @Test
+  public void removingAServerOnlyMovesItsRooms() {
+    add(4);
+    String[] before = owners();
+    ring.remove(NODES[1]);
+    String[] after = owners();
+    for (int room = 0; room < ROOMS; room++) {
+      if (before[room].equals(NODES[1])) {
+        assertNotEquals(NODES[1], after[room]);
+      } else {
+        assertEquals(before[room], after[room]);
+      }
+    }
+  }
+
+  @Test
+  public void addingAServerOnlyTakesRoomsFromTheOthers() {
+    add(3);
+    String[] before = owners();
+    ring.add(NODES[3], NODES[3]);
+    String[] after = owners();
+    int moved = 0;
+    for (int room = 0; room < ROOMS; room++) {
+      if (!before[room].equals(after[room])) {
+        assertEquals(NODES[3], after[room]);
+        moved++;
+      }
+    }
+    assertTrue("rooms moved: " + moved, moved > ROOMS / 8 && moved < ROOMS / 2); // about a quarter
+  }
+
+  @Test
+  public void serverThatComesBackGetsItsRoomsBack() {
+    add(4);
+    String[] before = owners();
+    ring.remove(NODES[2]);
+    ring.add(NODES[2], NODES[2]);
+    assertArrayEquals(before, owners());
+  }
+}
@@ -0,0 +1,143 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class LobbyTest {
+
+  private static final int READ_MILLIS = 10_000; // a test that hangs fails instead
+
+  private GameServer server;
+
+  // a client of the text protocol
+  static final class Client implements Closeable {
+    private final Socket socket;
+    private final BufferedReader reader;
+
+    Client(int port) throws IOException {
+      socket = new Socket("localhost", port);
+      socket.setSoTimeout(READ_MILLIS);
+      reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+    }
+
+    void send(String line) throws IOException {
+      socket.getOutputStream().write((line + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    String readLine() throws IOException {
+      return reader.readLine();
+    }
+
+    // the first line that starts with the prefix
+    String await(String prefix) throws IOException {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(prefix)) {
+          return line;
+        }
+      }
+      fail("Connection closed while waiting for " + prefix);
+      return null;
+    }
+
+    // make a move the server accepts, the other client sees it
+    void move(int location, Client other) throws IOException {
+      send(String.valueOf(location));
+      await("Valid move.");
+      other.await("Opponent moved");
+      assertEquals(String.valueOf(location), other.readLine());
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+
+  // the server under test, listening on a free port
+  GameServer open() throws IOException {
+    return ServerConfig.lobby().setPort(0).open(message -> { });
+  }
+
+  @Before
+  public void start() throws IOException {
+    server = open();
+    Thread thread = new Thread(server::execute, "lobby");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @After
+  public void stop() throws IOException {
+    server.close();
+  }
+
+  // the next two clients become X and O of a room, X is told to move
+  private Client[] pair() throws IOException {
+    Client x = new Client(server.getPort());
+    assertEquals("X", x.readLine());
+    Client o = new Client(server.getPort());
+    assertEquals("O", o.readLine());
+    x.await("Other player connected. Your move.");
+    return new Client[] {x, o};
+  }
+
+  @Test
+  public void pairsPlayInRoomsOfTheirOwn() throws IOException {
+    Client[] first = pair();
+    Client[] second = pair();
+    try (Client x1 = first[0]; Client o1 = first[1]; Client x2 = second[0]; Client o2 = second[1]) {
+      // the same squares in both rooms, X wins the first and the second ends in a tie
+      x1.move(0, o1);
+      x2.move(0, o2);
+      o1.move(3, x1);
+      o2.move(1, x2);
+      x1.move(1, o1);
+      x2.move(2, o2);
+      o1.move(4, x1);
+      o2.move(4, x2);
+      x1.send("2");
+      x1.await("Valid move.");
+      assertEquals("VICTORY", x1.readLine());
+      o1.await("Opponent moved");
+      assertEquals("2", o1.readLine());
+      assertEquals("DEFEAT", o1.readLine());
+
+      for (int[] move : new int[][] {{3, 0}, {5, 1}, {7, 0}, {6, 1}}) {
+        Client mover = move[1] == 0 ? x2 : o2;
+        mover.move(move[0], mover == x2 ? o2 : x2);
+      }
+      x2.send("8");
+      x2.await("Valid move.");
+      assertEquals("TIE", x2.readLine());
+      o2.await("Opponent moved");
+      assertEquals("8", o2.readLine());
+      assertEquals("TIE", o2.readLine());
+    }
+    assertEquals(2, server.getRoomsStarted());
+  }
+
+  @Test
+  public void invalidMovesAreRejected() throws IOException {
+    Client[] pair = pair();
+    try (Client x = pair[0]; Client o = pair[1]) {
+      x.move(4, o);
+      for (String move : new String[] {"4", "9", "-1", "-2", "centre", "9".repeat(100)}) {
+        o.send(move);
+        assertEquals("move " + move, "Invalid move, try again", o.readLine());
+      }
+      o.move(0, x);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MatchmakerTest {
+
+  private final List<String> pairs = Collections.synchronizedList(new ArrayList<>()); // "older-newer"
+  private Matchmaker<String> matchmaker;
+
+  private Matchmaker<String> open(int baseWindow, int widenPerSecond, int maxWindow) {
+    matchmaker = new Matchmaker<>(baseWindow, widenPerSecond, maxWindow,
+      (older, newer) -> pairs.add(older + "-" + newer), new Histogram());
+    return matchmaker;
+  }
+
+  @After
+  public void close() {
+    if (matchmaker != null) {
+      matchmaker.close();
+    }
+  }
+
+  // wait for the sweeper to make a number of pairs
+  private void awaitPairs(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (pairs.size() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, pairs.size());
+  }
+
+  @Test
+  public void pairsWithinTheWindowAtOnce() {
+    open(50, 0, 50);
+    matchmaker.enqueue("a", 1500);
+    assertEquals(1, matchmaker.getWaiting());
+    matchmaker.enqueue("b", 1540);
+    assertEquals(List.of("a-b"), pairs); // on the arriving thread, before enqueue returned
+    assertEquals(0, matchmaker.getWaiting());
+    assertEquals(1, matchmaker.getMatches());
+  }
+
+  @Test
+  public void playersOutsideTheWindowWait() throws InterruptedException {
+    open(50, 0, 50);
+    matchmaker.enqueue("a", 1500);
+    matchmaker.enqueue("b", 1551);
+    Thread.sleep(200); // several sweeps
+    assertTrue(pairs.isEmpty());
+    assertEquals(2, matchmaker.getWaiting());
+  }
+
+  @Test
+  public void nearestBucketIsTriedFirst() {
+    open(70, 0, 70);
+    matchmaker.enqueue("far", 1575);
+    matchmaker.enqueue("near", 1500);
+    assertTrue(pairs.isEmpty());
+    matchmaker.enqueue("new", 1510); // both are within its window, far waited longer
+    assertEquals(List.of("near-new"), pairs);
+  }
+
+  @Test
+  public void windowWidensWithTheWait() throws InterruptedException {
+    open(0, 1000, 400);
+    matchmaker.enqueue("a", 1000);
+    matchmaker.enqueue("b", 1300);
+    matchmaker.enqueue("c", 2000); // beyond the largest window of anybody
+    assertTrue(pairs.isEmpty());
+    awaitPairs(1);
+    assertEquals("a-b", pairs.get(0)); // the older player first
+    Thread.sleep(200);
+    assertEquals(1, matchmaker.getWaiting());
+    assertEquals(400, matchmaker.getWindow(TimeUnit.SECONDS.toNanos(5)));
+  }
+
+  @Test
+  public void cancelledPlayerIsNotMatched() {
+    open(50, 0, 50);
+    Matchmaker.Ticket<String> ticket = matchmaker.enqueue("a", 1500);
+    assertTrue(matchmaker.cancel(ticket));
+    assertFalse(matchmaker.cancel(ticket));
+    matchmaker.enqueue("b", 1500);
+    assertTrue(pairs.isEmpty());
+    assertEquals(List.of("b"), matchmaker.drain());
+  }
+
+  @Test
+  public void concurrentArrivalsAreAllPairedOnce() throws InterruptedException {
+    open(50, 200, 400);
+    int threads = 8;
+    int perThread = 250;
+    CountDownLatch go = new CountDownLatch(1);
+    List<Thread> arrivals = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      int first = t * perThread;
+      Thread thread = new Thread(() -> {
+        try {
+          go.await();
+        } catch (InterruptedException exception) {
+          return;
+        }
+        for (int i = first; i < first + perThread; i++) {
+          matchmaker.enqueue("p" + i, 1200 + i % 7 * 10);
+        }
+      });
+      thread.start();
+      arrivals.add(thread);
+    }
+    go.countDown();
+    for (Thread thread : arrivals) {
+      thread.join();
+    }
+    awaitPairs(threads * perThread / 2);
+    Set<String> matched = new HashSet<>();
+    for (String pair : pairs) {
+      for (String player : pair.split("-")) {
+        assertTrue("matched twice: " + player, matched.add(player));
+      }
+    }
+    assertEquals(threads * perThread, matched.size());
+    assertEquals(0, matchmaker.getWaiting());
+  }
+}
@@ -0,0 +1,12 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.IOException;
+
+public class NioLobbyTest extends LobbyTest {
+
+  @Override
+  GameServer open() throws IOException {
+    return ServerConfig.lobby().setPort(0).setTransport(ServerConfig.Transport.NIO).open(message -> { });
+  }
+}
@@ -0,0 +1,118 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutboxTest {
+
+  private final ServerMetrics metrics = new ServerMetrics(false, () -> 0);
+
+  // a socket stream that counts its writes
+  private static final class CountingStream extends ByteArrayOutputStream {
+    int writes;
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) {
+      writes++;
+      super.write(bytes, offset, length);
+    }
+
+    String text() {
+      return toString(StandardCharsets.US_ASCII);
+    }
+  }
+
+  @Test
+  public void messagesOfAMoveAreOneWrite() {
+    CountingStream socket = new CountingStream();
+    Outbox outbox = new Outbox(socket, metrics);
+    outbox.add("Valid move.\n").add("VICTORY\n");
+    assertEquals(0, socket.writes);
+    outbox.flush();
+    outbox.flush(); // nothing queued
+    assertEquals(1, socket.writes);
+    assertEquals("Valid move.\nVICTORY\n", socket.text());
+  }
+
+  @Test
+  public void framesAndTextShareTheBuffer() {
+    CountingStream socket = new CountingStream();
+    Outbox outbox = new Outbox(socket, metrics);
+    outbox.add("Binary protocol\n");
+    for (int cell = 0; cell < 100; cell++) { // grows the buffer
+      outbox.addFrame(BinaryProtocol.OPPONENT_MOVED, 7, cell, BinaryProtocol.NONE);
+    }
+    outbox.flush();
+    byte[] written = socket.toByteArray();
+    int offset = "Binary protocol\n".length();
+    assertEquals(offset + 100 * BinaryProtocol.FRAME_SIZE, written.length);
+    byte[] frame = new byte[BinaryProtocol.FRAME_SIZE];
+    BinaryProtocol.encode(frame, 0, BinaryProtocol.OPPONENT_MOVED, 7, 99, BinaryProtocol.NONE);
+    byte[] last = new byte[BinaryProtocol.FRAME_SIZE];
+    System.arraycopy(written, written.length - last.length, last, 0, last.length);
+    assertArrayEquals(frame, last);
+  }
+
+  @Test
+  public void failedWriteIsLeftToTheReadingSide() {
+    Outbox outbox = new Outbox(new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("Connection reset");
+      }
+    }, metrics);
+    outbox.add("Opponent moved\n4\n").flush();
+    CountingStream socket = new CountingStream();
+    outbox.redirect(socket);
+    outbox.add("Resumed 1\n").flush();
+    assertEquals("Resumed 1\n", socket.text());
+  }
+
+  @Test
+  public void redirectDropsTheOutputOfTheOldConnection() {
+    CountingStream old = new CountingStream();
+    Outbox outbox = new Outbox(old, metrics);
+    outbox.add("Opponent moved\n4\n");
+    CountingStream socket = new CountingStream();
+    outbox.redirect(socket);
+    outbox.add("Resumed 1\n").flush();
+    assertEquals("", old.text());
+    assertEquals("Resumed 1\n", socket.text());
+  }
+
+  @Test
+  public void lockKeepsTheMessagesOfOneSenderTogether() throws InterruptedException {
+    CountingStream socket = new CountingStream();
+    Outbox outbox = new Outbox(socket, metrics);
+    CountDownLatch waiting = new CountDownLatch(1);
+    CountDownLatch sent = new CountDownLatch(1);
+    outbox.lock();
+    try {
+      outbox.add("Valid move.\n");
+      Thread other = new Thread(() -> {
+        waiting.countDown();
+        outbox.add("Opponent moved\n4\n").flush();
+        sent.countDown();
+      });
+      other.start();
+      assertTrue(waiting.await(5, TimeUnit.SECONDS));
+      assertFalse(sent.await(100, TimeUnit.MILLISECONDS)); // the other sender waits for the lock
+      outbox.add("TIE\n").flush();
+    } finally {
+      outbox.unlock();
+    }
+    assertTrue(sent.await(5, TimeUnit.SECONDS));
+    assertEquals("Valid move.\nTIE\nOpponent moved\n4\n", socket.text());
+  }
+}
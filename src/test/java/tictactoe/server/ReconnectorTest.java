@@ -0,0 +1,112 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectorTest {
+
+  private static final long TIMEOUT_MILLIS = 200;
+
+  private final BlockingQueue<Integer> resumed = new LinkedBlockingQueue<>(); // moves seen by returning clients
+  private final Reconnector.Seat seat = (channel, seen) -> {
+    resumed.add(seen);
+    close(channel);
+  };
+  private final Reconnector reconnector;
+
+  public ReconnectorTest() throws IOException {
+    reconnector = new Reconnector(0, 0, TIMEOUT_MILLIS, new ServerMetrics(false, () -> 0));
+  }
+
+  @After
+  public void stop() throws IOException {
+    reconnector.close();
+  }
+
+  private static void close(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException ioException) {
+      throw new AssertionError(ioException);
+    }
+  }
+
+  // send a command and return the first line of the answer, null if the seat took the connection and closed it
+  private String send(String command) throws IOException {
+    try (Socket socket = new Socket("localhost", reconnector.getPort())) {
+      socket.setSoTimeout(5000);
+      socket.getOutputStream().write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+      return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+    }
+  }
+
+  @Test
+  public void tokenLeadsBackToItsSeat() throws IOException, InterruptedException {
+    String token = reconnector.register(seat, 12);
+    assertEquals(12, Reconnector.roomOf(token));
+    assertEquals("Session " + token + " " + reconnector.getPort() + " " + TIMEOUT_MILLIS + "\n",
+      reconnector.getSessionMessage(token));
+    assertNull(send("RESUME " + token + " 3"));
+    assertEquals(Integer.valueOf(3), resumed.poll(5, TimeUnit.SECONDS));
+    assertNull(send("RESUME " + token + " lost"));
+    assertEquals(Integer.valueOf(-1), resumed.poll(5, TimeUnit.SECONDS)); // asks for a snapshot
+  }
+
+  @Test
+  public void forgedTokenIsRejected() throws IOException {
+    String token = reconnector.register(seat, 12);
+    String forged = token.substring(0, token.length() - 1) + (token.endsWith("0") ? "1" : "0");
+    assertEquals(Reconnector.EXPIRED, send("RESUME " + forged + " 3"));
+    assertEquals(Reconnector.EXPIRED, send("RESUME 13" + token.substring(2) + " 3")); // another room
+    assertEquals(Reconnector.EXPIRED, send("RESUME " + token)); // no moves
+    assertEquals(Reconnector.EXPIRED, send("HELLO " + token + " 3"));
+    assertTrue(resumed.isEmpty());
+  }
+
+  @Test
+  public void tokensAreNotGuessable() {
+    String first = reconnector.register(seat, 1);
+    String second = reconnector.register(seat, 1);
+    assertNotEquals(first, second);
+    assertEquals(2 + 32, first.length()); // the room, a dash and 16 random bytes
+  }
+
+  @Test
+  public void staleTokenIsRejected() throws IOException, InterruptedException {
+    String gone = reconnector.register(seat, 12);
+    reconnector.unregister(gone);
+    assertEquals(Reconnector.EXPIRED, send("RESUME " + gone + " 3"));
+
+    String finished = reconnector.register(seat, 12);
+    reconnector.retire(finished);
+    assertNull(send("RESUME " + finished + " 9")); // kept for a while after the game ended
+    assertEquals(Integer.valueOf(9), resumed.poll(5, TimeUnit.SECONDS));
+    Thread.sleep(2 * TIMEOUT_MILLIS);
+    assertEquals(Reconnector.EXPIRED, send("RESUME " + finished + " 9"));
+    assertTrue(resumed.isEmpty());
+  }
+
+  @Test
+  public void tokenOfAnotherServerCanBeAdopted() throws IOException, InterruptedException {
+    String token = "5-00112233445566778899aabbccddeeff";
+    assertEquals(Reconnector.EXPIRED, send("RESUME " + token + " 2"));
+    reconnector.adopt(token, seat);
+    assertNull(send("RESUME " + token + " 2"));
+    assertEquals(Integer.valueOf(2), resumed.poll(5, TimeUnit.SECONDS));
+  }
+}
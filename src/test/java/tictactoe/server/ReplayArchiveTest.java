@@ -0,0 +1,147 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static tictactoe.server.GameState.PLAYER_O;
+
+public class ReplayArchiveTest {
+
+  private static final long START = 1_700_000_000_000L;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  // a game as the visitor saw it
+  private static final class Game {
+    final int size;
+    final int winLength;
+    final int result;
+    final long started;
+    final long ended;
+    final int[] moves;
+
+    Game(int size, int winLength, int result, long started, long ended, int[] moves) {
+      this.size = size;
+      this.winLength = winLength;
+      this.result = result;
+      this.started = started;
+      this.ended = ended;
+      this.moves = moves;
+    }
+  }
+
+  private Path file() {
+    return folder.getRoot().toPath().resolve("games.replay");
+  }
+
+  private static GameState play(int size, int winLength, int... locations) {
+    GameState state = new GameState(size, winLength);
+    for (int location : locations) {
+      state.move(location);
+    }
+    return state;
+  }
+
+  private static List<Game> readAll(Path file) throws IOException {
+    List<Game> games = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      for (long block : ReplayArchive.findBlocks(channel)) {
+        int end = ReplayArchive.readBlock(buffer, (int) block, (size, winLength, result, started, ended, moves, count)
+          -> games.add(new Game(size, winLength, result, started, ended, Arrays.copyOf(moves, count))));
+        assertTrue("block at " + block + " is intact", end > 0);
+      }
+    }
+    return games;
+  }
+
+  @Test
+  public void gamesRoundTrip() throws IOException {
+    GameState forfeited = play(3, 3, 4);
+    forfeited.forfeit(PLAYER_O);
+    int[] large = {112, 113, 97, 128, 111, 98};
+    try (ReplayArchive archive = ReplayArchive.open(file())) {
+      archive.gameFinished(play(3, 3, 0, 3, 1, 4, 2), START, START + 9_000);
+      archive.gameFinished(play(3, 3, 0, 1, 2, 4, 3, 5, 7, 6, 8), START - 500, START + 20_000);
+      archive.gameFinished(forfeited, START + 1_000, START + 31_000);
+      archive.gameFinished(play(15, 5, 0, 4, 1, 5, 2, 6, 3, 7, 15, 8), START + 2_000, START + 2_000);
+      archive.gameFinished(play(15, 5, large), START + 3_000, START + 60_000);
+    }
+
+    List<Game> games = readAll(file());
+    assertEquals(5, games.size());
+    assertGame(games.get(0), 3, 3, ReplayArchive.X_WON, START, START + 9_000, 0, 3, 1, 4, 2);
+    assertGame(games.get(1), 3, 3, ReplayArchive.TIE, START - 500, START + 20_000, 0, 1, 2, 4, 3, 5, 7, 6, 8);
+    assertGame(games.get(2), 3, 3, ReplayArchive.O_TIMED_OUT, START + 1_000, START + 31_000, 4);
+    assertGame(games.get(3), 15, 5, ReplayArchive.O_WON, START + 2_000, START + 2_000,
+      0, 4, 1, 5, 2, 6, 3, 7, 15, 8);
+    assertGame(games.get(4), 15, 5, ReplayArchive.TIE, START + 3_000, START + 60_000, large);
+  }
+
+  private static void assertGame(Game game, int size, int winLength, int result, long started, long ended,
+      int... moves) {
+    assertEquals(size, game.size);
+    assertEquals(winLength, game.winLength);
+    assertEquals(result, game.result);
+    assertEquals(started, game.started);
+    assertEquals(ended, game.ended);
+    assertArrayEquals(moves, game.moves);
+  }
+
+  @Test
+  public void fullBlocksAreWrittenAndReadInOrder() throws IOException {
+    int count = 10_000;
+    try (ReplayArchive archive = ReplayArchive.open(file())) {
+      for (int i = 0; i < count; i++) {
+        archive.gameFinished(play(3, 3, 0, 3, 1, 4, 2), START + i, START + i + 100);
+      }
+      assertTrue("full blocks are on disk before closing", archive.getGamesWritten() > 0);
+    }
+    try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.READ)) {
+      assertTrue(ReplayArchive.findBlocks(channel).length > 1);
+    }
+    List<Game> games = readAll(file());
+    assertEquals(count, games.size());
+    for (int i = 0; i < count; i++) {
+      assertEquals(START + i, games.get(i).started);
+    }
+  }
+
+  @Test
+  public void openingCutsOffATornBlockAndAppendsAfterTheRest() throws IOException {
+    try (ReplayArchive archive = ReplayArchive.open(file())) {
+      archive.gameFinished(play(3, 3, 0, 3, 1, 4, 2), START, START + 1);
+    }
+    long intact = Files.size(file());
+    try (ReplayArchive archive = ReplayArchive.open(file())) {
+      archive.gameFinished(play(3, 3, 4), START + 1, START + 2);
+    }
+    try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+      channel.truncate(Files.size(file()) - 3);
+    }
+
+    try (ReplayArchive archive = ReplayArchive.open(file())) {
+      assertEquals(intact, Files.size(file()));
+      archive.gameFinished(play(3, 3, 8), START + 3, START + 4);
+    }
+    List<Game> games = readAll(file());
+    assertEquals(2, games.size());
+    assertArrayEquals(new int[] {0, 3, 1, 4, 2}, games.get(0).moves);
+    assertArrayEquals(new int[] {8}, games.get(1).moves);
+  }
+}
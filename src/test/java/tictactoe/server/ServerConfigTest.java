@@ -0,0 +1,59 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.IOException;
+import org.junit.Test;
+import tictactoe.engine.GridBoard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ServerConfigTest {
+
+  // parse the options and return the message of the error they cause
+  private static String rejected(String... args) {
+    try {
+      ServerConfig.lobby().parse(args);
+    } catch (IllegalArgumentException illegalArgumentException) {
+      return illegalArgumentException.getMessage();
+    }
+    throw new AssertionError("Options were accepted");
+  }
+
+  @Test
+  public void sizeAndWinLengthAreAcceptedInAnyOrder() {
+    ServerConfig config = ServerConfig.lobby().parse("--win", "5", "--size", "7");
+    assertEquals(7, config.getBoardSize());
+    assertEquals(5, config.newGameState().getWinLength());
+  }
+
+  @Test
+  public void winLongerThanTheBoardIsRejected() {
+    assertEquals("Win length must be between 1 and the board size 3: 4", rejected("--size", "3", "--win", "4"));
+    assertEquals("Win length must be at least 1: 0", rejected("--win", "0"));
+  }
+
+  @Test
+  public void boardSizeOutOfRangeIsRejected() {
+    int tooLarge = GridBoard.MAX_SIZE + 1;
+    assertEquals("Board size must be between 1 and " + GridBoard.MAX_SIZE + ": " + tooLarge,
+      rejected("--size", String.valueOf(tooLarge)));
+    assertEquals("Board size must be between 1 and " + GridBoard.MAX_SIZE + ": 0", rejected("--size", "0"));
+  }
+
+  @Test
+  public void openRejectsABoardTheWinDoesNotFit() throws IOException {
+    ServerConfig config = ServerConfig.lobby().setPort(0).setWinLength(4);
+    try (GameServer server = config.open(message -> { })) {
+      fail("Opened " + server);
+    } catch (IllegalArgumentException illegalArgumentException) {
+      assertEquals("Win length must be between 1 and the board size 3: 4", illegalArgumentException.getMessage());
+    }
+  }
+
+  @Test
+  public void perfectOpponentOnlyPlaysTheClassicGame() {
+    assertEquals("The perfect opponent only plays the 3×3 game, use parallel or monte_carlo",
+      rejected("--opponent", "perfect", "--size", "4"));
+  }
+}
@@ -0,0 +1,130 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static tictactoe.server.GameState.PLAYER_O;
+import static tictactoe.server.GameState.PLAYER_X;
+
+public class SpectatorHubTest {
+
+  private static final int READ_MILLIS = 10_000; // a test that hangs fails instead
+
+  private final ServerMetrics metrics = new ServerMetrics(false, () -> 0);
+  private final SpectatorHub hub;
+
+  public SpectatorHubTest() throws IOException {
+    hub = new SpectatorHub(0, metrics);
+  }
+
+  @After
+  public void close() throws IOException {
+    hub.close();
+  }
+
+  private Socket watch(int room, int receiveBuffer) throws IOException {
+    Socket socket = new Socket();
+    if (receiveBuffer > 0) {
+      socket.setReceiveBufferSize(receiveBuffer); // before connecting, so the window stays small
+    }
+    socket.connect(new InetSocketAddress("localhost", hub.getPort()));
+    socket.setSoTimeout(READ_MILLIS);
+    socket.getOutputStream().write(("WATCH " + room + "\n").getBytes(StandardCharsets.US_ASCII));
+    return socket;
+  }
+
+  private static BufferedReader reader(Socket socket) throws IOException {
+    return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+  }
+
+  // the board as seen by a spectator: the last snapshot and the moves after it, up to the end of the stream
+  private static char[] replay(BufferedReader reader, List<String> results, int[] snapshots) throws IOException {
+    char[] cells = null;
+    int moves = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      String[] words = line.split(" ");
+      if (words[0].equals("Snapshot")) {
+        snapshots[0]++;
+        moves = Integer.parseInt(words[1]);
+        cells = words[2].toCharArray();
+      } else if (words[0].equals("Moved")) {
+        assertEquals("moves follow the snapshot in order", ++moves, Integer.parseInt(words[1]));
+        cells[Integer.parseInt(words[3])] = words[2].charAt(0);
+      } else if (words[0].equals("Result")) {
+        results.add(words[1]);
+      }
+    }
+    return cells;
+  }
+
+  @Test
+  public void spectatorSeesEveryMoveAndTheResult() throws IOException {
+    hub.roomStarted(1, 3, 3);
+    hub.moved(1, PLAYER_X, 4, BinaryProtocol.NONE);
+    try (Socket socket = watch(1, 0)) {
+      BufferedReader reader = reader(socket);
+      assertEquals("Board 3 3", reader.readLine());
+      assertEquals("Snapshot 1 ....X....", reader.readLine());
+      hub.moved(1, PLAYER_O, 0, BinaryProtocol.NONE);
+      hub.moved(1, PLAYER_X, 2, BinaryProtocol.NONE);
+      hub.timedOut(1, PLAYER_O);
+      assertEquals("Moved 2 O 0", reader.readLine());
+      assertEquals("Moved 3 X 2", reader.readLine());
+      assertEquals("Result X", reader.readLine());
+      assertEquals(null, reader.readLine());
+    }
+    assertEquals(0, metrics.getResyncs());
+  }
+
+  @Test
+  public void slowSpectatorIsResynchronizedWithASnapshot() throws IOException, InterruptedException {
+    int size = 200;
+    int moves = 4000;
+    hub.roomStarted(1, size, 5);
+    try (Socket socket = watch(1, 1024)) {
+      BufferedReader reader = reader(socket);
+      assertEquals("Board " + size + " 5", reader.readLine()); // the hub has the spectator, which stops reading
+      char[] expected = new char[size * size];
+      Arrays.fill(expected, '.');
+      for (int i = 0; i < moves; i++) {
+        int location = i * 7 % expected.length;
+        hub.moved(1, i % 2, location, BinaryProtocol.NONE);
+        expected[location] = GameState.MARKS[i % 2].charAt(0);
+      }
+      for (int i = 0; i < 1000 && metrics.getResyncs() == 0; i++) {
+        Thread.sleep(10);
+      }
+      assertTrue("the spectator fell behind", metrics.getResyncs() > 0);
+      hub.roomEnded(1);
+
+      List<String> results = new ArrayList<>();
+      int[] snapshots = new int[1];
+      assertArrayEquals(expected, replay(reader, results, snapshots));
+      assertTrue("a snapshot replaced the dropped moves", snapshots[0] >= 2);
+      assertEquals(List.of("ABANDONED"), results);
+    }
+  }
+
+  @Test
+  public void unknownRoomIsAnswered() throws IOException {
+    try (Socket socket = watch(7, 0)) {
+      BufferedReader reader = reader(socket);
+      assertEquals("No such room", reader.readLine());
+      assertEquals(null, reader.readLine());
+    }
+  }
+}
@@ -0,0 +1,106 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+  private static final long TICK = 1_000_000; // one millisecond
+  private static final int BUCKETS = 8; // one turn of the wheel is 8 ticks
+
+  private final TimerWheel wheel = new TimerWheel(TICK, BUCKETS);
+  private final long start = System.nanoTime(); // not before the origin of the wheel
+  private final List<Long> runs = new ArrayList<>(); // times the tasks were run with
+
+  private TimerWheel.Timeout timeout() {
+    return new TimerWheel.Timeout(runs::add);
+  }
+
+  @Test
+  public void runsOnceTheDeadlinePassedAndNotBefore() {
+    TimerWheel.Timeout timeout = timeout();
+    wheel.schedule(timeout, start + 5 * TICK);
+    assertEquals(0, wheel.advance(start + 4 * TICK));
+    assertTrue(timeout.isScheduled());
+    assertEquals(1, wheel.advance(start + 7 * TICK));
+    assertEquals(List.of(start + 7 * TICK), runs);
+    assertFalse(timeout.isScheduled());
+    assertEquals(0, wheel.size());
+    assertEquals(-1, wheel.nanosToNextTick(start + 7 * TICK));
+  }
+
+  @Test
+  public void cancelledTimeoutDoesNotRun() {
+    TimerWheel.Timeout timeout = timeout();
+    wheel.schedule(timeout, start + 2 * TICK);
+    wheel.cancel(timeout);
+    wheel.cancel(timeout); // twice does nothing
+    assertEquals(0, wheel.advance(start + 10 * TICK));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void scheduleAgainMovesTheDeadline() {
+    TimerWheel.Timeout timeout = timeout();
+    wheel.schedule(timeout, start + 2 * TICK);
+    wheel.schedule(timeout, start + 6 * TICK);
+    assertEquals(1, wheel.size());
+    assertEquals(0, wheel.advance(start + 4 * TICK));
+    assertEquals(1, wheel.advance(start + 8 * TICK));
+  }
+
+  @Test
+  public void deadlineBeyondOneTurnWaitsForItsTurn() {
+    TimerWheel.Timeout timeout = timeout();
+    wheel.schedule(timeout, start + 3 * BUCKETS * TICK + 2 * TICK);
+    for (long now = start; now < start + 3 * BUCKETS * TICK; now += TICK) {
+      assertEquals(0, wheel.advance(now)); // passes its bucket twice
+    }
+    assertEquals(1, wheel.advance(start + 3 * BUCKETS * TICK + 4 * TICK));
+  }
+
+  @Test
+  public void oneLongAdvanceRunsEverythingThatPassed() {
+    for (int i = 0; i < 100; i++) {
+      wheel.schedule(timeout(), start + i * TICK);
+    }
+    wheel.schedule(timeout(), start + 1000 * TICK);
+    assertEquals(100, wheel.advance(start + 200 * TICK));
+    assertEquals(1, wheel.size());
+  }
+
+  @Test
+  public void passedDeadlineRunsWithTheNextAdvance() {
+    wheel.advance(start + 10 * TICK);
+    wheel.schedule(timeout(), start);
+    assertEquals(1, wheel.advance(start + 12 * TICK));
+  }
+
+  @Test
+  public void taskMayRescheduleItselfAndCancelOthers() {
+    TimerWheel.Timeout other = new TimerWheel.Timeout(now -> runs.add(-1L));
+    TimerWheel.Timeout[] repeating = new TimerWheel.Timeout[1];
+    repeating[0] = new TimerWheel.Timeout(now -> {
+      runs.add(now);
+      wheel.cancel(other);
+      if (runs.size() < 3) {
+        wheel.schedule(repeating[0], now + TICK);
+      }
+    });
+    wheel.schedule(other, start + 2 * TICK);
+    wheel.schedule(repeating[0], start + 2 * TICK); // same bucket, ahead of the other
+    for (long now = start; now <= start + 10 * TICK; now += TICK) {
+      wheel.advance(now);
+    }
+    assertEquals(3, runs.size());
+    assertFalse(runs.contains(-1L));
+    assertFalse(other.isScheduled());
+    assertEquals(0, wheel.size());
+  }
+}
@@ -0,0 +1,142 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.server;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static tictactoe.server.GameState.PLAYER_O;
+import static tictactoe.server.GameState.PLAYER_X;
+
+public class TurnStateTest {
+
+  private static final long TIMEOUT_SECONDS = 10; // a waiting player that is not woken fails the test
+
+  private final TurnState turns = new TurnState();
+
+  // wait for the turn of a player on a thread of its own
+  private FutureTask<Boolean> claimLater(int player) {
+    FutureTask<Boolean> claim = new FutureTask<>(() -> turns.claim(player));
+    new Thread(claim, "player-" + player).start();
+    return claim;
+  }
+
+  @Test
+  public void xMovesFirstAndPassingHandsOverTheTurn() {
+    assertEquals(TurnState.WAITING, turns.getStatus());
+    turns.start();
+    assertTrue(turns.claim(PLAYER_X));
+    turns.pass(PLAYER_X, false);
+    assertEquals(PLAYER_O, turns.getSideToMove());
+    assertEquals(1, turns.getMoves());
+    assertTrue(turns.claim(PLAYER_O));
+    turns.pass(PLAYER_O, true);
+    assertEquals(TurnState.OVER, turns.getStatus());
+    assertFalse(turns.awaitTurn(PLAYER_X));
+    assertFalse(turns.claim(PLAYER_O));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void passWithoutTheTurnFails() {
+    turns.start();
+    turns.pass(PLAYER_O, false);
+  }
+
+  @Test
+  public void claimedTurnCannotBeSeized() {
+    turns.start();
+    assertTrue(turns.claim(PLAYER_X));
+    assertFalse(turns.seize(PLAYER_X, 0));
+    turns.release(PLAYER_X);
+    assertTrue(turns.seize(PLAYER_X, 0));
+    turns.forfeit(PLAYER_X); // the timer decided
+    assertEquals(TurnState.OVER, turns.getStatus());
+  }
+
+  @Test
+  public void seizeNeedsTheSameTurn() {
+    turns.start();
+    assertTrue(turns.claim(PLAYER_X));
+    turns.pass(PLAYER_X, false);
+    assertFalse(turns.seize(PLAYER_X, 0)); // no longer X to move
+    assertFalse(turns.seize(PLAYER_O, 0)); // a move was made since its time started
+    assertTrue(turns.seize(PLAYER_O, 1));
+    turns.forfeit(PLAYER_O);
+    assertEquals(TurnState.OVER, turns.getStatus());
+    assertFalse(turns.claim(PLAYER_O));
+  }
+
+  @Test
+  public void passWakesTheWaitingPlayer() throws Exception {
+    turns.start();
+    FutureTask<Boolean> claimO = claimLater(PLAYER_O);
+    assertTrue(turns.claim(PLAYER_X));
+    turns.pass(PLAYER_X, false);
+    assertTrue(claimO.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void abandonWakesBothPlayers() throws Exception {
+    FutureTask<Boolean> claimX = claimLater(PLAYER_X);
+    FutureTask<Boolean> claimO = claimLater(PLAYER_O);
+    turns.abandon();
+    assertFalse(claimX.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertFalse(claimO.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(TurnState.ABANDONED, turns.getStatus());
+    assertFalse(turns.awaitStart(PLAYER_X));
+  }
+
+  @Test
+  public void abandonKeepsAFinishedGame() {
+    turns.start();
+    assertTrue(turns.claim(PLAYER_X));
+    turns.pass(PLAYER_X, true);
+    turns.abandon();
+    assertEquals(TurnState.OVER, turns.getStatus());
+  }
+
+  @Test
+  public void releaseAfterAFrozenTurnLetsThePlayerGoOn() throws Exception {
+    turns.start();
+    assertTrue(turns.seize(PLAYER_X, 0)); // a room frozen to move to another server
+    FutureTask<Boolean> claimX = claimLater(PLAYER_X);
+    turns.release(PLAYER_X);
+    assertTrue(claimX.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void startAtContinuesWithTheSideToMove() {
+    turns.startAt(3);
+    assertEquals(TurnState.PLAYING, turns.getStatus());
+    assertEquals(PLAYER_O, turns.getSideToMove());
+    assertEquals(3, turns.getMoves());
+    assertTrue(turns.claim(PLAYER_O));
+  }
+
+  @Test
+  public void twoThreadsAlternateEveryMove() throws Exception {
+    int moves = 20_000;
+    turns.start();
+    FutureTask<Boolean> playerO = new FutureTask<>(() -> {
+      for (int i = 1; i < moves; i += 2) {
+        if (!turns.claim(PLAYER_O)) {
+          return false;
+        }
+        turns.pass(PLAYER_O, i == moves - 1);
+      }
+      return true;
+    });
+    new Thread(playerO, "player-O").start();
+    for (int i = 0; i < moves; i += 2) {
+      assertTrue(turns.claim(PLAYER_X));
+      assertEquals(i, turns.getMoves());
+      turns.pass(PLAYER_X, false);
+    }
+    assertTrue(playerO.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(moves, turns.getMoves());
+    assertEquals(TurnState.OVER, turns.getStatus());
+  }
+}
@@ -0,0 +1,68 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.util.Arrays;
+import java.util.Random;
+import tictactoe.engine.BitBoard;
+import tictactoe.engine.PerfectPlayer;
+import tictactoe.engine.Strategy;
+
+/**
+ * Measures how fast a computer player replies. Plays random opponents against the player, first with an empty
+ * transposition table and then with a warm one, and reports reply latency, positions searched per second and the
+ * table hit rate.
+ *
+ * Usage: {@code AiBenchmark [games]}, default 100000 games per phase.
+ */
+public class AiBenchmark {
+
+  public static void main(String[] args) {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+    PerfectPlayer.clearTable();
+    run("cold", games, 1);
+    run("warm", games, 2);
+  }
+
+  private static void run(String phase, int games, long seed) {
+    PerfectPlayer player = new PerfectPlayer();
+    Random random = new Random(seed);
+    BitBoard board = new BitBoard();
+    long[] replies = new long[games * 5];
+    int count = 0;
+
+    long start = System.nanoTime();
+    for (int g = 0; g < games; g++) {
+      board.reset();
+      int computer = g % 2; // take turns being X and O
+      while (!board.isGameOver()) {
+        int location;
+        if (board.getCurrentPlayer() == computer) {
+          long t = System.nanoTime();
+          location = player.chooseMove(board);
+          replies[count++] = System.nanoTime() - t;
+        } else {
+          location = randomMove(board, random);
+        }
+        board.move(location);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+
+    long[] sorted = Arrays.copyOf(replies, count);
+    Arrays.sort(sorted);
+    System.out.printf("%s: %d replies, p50 %.2f us, p99 %.2f us, max %.1f us%n", phase, count,
+      sorted[count / 2] / 1e3, sorted[(int) (count * 0.99)] / 1e3, sorted[count - 1] / 1e3);
+    System.out.printf("%s: %d positions, %.1f M positions/s, table hit rate %.1f%% (%d of %d)%n", phase,
+      player.getNodes(), player.getNodes() / (elapsed / 1e3),
+      100.0 * player.getHits() / Math.max(1, player.getProbes()), player.getHits(), player.getProbes());
+  }
+
+  static int randomMove(BitBoard board, Random random) {
+    int location;
+    do {
+      location = random.nextInt(BitBoard.SQUARES);
+    } while (!board.isValidMove(location));
+    return location;
+  }
+}
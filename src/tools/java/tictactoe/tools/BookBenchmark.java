@@ -0,0 +1,72 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import tictactoe.engine.BitBoard;
+import tictactoe.engine.OpeningBook;
+import tictactoe.engine.PerfectPlayer;
+import tictactoe.engine.Strategy;
+
+/**
+ * Compares replies looked up in the memory-mapped {@link OpeningBook} with replies computed live by the
+ * {@link PerfectPlayer}. Reports the time to generate and map the book and the latency of a reply in random games.
+ *
+ * Usage: {@code BookBenchmark [games]}, default 100000 games.
+ */
+public class BookBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    Path file = Files.createTempFile("tictactoe", ".book");
+
+    try {
+      long start = System.nanoTime();
+      OpeningBook.generate(file);
+      long generated = System.nanoTime();
+      OpeningBook book = OpeningBook.load(file);
+      long loaded = System.nanoTime();
+      book.bestMove(0, 0); // touch the mapped page
+      long touched = System.nanoTime();
+      System.out.printf("generate %.1f ms, map %.3f ms, first lookup %.3f ms, %d positions%n",
+        (generated - start) / 1e6, (loaded - generated) / 1e6, (touched - loaded) / 1e6, book.getPositions());
+
+      PerfectPlayer.clearTable();
+      measure("live, cold table", new PerfectPlayer(), games);
+      measure("live, warm table", new PerfectPlayer(), games);
+      measure("book", book, games);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private static void measure(String name, Strategy strategy, int games) {
+    Random random = new Random(7);
+    BitBoard board = new BitBoard();
+    long[] replies = new long[games * 5];
+    int count = 0;
+
+    for (int g = 0; g < games; g++) {
+      board.reset();
+      int computer = g % 2;
+      while (!board.isGameOver()) {
+        int location;
+        if (board.getCurrentPlayer() == computer) {
+          long t = System.nanoTime();
+          location = strategy.chooseMove(board);
+          replies[count++] = System.nanoTime() - t;
+        } else {
+          location = AiBenchmark.randomMove(board, random);
+        }
+        board.move(location);
+      }
+    }
+
+    long[] sorted = Arrays.copyOf(replies, count);
+    Arrays.sort(sorted);
+    System.out.printf("%s: %d replies, mean %.0f ns, p50 %d ns, p99 %d ns, max %d ns%n", name, count,
+      Arrays.stream(sorted).average().orElse(0), sorted[count / 2], sorted[(int) (count * 0.99)], sorted[count - 1]);
+  }
+}
@@ -0,0 +1,126 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import tictactoe.HeadlessServer;
+import tictactoe.server.ClusterRouter;
+import tictactoe.server.ExecutionMode;
+
+/**
+ * Several servers behind a {@link ClusterRouter} on loopback, each a {@link HeadlessServer} in a JVM of its own, with
+ * the {@link LoadGenerator} playing against the router. The bots think before every move, so games are running when,
+ * a second after they started, the first server drains: its running games move to the others and their players come
+ * back through the router. A second later it joins again and takes over the rooms the ring gives back to it. The
+ * rooms listed through the spectator port of the router should come from all servers.
+ *
+ * The test fails, with exit status 1, if no room moved or the load generator reports errors, which include every
+ * game that did not end after it moved.
+ *
+ * Usage: {@code ClusterTest [servers] [bots] [games per bot] [percent of moves that drop the connection]
+ * [milliseconds a bot thinks]}, by default 3 servers and 50 bots playing 10 games each without drops, thinking
+ * 50 ms before each move, so that about 25 games of half a second each are running at any time.
+ */
+public class ClusterTest {
+
+  private static final int PAUSE_MILLIS = 1000; // between the start of the bots, the drain and the return
+
+  public static void main(String[] args) throws Exception {
+    int servers = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+    int bots = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+    int gamesPerBot = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    int dropPercent = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+    long thinkMillis = args.length > 4 ? Long.parseLong(args[4]) : 50;
+
+    List<Process> processes = new ArrayList<>();
+    int moved;
+    long errors;
+    try (ClusterRouter router = new ClusterRouter(0, 0, 0, ExecutionMode.PLATFORM)) {
+      List<Integer> ports = new ArrayList<>();
+      for (int i = 0; i < servers; i++) {
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+          "-cp", System.getProperty("java.class.path"), HeadlessServer.class.getName(), "--port", "0", "--routed",
+          "true", "--spectator-port", "0", "--public-reconnect-port", String.valueOf(router.getReconnectPort()))
+          .redirectErrorStream(true).start();
+        processes.add(process);
+        ports.add(awaitListening(process));
+      }
+      for (int port : ports) {
+        System.out.println("Added " + router.addNode("localhost", port));
+      }
+
+      FutureTask<Long> load = new FutureTask<>(() -> new LoadGenerator("localhost", router.getPort(), false, false,
+        dropPercent, 0, thinkMillis).run(bots, gamesPerBot, ExecutionMode.PLATFORM));
+      new Thread(load, "load").start();
+
+      Thread.sleep(PAUSE_MILLIS);
+      System.out.println(list(router));
+      String first = "localhost:" + ports.get(0);
+      long start = System.nanoTime();
+      moved = router.drain(first);
+      System.out.printf("Drained %s: %d rooms moved in %.1f ms%n", first, moved, (System.nanoTime() - start) / 1e6);
+      System.out.println(list(router));
+
+      Thread.sleep(PAUSE_MILLIS);
+      start = System.nanoTime();
+      router.addNode("localhost", ports.get(0));
+      System.out.printf("Added %s again in %.1f ms%n", first, (System.nanoTime() - start) / 1e6);
+      errors = load.get();
+    } finally {
+      for (Process process : processes) {
+        process.destroy();
+      }
+    }
+    if (moved == 0) {
+      System.out.println("No room moved, the bots had no game running on the drained server");
+    }
+    if (errors > 0) {
+      System.out.println(errors + " errors, games that moved may not have ended");
+    }
+    boolean passed = moved > 0 && errors == 0;
+    System.out.println(passed ? "PASSED" : "FAILED");
+    System.exit(passed ? 0 : 1);
+  }
+
+  // the port of a server from its first line of output, whose other output is then discarded
+  private static int awaitListening(Process process) throws IOException {
+    BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(),
+      StandardCharsets.UTF_8));
+    String line;
+    while ((line = output.readLine()) != null) {
+      if (line.startsWith("Server listening on port ")) {
+        Thread drain = new Thread(() -> {
+          try {
+            while (output.readLine() != null) {
+              // keeps the pipe of the server from filling up
+            }
+          } catch (IOException ioException) {
+            // the server stopped
+          }
+        }, "server-output");
+        drain.setDaemon(true);
+        drain.start();
+        return Integer.parseInt(line.substring("Server listening on port ".length()).split(" ")[0]);
+      }
+      System.out.println(line);
+    }
+    throw new IOException("Server stopped before it listened");
+  }
+
+  // the rooms of all servers, asked through the spectator port of the router
+  private static String list(ClusterRouter router) throws IOException {
+    try (Socket socket = new Socket("localhost", router.getSpectatorPort())) {
+      socket.getOutputStream().write("LIST\n".getBytes(StandardCharsets.US_ASCII));
+      String answer = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII))
+        .readLine();
+      return answer == null ? "No rooms" : answer;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import tictactoe.server.ExecutionMode;
+import tictactoe.server.GameJournal;
+import tictactoe.server.Histogram;
+
+/**
+ * Journaled moves per second for each {@link GameJournal.Sync} policy. Every thread plays the part of a room: it
+ * starts a game, journals nine moves and waits for each one the way the servers do before answering it, then ends
+ * the game and starts the next. The report shows how many records the group commit put into one write and one fsync,
+ * and the time a move waited for the journal. Finally it times the replay of a journal with many games in progress.
+ *
+ * Usage: {@code JournalBenchmark [threads] [seconds per policy] [directory]}, default 64 threads, 3 seconds and the
+ * temporary directory. The directory should be on the disk the server would use.
+ */
+public class JournalBenchmark {
+
+  private static final int MOVES = 9; // moves journaled per game
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    Path directory = args.length > 2 ? Paths.get(args[2]) : Paths.get(System.getProperty("java.io.tmpdir"));
+
+    for (GameJournal.Sync sync : GameJournal.Sync.values()) {
+      run(Files.createTempFile(directory, "journal", ".bin"), sync, threads, seconds);
+    }
+    replay(Files.createTempFile(directory, "journal", ".bin"), 100_000);
+  }
+
+  // journal games from all threads for the given time with one policy
+  private static void run(Path file, GameJournal.Sync sync, int threads, int seconds) throws Exception {
+    Histogram wait = new Histogram(); // nanoseconds a move waited until it was durable
+    LongAdder moves = new LongAdder();
+    ExecutorService executor = ExecutionMode.PLATFORM.newExecutor(threads);
+    CountDownLatch done = new CountDownLatch(threads);
+    long end;
+    long start;
+    try (GameJournal journal = GameJournal.open(file, sync, 100)) {
+      start = System.nanoTime();
+      end = start + TimeUnit.SECONDS.toNanos(seconds);
+      for (int t = 0; t < threads; t++) {
+        int first = t * 1_000_000; // room ids of this thread
+        executor.execute(() -> {
+          try {
+            for (int room = first; System.nanoTime() < end; room++) {
+              journal.roomStarted(room, 3, 3);
+              for (int m = 0; m < MOVES; m++) {
+                long time = System.nanoTime();
+                journal.awaitDurable(journal.moveMade(room, m & 1, m));
+                wait.record(System.nanoTime() - time);
+              }
+              journal.roomEnded(room);
+              moves.add(MOVES);
+            }
+          } finally {
+            done.countDown();
+          }
+        });
+      }
+      done.await();
+      double elapsed = (System.nanoTime() - start) / 1e9;
+      long records = moves.sum() / MOVES * (MOVES + 2);
+      System.out.printf("%-8s %9.0f moves/s, %6.1f records per write, %8.1f records per fsync, wait us p50 %.1f "
+        + "p99 %.1f%n", sync, moves.sum() / elapsed, records / (double) Math.max(1, journal.getBatches()),
+        journal.getForces() == 0 ? 0.0 : records / (double) journal.getForces(), wait.getPercentile(0.50) / 1e3,
+        wait.getPercentile(0.99) / 1e3);
+    } finally {
+      executor.shutdown();
+      Files.deleteIfExists(file);
+    }
+  }
+
+  // write a journal with many games in progress and time opening it again
+  private static void replay(Path file, int games) throws IOException {
+    try (GameJournal journal = GameJournal.open(file, GameJournal.Sync.NONE, 100)) {
+      for (int room = 1; room <= games; room++) {
+        journal.roomStarted(room, 3, 3);
+        for (int m = 0; m < 4; m++) {
+          journal.moveMade(room, m & 1, m);
+        }
+        if (room % 2 == 0) {
+          journal.roomEnded(room);
+        }
+      }
+    }
+    long size = Files.size(file);
+    long start = System.nanoTime();
+    try (GameJournal journal = GameJournal.open(file, GameJournal.Sync.NONE, 100)) {
+      double millis = (System.nanoTime() - start) / 1e6;
+      System.out.printf("replayed %d records in %.1f ms, %d games in progress recovered%n",
+        size / GameJournal.RECORD_SIZE, millis, journal.getRecovered().size());
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
@@ -0,0 +1,317 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import tictactoe.GameClient;
+import tictactoe.server.BinaryProtocol;
+import tictactoe.server.ExecutionMode;
+import tictactoe.server.GameServer;
+import tictactoe.server.Histogram;
+import tictactoe.server.ServerConfig;
+import tictactoe.server.ServerMetrics;
+
+/**
+ * Headless bots that play against a server, for load tests from a single JVM. Every bot is a {@link GameClient}, so
+ * it speaks the protocol exactly like the {@code TicTacToeClient} window, and plays games one after the other on
+ * its own thread, a virtual thread with {@code --threads virtual}. The bots take their games from a shared count, so
+ * a bot that falls behind is never left at the end with games nobody else can play against it. The report has games
+ * per second, the latency from sending a move until the server confirmed it, and the errors.
+ *
+ * Options, each with a value: {@code --host} (default localhost), {@code --port} (default 12345), {@code --bots}
+ * (default 100), {@code --games} per bot (default 10), {@code --moves random|scripted} (scripted takes the first free
+ * square), {@code --threads platform|virtual}, {@code --binary true|false}, {@code --drop} (percent of moves after
+ * which the bot drops its connection and resumes the game, default 0), {@code --think} (milliseconds a bot waits
+ * before each move, default 0, so that games stay open long enough to watch or move them) and
+ * {@code --server blocking|nio}, which starts
+ * an in-process lobby on a free port instead of connecting to a running server, keeping seats for 10 seconds if bots
+ * drop connections. With {@code --names} (default 0) every game is played under one of that many player names, for a
+ * server with {@code --matchmaking true}, which {@code --server} then turns on. The number of bots times games
+ * should be even, or the last bot waits for a partner forever.
+ */
+public class LoadGenerator {
+
+  private final String host;
+  private final int port;
+  private final boolean scripted; // whether to take the first free square instead of a random one
+  private final boolean binary; // whether the bots ask for the binary protocol
+  private final int dropPercent; // moves after which a bot drops its connection, in percent
+  private final int names; // player names the games are played under, 0 to play anonymously
+  private final long thinkMillis; // time a bot waits before each move
+  private final Histogram latency = new Histogram(); // nanoseconds from sending a move until it was confirmed
+  private final LongAdder games = new LongAdder(); // games played to the end, counted by player X
+  private final LongAdder moves = new LongAdder(); // moves confirmed by the server
+  private final LongAdder invalidMoves = new LongAdder(); // moves the server rejected
+  private final LongAdder errors = new LongAdder(); // failed connections and games that did not end
+  private final LongAdder drops = new LongAdder(); // connections dropped on purpose
+  private final LongAdder resumes = new LongAdder(); // games continued on a new connection
+
+  LoadGenerator(String host, int port, boolean scripted, boolean binary, int dropPercent, int names,
+      long thinkMillis) {
+    this.host = host;
+    this.port = port;
+    this.scripted = scripted;
+    this.binary = binary;
+    this.dropPercent = dropPercent;
+    this.names = names;
+    this.thinkMillis = thinkMillis;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String host = "localhost";
+    int port = ServerConfig.DEFAULT_PORT;
+    int bots = 100;
+    int gamesPerBot = 10;
+    boolean scripted = false;
+    ExecutionMode mode = ExecutionMode.PLATFORM;
+    boolean binary = false;
+    int dropPercent = 0;
+    int names = 0;
+    long thinkMillis = 0;
+    ServerConfig.Transport server = null;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "--host":
+          host = value;
+          break;
+        case "--port":
+          port = Integer.parseInt(value);
+          break;
+        case "--bots":
+          bots = Integer.parseInt(value);
+          break;
+        case "--games":
+          gamesPerBot = Integer.parseInt(value);
+          break;
+        case "--moves":
+          scripted = value.equalsIgnoreCase("scripted");
+          break;
+        case "--threads":
+          mode = ExecutionMode.parse(value);
+          break;
+        case "--binary":
+          binary = Boolean.parseBoolean(value);
+          break;
+        case "--drop":
+          dropPercent = Integer.parseInt(value);
+          break;
+        case "--names":
+          names = Integer.parseInt(value);
+          break;
+        case "--think":
+          thinkMillis = Long.parseLong(value);
+          break;
+        case "--server":
+          server = ServerConfig.Transport.valueOf(value.toUpperCase(Locale.ROOT));
+          break;
+        default:
+          System.out.println("Unknown option " + args[i]);
+          return;
+      }
+    }
+
+    if (server == null) {
+      new LoadGenerator(host, port, scripted, binary, dropPercent, names, thinkMillis).run(bots, gamesPerBot, mode);
+      return;
+    }
+    try (GameServer lobby = ServerConfig.lobby().setPort(0).setTransport(server).setExecutionMode(mode)
+      .setReconnectMillis(dropPercent > 0 ? 10_000 : 0).setMatchmaking(names > 0).open(message -> { })) {
+      Thread acceptor = new Thread(lobby::execute, "lobby");
+      acceptor.setDaemon(true);
+      acceptor.start();
+      new LoadGenerator("localhost", lobby.getPort(), scripted, binary, dropPercent, names, thinkMillis)
+        .run(bots, gamesPerBot, mode);
+      if (names > 0) {
+        ServerMetrics metrics = lobby.getMetrics();
+        System.out.printf("%d matches, waited ms: p50 %.1f, p99 %.1f%n", metrics.getMatches(),
+          metrics.getMatchWaitP50Millis(), metrics.getMatchWaitP99Millis());
+      }
+    }
+  }
+
+  /**
+   * Let the bots play and print the report.
+   *
+   * @param bots The number of bots playing at the same time.
+   * @param gamesPerBot The games each bot plays on average, one after the other.
+   * @param mode The kind of thread of each bot.
+   * @return The errors, failed connections and games that did not end, 0 if every game was played to its end.
+   * @throws InterruptedException If interrupted while waiting for the bots.
+   */
+  long run(int bots, int gamesPerBot, ExecutionMode mode) throws InterruptedException {
+    ExecutorService threads = mode.newExecutor(0);
+    CountDownLatch done = new CountDownLatch(bots);
+    AtomicInteger left = new AtomicInteger(bots * gamesPerBot); // connections still to make, two per game
+    long start = System.nanoTime();
+    for (int b = 0; b < bots; b++) {
+      threads.execute(() -> {
+        try {
+          while (left.getAndDecrement() > 0) {
+            Bot bot = new Bot();
+            if (names > 0) {
+              bot.setPlayerName("bot" + ThreadLocalRandom.current().nextInt(names));
+            }
+            try {
+              bot.connect();
+            } catch (IOException ioException) {
+              errors.increment();
+              continue;
+            }
+            bot.run(); // plays the game on this thread
+          }
+        } finally {
+          done.countDown();
+        }
+      });
+    }
+    done.await();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    threads.shutdown();
+    threads.awaitTermination(1, TimeUnit.MINUTES);
+
+    System.out.printf("%d bots, %d games in %.1f s: %.0f games/s, %.0f moves/s%n", bots, games.sum(), seconds,
+      games.sum() / seconds, moves.sum() / seconds);
+    System.out.printf("move latency us: p50 %.1f, p90 %.1f, p99 %.1f, p999 %.1f, max %.1f%n",
+      latency.getPercentile(0.50) / 1e3, latency.getPercentile(0.90) / 1e3, latency.getPercentile(0.99) / 1e3,
+      latency.getPercentile(0.999) / 1e3, latency.getMax() / 1e3);
+    System.out.printf("%d invalid moves, %d errors%n", invalidMoves.sum(), errors.sum());
+    if (dropPercent > 0 || resumes.sum() > 0) {
+      System.out.printf("%d connections dropped, %d games resumed%n", drops.sum(), resumes.sum());
+    }
+    return errors.sum();
+  }
+
+  // plays one game, on the thread that calls run()
+  private final class Bot extends GameClient {
+
+    private byte[] board = new byte[9]; // 0 for free, 1 for taken
+    private int free = 9; // free squares left
+    private int pending = -1; // square of the move waiting for confirmation
+    private long sent; // when the pending move was sent
+    private boolean finished; // whether the game ended with a result
+
+    Bot() {
+      super(host, port, binary);
+    }
+
+    @Override
+    protected void boardAnnounced(int size, int winLength) {
+      board = new byte[size * size];
+      free = board.length;
+    }
+
+    @Override
+    protected void otherPlayerConnected() {
+      move();
+    }
+
+    @Override
+    protected void moveValid() {
+      latency.record(System.nanoTime() - sent);
+      moves.increment();
+      take(pending);
+      pending = -1;
+    }
+
+    @Override
+    protected void moveInvalid() {
+      invalidMoves.increment();
+      take(pending); // the square must have been taken, try another one
+      move();
+    }
+
+    @Override
+    protected void opponentMoved(int location) {
+      take(location);
+      if (isMyTurn()) {
+        move(); // in the text protocol the result follows, the server ignores a move after the end
+      }
+    }
+
+    @Override
+    protected void moveReplayed(int location, String mark) {
+      take(location);
+    }
+
+    @Override
+    protected void resumed(int moves) {
+      resumes.increment();
+      pending = -1; // confirmed by the replay if the server had it
+      if (isMyTurn()) {
+        move();
+      }
+    }
+
+    @Override
+    protected void gameOver(int result) {
+      if (result != BinaryProtocol.NONE) {
+        finished = true;
+        if ("X".equals(getMark())) {
+          games.increment(); // player O may be a bot of this generator too
+        }
+      }
+      try {
+        close();
+      } catch (IOException ioException) {
+        errors.increment();
+      }
+    }
+
+    @Override
+    protected void disconnected(IOException failure) {
+      if (!finished) {
+        errors.increment();
+      }
+    }
+
+    private void take(int location) {
+      if (location >= 0 && location < board.length && board[location] == 0) {
+        board[location] = 1;
+        free--;
+      }
+    }
+
+    private void move() {
+      if (free == 0) {
+        return;
+      }
+      int location;
+      if (scripted) {
+        location = 0;
+        while (board[location] != 0) {
+          location++;
+        }
+      } else {
+        do {
+          location = ThreadLocalRandom.current().nextInt(board.length);
+        } while (board[location] != 0);
+      }
+      if (thinkMillis > 0) {
+        try {
+          Thread.sleep(thinkMillis);
+        } catch (InterruptedException exception) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      pending = location;
+      sent = System.nanoTime();
+      sendMove(location);
+      if (dropPercent > 0 && isResumable() && ThreadLocalRandom.current().nextInt(100) < dropPercent) {
+        drops.increment();
+        try {
+          dropConnection(); // the answer to the move may be lost, the replay tells whether the server had it
+        } catch (IOException ioException) {
+          errors.increment();
+        }
+      }
+    }
+  }
+}
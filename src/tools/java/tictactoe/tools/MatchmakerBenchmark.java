@@ -0,0 +1,95 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import tictactoe.server.Histogram;
+import tictactoe.server.Matchmaker;
+
+/**
+ * Throughput and waiting times of the {@link Matchmaker}. Players are rated around 1500 with a standard deviation of
+ * 300, like the players of a server after a while, and matched with a base window of 100 points that widens by 50
+ * points per second up to 800, the server's defaults.
+ * <ul>
+ * <li>First, 1, 2, 4 and 8 threads enqueue players as fast as they can for a few seconds each. The enqueues per second
+ * should stay about the same from one thread to eight, since arrivals only lock the buckets near their rating.</li>
+ * <li>Then players arrive at a steady rate, few enough that many find nobody within the base window at once, which
+ * shows how long they wait while their windows widen and how far apart the ratings of the pairs are.</li>
+ * </ul>
+ *
+ * Usage: {@code MatchmakerBenchmark [seconds per run] [arrivals per second of the paced run]}, by default 3 and 200.
+ */
+public class MatchmakerBenchmark {
+
+  private static final int MEAN = 1500; // ratings of the players
+  private static final int DEVIATION = 300;
+
+  public static void main(String[] args) throws Exception {
+    double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 3;
+    int rate = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+    System.out.println("threads  enqueues/s   matches/s  waiting  wait p50 ms  wait p99 ms");
+    for (int threads = 1; threads <= 8; threads *= 2) {
+      flood(threads, seconds);
+    }
+    paced(rate, seconds * 3);
+  }
+
+  // enqueue as fast as possible from some threads
+  private static void flood(int threads, double seconds) throws InterruptedException {
+    Histogram waits = new Histogram();
+    LongAdder enqueues = new LongAdder();
+    try (Matchmaker<Integer> matchmaker = new Matchmaker<>(100, 50, 800, (a, b) -> { }, waits)) {
+      long end = System.nanoTime() + (long) (seconds * 1e9);
+      List<Thread> workers = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        Thread worker = new Thread(() -> {
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          long count = 0;
+          while ((count & 1023) != 0 || System.nanoTime() < end) {
+            int rating = (int) (MEAN + random.nextGaussian() * DEVIATION);
+            matchmaker.enqueue(rating, rating);
+            count++;
+          }
+          enqueues.add(count);
+        });
+        workers.add(worker);
+        worker.start();
+      }
+      for (Thread worker : workers) {
+        worker.join();
+      }
+      System.out.printf("%7d  %,10.0f  %,10.0f  %7d  %11.3f  %11.3f%n", threads, enqueues.sum() / seconds,
+        matchmaker.getMatches() / seconds, matchmaker.getWaiting(), waits.getPercentile(0.50) / 1e6,
+        waits.getPercentile(0.99) / 1e6);
+    }
+  }
+
+  // enqueue at a steady rate from one thread and report the waits and rating differences
+  private static void paced(int rate, double seconds) {
+    Histogram waits = new Histogram();
+    Histogram differences = new Histogram();
+    try (Matchmaker<Integer> matchmaker = new Matchmaker<>(100, 50, 800,
+      (a, b) -> differences.record(Math.abs(a - b)), waits)) {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      long interval = 1_000_000_000L / rate;
+      long next = System.nanoTime();
+      long end = next + (long) (seconds * 1e9);
+      while (next < end) {
+        LockSupport.parkNanos(next - System.nanoTime());
+        int rating = (int) (MEAN + random.nextGaussian() * DEVIATION);
+        matchmaker.enqueue(rating, rating);
+        next += interval;
+      }
+      System.out.printf("%n%d arrivals per second for %.0f s: %,d matches, %d still waiting%n", rate, seconds,
+        matchmaker.getMatches(), matchmaker.getWaiting());
+      System.out.printf("wait ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n", waits.getPercentile(0.50) / 1e6,
+        waits.getPercentile(0.90) / 1e6, waits.getPercentile(0.99) / 1e6, waits.getMax() / 1e6);
+      System.out.printf("rating difference: mean %.1f, p50 %d, p99 %d, max %d%n", differences.getMean(),
+        differences.getPercentile(0.50), differences.getPercentile(0.99), differences.getMax());
+    }
+  }
+}
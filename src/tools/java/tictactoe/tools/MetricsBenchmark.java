@@ -0,0 +1,172 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import tictactoe.server.GameServer;
+import tictactoe.server.Histogram;
+import tictactoe.server.ServerConfig;
+
+/**
+ * Measures what the server metrics cost. Bots play short scripted games against an in-process server, alternating
+ * rounds with the latency histograms switched on and off, and the benchmark compares the median moves per second.
+ * Since loopback throughput varies by a few percent between rounds, it also times the instrumentation of a move on
+ * its own (three clock reads and two histogram records) and relates it to the time the server spends per move.
+ * Finally it prints the metrics of the last server as the text dump.
+ *
+ * Usage: {@code MetricsBenchmark [BLOCKING|NIO] [rounds] [seconds per round] [bot pairs]}, default blocking, 5
+ * rounds of 3 seconds each with metrics on and off, 32 pairs.
+ */
+public class MetricsBenchmark {
+
+  private static final int[] X_MOVES = {0, 1, 2}; // player X wins on the top row
+  private static final int[] O_MOVES = {3, 4};
+  private static final int READ_TIMEOUT = 2000; // milliseconds, ends a bot left without a partner at the end
+
+  private static String lastDump = ""; // metrics of the last server
+
+  public static void main(String[] args) throws Exception {
+    ServerConfig.Transport transport = args.length > 0 ? ServerConfig.Transport.valueOf(args[0])
+      : ServerConfig.Transport.BLOCKING;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    int pairs = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+
+    play(transport, false, 1, pairs); // warm up
+    play(transport, true, 1, pairs);
+    double[] off = new double[rounds];
+    double[] on = new double[rounds];
+    for (int r = 0; r < rounds; r++) {
+      off[r] = play(transport, false, seconds, pairs);
+      on[r] = play(transport, true, seconds, pairs);
+    }
+    Arrays.sort(off);
+    Arrays.sort(on);
+    double medianOff = off[rounds / 2];
+    double medianOn = on[rounds / 2];
+    System.out.printf("%s: median %.0f moves/s without histograms, %.0f moves/s with them (%+.2f%%)%n", transport,
+      medianOff, medianOn, (medianOff - medianOn) / medianOff * 100);
+
+    // the bots and the server share the processors, so this overstates the server's own time per move
+    double cpuNanosPerMove = Runtime.getRuntime().availableProcessors() * 1e9 / medianOn;
+    double nanosPerMove = instrumentationNanos();
+    System.out.printf("instrumentation: %.0f ns per move, %.2f%% of the %.0f processor ns per move%n",
+      nanosPerMove, nanosPerMove / cpuNanosPerMove * 100, cpuNanosPerMove);
+    System.out.print(lastDump);
+    System.exit(0); // a bot left without a partner at the end leaves its room waiting for player O
+  }
+
+  // run the bots for some seconds, returns the moves per second
+  private static double play(ServerConfig.Transport transport, boolean metrics, int seconds, int pairs)
+    throws Exception {
+    ServerConfig config = ServerConfig.lobby().setPort(0).setTransport(transport).setMetrics(metrics);
+    try (GameServer server = config.open(message -> { })) {
+      Thread acceptor = new Thread(server::execute, "lobby");
+      acceptor.setDaemon(true);
+      acceptor.start();
+
+      ExecutorService bots = Executors.newFixedThreadPool(pairs * 2);
+      AtomicInteger errors = new AtomicInteger();
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+      CountDownLatch done = new CountDownLatch(pairs * 2);
+      long start = System.nanoTime();
+      for (int i = 0; i < pairs * 2; i++) {
+        bots.execute(() -> {
+          try {
+            while (System.nanoTime() < deadline) {
+              playGame(server.getPort());
+            }
+          } catch (SocketTimeoutException e) {
+            if (System.nanoTime() < deadline) {
+              errors.incrementAndGet();
+            }
+          } catch (IOException | RuntimeException e) {
+            errors.incrementAndGet();
+          } finally {
+            done.countDown();
+          }
+        });
+      }
+      long moves = 0;
+      double elapsed = 0;
+      while (!done.await(10, TimeUnit.MILLISECONDS)) {
+        if (elapsed == 0 && System.nanoTime() >= deadline) {
+          moves = server.getMetrics().getMoves(); // the bots left waiting for a partner do not count
+          elapsed = (System.nanoTime() - start) / 1e9;
+        }
+      }
+      if (elapsed == 0) {
+        moves = server.getMetrics().getMoves();
+        elapsed = (System.nanoTime() - start) / 1e9;
+      }
+      bots.shutdown();
+      if (errors.get() > 0) {
+        System.out.println(errors.get() + " bots failed");
+      }
+      lastDump = server.getMetrics().dump();
+      return moves / elapsed;
+    }
+  }
+
+  // connect and play the scripted moves of the mark the server assigns
+  private static void playGame(int port) throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      socket.setTcpNoDelay(true);
+      socket.setSoTimeout(READ_TIMEOUT);
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      OutputStream out = socket.getOutputStream();
+      int[] script = "X".equals(in.readLine()) ? X_MOVES : O_MOVES;
+      int next = 0;
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (line.equals("VICTORY") || line.equals("DEFEAT") || line.equals("TIE")) {
+          return;
+        }
+        boolean myTurn = line.equals("Other player connected. Your move.");
+        if (line.equals("Opponent moved")) {
+          in.readLine(); // location
+          myTurn = true;
+        }
+        if (myTurn && next < script.length) {
+          out.write((script[next++] + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+      }
+    }
+  }
+
+  // time what the server adds to a move when the histograms are on
+  private static double instrumentationNanos() {
+    Histogram turnWait = new Histogram();
+    Histogram validation = new Histogram();
+    int count = 5_000_000;
+    long sink = 0;
+    for (int round = 0; round < 2; round++) { // the first round warms up
+      long start = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        long time = System.nanoTime();
+        long turn = System.nanoTime();
+        turnWait.record(turn - time);
+        long end = System.nanoTime();
+        validation.record(end - turn);
+        sink += end;
+      }
+      if (round == 1) {
+        double nanos = (System.nanoTime() - start) / (double) count;
+        return sink == 42 ? 0 : nanos;
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,87 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import tictactoe.engine.GameBoard;
+import tictactoe.engine.MonteCarloPlayer;
+
+/**
+ * Measures the Monte Carlo player. Plays games against a random opponent and reports playouts per second, the bytes
+ * the searching thread allocated per playout and the garbage collections during the games, which should both stay
+ * near zero once the trees are allocated.
+ *
+ * Usage: {@code MonteCarloBenchmark [size] [winLength] [playouts] [games]}, default 15×15 with 5 in a row, 20000
+ * playouts per move and 4 games.
+ */
+public class MonteCarloBenchmark {
+
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 15;
+    int winLength = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int playouts = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+    int games = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+    MonteCarloPlayer player = new MonteCarloPlayer(0, playouts, 1 << 18);
+    play(player, size, winLength, 1, new Random(0)); // allocate the tree and warm up the JIT
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long playoutsBefore = player.getPlayouts();
+    long allocatedBefore = allocatedBytes(threads);
+    long collectionsBefore = collections();
+    long start = System.nanoTime();
+    int wins = play(player, size, winLength, games, new Random(1));
+    double seconds = (System.nanoTime() - start) / 1e9;
+    long searched = player.getPlayouts() - playoutsBefore;
+
+    System.out.printf("%dx%d, %d in a row: %d games, %d wins against random moves, %.1f s%n", size, size, winLength,
+      games, wins, seconds);
+    System.out.printf("%d playouts, %.0f playouts/s%n", searched, player.getPlayoutsPerSecond());
+    if (allocatedBefore >= 0) {
+      System.out.printf("%.2f bytes allocated per playout%n",
+        (allocatedBytes(threads) - allocatedBefore) / (double) Math.max(1, searched));
+    }
+    System.out.printf("%d garbage collections%n", collections() - collectionsBefore);
+  }
+
+  // play games with the computer as O, returns the number it won
+  private static int play(MonteCarloPlayer player, int size, int winLength, int games, Random random) {
+    int wins = 0;
+    for (int g = 0; g < games; g++) {
+      GameBoard board = GameBoard.create(size, winLength);
+      while (!board.isGameOver()) {
+        int location;
+        if (board.getCurrentPlayer() == GameBoard.PLAYER_O) {
+          location = player.chooseMove(board);
+        } else {
+          do {
+            location = random.nextInt(size * size);
+          } while (!board.isValidMove(location));
+        }
+        board.move(location);
+      }
+      if (board.hasWinner() && board.getCurrentPlayer() == GameBoard.PLAYER_X) {
+        wins++; // the player to move lost
+      }
+    }
+    return wins;
+  }
+
+  // bytes allocated by this thread, -1 if the JVM cannot tell
+  private static long allocatedBytes(ThreadMXBean threads) {
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  private static long collections() {
+    long count = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, collector.getCollectionCount());
+    }
+    return count;
+  }
+}
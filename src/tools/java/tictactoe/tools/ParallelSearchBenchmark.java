@@ -0,0 +1,73 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.util.Random;
+import tictactoe.engine.GameBoard;
+import tictactoe.engine.ParallelSearch;
+
+/**
+ * Measures how the parallel search scales with the number of cores. Searches the same middle game positions to a
+ * fixed depth with 1, 2, 4 ... worker threads, each with an empty transposition table, and reports the time, the
+ * positions per second and the speedup over one thread.
+ *
+ * Usage: {@code ParallelSearchBenchmark [depth] [size] [winLength] [positions]}, default depth 5 on a 15×15 board
+ * with 5 in a row and 8 positions.
+ */
+public class ParallelSearchBenchmark {
+
+  private static final int OPENING_MOVES = 10; // random moves near the center before the searched position
+
+  public static void main(String[] args) {
+    int depth = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    int size = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+    int winLength = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    int positions = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+    int cores = Runtime.getRuntime().availableProcessors();
+
+    GameBoard[] boards = new GameBoard[positions];
+    Random random = new Random(1);
+    for (int i = 0; i < positions; i++) {
+      boards[i] = randomPosition(size, winLength, random);
+    }
+
+    run(1, depth, boards); // warm up the JIT
+    double single = 0;
+    for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(threads * 2, cores) : cores + 1) {
+      double seconds = run(threads, depth, boards);
+      if (threads == 1) {
+        single = seconds;
+      }
+      System.out.printf("speedup with %d of %d cores: %.2f%n", threads, cores, single / seconds);
+    }
+  }
+
+  // search every position with a new searcher, returns the elapsed seconds
+  private static double run(int threads, int depth, GameBoard[] boards) {
+    ParallelSearch search = new ParallelSearch(threads, 0, depth);
+    long start = System.nanoTime();
+    for (GameBoard board : boards) {
+      search.search(board, depth);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    search.close();
+    System.out.printf("%d threads: depth %d, %.3f s, %d positions, %.2f M positions/s%n", threads, depth, seconds,
+      search.getNodes(), search.getNodes() / seconds / 1e6);
+    return seconds;
+  }
+
+  private static GameBoard randomPosition(int size, int winLength, Random random) {
+    GameBoard board = GameBoard.create(size, winLength);
+    int center = size / 2;
+    int spread = Math.max(1, Math.min(size / 2, 3));
+    for (int i = 0; i < OPENING_MOVES && !board.isGameOver(); i++) {
+      int location;
+      do {
+        int row = Math.max(0, Math.min(size - 1, center + random.nextInt(2 * spread + 1) - spread));
+        int column = Math.max(0, Math.min(size - 1, center + random.nextInt(2 * spread + 1) - spread));
+        location = row * size + column;
+      } while (!board.isValidMove(location));
+      board.move(location);
+    }
+    return board;
+  }
+}
@@ -0,0 +1,183 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import tictactoe.server.BinaryProtocol;
+import tictactoe.server.GameServer;
+import tictactoe.server.ServerConfig;
+
+/**
+ * Compares the text protocol with the binary protocol. Pairs of bots play the same short game many times against an
+ * in-process server, once per protocol, and the benchmark reports messages per second and the bytes per move in both
+ * directions. Bytes are counted per message the bots parse or send; the greeting, which stays text, is reported
+ * separately per game.
+ *
+ * Usage: {@code ProtocolBenchmark [games] [BLOCKING|NIO]}, default 2000 games on the blocking transport.
+ */
+public class ProtocolBenchmark {
+
+  private static final int[] X_MOVES = {0, 1, 2}; // player X wins on the top row
+  private static final int[] O_MOVES = {3, 4};
+  private static final byte[] REQUEST = (BinaryProtocol.REQUEST + "\n").getBytes(StandardCharsets.US_ASCII);
+
+  private final LongAdder bytesIn = new LongAdder(); // bytes of move messages the bots received
+  private final LongAdder bytesOut = new LongAdder(); // bytes of moves the bots sent
+  private final LongAdder setupBytes = new LongAdder(); // bytes of the greeting and the switch to frames
+  private final LongAdder messages = new LongAdder(); // move messages the bots parsed
+  private final LongAdder moves = new LongAdder(); // moves the bots sent
+  private final AtomicInteger errors = new AtomicInteger(); // bots that failed
+
+  public static void main(String[] args) throws Exception {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    ServerConfig.Transport transport = args.length > 1 ? ServerConfig.Transport.valueOf(args[1])
+      : ServerConfig.Transport.BLOCKING;
+
+    ServerConfig config = ServerConfig.lobby().setPort(0).setTransport(transport);
+    new ProtocolBenchmark().run(Math.max(1, games / 10), false, config); // warm up
+    new ProtocolBenchmark().run(Math.max(1, games / 10), true, config);
+    new ProtocolBenchmark().report("text", games, false, config);
+    new ProtocolBenchmark().report("binary", games, true, config);
+  }
+
+  private void report(String name, int games, boolean binary, ServerConfig config) throws Exception {
+    double seconds = run(games, binary, config);
+    long moveCount = Math.max(1, moves.sum());
+    System.out.printf("%s: %d games in %.2f s, %.0f messages/s, %.0f moves/s, %d errors%n", name, games, seconds,
+      messages.sum() / seconds, moves.sum() / seconds, errors.get());
+    System.out.printf("%s: %.1f bytes sent and %.1f bytes received per move, %.1f setup bytes per game%n", name,
+      bytesOut.sum() / (double) moveCount, bytesIn.sum() / (double) moveCount, setupBytes.sum() / (double) games);
+  }
+
+  // play the games two bots at a time per game, returns the elapsed seconds
+  private double run(int games, boolean binary, ServerConfig config) throws Exception {
+    try (GameServer server = config.open(message -> { })) {
+      Thread acceptor = new Thread(server::execute, "lobby");
+      acceptor.setDaemon(true);
+      acceptor.start();
+
+      ExecutorService bots = Executors.newCachedThreadPool();
+      CountDownLatch done = new CountDownLatch(games * 2);
+      long start = System.nanoTime();
+      for (int i = 0; i < games * 2; i++) {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        bots.execute(() -> play(socket, binary, done));
+      }
+      done.await();
+      double seconds = (System.nanoTime() - start) / 1e9;
+      bots.shutdown();
+      bots.awaitTermination(1, TimeUnit.MINUTES);
+      return seconds;
+    }
+  }
+
+  // play the scripted moves of the bot's mark until the game is over
+  private void play(Socket socket, boolean binary, CountDownLatch done) {
+    try (Socket s = socket) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+      OutputStream out = s.getOutputStream();
+      if (binary) {
+        out.write(REQUEST);
+        setupBytes.add(REQUEST.length);
+      }
+      byte[] frame = new byte[BinaryProtocol.FRAME_SIZE];
+      String mark = readLine(in);
+      setupBytes.add(mark.length() + 1);
+      int[] script = "X".equals(mark) ? X_MOVES : O_MOVES;
+      int next = 0;
+      boolean frames = false;
+      boolean over = false;
+
+      while (!over) {
+        boolean myTurn = false;
+        if (frames) {
+          in.readFully(frame);
+          int opcode = BinaryProtocol.opcode(frame, 0);
+          myTurn = opcode == BinaryProtocol.YOUR_MOVE || opcode == BinaryProtocol.OPPONENT_MOVED;
+          over = BinaryProtocol.result(frame, 0) != BinaryProtocol.NONE;
+          count(opcode != BinaryProtocol.YOUR_MOVE, frame.length);
+        } else {
+          String line = readLine(in);
+          if (line == null) {
+            throw new IOException("Connection closed before the end of the game");
+          }
+          boolean move = false;
+          switch (line) {
+            case BinaryProtocol.ACCEPTED:
+              frames = true;
+              break;
+            case "Other player connected. Your move.":
+              myTurn = true;
+              break;
+            case "Opponent moved":
+              bytesIn.add(readLine(in).length() + 1); // location
+              myTurn = true;
+              move = true;
+              break;
+            case "VICTORY":
+            case "DEFEAT":
+            case "TIE":
+              over = true;
+              move = true;
+              break;
+            default:
+              move = line.startsWith("Valid") || line.startsWith("Invalid");
+              break;
+          }
+          count(move, line.length() + 1);
+        }
+
+        if (myTurn && !over && next < script.length) {
+          if (binary) {
+            BinaryProtocol.encode(frame, 0, BinaryProtocol.MOVE, 0, script[next++], BinaryProtocol.NONE);
+            out.write(frame);
+            bytesOut.add(frame.length);
+          } else {
+            byte[] line = (script[next++] + "\n").getBytes(StandardCharsets.US_ASCII);
+            out.write(line);
+            bytesOut.add(line.length);
+          }
+          moves.increment();
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      errors.incrementAndGet();
+    } finally {
+      done.countDown();
+    }
+  }
+
+  // count a received message as part of a move or of the setup
+  private void count(boolean move, int bytes) {
+    if (move) {
+      messages.increment();
+      bytesIn.add(bytes);
+    } else {
+      setupBytes.add(bytes);
+    }
+  }
+
+  private static String readLine(DataInputStream in) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int b = in.read();
+    if (b < 0) {
+      return null;
+    }
+    while (b >= 0 && b != '\n') {
+      line.append((char) b);
+      b = in.read();
+    }
+    return line.toString();
+  }
+}
@@ -0,0 +1,194 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import tictactoe.server.ExecutionMode;
+import tictactoe.server.GameServer;
+import tictactoe.server.ServerConfig;
+
+/**
+ * Load test for the lobby mode of the server. Opens the given number of simultaneous games against an in-process
+ * server, then lets every pair play a random game and reports rooms per second, move latency percentiles and the
+ * socket writes the server needed per move.
+ *
+ * Usage: {@code RoomLoadTest [games] [BLOCKING|NIO] [platform|virtual]}, default 10000 games on the blocking
+ * transport with platform threads. The execution mode is used for the server's players and for the bots.
+ */
+public class RoomLoadTest {
+
+  private static final int[][] LINES = {
+    {0, 1, 2}, {3, 4, 5}, {6, 7, 8}, {0, 3, 6}, {1, 4, 7}, {2, 5, 8}, {0, 4, 8}, {2, 4, 6}
+  };
+
+  private static final int READ_TIMEOUT = 60_000; // milliseconds a bot waits for the server
+
+  private final List<long[]> latencies = new ArrayList<>(); // move latencies of every bot
+  private final AtomicInteger errors = new AtomicInteger(); // bots that failed
+
+  public static void main(String[] args) throws Exception {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    ServerConfig.Transport transport = args.length > 1 ? ServerConfig.Transport.valueOf(args[1])
+      : ServerConfig.Transport.BLOCKING;
+    ExecutionMode mode = args.length > 2 ? ExecutionMode.parse(args[2]) : ExecutionMode.PLATFORM;
+    new RoomLoadTest().run(games, ServerConfig.lobby().setPort(0).setBacklog(4096).setTransport(transport)
+      .setExecutionMode(mode));
+  }
+
+  /**
+   * Run the load test against a new server.
+   *
+   * @param games The number of simultaneous games.
+   * @param config The server settings, the port should be 0.
+   * @throws Exception If the test could not be set up.
+   */
+  void run(int games, ServerConfig config) throws Exception {
+    try (GameServer lobby = config.open(message -> { })) {
+      Thread acceptor = new Thread(lobby::execute, "lobby");
+      acceptor.setDaemon(true);
+      acceptor.start();
+
+      ExecutorService bots = config.getExecutionMode().newExecutor(0);
+      CountDownLatch go = new CountDownLatch(1);
+      CountDownLatch done = new CountDownLatch(games * 2);
+
+      // phase 1: connect every player and wait until all rooms are paired
+      long start = System.nanoTime();
+      for (int i = 0; i < games * 2; i++) {
+        Socket socket = connect(lobby.getPort(), i);
+        bots.execute(() -> play(socket, go, done));
+      }
+      while (lobby.getRoomsStarted() < games) {
+        Thread.sleep(1);
+      }
+      long paired = System.nanoTime() - start;
+
+      // phase 2: all rooms play at the same time
+      System.out.printf("active rooms: %d, threads: %d, heap: %d MB%n", lobby.getActiveRooms(),
+        ManagementFactory.getThreadMXBean().getThreadCount(),
+        (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20);
+      long playStart = System.nanoTime();
+      go.countDown();
+      done.await();
+      long played = System.nanoTime() - playStart;
+      bots.shutdown();
+      bots.awaitTermination(1, TimeUnit.MINUTES);
+
+      long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+      System.out.printf("rooms: %d in %.1f ms, %.0f rooms/s%n", games, paired / 1e6, games / (paired / 1e9));
+      System.out.printf("games: %.0f games/s, %d moves, %d errors%n", games / (played / 1e9), all.length,
+        errors.get());
+      System.out.printf("server writes: %d, %.2f per move, %.1f per game%n", lobby.getWrites(),
+        lobby.getWrites() / (double) Math.max(1, all.length), lobby.getWrites() / (double) games);
+      if (all.length > 0) {
+        System.out.printf("move latency us: p50 %.1f, p99 %.1f, max %.1f%n", percentile(all, 0.50) / 1e3,
+          percentile(all, 0.99) / 1e3, all[all.length - 1] / 1e3);
+      }
+    }
+  }
+
+  // spread the clients over several loopback addresses, one address has too few ephemeral ports for 50k players
+  private static Socket connect(int port, int index) throws IOException {
+    byte[] local = {127, 0, 0, (byte) (1 + index / 20000)};
+    Socket socket = new Socket();
+    socket.bind(new InetSocketAddress(InetAddress.getByAddress(local), 0));
+    socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    socket.setSoTimeout(READ_TIMEOUT); // a bot whose room got stuck counts as an error
+    socket.setTcpNoDelay(true);
+    return socket;
+  }
+
+  private static long percentile(long[] sorted, double p) {
+    return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+  }
+
+  // play one random game over the text protocol, recording the time from sending a move until it was confirmed
+  private void play(Socket socket, CountDownLatch go, CountDownLatch done) {
+    long[] times = new long[5];
+    int moves = 0;
+    try (Socket s = socket) {
+      BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+      OutputStream out = s.getOutputStream();
+      char[] board = new char[9];
+      char mine = in.readLine().charAt(0);
+      char other = mine == 'X' ? 'O' : 'X';
+      go.await();
+
+      long sent = 0;
+      int pending = -1;
+      String line;
+      while ((line = in.readLine()) != null) {
+        boolean myTurn = false;
+        switch (line) {
+          case "Other player connected. Your move.":
+          case "Invalid move, try again":
+            myTurn = true;
+            break;
+          case "Valid move.":
+            times[moves++] = System.nanoTime() - sent;
+            board[pending] = mine;
+            break;
+          case "Opponent moved":
+            board[Integer.parseInt(in.readLine().trim())] = other;
+            myTurn = true;
+            break;
+          default:
+            break;
+        }
+        if (isOver(board)) {
+          break;
+        }
+        if (myTurn) {
+          pending = randomFree(board);
+          sent = System.nanoTime();
+          out.write((pending + "\n").getBytes(StandardCharsets.US_ASCII));
+          out.flush();
+        }
+      }
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      errors.incrementAndGet();
+    } finally {
+      synchronized (latencies) {
+        latencies.add(Arrays.copyOf(times, moves));
+      }
+      done.countDown();
+    }
+  }
+
+  private static int randomFree(char[] board) {
+    int location;
+    do {
+      location = ThreadLocalRandom.current().nextInt(board.length);
+    } while (board[location] != 0);
+    return location;
+  }
+
+  private static boolean isOver(char[] board) {
+    for (int[] line : LINES) {
+      if (board[line[0]] != 0 && board[line[0]] == board[line[1]] && board[line[0]] == board[line[2]]) {
+        return true;
+      }
+    }
+    for (char c : board) {
+      if (c == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
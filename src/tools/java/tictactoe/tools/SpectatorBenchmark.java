@@ -0,0 +1,236 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import tictactoe.server.GameServer;
+import tictactoe.server.ServerConfig;
+
+/**
+ * Spectator fan-out under load. Two scripted players play one long game on a 30x30 board, first without spectators
+ * and then watched by many, some of which are slow: they have a tiny receive buffer and do not read until the game is
+ * over, so the server has to drop their updates and send them a snapshot. The report compares the moves per second
+ * of the players, shows how many resyncs the slow spectators needed, and checks that every spectator ended up with
+ * the final board and the result.
+ *
+ * Usage: {@code SpectatorBenchmark [spectators] [percent slow] [BLOCKING|NIO]}, default 2000 spectators, 10 percent
+ * slow, blocking transport.
+ */
+public class SpectatorBenchmark {
+
+  private static final int SIZE = 30; // rows and columns, every column has a single mark, so X wins column 0
+
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int slowPercent = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    ServerConfig.Transport transport = args.length > 2 ? ServerConfig.Transport.valueOf(args[2])
+      : ServerConfig.Transport.BLOCKING;
+
+    try (GameServer lobby = ServerConfig.lobby().setPort(0).setBacklog(4096).setSpectatorPort(0)
+      .setTransport(transport).setBoardSize(SIZE).setWinLength(SIZE).open(message -> { })) {
+      Thread acceptor = new Thread(lobby::execute, "lobby");
+      acceptor.setDaemon(true);
+      acceptor.start();
+
+      play(lobby, null); // warm up
+      double alone = play(lobby, null);
+      System.out.printf("no spectators: %.0f moves/s%n", alone);
+
+      List<Watcher> fast = new ArrayList<>();
+      List<Watcher> slow = new ArrayList<>();
+      Thread[] reader = new Thread[1];
+      double watched = play(lobby, room -> {
+        for (int i = 0; i < count; i++) {
+          boolean isSlow = i * 100 < count * slowPercent;
+          (isSlow ? slow : fast).add(new Watcher(lobby.getSpectatorPort(), room, isSlow));
+        }
+        reader[0] = new Thread(() -> readUntilClosed(fast), "watchers"); // the fast ones read during the game
+        reader[0].start();
+      });
+      reader[0].join();
+      readUntilClosed(slow); // the slow ones only read now
+
+      String expected = expectedBoard();
+      int correct = 0;
+      int gaps = 0;
+      fast.addAll(slow);
+      for (Watcher watcher : fast) {
+        gaps += watcher.gaps;
+        if (expected.equals(new String(watcher.cells)) && "X".equals(watcher.result)) {
+          correct++;
+        }
+        watcher.channel.close();
+      }
+      System.out.print(lobby.getMetrics().dump());
+      System.out.printf("%d spectators (%d%% slow): %.0f moves/s, %.1f%% of the moves/s without spectators%n",
+        count, slowPercent, watched, 100 * watched / alone);
+      System.out.printf("%d spectators saw the final board and result, %d gaps in the move numbers%n", correct,
+        gaps);
+    }
+  }
+
+  // play the scripted game, let the spectators subscribe once the room started, return moves per second
+  private static double play(GameServer lobby, Subscriber subscribe) throws IOException {
+    try (Socket x = new Socket("localhost", lobby.getPort()); Socket o = new Socket("localhost", lobby.getPort())) {
+      x.setTcpNoDelay(true);
+      o.setTcpNoDelay(true);
+      BufferedReader inX = new BufferedReader(new InputStreamReader(x.getInputStream(), StandardCharsets.US_ASCII));
+      BufferedReader inO = new BufferedReader(new InputStreamReader(o.getInputStream(), StandardCharsets.US_ASCII));
+      skipTo(inX, "Other player connected. Your move.");
+      if (subscribe != null) {
+        subscribe.accept(currentRoom(lobby.getSpectatorPort()));
+      }
+
+      long start = System.nanoTime();
+      int moves = 0;
+      for (int location = 0; ; location++) {
+        boolean xMoves = location % 2 == 0;
+        OutputStream out = (xMoves ? x : o).getOutputStream();
+        out.write((location + "\n").getBytes(StandardCharsets.US_ASCII));
+        moves++;
+        BufferedReader mover = xMoves ? inX : inO;
+        skipTo(mover, "Valid move.");
+        if (location == SIZE * (SIZE - 1)) { // X completes column 0
+          skipTo(mover, "VICTORY");
+          break;
+        }
+        skipTo(xMoves ? inO : inX, "Opponent moved");
+      }
+      return moves / ((System.nanoTime() - start) / 1e9);
+    }
+  }
+
+  // read the updates of the spectators until the server closed all their connections
+  private static void readUntilClosed(List<Watcher> watchers) {
+    try (Selector selector = Selector.open()) {
+      for (Watcher watcher : watchers) {
+        watcher.channel.register(selector, SelectionKey.OP_READ, watcher);
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+      int open = watchers.size();
+      while (open > 0 && selector.select(10_000) > 0) {
+        for (SelectionKey key : selector.selectedKeys()) {
+          if (!((Watcher) key.attachment()).read(buffer)) {
+            key.cancel();
+            open--;
+          }
+        }
+        selector.selectedKeys().clear();
+      }
+    } catch (IOException ioException) {
+      System.out.println(ioException.toString());
+    }
+  }
+
+  // the only room in progress, as listed by the spectator hub
+  private static int currentRoom(int port) throws IOException {
+    try (Socket socket = new Socket("localhost", port)) {
+      socket.getOutputStream().write("LIST\n".getBytes(StandardCharsets.US_ASCII));
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+      String[] words = in.readLine().split(" ");
+      return Integer.parseInt(words[words.length - 1]);
+    }
+  }
+
+  private static void skipTo(BufferedReader in, String expected) throws IOException {
+    String line;
+    while ((line = in.readLine()) != null) {
+      if (line.equals(expected)) {
+        return;
+      }
+    }
+    throw new IOException("Connection closed before " + expected);
+  }
+
+  // the board after X took column 0, which happens with its move on the last row
+  private static String expectedBoard() {
+    char[] cells = new char[SIZE * SIZE];
+    Arrays.fill(cells, '.');
+    for (int location = 0; location <= SIZE * (SIZE - 1); location++) {
+      cells[location] = location % 2 == 0 ? 'X' : 'O';
+    }
+    return new String(cells);
+  }
+
+  // subscribes the spectators to the room of the game
+  private interface Subscriber {
+    void accept(int room) throws IOException;
+  }
+
+  // a spectator connection that follows the board from the lines it receives
+  private static final class Watcher {
+
+    final SocketChannel channel; // connection to the spectator port
+    final StringBuilder line = new StringBuilder(); // line being read
+    char[] cells = new char[0]; // board as seen by this spectator
+    int moves; // moves seen, or taken from the last snapshot
+    int gaps; // updates whose number did not follow the previous one
+    String result; // result line, null until the game ended
+
+    Watcher(int port, int room, boolean slow) throws IOException {
+      channel = SocketChannel.open();
+      if (slow) {
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, 1024); // fills up after a few moves
+      }
+      channel.connect(new InetSocketAddress("localhost", port));
+      channel.write(ByteBuffer.wrap(("WATCH " + room + "\n").getBytes(StandardCharsets.US_ASCII)));
+      channel.configureBlocking(false);
+    }
+
+    // read what is available and apply the complete lines, false at the end of the connection
+    boolean read(ByteBuffer buffer) {
+      buffer.clear();
+      int count;
+      try {
+        count = channel.read(buffer);
+      } catch (IOException ioException) {
+        count = -1;
+      }
+      if (count < 0) {
+        return false;
+      }
+      for (int i = 0; i < count; i++) {
+        char c = (char) buffer.get(i);
+        if (c != '\n') {
+          line.append(c);
+          continue;
+        }
+        String[] words = line.toString().split(" ");
+        line.setLength(0);
+        switch (words[0]) {
+          case "Snapshot":
+            moves = Integer.parseInt(words[1]);
+            cells = words[2].toCharArray();
+            break;
+          case "Moved":
+            int number = Integer.parseInt(words[1]);
+            if (number != moves + 1) {
+              gaps++;
+            }
+            moves = number;
+            cells[Integer.parseInt(words[3])] = words[2].charAt(0);
+            break;
+          case "Result":
+            result = words[1];
+            break;
+          default:
+            break;
+        }
+      }
+      return true;
+    }
+  }
+}
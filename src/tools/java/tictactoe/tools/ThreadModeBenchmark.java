@@ -0,0 +1,28 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import tictactoe.server.ExecutionMode;
+import tictactoe.server.ServerConfig;
+
+/**
+ * Compares platform and virtual threads on the blocking transport. Runs the {@link RoomLoadTest} once per execution
+ * mode with the same number of connected players, by default 50000 players in 25000 rooms.
+ *
+ * Usage: {@code ThreadModeBenchmark [players]}. Virtual threads need Java 21, and the process needs a file limit
+ * above twice the number of players ({@code ulimit -n}).
+ */
+public class ThreadModeBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int players = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+
+    for (ExecutionMode mode : ExecutionMode.values()) {
+      System.out.printf("== %s threads, %d players%n", mode, players);
+      new RoomLoadTest().run(players / 2, ServerConfig.lobby().setPort(0).setBacklog(4096).setExecutionMode(mode));
+      System.gc();
+    }
+    if (!ExecutionMode.isVirtualSupported()) {
+      System.out.println("Virtual threads are not available on this Java version, both runs used platform threads");
+    }
+  }
+}
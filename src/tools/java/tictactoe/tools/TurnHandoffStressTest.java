@@ -0,0 +1,179 @@
+// License: GPL. For details, see LICENSE file.
+package tictactoe.tools;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import tictactoe.server.ExecutionMode;
+import tictactoe.server.GameState;
+import tictactoe.server.TurnState;
+
+/**
+ * Stress test of the lock-free turn handoff of {@link TurnState}. Many tables play at the same time, each with one
+ * thread for player X and one for player O, and every table plays its games one after the other, so the handoff
+ * between the two threads happens millions of times. The players move the way the server's players do: wait for the
+ * turn, change the board, pass the turn. Now and then a player leaves in the middle of a game.
+ *
+ * Every game is checked at its end: no two threads may have held the turn at the same time, the side to move must
+ * match the board, and replaying the recorded moves on a new board must give the same board and the same status.
+ *
+ * Usage: {@code TurnHandoffStressTest [games] [tables] [platform|virtual]}, default 1000000 games on 64 tables with
+ * platform threads. Exits with status 1 if a game was corrupted.
+ */
+public class TurnHandoffStressTest {
+
+  private static final int ABANDON_ONE_IN = 100; // chance of a player leaving before a move
+
+  private final LongAdder games = new LongAdder(); // games checked
+  private final LongAdder moves = new LongAdder(); // moves made, one handoff each
+  private final LongAdder abandoned = new LongAdder(); // games a player left
+  private final LongAdder corrupted = new LongAdder(); // games that failed a check
+
+  public static void main(String[] args) throws InterruptedException {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int tables = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+    ExecutionMode mode = args.length > 2 ? ExecutionMode.parse(args[2]) : ExecutionMode.PLATFORM;
+    boolean passed = new TurnHandoffStressTest().run(games, tables, mode);
+    System.exit(passed ? 0 : 1);
+  }
+
+  /**
+   * Play the games and print the report.
+   *
+   * @param total The number of games, spread over the tables.
+   * @param tables The number of games played at the same time.
+   * @param mode The kind of thread of each player.
+   * @return True if no game was corrupted.
+   * @throws InterruptedException If interrupted while waiting for the tables.
+   */
+  boolean run(int total, int tables, ExecutionMode mode) throws InterruptedException {
+    ExecutorService threads = mode.newExecutor(0);
+    CountDownLatch done = new CountDownLatch(tables * 2);
+    long start = System.nanoTime();
+    for (int t = 0; t < tables; t++) {
+      int count = total / tables + (t < total % tables ? 1 : 0);
+      BlockingQueue<Game> table = new ArrayBlockingQueue<>(1); // player X hands each new game to player O
+      threads.execute(() -> {
+        try {
+          for (int g = 0; g < count; g++) {
+            Game game = new Game();
+            table.put(game);
+            if (game.turns.awaitStart(GameState.PLAYER_X)) {
+              play(game, GameState.PLAYER_X);
+            }
+            game.finish();
+          }
+        } catch (InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+        } finally {
+          done.countDown();
+        }
+      });
+      threads.execute(() -> {
+        try {
+          for (int g = 0; g < count; g++) {
+            Game game = table.take();
+            game.turns.start(); // player O arrived
+            play(game, GameState.PLAYER_O);
+            game.finish();
+          }
+        } catch (InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+        } finally {
+          done.countDown();
+        }
+      });
+    }
+    done.await();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    threads.shutdown();
+    threads.awaitTermination(1, TimeUnit.MINUTES);
+
+    System.out.printf("%d games on %d tables in %.1f s: %.0f games/s, %.0f handoffs/s%n", games.sum(), tables,
+      seconds, games.sum() / seconds, moves.sum() / seconds);
+    System.out.printf("%d abandoned, %d corrupted%n", abandoned.sum(), corrupted.sum());
+    boolean passed = corrupted.sum() == 0 && games.sum() == total;
+    System.out.println(passed ? "PASSED" : "FAILED");
+    return passed;
+  }
+
+  // move whenever it is the player's turn until the game ends
+  private void play(Game game, int player) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    while (game.turns.awaitTurn(player)) {
+      if (random.nextInt(ABANDON_ONE_IN) == 0) {
+        game.turns.abandon();
+        return;
+      }
+      if (game.owners.incrementAndGet() != 1 || game.state.getCurrentPlayer() != player
+        || game.turns.getSideToMove() != player) {
+        game.broken = true; // the other thread holds the turn too, or the board disagrees with the turn
+      }
+      int location;
+      do {
+        location = random.nextInt(9);
+      } while (game.state.isOccupied(location));
+      game.squares[game.turns.getMoves()] = location; // published to the other thread by the handoff
+      game.state.move(location);
+      game.owners.decrementAndGet();
+      try {
+        game.turns.pass(player, game.state.isGameOver());
+      } catch (IllegalStateException illegalStateException) {
+        game.broken = true; // the turn was taken away, end the game for both players
+        game.turns.abandon();
+        return;
+      }
+    }
+  }
+
+  // one game of a table
+  private final class Game {
+
+    final GameState state = new GameState(); // board, changed by the thread that has the turn
+    final TurnState turns = new TurnState(); // the handoff under test
+    final int[] squares = new int[9]; // squares in the order they were taken
+    final AtomicInteger owners = new AtomicInteger(); // threads changing the board, at most 1
+    final AtomicInteger finished = new AtomicInteger(); // players whose loop ended
+    volatile boolean broken; // set by a player that saw a check fail
+
+    // called by both players at the end, the second one checks the game
+    void finish() {
+      if (finished.incrementAndGet() == 2) {
+        check();
+      }
+    }
+
+    private void check() {
+      int status = turns.getStatus();
+      int count = turns.getMoves();
+      boolean valid = !broken && count <= squares.length && owners.get() == 0;
+      GameState replay = new GameState();
+      for (int m = 0; valid && m < count; m++) {
+        valid = !replay.isGameOver() && replay.isValidMove(squares[m]);
+        if (valid) {
+          replay.move(squares[m]);
+        }
+      }
+      for (int location = 0; valid && location < squares.length; location++) {
+        valid = replay.isOccupied(location) == state.isOccupied(location);
+      }
+      if (valid) {
+        valid = status == TurnState.OVER ? replay.isGameOver()
+          : status == TurnState.ABANDONED && !replay.isGameOver();
+      }
+      games.increment();
+      moves.add(count);
+      if (status == TurnState.ABANDONED) {
+        abandoned.increment();
+      }
+      if (!valid) {
+        corrupted.increment();
+      }
+    }
+  }
+}